@@ -0,0 +1,78 @@
+package project;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import project.message.RetryAfter;
+
+/**
+ * Bounds the requests a node works on at the same time, so overload is answered with explicit refusals (ERROR with RetryAfter)
+ * instead of growing queues, threads and latencies. The leader bounds the navigation requests processed at once,
+ * followers bound the requests forwarded to the leader and not yet answered, and stop forwarding for the time a refusal
+ * of the leader asked for (backOff), so the cluster sheds load at its edge.
+ */
+public class AdmissionControl {
+    private final int limit;
+    private final long retryAfter; // in milliseconds
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long closedUntil = Long.MIN_VALUE; // Util.monotonicMillis(), everything is refused until then
+
+    /**
+     * @param limit requests admitted at the same time
+     * @param retryAfter in milliseconds, wait time suggested to refused senders
+     */
+    public AdmissionControl(int limit, long retryAfter){
+        this.limit = limit;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Admits a request when less than limit requests are in flight and no back off is active. Admitted requests must be released.
+     * @return true when admitted, false when it has to be refused (see refusal)
+     */
+    public boolean tryAcquire(){
+        if(Util.monotonicMillis() < this.closedUntil){
+            this.rejected.incrementAndGet();
+            return false;
+        }
+        int current;
+        do {
+            current = this.inFlight.get();
+            if(current >= this.limit){
+                this.rejected.incrementAndGet();
+                return false;
+            }
+        } while(!this.inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    public void release(){
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Refuses everything for the given time, e.g. because the next node refused a request with a RetryAfter.
+     * @param millis
+     */
+    public void backOff(long millis){
+        long until = Util.monotonicMillis() + millis;
+        if(until > this.closedUntil){
+            this.closedUntil = until;
+        }
+    }
+
+    /**
+     * @param reason
+     * @return payload for the ERROR answer of a refused request, the suggested wait covers an active back off
+     */
+    public RetryAfter refusal(String reason){
+        long now = Util.monotonicMillis();
+        long wait = now < this.closedUntil ? Math.max(this.retryAfter, this.closedUntil - now) : this.retryAfter;
+        return new RetryAfter(wait, reason);
+    }
+
+    public int getLimit(){return this.limit;}
+    public int getInFlight(){return this.inFlight.get();}
+    public long getRejected(){return this.rejected.get();}
+}
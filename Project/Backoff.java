@@ -0,0 +1,62 @@
+package project;
+
+import java.util.Random;
+
+import project.message.RetryAfter;
+
+/**
+ * Wait times between the retries of a refused request: exponentially growing up to a maximum, with jitter,
+ * so many clients blocked by the same jam or refused by the same node do not send their retries at the same moment.
+ * Every wait is drawn between half and all of base * 2^retries (equal jitter). Not thread safe, one per requester.
+ */
+public class Backoff {
+    private final long base; // in milliseconds
+    private final long max; // in milliseconds
+    private final Random random;
+    private int retries = 0;
+
+    /**
+     * @param base in milliseconds, wait before the first retry
+     * @param max in milliseconds, longest wait
+     * @param random source of the jitter
+     */
+    public Backoff(long base, long max, Random random){
+        this.base = Math.max(1, base);
+        this.max = Math.max(this.base, max);
+        this.random = random;
+    }
+
+    /**
+     * @return in milliseconds, how long to wait before the next retry
+     */
+    public long next(){
+        long ceiling = this.max;
+        if(this.retries < 62 && this.base << this.retries < this.max && this.base << this.retries > 0){
+            ceiling = this.base << this.retries;
+        }
+        this.retries++;
+        long half = ceiling / 2;
+        return half + (long) (this.random.nextDouble() * (ceiling - half + 1));
+    }
+
+    /**
+     * @param error payload of the ERROR answer, a RetryAfter of an overloaded node is a lower bound of the wait
+     * @return in milliseconds, how long to wait before the next retry
+     */
+    public long next(Object error){
+        long wait = this.next();
+        if(error instanceof RetryAfter){
+            wait = Math.max(wait, ((RetryAfter) error).getMillis());
+        }
+        return wait;
+    }
+
+    /**
+     * The request was answered, the next refusal starts with the base wait again.
+     */
+    public void reset(){
+        this.retries = 0;
+    }
+
+    public int getRetries(){return this.retries;}
+}
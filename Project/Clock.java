@@ -0,0 +1,88 @@
+package project;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of time for everything that waits or measures time differences (timer wheel, failure detector, Util.sleep, latencies, ...).
+ * Normally the system clock. The cluster simulator replaces it with a virtual clock, so timeouts and heartbeats
+ * can be run faster than real time and independent of the speed of the machine.
+ * Threads of a device are started, and wait for each other, through the clock as well: the virtual clock runs them one at a time
+ * and only moves when all of them wait, which makes a simulation repeatable.
+ */
+public abstract class Clock {
+    private static volatile Clock current = new SystemClock();
+
+    /**
+     * @return milliseconds since an arbitrary origin, only usable for time differences
+     */
+    public abstract long millis();
+
+    /**
+     * @return nanoseconds since an arbitrary origin, only usable for time differences
+     */
+    public abstract long nanos();
+
+    public abstract void sleep(long milliseconds) throws InterruptedException;
+
+    /**
+     * Waits on monitor until another thread calls signal(monitor) or milliseconds passed, like Object.wait the caller holds monitor
+     * and checks its condition again afterwards.
+     * @param milliseconds 0 waits until signalled
+     */
+    public abstract void await(Object monitor, long milliseconds) throws InterruptedException;
+
+    /**
+     * Wakes all threads waiting on monitor, the caller holds monitor.
+     */
+    public abstract void signal(Object monitor);
+
+    /**
+     * Starts a thread of a device (handler, writer, timer, ...).
+     */
+    public abstract void start(Thread thread);
+
+    /**
+     * Interrupts a thread of a device, it leaves sleep or await with an InterruptedException.
+     */
+    public abstract void interrupt(Thread thread);
+
+    public static Clock get() {return current;}
+    public static void set(Clock clock) {current = clock;}
+
+    private static class SystemClock extends Clock {
+        @Override
+        public long millis(){
+            return System.nanoTime() / 1_000_000;
+        }
+
+        @Override
+        public long nanos(){
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long milliseconds) throws InterruptedException {
+            TimeUnit.MILLISECONDS.sleep(milliseconds);
+        }
+
+        @Override
+        public void await(Object monitor, long milliseconds) throws InterruptedException {
+            monitor.wait(milliseconds);
+        }
+
+        @Override
+        public void signal(Object monitor){
+            monitor.notifyAll();
+        }
+
+        @Override
+        public void start(Thread thread){
+            thread.start();
+        }
+
+        @Override
+        public void interrupt(Thread thread){
+            thread.interrupt();
+        }
+    }
+}
@@ -1,11 +1,95 @@
 package project;
 
 public class Config {
-    public static final long HEARTBEAT_INTERVAL = 1000; // in milliseconds
-    public static final long HEARTBEAT_TIMEOUT = 2000; // in milliseconds
+    public static final long HEARTBEAT_INTERVAL = 1000; // in milliseconds, heartbeats are only sent when the connection was idle this long
+    public static final long HEARTBEAT_CHECK_INTERVAL = 100; // in milliseconds, how often connections are checked for idleness and failure
+    public static final long LATENCY_REPORT_INTERVAL = 30000; // in milliseconds, how often the leader prints heartbeat latencies
+
+    //phi accrual failure detector, see PhiAccrualFailureDetector
+    public static final double PHI_THRESHOLD = 8.0;
+    public static final int PHI_MAX_SAMPLE_SIZE = 200;
+    public static final long PHI_MIN_STD_DEVIATION = HEARTBEAT_INTERVAL / 2; // in milliseconds, a share of the heartbeat interval: after a burst of traffic the idle heartbeats must not look overdue
+    public static final long PHI_ACCEPTABLE_PAUSE = 1000; // in milliseconds
+
+    //logging, see project.log.Log
+    public static final String LOG_LEVEL = "INFO"; // overridable with -Dlog.level=
+    public static final int LOG_BUFFER_SIZE = 8192; // entries of the async ring buffer, further entries are dropped
+    public static final int LOG_CONTROL_SAMPLE_RATE = 10; // only every n-th heartbeat / ack / node list message is logged
+    public static final long LOG_SHUTDOWN_TIMEOUT = 500; // in milliseconds, how long the JVM waits for pending log entries on exit
+
+    //transport between devices, see project.transport
+    public static final String TRANSPORT = "tcp"; // tcp or nio, overridable with -Dtransport=
+    public static final boolean TCP_NO_DELAY = true; // small messages are sent at once instead of waiting for acks of earlier ones (Nagle)
+    public static final int TCP_STREAM_RESET_INTERVAL = 1024; // messages, object streams are reset this often so they don't hold every sent message
+
+    //admission control, see AdmissionControl, refused requests are answered with ERROR and a RetryAfter
+    public static final int MAX_CONCURRENT_NAVIGATIONS = 32; // leader, navigation messages processed at the same time (waiting for the area included), overridable with -DmaxNavigations=
+    public static final int MAX_OUTSTANDING_REQUESTS = 1024; // follower, requests forwarded to the leader and not yet answered, overridable with -DmaxOutstanding=
+    public static final int MAX_OUTSTANDING_PER_CLIENT = 16; // follower, unanswered requests of one client connection
+    public static final int MAX_CLIENT_CONNECTIONS = 4096; // per node, further clients are refused when they initialize
+    public static final long RETRY_AFTER = 20; // in milliseconds, wait time suggested to refused senders
+    public static final int OUTBOUND_DATA_CAPACITY = 4096; // messages waiting on the data lane of a node to node connection (see OutboundQueue), further ones are dropped
+
+    //list of all known nodes, see Membership
+    public static final long MEMBERSHIP_SYNC_INTERVAL = 100; // in milliseconds, the leader sends the events of this time (joins, leaves, updates) to all followers in one message
+    public static final long MEMBERSHIP_DIGEST_INTERVAL = 1000; // in milliseconds, followers send the digest of their list this often, the leader answers with what is missing
+    public static final int MEMBERSHIP_LOG_SIZE = 1024; // events the leader keeps for followers that missed some, the others get the whole list
+
+    //load aware entry points, see NodeLoad and EntryPointSelector
+    public static final long LOAD_REPORT_INTERVAL = 1000; // in milliseconds, nodes measure their load this often, the leader passes it on as membership event
+    public static final boolean LOAD_AWARE_ENTRY_POINT = true; // clients move to the least loaded node instead of keeping the given entry point, overridable with -DloadAware=
+    public static final long REBALANCE_INTERVAL = 2000; // in milliseconds, clients check this often whether another entry point is less loaded
+    public static final float REBALANCE_MARGIN = 1.5f; // clients only move when their entry point is this many times as loaded as the other one
+    public static final int LEADER_DIRECT_CLIENTS = 64; // clients connect to the leader directly (no forwarding hop) while it has less clients and spare capacity
+
+    //clients, see Client.runNavigation and Backoff
+    public static final long CLIENT_RETRY_BASE = 10; // in milliseconds, wait before the first retry of a refused or unanswered request
+    public static final long CLIENT_RETRY_MAX = 1000; // in milliseconds, longest wait between two retries
+    public static final long CLIENT_STEP_TIMEOUT = 5000; // in milliseconds, a request not answered within is sent again, overridable with -DstepTimeout=
+    public static final long CLIENT_TRIP_TIMEOUT = 600000; // in milliseconds, the trip is abandoned when the destination is not reached within, overridable with -DtripTimeout=
+
+    //navigation requests followers forward to the leader, see project.follower.NavigationBatcher
+    public static final boolean NAVIGATION_BATCHING = true; // requests queued while the last batch was sent go to the leader as one NAVIGATION_BATCH, overridable with -DbatchNavigation=
+    public static final int NAVIGATION_BATCH_MAX = 256; // requests per NAVIGATION_BATCH
+
+    //next steps computed ahead while the vehicles drive, see Speculation
+    public static final boolean SPECULATION = false; // overridable with -Dspeculation=, pays off when the leader idles between requests, costs CPU when it is saturated
+    public static final int SPECULATION_BATCH = 64; // vehicles computed ahead per lock of the area, navigation requests wait at most for these
+
+    //optimistic moves, see project.follower.Replica and TrafficControlLogic.commit
+    public static final boolean OPTIMISTIC_MOVES = false; // followers compute the steps of their clients on a replica of the area, overridable with -DoptimisticMoves= (on every node)
+    public static final long REPLICA_SYNC_INTERVAL = 10; // in milliseconds, how often the leader sends the changes of its area to the replicas
+
+    //server push navigation, see project.leader.Subscriptions
+    public static final boolean NAVIGATION_SUBSCRIPTION = false; // clients subscribe once and get their steps pushed instead of asking for every step, overridable with -Dsubscribe=
+    public static final long SUBSCRIPTION_RETRY_INTERVAL = 50; // in milliseconds, a subscribed vehicle that could not move is tried again this often
+
+    //timer wheel used by every node for heartbeats and timeouts
+    public static final long TIMER_TICK = 10; // in milliseconds
+    public static final int TIMER_WHEEL_SIZE = 512;
 
     //field for navigation
     public static final short SIZE_X = 1000;
     public static final short SIZE_Y = 1000;
     public static final short MAX_PER_NODE = 2;
+    public static final String AREA_STORAGE = "dense"; // dense or tiled (for very large maps), overridable with -Darea=
+    public static final String ROAD_NETWORK = ""; // file with the roads of the map (see RoadNetwork.read), empty for an open grid, overridable with -Droads=
+
+    //congestion aware routing, see TrafficControlLogic.move and CongestionMap
+    public static final float CONGESTION_PENALTY = 2; // detour in cells a completely congested tile is worth, 0 drives greedily, overridable with -Dcongestion.penalty=
+    public static final long CONGESTION_DECAY_INTERVAL = 100; // in milliseconds, how often the historical density of the tiles is updated
+    public static final float CONGESTION_DECAY_KEEP = 0.9f; // share of the historical density kept per update (about one second memory)
+
+    //flow fields of popular destinations, see FlowFields
+    public static final boolean FLOW_FIELDS = true; // overridable with -DflowFields=
+    public static final int FLOW_FIELD_CAPACITY = 16; // destination tiles with a field, the least recently used one is replaced
+    public static final int FLOW_FIELD_MIN_REQUESTS = 256; // navigation requests per refresh interval until a destination tile gets a field
+    public static final long FLOW_FIELD_REFRESH_INTERVAL = 1000; // in milliseconds, fields are recomputed with the current congestion
+
+    //routes of the other destinations, see PathCache
+    public static final boolean PATH_CACHE = false; // overridable with -DpathCache=, pays off when many vehicles share lanes, thrashes when destinations are spread over a large map
+    public static final int PATH_CACHE_CAPACITY = 65536; // entries, one per (tile, destination tile)
+    public static final String PATH_CACHE_EVICTION = "LRU"; // LRU or LFU, overridable with -DpathCache.eviction=
+    public static final float PATH_CACHE_THRESHOLD = 0.25f; // share of the slots of a tile its occupancy may change until routes over it are dropped
+    public static final long PATH_CACHE_CHECK_INTERVAL = 100; // in milliseconds, how often the occupancy of the tiles is compared
 }
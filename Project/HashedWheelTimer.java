@@ -0,0 +1,152 @@
+package project;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed wheel timer. Every node owns exactly one of these and uses it for all delayed and periodic work
+ * (sending heartbeats, checking heartbeat timeouts, request timeouts, ...), so no connection needs a thread of its own just for sleeping.
+ * Scheduled tasks are sorted into the buckets of the wheel by their deadline. The worker thread wakes up once per tick
+ * and only runs the tasks of the current bucket, so the cost per tick does not depend on the number of scheduled tasks.
+ * Tasks are executed on the timer thread, so they have to be short and should not block.
+ */
+public class HashedWheelTimer extends Thread {
+    private final long tickDuration; // in milliseconds
+    private final LinkedList<Timeout>[] wheel;
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final long startTime = Util.monotonicMillis();
+    private long tick = 0;
+    private volatile boolean running = true;
+
+    /**
+     * @param tickDuration resolution of the timer in milliseconds
+     * @param wheelSize number of buckets. Tasks with a delay longer than tickDuration * wheelSize just need more rounds.
+     */
+    public HashedWheelTimer(long tickDuration, int wheelSize){
+        if(tickDuration <= 0 || wheelSize <= 0){
+            throw new IllegalArgumentException("Tick duration and wheel size must be positive.");
+        }
+        this.tickDuration = tickDuration;
+        @SuppressWarnings("unchecked") //generic arrays can't be created, every bucket is set to a LinkedList<Timeout> right below
+        LinkedList<Timeout>[] buckets = (LinkedList<Timeout>[]) new LinkedList<?>[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new LinkedList<Timeout>();
+        }
+        this.wheel = buckets;
+        this.setName("HashedWheelTimer");
+        this.setDaemon(true);
+    }
+
+    /**
+     * Runs task once after the given delay.
+     * @param task task to run on the timer thread
+     * @param delay in milliseconds
+     * @return handle which can be used to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay){
+        return this.schedule(task, delay, 0);
+    }
+
+    /**
+     * Runs task after initialDelay and then every period milliseconds until it is cancelled.
+     * @param task task to run on the timer thread
+     * @param initialDelay in milliseconds
+     * @param period in milliseconds, 0 for a task that only runs once
+     * @return handle which can be used to cancel the task
+     */
+    public Timeout schedule(Runnable task, long initialDelay, long period){
+        Timeout timeout = new Timeout(task, this.now() + Math.max(initialDelay, 0), period);
+        this.newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Worker loop. Sleeps until the next tick, sorts newly scheduled tasks into the wheel and runs all due tasks of the current bucket.
+     */
+    public void run(){
+        while(this.running){
+            long deadline = this.tickDuration * (this.tick + 1);
+            long sleepTime = deadline - this.now();
+            if(sleepTime > 0){
+                Util.sleep(sleepTime);
+                continue;
+            }
+            this.transferNewTimeouts();
+            this.expireTimeouts(this.wheel[(int) (this.tick % this.wheel.length)]);
+            this.tick++;
+        }
+    }
+
+    public void shutdown(){
+        this.running = false;
+        Clock.get().interrupt(this);
+    }
+
+    private void transferNewTimeouts(){
+        Timeout timeout;
+        while((timeout = this.newTimeouts.poll()) != null){
+            if(timeout.isCancelled()){
+                continue;
+            }
+            long dueTick = Math.max(timeout.deadline / this.tickDuration, this.tick); // never schedule into the past
+            timeout.remainingRounds = (dueTick - this.tick) / this.wheel.length;
+            this.wheel[(int) (dueTick % this.wheel.length)].add(timeout);
+        }
+    }
+
+    private void expireTimeouts(LinkedList<Timeout> bucket){
+        Iterator<Timeout> iterator = bucket.iterator();
+        while(iterator.hasNext()){
+            Timeout timeout = iterator.next();
+            if(timeout.isCancelled()){
+                iterator.remove();
+            }
+            else if(timeout.remainingRounds <= 0){
+                iterator.remove();
+                try {
+                    timeout.task.run();
+                } catch (Exception e) {
+                    System.err.println("Timer task failed: " + e.toString());
+                }
+                if(timeout.period > 0 && !timeout.isCancelled()){
+                    timeout.deadline = this.now() + timeout.period;
+                    this.newTimeouts.add(timeout);
+                }
+            }
+            else{
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds since the timer was created
+     */
+    private long now(){
+        return Util.monotonicMillis() - this.startTime;
+    }
+
+    /**
+     * Handle for a scheduled task.
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadline, long period){
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Task will not be run (again). Cancelled tasks are removed lazily when their bucket is visited.
+         */
+        public void cancel(){this.cancelled = true;}
+        public boolean isCancelled(){return this.cancelled;}
+    }
+}
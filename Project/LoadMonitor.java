@@ -0,0 +1,41 @@
+package project;
+
+import project.metrics.LatencyHistogram;
+import project.metrics.MetricsRegistry;
+
+/**
+ * Measures the NodeLoad of a node from its metrics. The latency is the mean of the requests recorded since the last measurement,
+ * so it follows the current load instead of the whole lifetime of the node. Only used by the one timer task that reports the load.
+ */
+public class LoadMonitor {
+    private final Node node;
+    private final LatencyHistogram latency;
+    private long lastCount = 0;
+    private long lastSum = 0;
+    private long lastLatency = 0;
+
+    /**
+     * @param node
+     * @param latencyMetric name of the latency histogram of the node, e.g. MetricsRegistry.NAVIGATION_SERVICE_TIME
+     */
+    public LoadMonitor(Node node, String latencyMetric) {
+        this.node = node;
+        this.latency = node.getMetrics().histogram(latencyMetric);
+    }
+
+    /**
+     * @return the current load, the latency of the last measurement is kept when no request was recorded since
+     */
+    public NodeLoad measure() {
+        long count = this.latency.getCount();
+        long sum = this.latency.getSum();
+        if(count > this.lastCount){
+            this.lastLatency = (sum - this.lastSum) / (count - this.lastCount);
+        }
+        this.lastCount = count;
+        this.lastSum = sum;
+        AdmissionControl admission = this.node.getAdmission();
+        int clients = (int) this.node.getMetrics().counter(MetricsRegistry.CONNECTIONS_CLIENTS).get();
+        return new NodeLoad(clients, admission == null ? 0 : admission.getInFlight(), admission == null ? 0 : admission.getLimit(), this.lastLatency);
+    }
+}
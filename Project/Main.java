@@ -2,6 +2,7 @@ package project;
 
 import project.client.Client;
 import project.helpers.Coordinate;
+import project.message.MessageType;
 
 public class Main {
     /**
@@ -73,6 +74,41 @@ public class Main {
                     printUsage();
                 }
             }
+            else if(args[0].equalsIgnoreCase("stats") || args[0].equalsIgnoreCase("s")){
+                if(args.length == 3 && args[2].contains(":")){
+                    String[] nodeAddress = args[2].split(":");
+                    Client client = new Client(ipAddress, port, null, null);
+                    client.setEntryPointIp(nodeAddress[0]);
+                    client.setEntryPointPort(Integer.parseInt(nodeAddress[1]));
+                    client.requestStats();
+                }
+                else{
+                    printUsage();
+                }
+            }
+            else if(args[0].equalsIgnoreCase("query") || args[0].equalsIgnoreCase("q")){
+                if(args.length >= 5 && args[2].contains(":")){
+                    String[] nodeAddress = args[2].split(":");
+                    Client client = new Client(ipAddress, port, null, null);
+                    client.setEntryPointIp(nodeAddress[0]);
+                    client.setEntryPointPort(Integer.parseInt(nodeAddress[1]));
+                    String[] first = args[4].split(":");
+                    if(args[3].equalsIgnoreCase("nearest") && args.length == 6){
+                        client.requestQuery(MessageType.NEAREST_QUERY, new int[]{Integer.parseInt(first[0]), Integer.parseInt(first[1]), Integer.parseInt(args[5])});
+                    }
+                    else if((args[3].equalsIgnoreCase("range") || args[3].equalsIgnoreCase("density")) && args.length == 6){
+                        String[] second = args[5].split(":");
+                        MessageType type = args[3].equalsIgnoreCase("range") ? MessageType.RANGE_QUERY : MessageType.DENSITY_QUERY;
+                        client.requestQuery(type, new int[]{Integer.parseInt(first[0]), Integer.parseInt(first[1]), Integer.parseInt(second[0]), Integer.parseInt(second[1])});
+                    }
+                    else{
+                        printUsage();
+                    }
+                }
+                else{
+                    printUsage();
+                }
+            }
             else{
                 printUsage();
             }
@@ -86,5 +122,7 @@ public class Main {
         System.out.println("main.java node 127.0.0.1:200 --> (leader)");
         System.out.println("main.java node 127.0.0.2:200 127.0.0.1:201 --> (follower)");
         System.out.println("main.java client 127.0.1.1:200 127.0.0.1:200 1:1 10:10 --> (client)");
+        System.out.println("main.java stats 127.0.1.1:200 127.0.0.1:201 --> (print metrics of a node)");
+        System.out.println("main.java query 127.0.1.1:200 127.0.0.1:201 range 0:0 10:10 --> (vehicles in a box, also density 0:0 10:10 and nearest 5:5 3)");
     }
 }
@@ -0,0 +1,210 @@
+package project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Versioned list of all known nodes (the allKnownNodes of the node). The leader owns the list: every join, leave and change
+ * of a node (role, load) is an event with the next version, kept in a log of the last logSize events. Followers get the events
+ * in batches (SYNC_NODE_LIST with a MembershipUpdate) instead of the whole list, and apply them in version order.
+ * Lost or skipped events are repaired by anti-entropy: followers send a digest of their list (MEMBERSHIP_DIGEST), the leader
+ * answers with the events since its version, or with the whole list when the log does not reach back that far or the lists differ.
+ * The list is copied on every change, so readers can iterate it without the lock.
+ */
+public class Membership {
+    private final Node node;
+    private final int logSize;
+    private final ArrayDeque<MembershipEvent> log = new ArrayDeque<MembershipEvent>(); // the last events, oldest first, only on the leader
+    private long version = 0;
+    private long checksum = 0; // see checksum(NodeSaver), kept up to date on every change
+    private long published = 0; // events up to this version were taken by takeUnpublished
+    private long publishedBefore = 0; // events up to this version were taken one call earlier, they should have arrived by now
+    private boolean urgent = false; // a node joined, left or changed its role since the last events were taken
+
+    /**
+     * @param node the node whose list of all known nodes is kept
+     * @param logSize events kept for followers that missed some, older ones are only repaired with the whole list
+     */
+    public Membership(Node node, int logSize) {
+        this.node = node;
+        this.logSize = logSize;
+    }
+
+    /**
+     * Leader: a node was registered, a node registered again with another role or port is updated.
+     */
+    public synchronized void join(NodeSaver joined) {
+        MembershipEvent.Type type = this.node.getAllKnownNodes().containsKey(joined.getIp()) ? MembershipEvent.Type.UPDATE : MembershipEvent.Type.JOIN;
+        this.record(type, joined.getIp(), joined.copy(), true);
+    }
+
+    /**
+     * Leader: a node was lost. Nothing happens for unknown nodes.
+     */
+    public synchronized void leave(String ip) {
+        if(this.node.getAllKnownNodes().containsKey(ip)){
+            this.record(MembershipEvent.Type.LEAVE, ip, null, true);
+        }
+    }
+
+    /**
+     * Leader: a known node reported its load. Nothing happens for unknown nodes.
+     */
+    public synchronized void setLoad(String ip, NodeLoad load) {
+        NodeSaver known = this.node.getAllKnownNodes().get(ip);
+        if(known != null){
+            NodeSaver updated = known.copy();
+            updated.setLoad(load);
+            this.record(MembershipEvent.Type.UPDATE, ip, updated, false);
+        }
+    }
+
+    /**
+     * @param urgent whether the followers should learn about it with the next events taken, see takeUnpublished
+     */
+    private void record(MembershipEvent.Type type, String ip, NodeSaver changed, boolean urgent) {
+        if(this.version == 0){
+            //the list was filled without events until now (the own entry, see Node)
+            this.checksum = 0;
+            for (NodeSaver known : this.node.getAllKnownNodes().values()) {
+                this.checksum += checksum(known);
+            }
+        }
+        this.change(ip, changed);
+        this.urgent |= urgent;
+        this.version++;
+        this.log.add(new MembershipEvent(this.version, type, ip, changed, this.checksum));
+        if(this.log.size() > this.logSize){
+            this.log.poll();
+        }
+    }
+
+    /**
+     * Leader: the events since the last events were taken, sent to every follower.
+     * @param all false to only take them when a node joined, left or changed its role, loads alone can wait
+     * @return null when nothing (urgent) changed
+     */
+    public synchronized MembershipUpdate takeUnpublished(boolean all) {
+        this.publishedBefore = this.published;
+        if(this.published == this.version || !all && !this.urgent){
+            return null;
+        }
+        MembershipUpdate update = this.eventsSince(this.published);
+        this.published = this.version;
+        this.urgent = false;
+        return update;
+    }
+
+    /**
+     * Leader: what a follower is missing.
+     * @param digest what the follower knows
+     * @return null when the follower is up to date or only misses events that are not or were just published (they are on their way),
+     * the events since its version when the log reaches back that far, otherwise the whole list
+     * (also for a follower without any version, one that knows a version the leader never had or whose list differs)
+     */
+    public synchronized MembershipUpdate since(MembershipDigest digest) {
+        long known = digest.getVersion();
+        if(known == this.version){
+            return digest.getChecksum() == this.checksum ? null : this.snapshot();
+        }
+        MembershipEvent oldest = this.log.peek();
+        if(known == 0 || known > this.version || oldest == null || known < oldest.getVersion()){
+            return this.snapshot();
+        }
+        for (MembershipEvent event : this.log) {
+            if(event.getVersion() == known && event.getChecksum() != digest.getChecksum()){
+                return this.snapshot();
+            }
+        }
+        return known >= this.publishedBefore ? null : this.eventsSince(known);
+    }
+
+    /**
+     * @return the whole list as full update, e.g. for a follower that just registered
+     */
+    public synchronized MembershipUpdate snapshot() {
+        ArrayList<MembershipEvent> events = new ArrayList<MembershipEvent>();
+        for (NodeSaver known : this.node.getAllKnownNodes().values()) {
+            events.add(new MembershipEvent(this.version, MembershipEvent.Type.JOIN, known.getIp(), known.copy(), this.checksum));
+        }
+        return new MembershipUpdate(true, this.version, events.toArray(new MembershipEvent[0]));
+    }
+
+    private MembershipUpdate eventsSince(long since) {
+        ArrayList<MembershipEvent> events = new ArrayList<MembershipEvent>();
+        for (MembershipEvent event : this.log) {
+            if(event.getVersion() > since){
+                events.add(event);
+            }
+        }
+        return new MembershipUpdate(false, this.version, events.toArray(new MembershipEvent[0]));
+    }
+
+    /**
+     * Follower: applies an update of the leader. Events the list already has are skipped.
+     * @return false when events are missing before the ones of the update or the list differs from the one of the leader
+     * after an event (nothing after that is applied), the follower should send its digest to get the missing events or the whole list
+     */
+    public synchronized boolean apply(MembershipUpdate update) {
+        if(update.isFull()){
+            HashMap<String, NodeSaver> nodes = new HashMap<String, NodeSaver>();
+            this.checksum = 0;
+            for (MembershipEvent event : update.getEvents()) {
+                nodes.put(event.getIp(), event.getNode().copy());
+                this.checksum += checksum(event.getNode());
+            }
+            this.node.setAllKnownNodes(nodes);
+            this.version = update.getVersion();
+            return true;
+        }
+        for (MembershipEvent event : update.getEvents()) {
+            if(event.getVersion() <= this.version){
+                continue;
+            }
+            if(event.getVersion() != this.version + 1){
+                return false;
+            }
+            this.change(event.getIp(), event.getNode() == null ? null : event.getNode().copy());
+            this.version = event.getVersion();
+            if(this.checksum != event.getChecksum()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * replaces (or with null removes) the entry of a node in a copy of the list
+     */
+    private void change(String ip, NodeSaver changed) {
+        HashMap<String, NodeSaver> nodes = new HashMap<String, NodeSaver>(this.node.getAllKnownNodes());
+        NodeSaver old = changed == null ? nodes.remove(ip) : nodes.put(ip, changed);
+        if(old != null){
+            this.checksum -= checksum(old);
+        }
+        if(changed != null){
+            this.checksum += checksum(changed);
+        }
+        this.node.setAllKnownNodes(nodes);
+    }
+
+    /**
+     * @return what this node knows, for the leader to compare
+     */
+    public synchronized MembershipDigest digest() {
+        return new MembershipDigest(this.version, this.checksum);
+    }
+
+    /**
+     * The checksum of a list is the sum of this hash of ip, port and role of every node: independent of the order of the nodes and
+     * changed in constant time. Loads are left out, they change all the time and are sent again with the next report anyway.
+     */
+    private static long checksum(NodeSaver known) {
+        long hash = ((long) known.getIp().hashCode() * 31 + known.getPort()) * 31 + known.getRole().ordinal();
+        hash *= 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    public synchronized long getVersion() {return this.version;}
+}
@@ -0,0 +1,25 @@
+package project;
+
+import java.io.Serializable;
+
+/**
+ * Payload of MEMBERSHIP_DIGEST: what a follower knows of the list of all known nodes, in a few bytes instead of the list.
+ * The leader answers with what is missing (see Membership.since).
+ */
+public class MembershipDigest implements Serializable {
+    private final long version;
+    private final long checksum; // see Membership.checksum, independent of the order of the nodes and of their loads
+
+    public MembershipDigest(long version, long checksum) {
+        this.version = version;
+        this.checksum = checksum;
+    }
+
+    public long getVersion() {return this.version;}
+    public long getChecksum() {return this.checksum;}
+
+    @Override
+    public String toString() {
+        return "version " + this.version + ", checksum " + Long.toHexString(this.checksum);
+    }
+}
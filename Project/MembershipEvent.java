@@ -0,0 +1,40 @@
+package project;
+
+import java.io.Serializable;
+
+/**
+ * One change of the list of all known nodes with the version of the list it led to, see Membership.
+ * Never changed after it was created, the NodeSaver is a copy of its own.
+ */
+public class MembershipEvent implements Serializable {
+    public enum Type {
+        JOIN, // a node was registered
+        LEAVE, // a node was lost or left
+        UPDATE // role, port or load of a known node changed
+    }
+
+    private final long version;
+    private final Type type;
+    private final String ip;
+    private final NodeSaver node; // null for LEAVE
+    private final long checksum; // of the list after this event, see Membership.checksum
+
+    public MembershipEvent(long version, Type type, String ip, NodeSaver node, long checksum) {
+        this.version = version;
+        this.type = type;
+        this.ip = ip;
+        this.node = node;
+        this.checksum = checksum;
+    }
+
+    public long getVersion() {return this.version;}
+    public Type getType() {return this.type;}
+    public String getIp() {return this.ip;}
+    public NodeSaver getNode() {return this.node;}
+    public long getChecksum() {return this.checksum;}
+
+    @Override
+    public String toString() {
+        return this.version + " " + this.type + " " + this.ip;
+    }
+}
@@ -0,0 +1,29 @@
+package project;
+
+import java.io.Serializable;
+
+/**
+ * Payload of SYNC_NODE_LIST: events of the list of all known nodes in version order (see Membership).
+ * A full update lists every node as JOIN at the version of the list, the receiver drops everything it knew before.
+ * Never changed after it was created, so one update can be sent to every follower.
+ */
+public class MembershipUpdate implements Serializable {
+    private final boolean full;
+    private final long version; // version of the list after the update
+    private final MembershipEvent[] events;
+
+    public MembershipUpdate(boolean full, long version, MembershipEvent[] events) {
+        this.full = full;
+        this.version = version;
+        this.events = events;
+    }
+
+    public boolean isFull() {return this.full;}
+    public long getVersion() {return this.version;}
+    public MembershipEvent[] getEvents() {return this.events;}
+
+    @Override
+    public String toString() {
+        return (this.full ? "full list of " : "") + this.events.length + (this.full ? " nodes" : " events") + " up to version " + this.version;
+    }
+}
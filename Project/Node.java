@@ -7,6 +7,8 @@ import java.util.HashMap;
 import project.follower.Follower;
 import project.helpers.*;
 import project.leader.Leader;
+import project.metrics.MetricsRegistry;
+import project.transport.Transport;
 
 /**
  * Node is the class for Leaders as well as followers. It handles the state of every node depending on its connections and errors.
@@ -19,9 +21,14 @@ public class Node extends Thread{
     private LocalDateTime lastHeartBeat;
     private TrafficArea area;
     private TrafficControlLogic logic;
+    private AdmissionControl admission; //bounds the requests in flight, set by Leader and Follower
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private Transport transport = Transport.fromConfig(); //how connections to other devices are opened, replaced by the simulator
+    private HashedWheelTimer timer = new HashedWheelTimer(Config.TIMER_TICK, Config.TIMER_WHEEL_SIZE); //shared by all connections of this node
 
     private String pathForBackUp;
-    private HashMap<String, NodeSaver> allKnownNodes = new HashMap<String, NodeSaver>();
+    private volatile HashMap<String, NodeSaver> allKnownNodes = new HashMap<String, NodeSaver>(); //replaced on every change, see Membership
+    private Membership membership = new Membership(this, Config.MEMBERSHIP_LOG_SIZE);
 
     private String leaderIp;
     private int leaderPort;
@@ -32,10 +39,12 @@ public class Node extends Thread{
         this.ip = ip;
         this.port = port;
         this.allKnownNodes.put(this.ip, new NodeSaver(this.role, this.ip, this.port));
+        this.metrics.registerMBean(this.ip);
     }
 
     @Override
     public void run(){
+        Clock.get().start(this.timer);
         while(true){
             if(this.role == Role.FOLLOWER){
                 this.run_follower();
@@ -56,21 +65,23 @@ public class Node extends Thread{
     */
     private void run_follower(){
         Follower follower = new Follower(this, this.leaderIp, this.leaderPort);
-        follower.start();
+        Clock.get().start(follower);
         this.waitForRoleChange(Role.FOLLOWER);
         try {
-            follower.getConnectionToLeader().getSocket().close();
+            if(follower.getConnectionToLeader() != null){
+                follower.getConnectionToLeader().getConnection().close();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
-        follower.interrupt();
+        Clock.get().interrupt(follower);
     }
 
     private void run_leader() {
         Leader leader = new Leader(this, this.ip, 201);
-        leader.start();
+        Clock.get().start(leader);
         this.waitForRoleChange(Role.LEADER);
-        leader.interrupt();
+        Clock.get().interrupt(leader);
     }
 
     /**
@@ -109,15 +120,33 @@ public class Node extends Thread{
     public void setLastHeartBeat(LocalDateTime lastHeartBeat) {this.lastHeartBeat = lastHeartBeat;}
     public TrafficControlLogic getLogic() {return this.logic;}
     public void setLogic(TrafficControlLogic logic) {this.logic = logic;}
+    public AdmissionControl getAdmission() {return this.admission;}
+    public void setAdmission(AdmissionControl admission) {this.admission = admission;}
     public String getPathForBackUp() {return this.pathForBackUp;}
     public void setPathForBackUp(String pathForBackUp) {this.pathForBackUp = pathForBackUp;}
     public HashMap<String, NodeSaver> getAllKnownNodes() {return this.allKnownNodes;}
     public void setAllKnownNodes(HashMap<String, NodeSaver> allKnownNodes) {this.allKnownNodes = allKnownNodes;}
     public void addToAllKnownNodes(String key, NodeSaver toAdd){this.allKnownNodes.put(key, toAdd);}
+
+    /**
+     * @return a new map with copies of all known nodes, e.g. for sending it
+     */
+    public HashMap<String, NodeSaver> copyOfAllKnownNodes(){
+        HashMap<String, NodeSaver> copy = new HashMap<String, NodeSaver>();
+        for (NodeSaver node : this.allKnownNodes.values().toArray(new NodeSaver[0])) {
+            copy.put(node.getIp(), node.copy());
+        }
+        return copy;
+    }
+    public Membership getMembership() {return this.membership;}
     public String getLeaderIp() {return this.leaderIp;}
     public void setLeaderIp(String leaderIp) {this.leaderIp = leaderIp;}
     public int getLeaderPort() {return this.leaderPort;}
     public void setLeaderPort(int leaderPort) {this.leaderPort = leaderPort;}
     public TrafficArea getArea() {return this.area;}
     public void setArea(TrafficArea area) {this.area = area;}
+    public HashedWheelTimer getTimer() {return this.timer;}
+    public MetricsRegistry getMetrics() {return this.metrics;}
+    public Transport getTransport() {return this.transport;}
+    public void setTransport(Transport transport) {this.transport = transport;}
 }
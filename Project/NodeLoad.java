@@ -0,0 +1,46 @@
+package project;
+
+import java.io.Serializable;
+
+/**
+ * How busy a node is, advertised with the node list (see NodeSaver) so clients can choose the least loaded entry point.
+ * Measured by a LoadMonitor of the node every Config.LOAD_REPORT_INTERVAL, never changed after that.
+ */
+public class NodeLoad implements Serializable {
+    private final int clients; // connected clients
+    private final int inFlight; // requests in work, see AdmissionControl
+    private final int capacity; // admission limit of inFlight
+    private final long latency; // in microseconds, mean over the last interval: navigation service time of the leader, forward latency of followers
+
+    public NodeLoad(int clients, int inFlight, int capacity, long latency) {
+        this.clients = clients;
+        this.inFlight = inFlight;
+        this.capacity = capacity;
+        this.latency = latency;
+    }
+
+    /**
+     * @return estimated waiting of one more client: the work at the node (clients and requests in flight) times the time per request,
+     * lower is better, only comparable between nodes of the same role
+     */
+    public long getScore() {
+        return (this.clients + this.inFlight + 1L) * Math.max(1, this.latency);
+    }
+
+    /**
+     * @return true when less than half of the admission limit is in use
+     */
+    public boolean hasSpareCapacity() {
+        return this.inFlight * 2 < this.capacity;
+    }
+
+    public int getClients() {return this.clients;}
+    public int getInFlight() {return this.inFlight;}
+    public int getCapacity() {return this.capacity;}
+    public long getLatency() {return this.latency;}
+
+    @Override
+    public String toString() {
+        return "clients=" + this.clients + " inFlight=" + this.inFlight + "/" + this.capacity + " latency=" + this.latency + "us";
+    }
+}
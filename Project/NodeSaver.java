@@ -1,11 +1,14 @@
 package project;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 public class NodeSaver implements Serializable {
     private Role role;
     private String ip;
     private int port;
+    private NodeLoad load; // last reported load, null until the node reported one
 
     public NodeSaver(Role role, String ip, int port) {
         this.role = role;
@@ -13,6 +16,34 @@ public class NodeSaver implements Serializable {
         this.port = port;
     }
 
+    /**
+     * @return a new NodeSaver with the same content. Sent node lists consist of copies,
+     * so later changes (e.g. a new load) are not lost to object streams that already sent the original.
+     */
+    public NodeSaver copy() {
+        NodeSaver copy = new NodeSaver(this.role, this.ip, this.port);
+        copy.load = this.load;
+        return copy;
+    }
+
+    /**
+     * Reads the node list of a NODE_LIST answer (ip to NodeSaver) without an unchecked cast.
+     * @param payload payload of the answer
+     * @return a typed copy of the list, entries that are no nodes are skipped, null when the payload is no map
+     */
+    public static HashMap<String, NodeSaver> fromNodeList(Object payload) {
+        if(!(payload instanceof Map)){
+            return null;
+        }
+        HashMap<String, NodeSaver> nodes = new HashMap<String, NodeSaver>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) payload).entrySet()) {
+            if(entry.getKey() instanceof String && entry.getValue() instanceof NodeSaver){
+                nodes.put((String) entry.getKey(), (NodeSaver) entry.getValue());
+            }
+        }
+        return nodes;
+    }
+
     public Role getRole() {
         return this.role;
     }
@@ -37,5 +68,13 @@ public class NodeSaver implements Serializable {
         this.port = port;
     }
 
+    public NodeLoad getLoad() {
+        return this.load;
+    }
+
+    public void setLoad(NodeLoad load) {
+        this.load = load;
+    }
+
 
 }
@@ -0,0 +1,106 @@
+package project;
+
+import java.util.ArrayDeque;
+
+/**
+ * Adaptive failure detector after Hayashibara et al. ("The phi accrual failure detector").
+ * Instead of a fixed timeout it keeps a sliding window of the inter-arrival times of messages on a connection
+ * and outputs a suspicion level phi. phi = 1 means a 10% chance that the opponent is still alive, phi = 2 means 1% and so on.
+ * Every received message counts as sign of life, so explicit heartbeats are only needed on otherwise idle connections.
+ */
+public class PhiAccrualFailureDetector {
+    private final double threshold;
+    private final int maxSampleSize;
+    private final long minStdDeviation; // in milliseconds
+    private final long acceptablePause; // in milliseconds
+
+    private final ArrayDeque<Long> intervals = new ArrayDeque<Long>();
+    private long intervalSum = 0;
+    private long intervalSquaredSum = 0;
+    private long lastArrival = -1;
+
+    /**
+     * @param threshold phi above which the opponent is considered dead
+     * @param maxSampleSize number of inter-arrival times kept for the estimation
+     * @param minStdDeviation lower bound for the standard deviation, so very regular or very fast traffic does not make the detector hypersensitive.
+     * Should be a share of the heartbeat interval: after a burst of messages the window only holds short intervals, and the next signs of life
+     * are heartbeats coming once per heartbeat interval
+     * @param acceptablePause additional pause that is tolerated on top of the mean interval, e.g. when traffic drops to idle heartbeats
+     * @param firstInterval expected (nominal) interval, the window is seeded with it, so phi can be calculated from the first message on
+     */
+    public PhiAccrualFailureDetector(double threshold, int maxSampleSize, long minStdDeviation, long acceptablePause, long firstInterval){
+        this.threshold = threshold;
+        this.maxSampleSize = maxSampleSize;
+        this.minStdDeviation = minStdDeviation;
+        this.acceptablePause = acceptablePause;
+        // bootstrap the window with the nominal interval, spread by the smallest standard deviation (like real heartbeats arriving a bit early or late)
+        long stdDeviation = Math.min(minStdDeviation, firstInterval);
+        this.addInterval(firstInterval - stdDeviation);
+        this.addInterval(firstInterval + stdDeviation);
+    }
+
+    /**
+     * Creates a detector with the values of the Config class.
+     */
+    public PhiAccrualFailureDetector(){
+        this(Config.PHI_THRESHOLD, Config.PHI_MAX_SAMPLE_SIZE, Config.PHI_MIN_STD_DEVIATION, Config.PHI_ACCEPTABLE_PAUSE, Config.HEARTBEAT_INTERVAL);
+    }
+
+    /**
+     * Records the arrival of a message (any message, not only heartbeats).
+     */
+    public synchronized void heartbeat(){
+        long now = Util.monotonicMillis();
+        if(this.lastArrival >= 0){
+            this.addInterval(now - this.lastArrival);
+        }
+        this.lastArrival = now;
+    }
+
+    /**
+     * @return suspicion level for the opponent, 0 as long as nothing has been received yet
+     */
+    public synchronized double phi(){
+        if(this.lastArrival < 0){
+            return 0.0;
+        }
+        long timeDiff = Util.monotonicMillis() - this.lastArrival;
+        int size = this.intervals.size();
+        double mean = (double) this.intervalSum / size;
+        double variance = (double) this.intervalSquaredSum / size - mean * mean;
+        double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0)), this.minStdDeviation);
+        return phi(timeDiff, mean + this.acceptablePause, stdDeviation);
+    }
+
+    public boolean isAvailable(){
+        return this.phi() < this.threshold;
+    }
+
+    /**
+     * Logistic approximation of the cumulative normal distribution, -log10 of the probability that the next
+     * message arrives even later than timeDiff.
+     */
+    private static double phi(long timeDiff, double mean, double stdDeviation){
+        double y = (timeDiff - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if(timeDiff > mean){
+            return -Math.log10(e / (1.0 + e));
+        }
+        else{
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
+    private void addInterval(long interval){
+        if(this.intervals.size() >= this.maxSampleSize){
+            long dropped = this.intervals.poll();
+            this.intervalSum -= dropped;
+            this.intervalSquaredSum -= dropped * dropped;
+        }
+        this.intervals.add(interval);
+        this.intervalSum += interval;
+        this.intervalSquaredSum += interval * interval;
+    }
+
+    public double getThreshold() {return this.threshold;}
+}
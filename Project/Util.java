@@ -1,5 +1,4 @@
 package project;
-import java.util.concurrent.TimeUnit;
 
 public abstract class Util {
     
@@ -9,9 +8,25 @@ public abstract class Util {
      */
     public static void sleep(long milliseconds){
         try {
-            TimeUnit.MILLISECONDS.sleep(milliseconds);
+            Clock.get().sleep(milliseconds);
         } catch (InterruptedException e) {
             System.err.println(e.toString());
         }
     }
+
+    /**
+     * monotonic clock in milliseconds, only usable for measuring time differences
+     * @return milliseconds since an arbitrary origin
+     */
+    public static long monotonicMillis(){
+        return Clock.get().millis();
+    }
+
+    /**
+     * monotonic clock in nanoseconds, only usable for measuring time differences (latencies)
+     * @return nanoseconds since an arbitrary origin
+     */
+    public static long monotonicNanos(){
+        return Clock.get().nanos();
+    }
 }
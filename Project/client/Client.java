@@ -1,14 +1,24 @@
 package project.client;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 
+import project.Backoff;
+import project.Clock;
+import project.Config;
+import project.NodeSaver;
 import project.Util;
 import project.helpers.Coordinate;
 import project.message.Message;
 import project.message.MessageType;
+import project.log.Log;
+import project.log.LogLevel;
+import project.transport.Connection;
+import project.transport.Transport;
 
 public class Client extends Thread{
     private String ip;
@@ -21,6 +31,18 @@ public class Client extends Thread{
     private Coordinate position;
 
     private ClientNodeMessageHandler messageHandler;
+    private Transport transport = Transport.fromConfig();
+    private boolean subscribe = Boolean.parseBoolean(System.getProperty("subscribe", String.valueOf(Config.NAVIGATION_SUBSCRIPTION)));
+    private long stepTimeout = Long.parseLong(System.getProperty("stepTimeout", String.valueOf(Config.CLIENT_STEP_TIMEOUT)));
+    private long tripTimeout = Long.parseLong(System.getProperty("tripTimeout", String.valueOf(Config.CLIENT_TRIP_TIMEOUT)));
+    private boolean abandoned = false;
+    private boolean loadAware = Boolean.parseBoolean(System.getProperty("loadAware", String.valueOf(Config.LOAD_AWARE_ENTRY_POINT)));
+    private EntryPointSelector selector;
+    private Random random; // jitter of the rebalancing, seeded with the ip so simulated runs repeat
+    private long nextRebalance = 0; // Util.monotonicMillis()
+    private HashMap<String, NodeSaver> knownNodes; // the last node list of an entry point, null until rebalance got one
+    private long sequence = 0; // of the last numbered request, see numbered
+    private long tripDeadline; // Util.monotonicMillis(), tripTimeout after the client started
 
     /**
      * Clients represent the users of the navigation system. They have a starting point and a destination.
@@ -38,54 +60,349 @@ public class Client extends Thread{
     
     /**
      * Executes the client multithreaded. First, the client will initialize itself with the given entry point.
+     * With load aware entry points it moves to the least loaded node of the node list of the entry point (see EntryPointSelector).
      * After this, it will loop the navigation message send until the client has arrived at the destination.
      */
     public void run(){
+        this.tripDeadline = Util.monotonicMillis() + this.tripTimeout;
         try {
-            Socket entryPointSocket = new Socket(this.entryPointIp, this.entryPointPort); 
-            this.messageHandler = new ClientNodeMessageHandler(entryPointSocket, this.ip, this.port, this);
-            this.messageHandler.start();
-            while(this.messageHandler.getIsInited() == false){
-                Util.sleep(100);
+            if(!this.connect(this.entryPointIp)){
+                this.abandoned = true;
+                Log.log(LogLevel.WARN, "{} abandoned its trip, {} did not accept it within the trip timeout", this.ip, this.entryPointIp);
+                return;
             }
             Util.sleep(500);
-            this.runNavigation();
+            if(this.loadAware){
+                this.random = new Random(this.ip.hashCode());
+                this.selector = new EntryPointSelector(this.random);
+                this.rebalance();
+            }
+            if(this.subscribe){
+                this.runSubscription();
+            }
+            else{
+                this.runNavigation();
+            }
+
+        } catch (IOException e) {
+            Log.log(LogLevel.ERROR, "{}: connecting to leader failed: {}", this.ip, e);
+        }
+    }
+
+    /**
+     * Connects to the entry point and registers with it. A node with too many clients refuses the client with a RetryAfter and
+     * closes the connection, the client connects again after the wait (see Backoff) until the trip deadline.
+     * @param entryPointIp all nodes accept clients on entryPointPort
+     * @return false when the entry point did not accept the client before the trip deadline
+     * @throws IOException when the entry point can't be reached
+     */
+    private boolean connect(String entryPointIp) throws IOException{
+        Backoff backoff = new Backoff(Config.CLIENT_RETRY_BASE, Config.CLIENT_RETRY_MAX, new Random(this.ip.hashCode()));
+        while(true){
+            Connection entryPointConnection = this.transport.connect(entryPointIp, this.entryPointPort);
+            this.entryPointIp = entryPointIp;
+            this.messageHandler = new ClientNodeMessageHandler(entryPointConnection, this.ip, this.port, this);
+            if(this.messageHandler.getIsInited()){
+                Clock.get().start(this.messageHandler);
+                return true;
+            }
+            entryPointConnection.close();
+            long wait = backoff.next(this.messageHandler.getInitError());
+            if(Util.monotonicMillis() + wait >= this.tripDeadline){
+                return false;
+            }
+            Log.log(LogLevel.DEBUG, "{} connects to {} again in {} ms", this.ip, entryPointIp, wait);
+            Util.sleep(wait);
+        }
+    }
+
+    /**
+     * Asks the entry point for the node list with the loads and moves to another node when the EntryPointSelector says so.
+     * Called between two requests, so no answer can be lost. The next check is after about Config.REBALANCE_INTERVAL,
+     * the time is jittered so clients do not all move with the same loads.
+     */
+    private void rebalance(){
+        this.nextRebalance = Util.monotonicMillis() + Config.REBALANCE_INTERVAL / 2 + (long) (this.random.nextDouble() * Config.REBALANCE_INTERVAL);
+        HashMap<String, NodeSaver> nodes = this.requestNodeList();
+        if(nodes == null){
+            return;
+        }
+        this.knownNodes = nodes;
+        NodeSaver candidate = this.selector.choose(nodes.values());
+        if(!this.selector.shouldMove(nodes.get(this.entryPointIp), candidate)){
+            return;
+        }
+        String previous = this.entryPointIp;
+        Log.log(LogLevel.INFO, "{} moves from {} to {}", this.ip, previous, candidate.getIp());
+        try {
+            this.messageHandler.getConnection().close();
+            if(this.connect(candidate.getIp())){
+                return;
+            }
+            Log.log(LogLevel.WARN, "{}: {} did not accept it", this.ip, candidate.getIp());
+        } catch (IOException e) {
+            Log.log(LogLevel.WARN, "{}: moving to {} failed: {}", this.ip, candidate.getIp(), e);
+        }
+        try {
+            this.connect(previous);
+        } catch (IOException e1) {
+            Log.log(LogLevel.ERROR, "{}: connecting back to {} failed: {}", this.ip, previous, e1);
+        }
+    }
 
+    /**
+     * The connection to the entry point was closed, e.g. the node is gone. The client connects to it again,
+     * with load aware entry points it moves to another node of the last node list when that fails.
+     * @return false when no node accepted the client, the trip is then abandoned right away instead of waiting for the trip deadline
+     */
+    private boolean reconnect(){
+        String lost = this.entryPointIp;
+        try {
+            if(this.connect(lost)){
+                return true;
+            }
+        } catch (IOException e) {
+            Log.log(LogLevel.INFO, "{}: connection to {} lost: {}", this.ip, lost, e);
+        }
+        if(!this.loadAware || this.knownNodes == null){
+            return false;
+        }
+        HashMap<String, NodeSaver> others = new HashMap<String, NodeSaver>(this.knownNodes);
+        others.remove(lost);
+        NodeSaver candidate = this.selector.choose(others.values());
+        if(candidate == null){
+            return false;
+        }
+        Log.log(LogLevel.INFO, "{} moves from {} to {}", this.ip, lost, candidate.getIp());
+        try {
+            return this.connect(candidate.getIp());
         } catch (IOException e) {
-            System.out.println(this.ip + ": connecting to leader failed");
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: moving to {} failed: {}", this.ip, candidate.getIp(), e);
+            return false;
         }
     }
 
+    /**
+     * @return the node list of the entry point, null when it was not answered within stepTimeout
+     */
+    private HashMap<String, NodeSaver> requestNodeList(){
+        this.messageHandler.sendMessage(this.numbered(new Message(this.ip, this.entryPointIp, "node list", MessageType.NODE_LIST)));
+        long deadline = Util.monotonicMillis() + this.stepTimeout;
+        while(this.messageHandler.getLastAnswer() == null && this.messageHandler.getLastError() == null && Util.monotonicMillis() < deadline){
+            Util.sleep(1);
+        }
+        Object answer = this.messageHandler.getLastAnswer();
+        this.messageHandler.setLastAnswer(null);
+        this.messageHandler.setLastError(null);
+        HashMap<String, NodeSaver> nodes = NodeSaver.fromNodeList(answer);
+        if(nodes != null){
+            return nodes;
+        }
+        Log.log(LogLevel.DEBUG, "{}: no node list from {}", this.ip, this.entryPointIp);
+        return null;
+    }
+
+    /**
+     * Gives the request the next sequence number. Until the next numbered request only its answer is taken,
+     * so a late answer to a request sent again after the step timeout is not taken for the answer of the following step.
+     */
+    private Message numbered(Message request){
+        this.sequence++;
+        request.setSequence(this.sequence);
+        this.messageHandler.expectAnswer(this.sequence);
+        return request;
+    }
+
     /**
      * Sends request to the already initialized entry point of the system.
-     * Repeats until arrival at destination.
+     * Repeats until arrival at destination. Errors (blocked cell, overloaded node) and requests without an answer within stepTimeout
+     * are sent again after a jittered, exponentially growing wait (see Backoff), at least as long as a RetryAfter of the node asked for.
+     * Every request is numbered, late answers to earlier ones are dropped (see numbered).
+     * A lost connection to the entry point is noticed right away, the client connects again or abandons the trip (see reconnect).
+     * The trip is abandoned when the destination is not reached within tripTimeout.
      */
     private void runNavigation(){
         Instant start = Instant.now();
+        long tripDeadline = this.tripDeadline;
+        Backoff backoff = new Backoff(Config.CLIENT_RETRY_BASE, Config.CLIENT_RETRY_MAX, new Random(this.ip.hashCode()));
         while(!this.destination.compare(this.position)){
+            if(Util.monotonicMillis() >= tripDeadline){
+                this.abandon(start);
+                return;
+            }
+            if(this.loadAware && Util.monotonicMillis() >= this.nextRebalance){
+                this.rebalance();
+            }
             Coordinate[] payload = new Coordinate[2];
             payload[0] = this.position;
             payload[1] = this.destination;
 
-            this.messageHandler.sendMessage(new Message(this.ip, this.entryPointIp, payload, MessageType.NAVIGATION));
-            while(this.messageHandler.getLastAnswer() == null){
+            this.messageHandler.sendMessage(this.numbered(new Message(this.ip, this.entryPointIp, payload, MessageType.NAVIGATION)));
+            long stepDeadline = Math.min(Util.monotonicMillis() + this.stepTimeout, tripDeadline);
+            while(this.messageHandler.getLastAnswer() == null && this.messageHandler.getLastError() == null && Util.monotonicMillis() < stepDeadline
+                    && !this.messageHandler.getConnection().isClosed()){
                 Util.sleep(1);
             }
+            if(this.messageHandler.getLastAnswer() == null && this.messageHandler.getLastError() == null && this.messageHandler.getConnection().isClosed()){
+                if(!this.reconnect()){
+                    this.abandon(start);
+                    return;
+                }
+                continue;
+            }
+            if(this.messageHandler.getLastAnswer() == null){
+                Object error = this.messageHandler.getLastError();
+                this.messageHandler.setLastError(null);
+                long wait = backoff.next(error);
+                if(Log.isEnabled(LogLevel.DEBUG)){
+                    Log.log(LogLevel.DEBUG, "{} retries in {} ms: {}", this.ip, wait, error == null ? "no answer" : Log.snapshot(error));
+                }
+                Util.sleep(Math.max(0, Math.min(wait, tripDeadline - Util.monotonicMillis())));
+                continue;
+            }
+            backoff.reset();
             Coordinate nextStep = (Coordinate) this.messageHandler.getLastAnswer();
             this.messageHandler.setLastAnswer(null);
-            System.out.println("Next Step: x: " + nextStep.getX() + " y: " + nextStep.getY());
+            Log.log(LogLevel.DEBUG, "{} next step: {}", this.ip, nextStep);
             this.position = nextStep;
         }
+        this.arrived(start);
+    }
+
+    /**
+     * Subscribes once with position and destination, the leader pushes every next step (see project.leader.Subscriptions).
+     * Arrival at every cell is acknowledged, which lets the leader compute the next step.
+     * Blocked vehicles are retried by the leader, so there is no step timeout. An ERROR ends the subscription, the client subscribes
+     * again after a wait like in runNavigation, also after connecting again when the connection was lost (see reconnect).
+     * The trip is abandoned when the destination is not reached within tripTimeout.
+     */
+    private void runSubscription(){
+        Instant start = Instant.now();
+        long tripDeadline = this.tripDeadline;
+        Backoff backoff = new Backoff(Config.CLIENT_RETRY_BASE, Config.CLIENT_RETRY_MAX, new Random(this.ip.hashCode()));
+        this.messageHandler.expectAnswer(0); //steps are pushed, they answer no numbered request
+        if(!this.destination.compare(this.position)){
+            Coordinate[] payload = {this.position, this.destination};
+            this.messageHandler.sendMessage(new Message(this.ip, this.entryPointIp, payload, MessageType.SUBSCRIBE));
+        }
+        while(!this.destination.compare(this.position)){
+            while(this.messageHandler.getLastAnswer() == null && this.messageHandler.getLastError() == null && Util.monotonicMillis() < tripDeadline
+                    && !this.messageHandler.getConnection().isClosed()){
+                Util.sleep(1);
+            }
+            if(this.messageHandler.getLastAnswer() == null && this.messageHandler.getLastError() == null && this.messageHandler.getConnection().isClosed()){
+                if(!this.reconnect()){
+                    this.abandon(start);
+                    return;
+                }
+                Coordinate[] payload = {this.position, this.destination};
+                this.messageHandler.sendMessage(new Message(this.ip, this.entryPointIp, payload, MessageType.SUBSCRIBE));
+                continue;
+            }
+            if(this.messageHandler.getLastAnswer() == null && this.messageHandler.getLastError() == null){
+                this.abandon(start);
+                return;
+            }
+            if(this.messageHandler.getLastAnswer() == null){
+                Object error = this.messageHandler.getLastError();
+                this.messageHandler.setLastError(null);
+                long wait = backoff.next(error);
+                if(Log.isEnabled(LogLevel.DEBUG)){
+                    Log.log(LogLevel.DEBUG, "{} subscribes again in {} ms: {}", this.ip, wait, Log.snapshot(error));
+                }
+                Util.sleep(Math.max(0, Math.min(wait, tripDeadline - Util.monotonicMillis())));
+                Coordinate[] payload = {this.position, this.destination};
+                this.messageHandler.sendMessage(new Message(this.ip, this.entryPointIp, payload, MessageType.SUBSCRIBE));
+                continue;
+            }
+            backoff.reset();
+            Coordinate nextStep = (Coordinate) this.messageHandler.getLastAnswer();
+            this.messageHandler.setLastAnswer(null);
+            Log.log(LogLevel.DEBUG, "{} next step: {}", this.ip, nextStep);
+            this.position = nextStep;
+            this.messageHandler.sendMessage(new Message(this.ip, this.entryPointIp, nextStep, MessageType.STEP_ACK));
+        }
+        this.arrived(start);
+    }
+
+    /**
+     * The trip took longer than tripTimeout, the client gives up instead of asking forever and reports it.
+     */
+    private void abandon(Instant start){
+        this.abandoned = true;
+        Log.log(LogLevel.WARN, "{} abandoned its trip at {} after {}", this.ip, this.position, Duration.between(start, Instant.now()));
+        try {
+            this.messageHandler.getConnection().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void arrived(Instant start){
         Instant end = Instant.now();
-        System.out.println(this.ip + " reached its destination in " + Duration.between(start, end) + "s, quit connection");
+        Log.log(LogLevel.INFO, "{} reached its destination in {}, quit connection", this.ip, Duration.between(start, end));
         try {
-            this.messageHandler.getSocket().close();
+            this.messageHandler.getConnection().close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
     
+    /**
+     * Connects to the entry point, asks it for its metrics (STATS message) and prints them.
+     * Used instead of start() for monitoring a running cluster.
+     */
+    public void requestStats(){
+        try {
+            Connection entryPointConnection = this.transport.connect(this.entryPointIp, this.entryPointPort);
+            this.messageHandler = new ClientNodeMessageHandler(entryPointConnection, this.ip, this.port, this);
+            if(this.messageHandler.getIsInited()){
+                Message response = this.messageHandler.sendMessageGetResponse(new Message(this.ip, this.entryPointIp, "stats", MessageType.STATS));
+                if(response != null && response.getType() == MessageType.SUCCESS){
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) response.getPayload()).entrySet()) {
+                        System.out.println(entry.getKey() + " = " + entry.getValue());
+                    }
+                }
+                else{
+                    System.out.println("No stats received: " + (response == null ? "connection lost" : response.getPayload()));
+                }
+            }
+            entryPointConnection.close();
+        } catch (IOException e) {
+            Log.log(LogLevel.ERROR, "{}: requesting stats failed: {}", this.ip, e);
+        }
+    }
+
+    /**
+     * Connects to the entry point, sends one spatial query and prints the answer.
+     * @param type RANGE_QUERY, NEAREST_QUERY or DENSITY_QUERY
+     * @param payload x0, y0, x1, y1 for range and density, x, y, k for nearest
+     */
+    public void requestQuery(MessageType type, int[] payload){
+        try {
+            Connection entryPointConnection = this.transport.connect(this.entryPointIp, this.entryPointPort);
+            this.messageHandler = new ClientNodeMessageHandler(entryPointConnection, this.ip, this.port, this);
+            if(this.messageHandler.getIsInited()){
+                Message response = this.messageHandler.sendMessageGetResponse(new Message(this.ip, this.entryPointIp, payload, type));
+                if(response != null && response.getType() == MessageType.SUCCESS && response.getPayload() instanceof Map){
+                    System.out.println(((Map<?, ?>) response.getPayload()).size() + " vehicles");
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) response.getPayload()).entrySet()) {
+                        System.out.println(entry.getKey() + " " + entry.getValue());
+                    }
+                }
+                else if(response != null && response.getType() == MessageType.SUCCESS){
+                    System.out.println(response.getPayload());
+                }
+                else{
+                    System.out.println("No answer received: " + (response == null ? "connection lost" : response.getPayload()));
+                }
+            }
+            entryPointConnection.close();
+        } catch (IOException e) {
+            Log.log(LogLevel.ERROR, "{}: requesting {} failed: {}", this.ip, type, e);
+        }
+    }
+
     public String getIp() {return this.ip;}
     public void setIp(String ip) {this.ip = ip;}
     public int getPort() {return this.port;}
@@ -98,4 +415,15 @@ public class Client extends Thread{
     public void setMessageHandler(ClientNodeMessageHandler messageHandler) {this.messageHandler = messageHandler;};
     public Coordinate getPosition() {return this.position;}
     public Coordinate getDestination() {return this.destination;}
+    public Transport getTransport() {return this.transport;}
+    public void setTransport(Transport transport) {this.transport = transport;}
+    public boolean getSubscribe() {return this.subscribe;}
+    public void setSubscribe(boolean subscribe) {this.subscribe = subscribe;}
+    public long getStepTimeout() {return this.stepTimeout;}
+    public void setStepTimeout(long stepTimeout) {this.stepTimeout = stepTimeout;}
+    public long getTripTimeout() {return this.tripTimeout;}
+    public void setTripTimeout(long tripTimeout) {this.tripTimeout = tripTimeout;}
+    public boolean isAbandoned() {return this.abandoned;}
+    public boolean getLoadAware() {return this.loadAware;}
+    public void setLoadAware(boolean loadAware) {this.loadAware = loadAware;}
 }
@@ -1,82 +1,132 @@
 package project.client;
 
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import project.message.Message;
 import project.message.MessageHandler;
 import project.message.MessageType;
+import project.log.Log;
+import project.log.LogLevel;
+import project.transport.Connection;
 
 /**
  * Communication Handler for clients. Every client opens up a ClientNodeMessageHandler, which connects with the specified entry point.
  */
 public class ClientNodeMessageHandler extends MessageHandler{
     private Client parentClient;
-    private Object lastAnswer;
+    private volatile Object lastAnswer;
+    private volatile Object lastError; //payload of the last ERROR answer, e.g. a RetryAfter when the entry point is overloaded
+    private long expected = 0; //sequence of the request the client waits for, answers to other (earlier) requests are dropped, 0 takes every answer
     private Boolean isInited = false; //Used for checking if client has already successfully registered with entrypoint.
+    private Object initError; //payload of the ERROR the entry point refused the client with, e.g. a RetryAfter when it has too many clients
 
-    public ClientNodeMessageHandler(Socket socket, String  ip, int port, Client parenClient){
-        super(socket, ip, port);
+    public ClientNodeMessageHandler(Connection connection, String  ip, int port, Client parenClient){
+        super(connection, ip, port);
         this.parentClient = parenClient;
         this.sendInitMessage();
     }
     
     public void run(){
-        while(!this.socket.isClosed()){
+        while(!this.connection.isClosed()){
             this.receiveMessagesRoutine();
         }
     }
 
     @Override
     protected void handleInitializeMessage(Message message) {
-        System.out.println("Unimplemented method 'handleInitializeMessage'");
+        Log.log(LogLevel.WARN, "{}: Unimplemented method 'handleInitializeMessage'", this.ip);
     }
 
     @Override
     protected void handleHeartbeatMessage(Message message) {
-        System.out.println("Unimplemented method 'handleHeartbeatMessage'");
+        Log.log(LogLevel.WARN, "{}: Unimplemented method 'handleHeartbeatMessage'", this.ip);
     }
 
     @Override
     protected void handleSyncNodeListMessage(Message message) {
-        System.out.println("Unimplemented method 'handleSyncNodeListMessage'");
+        Log.log(LogLevel.WARN, "{}: Unimplemented method 'handleSyncNodeListMessage'", this.ip);
     }
 
     @Override
     protected void handleNavigationMessage(Message message) {
-        System.out.println("Unimplemented method 'handleNavigationMessage'");
+        Log.log(LogLevel.WARN, "{}: Unimplemented method 'handleNavigationMessage'", this.ip);
     }
 
     /**
      * When client gets a success message, it is saved.
      * The sending client can watch this variable and read it once the answer has returned.
+     * A late answer to an earlier request (e.g. one sent again after the step timeout) is dropped, see expectAnswer.
      */
     @Override
-    protected void handleSuccessMessage(Message message) {
-        this.lastAnswer = message.getPayload(); 
+    protected synchronized void handleSuccessMessage(Message message) {
+        if(this.isExpected(message)){
+            this.lastAnswer = message.getPayload();
+        }
+    }
+
+    /**
+     * Steps pushed by the leader to subscribed clients are saved like answers.
+     */
+    @Override
+    protected void handleStepMessage(Message message) {
+        this.lastAnswer = message.getPayload();
     }
 
+    /**
+     * Errors are saved like answers, so the sending client stops waiting and can send its request again.
+     */
     @Override
-    protected void handleErrorMessage(Message message) {
-        System.out.println("Unimplemented method 'handleNavigationMessage'");
+    protected synchronized void handleErrorMessage(Message message) {
+        if(Log.isEnabled(LogLevel.DEBUG)){
+            Log.log(LogLevel.DEBUG, "{} got error: {}", this.ip, Log.snapshot(message.getPayload()));
+        }
+        if(this.isExpected(message)){
+            this.lastError = message.getPayload();
+        }
+    }
+
+    private boolean isExpected(Message message){
+        if(this.expected == 0 || message.getSequence() == this.expected){
+            return true;
+        }
+        if(Log.isEnabled(LogLevel.DEBUG)){
+            Log.log(LogLevel.DEBUG, "{} dropped the late answer to request {}, waiting for {}", this.ip, message.getSequence(), this.expected);
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the last answer and error, from now on only answers to the request with this sequence number are saved.
+     * Called before the request is sent.
+     * @param sequence sequence number of the request (see Message.setSequence), 0 to take every answer (e.g. for subscriptions)
+     */
+    public synchronized void expectAnswer(long sequence){
+        this.expected = sequence;
+        this.lastAnswer = null;
+        this.lastError = null;
     }
 
     @Override
     protected void handleAckMessage(Message message) {
-        System.out.println("Unimplemented method 'handleNavigationMessage'");
+        Log.log(LogLevel.WARN, "{}: Unimplemented method 'handleAckMessage'", this.ip);
     }
 
+    /**
+     * Registers the client with the entry point. When it is refused (or the connection is lost first) getIsInited stays false,
+     * the reason of a refusal is kept for getInitError.
+     */
     private void sendInitMessage(){
-        System.out.println(this.ip + " found leader socket");
+        Log.log(LogLevel.INFO, "{} found leader socket", this.ip);
         InetSocketAddress payload = new InetSocketAddress(this.ip, this.port);
         Message message = new Message(this.ip, this.parentClient.getEntryPointIp(), payload, MessageType.INITIALIZE);
         Message response = this.sendMessageGetResponse(message);
         
-        if(response.getType() == MessageType.SUCCESS){
-            System.out.println(this.ip + " received initial leader response: " + response.getPayload() + ". Connection established");
+        if(response != null && response.getType() == MessageType.SUCCESS){
+            Log.log(LogLevel.INFO, "{} received initial leader response: {}. Connection established", this.ip, Log.snapshot(response.getPayload()));
             this.isInited = true;
         }
         else{
-            System.out.println("Init Message from " + this.ip + " was not answered with Success.");
+            this.initError = response == null ? null : response.getPayload();
+            Log.log(LogLevel.WARN, "Init Message from {} was not answered with Success: {}", this.ip, response == null ? "no answer" : Log.snapshot(this.initError));
         }            
     }
 
@@ -85,5 +135,8 @@ public class ClientNodeMessageHandler extends MessageHandler{
     }
 
     public void setLastAnswer(Object lastAnswer) {this.lastAnswer = lastAnswer;}
+    public Object getLastError() {return this.lastError;}
+    public void setLastError(Object lastError) {this.lastError = lastError;}
     public Boolean getIsInited() {return this.isInited;}
+    public Object getInitError() {return this.initError;}
 }
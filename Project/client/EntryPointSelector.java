@@ -0,0 +1,83 @@
+package project.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+import project.Config;
+import project.NodeLoad;
+import project.NodeSaver;
+import project.Role;
+
+/**
+ * Chooses the entry point of a client from the node list with the loads the nodes advertise (see NodeLoad).
+ * The leader is taken directly while it has spare capacity and few clients, which saves the forwarding hop.
+ * Otherwise the less loaded of two randomly drawn followers is taken: many clients choosing with the same (up to a second old) loads
+ * would all run to the same least loaded follower, two random choices spread them while still avoiding the busy ones.
+ */
+public class EntryPointSelector {
+    private final Random random;
+
+    public EntryPointSelector(Random random){
+        this.random = random;
+    }
+
+    /**
+     * @param nodes all known nodes with their loads
+     * @return the node to connect to, null when the list holds no node
+     */
+    public NodeSaver choose(Collection<NodeSaver> nodes){
+        NodeSaver leader = null;
+        ArrayList<NodeSaver> followers = new ArrayList<NodeSaver>();
+        for (NodeSaver node : nodes) {
+            if(node.getRole() == Role.LEADER){
+                leader = node;
+            }
+            else if(node.getRole() == Role.FOLLOWER){
+                followers.add(node);
+            }
+        }
+        if(leader != null && (followers.isEmpty() || acceptsDirectClients(leader.getLoad()))){
+            return leader;
+        }
+        if(followers.isEmpty()){
+            return null;
+        }
+        NodeSaver first = followers.get(this.random.nextInt(followers.size()));
+        NodeSaver second = followers.get(this.random.nextInt(followers.size()));
+        return score(second) < score(first) ? second : first;
+    }
+
+    /**
+     * @param current the node the client is connected to, as found in the node list, null when it is not in the list any more
+     * @param candidate the node choose returned
+     * @return true when the client should move from current to candidate: current is gone, the candidate is the leader with spare capacity,
+     * the client is on the leader that has none any more or current is Config.REBALANCE_MARGIN times as loaded as the candidate
+     */
+    public boolean shouldMove(NodeSaver current, NodeSaver candidate){
+        if(candidate == null || current != null && current.getIp().equals(candidate.getIp())){
+            return false;
+        }
+        if(current == null){
+            return true;
+        }
+        if(candidate.getRole() == Role.LEADER){
+            return true;
+        }
+        if(current.getRole() == Role.LEADER){
+            return !acceptsDirectClients(current.getLoad());
+        }
+        return score(current) > score(candidate) * Config.REBALANCE_MARGIN;
+    }
+
+    private static boolean acceptsDirectClients(NodeLoad load){
+        return load != null && load.hasSpareCapacity() && load.getClients() < Config.LEADER_DIRECT_CLIENTS;
+    }
+
+    /**
+     * @return score of the advertised load, nodes that did not report one yet count as idle
+     */
+    private static long score(NodeSaver node){
+        return node.getLoad() == null ? 0 : node.getLoad().getScore();
+    }
+}
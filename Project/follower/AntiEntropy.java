@@ -0,0 +1,48 @@
+package project.follower;
+
+import project.Config;
+import project.HashedWheelTimer;
+import project.message.Message;
+import project.message.MessageType;
+
+/**
+ * Sends the digest of the list of all known nodes to the leader (MEMBERSHIP_DIGEST) every Config.MEMBERSHIP_DIGEST_INTERVAL,
+ * the leader answers with the membership events this follower missed, so lost or skipped events are repaired (see project.Membership).
+ * Scheduled on the timer of the parent node, cancelled when the leader connection is lost.
+ */
+public class AntiEntropy implements Runnable {
+    private FollowerLeaderMessageHandler parentMessageHandler;
+    private HashedWheelTimer.Timeout timeout;
+
+    public AntiEntropy(FollowerLeaderMessageHandler parentMessageHandler){
+        this.parentMessageHandler = parentMessageHandler;
+    }
+
+    public void start(){
+        HashedWheelTimer timer = this.parentMessageHandler.getParentNode().getTimer();
+        this.timeout = timer.schedule(this, Config.MEMBERSHIP_DIGEST_INTERVAL, Config.MEMBERSHIP_DIGEST_INTERVAL);
+    }
+
+    public void stop(){
+        if(this.timeout != null){
+            this.timeout.cancel();
+        }
+    }
+
+    public void run(){
+        if(this.parentMessageHandler.getConnection().isClosed()){
+            this.stop();
+            return;
+        }
+        this.sendDigest();
+    }
+
+    /**
+     * Also called right away when events are missing, so the repair does not wait for the next interval.
+     */
+    void sendDigest(){
+        String ip = this.parentMessageHandler.getParentNode().getIp();
+        Object digest = this.parentMessageHandler.getParentNode().getMembership().digest();
+        this.parentMessageHandler.sendMessage(new Message(ip, this.parentMessageHandler.getParentNode().getLeaderIp(), digest, MessageType.MEMBERSHIP_DIGEST));
+    }
+}
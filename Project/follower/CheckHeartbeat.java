@@ -1,30 +1,46 @@
 package project.follower;
 
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-
 import project.Config;
+import project.HashedWheelTimer;
+import project.log.Log;
+import project.log.LogLevel;
 
-public class CheckHeartbeat extends Thread {
+/**
+ * Checks if the leader is still alive. Scheduled on the timer of the parent node every Config.HEARTBEAT_CHECK_INTERVAL.
+ * Every message of the leader counts as sign of life, not only heartbeats.
+ */
+public class CheckHeartbeat implements Runnable {
     private FollowerLeaderMessageHandler parentMessageHandler;
+    private HashedWheelTimer.Timeout timeout;
     
     public CheckHeartbeat(FollowerLeaderMessageHandler parentMessageHandler){
         this.parentMessageHandler = parentMessageHandler;
     }
+
+    public void start(){
+        HashedWheelTimer timer = this.parentMessageHandler.getParentNode().getTimer();
+        this.timeout = timer.schedule(this, Config.HEARTBEAT_CHECK_INTERVAL, Config.HEARTBEAT_CHECK_INTERVAL);
+    }
+
+    public void stop(){
+        if(this.timeout != null){
+            this.timeout.cancel();
+        }
+    }
     
     /**
-     * Checks the difference between now and the last leader heartbeat. If it goes above Config.HEARTBEAT_TIMEOUT,
-     * the FollowerLeaderMessageHandler.leaderTimedOut() is called and own thread is stopped.
+     * Asks the phi accrual failure detector of the leader connection. If the leader is suspected,
+     * the FollowerLeaderMessageHandler.leaderTimedOut() is called and the check is cancelled.
      */
     public void run(){
-        while(!this.parentMessageHandler.getSocket().isClosed()){
-            if(this.parentMessageHandler.getLastHeartbeat() != null){
-                long delta = this.parentMessageHandler.getLastHeartbeat().until(Instant.now(), ChronoUnit.MILLIS);
-                if(delta >= Config.HEARTBEAT_TIMEOUT){
-                    this.parentMessageHandler.leaderTimedOut();
-                    System.out.println(this.parentMessageHandler.getParentNode().getIp() + " ran into heartbeat timeout for leader");
-                }
-            }
+        if(this.parentMessageHandler.getConnection().isClosed()){
+            this.stop();
+            return;
+        }
+        if(!this.parentMessageHandler.getFailureDetector().isAvailable()){
+            this.stop();
+            this.parentMessageHandler.leaderTimedOut();
+            Log.log(LogLevel.WARN, "{} ran into heartbeat timeout for leader", this.parentMessageHandler.getParentNode().getIp());
         }
     }
 }
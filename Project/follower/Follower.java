@@ -1,14 +1,22 @@
 package project.follower;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+import project.AdmissionControl;
+import project.Clock;
+import project.Config;
 import project.Node;
 import project.Role;
 import project.message.Message;
 import project.message.MessageType;
+import project.message.OutboundQueue;
+import project.message.RetryAfter;
+import project.metrics.MetricsRegistry;
+import project.transport.Connection;
+import project.transport.Listener;
 
 public class Follower extends Thread {
     private Node parentNode;
@@ -16,8 +24,10 @@ public class Follower extends Thread {
     private int leaderPort;
 
     private FollowerLeaderMessageHandler connectionToLeader;
-    private LinkedList<Socket> connections = new LinkedList<Socket>(); //all accepted connections are added here
-    private LinkedList<FollowerClientMessageHandler> clientConnections = new LinkedList<FollowerClientMessageHandler>(); //all accepted connections are added here
+    private NavigationBatcher navigationBatcher; //null when navigation requests are forwarded one by one
+    private LinkedList<Connection> connections = new LinkedList<Connection>(); //all accepted connections are added here
+    private final AtomicLong sequence = new AtomicLong(); //numbers the requests sent to the leader, the answers carry the number back (see Message.reply)
+    private ConcurrentLinkedQueue<FollowerClientMessageHandler> clientConnections = new ConcurrentLinkedQueue<FollowerClientMessageHandler>(); //all accepted connections are added here, iterated while clients come and go
     
     public Follower(Node parentNode, String leaderIp, int leaderPort){
         this.parentNode = parentNode;
@@ -31,18 +41,37 @@ public class Follower extends Thread {
      */
     public void run(){
         this.initLeaderConnection();
+        if(this.connectionToLeader == null || this.connectionToLeader.getConnection().isClosed()){
+            return; //role was set back to Unknown
+        }
+        AdmissionControl admission = new AdmissionControl(Integer.parseInt(System.getProperty("maxOutstanding", String.valueOf(Config.MAX_OUTSTANDING_REQUESTS))), Config.RETRY_AFTER);
+        this.parentNode.setAdmission(admission);
+        this.parentNode.getMetrics().gauge(MetricsRegistry.ADMISSION_IN_FLIGHT, () -> admission.getInFlight());
+        this.parentNode.getMetrics().gauge(MetricsRegistry.ADMISSION_REJECTED, () -> admission.getRejected());
+        this.parentNode.getMetrics().gauge(MetricsRegistry.MEMBERSHIP_VERSION, () -> this.parentNode.getMembership().getVersion());
+        if(Boolean.parseBoolean(System.getProperty("batchNavigation", String.valueOf(Config.NAVIGATION_BATCHING)))){
+            this.navigationBatcher = new NavigationBatcher(this, Config.NAVIGATION_BATCH_MAX);
+            Clock.get().start(this.navigationBatcher);
+        }
+        this.parentNode.getMetrics().gauge(MetricsRegistry.QUEUE_OUTBOUND, () -> {
+            OutboundQueue queue = this.connectionToLeader.getOutboundQueue();
+            return queue == null ? 0 : queue.size();
+        });
         try {
-            ServerSocket serverSocket = new ServerSocket();
-            InetSocketAddress address = new InetSocketAddress(this.parentNode.getIp(), 201);
-            serverSocket.bind(address);
-            while(!serverSocket.isClosed() && !this.connectionToLeader.getSocket().isClosed()){
-                Socket newConnection = serverSocket.accept();
+            Listener listener = this.parentNode.getTransport().listen(this.parentNode.getIp(), 201);
+            while(!listener.isClosed() && !this.connectionToLeader.getConnection().isClosed()){
+                Connection newConnection = listener.accept();
                 FollowerClientMessageHandler messageHandler = new FollowerClientMessageHandler(this, parentNode, newConnection);
+                if(this.parentNode.getMetrics().counter(MetricsRegistry.CONNECTIONS_CLIENTS).get() >= Config.MAX_CLIENT_CONNECTIONS){
+                    messageHandler.refuseConnection(new RetryAfter(Config.RETRY_AFTER, "Too many clients"));
+                    continue;
+                }
+                this.parentNode.getMetrics().counter(MetricsRegistry.CONNECTIONS_CLIENTS).incrementAndGet(); //given back when the handler ends
                 this.clientConnections.add(messageHandler);
                 this.connections.add(newConnection);
-                messageHandler.start();
+                Clock.get().start(messageHandler);
             }
-            serverSocket.close();
+            listener.close();
             
         } catch (IOException e) {
             System.err.println(e.toString());
@@ -56,11 +85,11 @@ public class Follower extends Thread {
      */
     private void initLeaderConnection(){
         try {
-            Socket leaderSocket = new Socket(this.leaderIp, this.leaderPort);
-            this.connectionToLeader = new FollowerLeaderMessageHandler(this, parentNode, leaderSocket);
+            Connection leaderConnection = this.parentNode.getTransport().connect(this.leaderIp, this.leaderPort);
+            this.connectionToLeader = new FollowerLeaderMessageHandler(this, parentNode, leaderConnection);
             // this.connections.add(messageHandler);
 
-            System.out.println(this.parentNode.getIp() + " found leader socket");
+            System.out.println(this.parentNode.getIp() + " found leader");
             InetSocketAddress payload = new InetSocketAddress(this.parentNode.getIp(), this.parentNode.getPort());
             
             Message message = new Message(this.parentNode.getIp(), this.parentNode.getLeaderIp(), payload, MessageType.INITIALIZE);
@@ -68,7 +97,7 @@ public class Follower extends Thread {
             System.out.println(this.parentNode.getIp() + " received initial leader response: " + response.getPayload());
 
             if(response.getType() == MessageType.SUCCESS){
-                this.connectionToLeader.start();
+                Clock.get().start(this.connectionToLeader);
             }
             else{
                 throw new IOException("Init Message from " + this.parentNode.getIp() + " was not answered with Success.");
@@ -78,8 +107,8 @@ public class Follower extends Thread {
             System.err.println(e.toString());
             this.parentNode.setRole(Role.UNKNOWN);
             try {
-                if(this.connectionToLeader.getSocket() != null){
-                    this.connectionToLeader.getSocket().close();
+                if(this.connectionToLeader != null){
+                    this.connectionToLeader.getConnection().close();
                 }
             } catch (IOException e1) {
                 e1.printStackTrace();
@@ -89,5 +118,11 @@ public class Follower extends Thread {
 
     public FollowerLeaderMessageHandler getConnectionToLeader() {return this.connectionToLeader;}
     public void setConnectionToLeader(FollowerLeaderMessageHandler connectionToLeader) {this.connectionToLeader = connectionToLeader;}
-    public LinkedList<FollowerClientMessageHandler> getClientConnections() {return this.clientConnections;}
+    public ConcurrentLinkedQueue<FollowerClientMessageHandler> getClientConnections() {return this.clientConnections;}
+    public Node getParentNode() {return this.parentNode;}
+    NavigationBatcher getNavigationBatcher() {return this.navigationBatcher;}
+    /**
+     * @return the sequence number for the next request to the leader, never 0 (the number of requests that are not numbered)
+     */
+    long nextSequence() {return this.sequence.incrementAndGet();}
 }
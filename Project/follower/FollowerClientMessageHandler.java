@@ -1,11 +1,22 @@
 package project.follower;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import project.Config;
 import project.Node;
+import project.Util;
+import project.helpers.Coordinate;
 import project.message.Message;
 import project.message.MessageHandler;
 import project.message.MessageType;
+import project.message.NavigationBatch;
+import project.message.RetryAfter;
+import project.log.Log;
+import project.log.LogLevel;
+import project.metrics.LatencyHistogram;
+import project.metrics.MetricsRegistry;
+import project.transport.Connection;
 
 /**
  * Message Handler for Followers that connect with Clients. Only for the follower side.
@@ -15,18 +26,52 @@ public class FollowerClientMessageHandler extends MessageHandler{
     private Follower parentFollower;
     private String clientIp;
     private int clientPort;
+    private LatencyHistogram forwardLatency;
+    private final AtomicInteger outstanding = new AtomicInteger(); //requests forwarded to the leader and not yet answered, each holds an admission
+    private final ConcurrentHashMap<Long, Forwarded> forwarded = new ConcurrentHashMap<Long, Forwarded>(); //the outstanding requests by the sequence number of the follower
 
-    public FollowerClientMessageHandler(Follower parentFollower, Node parentNode, Socket newConnection){
+    /**
+     * A request forwarded to the leader. It carries a sequence number of the follower (see Follower.nextSequence) until it is answered,
+     * the number the client gave it is put back on the answer.
+     */
+    private static final class Forwarded {
+        final long clientSequence;
+        final long since; //Util.monotonicNanos() when the request was forwarded
+        int from = Coordinate.NONE; //packed position and destination of a navigation request, for the replica
+        int destination = Coordinate.NONE;
+
+        Forwarded(long clientSequence, long since){
+            this.clientSequence = clientSequence;
+            this.since = since;
+        }
+    }
+
+    public FollowerClientMessageHandler(Follower parentFollower, Node parentNode, Connection newConnection){
         super(parentNode, newConnection);
         this.parentFollower = parentFollower;
+        this.forwardLatency = this.metrics.histogram(MetricsRegistry.FORWARD_LATENCY);
     }
 
+    /**
+     * The connection was counted by the Follower when it was accepted (CONNECTIONS_CLIENTS), the count is given back here.
+     * Answers of the leader that are still on their way can't be forwarded anymore, so their admissions are given back as well.
+     * The leader is told which vehicles of the client it navigated (CLIENT_LEFT), so it can forget them.
+     */
     public void run(){
         this.registerConnection();
-        while(!this.socket.isClosed()){
+        while(!this.connection.isClosed()){
             this.receiveMessagesRoutine();
         }
         this.parentFollower.getClientConnections().remove(this);
+        this.metrics.counter(MetricsRegistry.CONNECTIONS_CLIENTS).decrementAndGet();
+        this.forwarded.clear();
+        for (int pending = this.outstanding.getAndSet(0); pending > 0; pending--) {
+            this.releaseAdmission();
+        }
+        if(!this.vehicles.isEmpty()){
+            String[] left = this.vehicles.toArray(new String[0]);
+            this.parentFollower.getConnectionToLeader().sendMessage(new Message(this.ip, this.parentNode.getLeaderIp(), left, MessageType.CLIENT_LEFT));
+        }
     }
 
     /**
@@ -35,7 +80,7 @@ public class FollowerClientMessageHandler extends MessageHandler{
      */
     @Override
     protected void handleInitializeMessage(Message message){
-        System.out.println("Answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
     
     /**
@@ -43,7 +88,7 @@ public class FollowerClientMessageHandler extends MessageHandler{
      */
     @Override
     protected void handleHeartbeatMessage(Message message){
-        System.out.println("Answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
     
     /**
@@ -51,47 +96,179 @@ public class FollowerClientMessageHandler extends MessageHandler{
      */
     @Override
     protected void handleSyncNodeListMessage(Message message){
-        System.out.println("Answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
     
     /**
      * Forward the Navigation Messages to the leader because leader is the one handling the functionality.
+     * With optimistic moves on, the step is computed on the replica of the area and only sent to the leader to be committed (see Replica).
+     * With batching on, the request goes to the leader in the next NAVIGATION_BATCH of the follower (see NavigationBatcher).
+     * Refused with a RetryAfter when this client or the follower has too many unanswered requests, or the leader asked to back off.
      */
     @Override
     protected void handleNavigationMessage(Message message){
+        if(this.outstanding.get() >= Config.MAX_OUTSTANDING_PER_CLIENT){
+            RetryAfter refusal = this.parentNode.getAdmission().refusal("Too many unanswered requests of " + this.clientIp);
+            this.sendMessage(message.reply(this.ip, refusal, MessageType.ERROR));
+            return;
+        }
+        if(!this.admit(message)){
+            return;
+        }
+        this.outstanding.incrementAndGet();
+        FollowerLeaderMessageHandler connectionToLeader = this.parentFollower.getConnectionToLeader();
+        Replica replica = connectionToLeader.getReplica();
+        Forwarded request = new Forwarded(message.getSequence(), Util.monotonicNanos());
+        if(replica != null && message.getType() == MessageType.NAVIGATION){
+            this.rememberRoute(request, message);
+        }
+        long sequence = this.parentFollower.nextSequence();
+        this.forwarded.put(sequence, request);
+        message.setSequence(sequence);
+        this.rememberVehicles(message);
+        if(replica != null && message.getType() == MessageType.NAVIGATION){
+            Message commit = replica.propose(message);
+            if(commit != null){
+                this.metrics.counter(MetricsRegistry.REPLICA_PROPOSED).incrementAndGet();
+                this.forward(connectionToLeader, commit, message);
+                return;
+            }
+            this.metrics.counter(MetricsRegistry.REPLICA_FALLBACKS).incrementAndGet();
+        }
+        NavigationBatcher batcher = this.parentFollower.getNavigationBatcher();
+        if(batcher == null || !batcher.add(this, message)){
+            this.forward(connectionToLeader, message, message);
+        }
+    }
+
+    /**
+     * Sends a request to the leader. When the connection to the leader is backed up (see OutboundQueue) the request is dropped there,
+     * the client is then refused with a RetryAfter right away instead of waiting for an answer that never comes.
+     * @param forwarded the message for the leader
+     * @param request the message of the client
+     */
+    private void forward(FollowerLeaderMessageHandler connectionToLeader, Message forwarded, Message request){
+        if(!connectionToLeader.sendMessage(forwarded)){
+            this.replyForwarded(request.reply(this.ip, this.parentNode.getAdmission().refusal("Connection to the leader is backed up"), MessageType.ERROR));
+        }
+    }
+
+    /**
+     * Spatial queries are answered by the leader, the answer comes back the same way as for navigation.
+     */
+    @Override
+    protected void handleQueryMessage(Message message){
+        this.handleNavigationMessage(message);
+    }
+
+    /**
+     * Batches of clients speaking for many vehicles are answered by the leader as well, forwarded as they are.
+     */
+    @Override
+    protected void handleNavigationBatchMessage(Message message){
+        this.handleQueryMessage(message);
+    }
+
+    /**
+     * Subscriptions live on the leader, it pushes the steps to the client through the connection of this follower.
+     */
+    @Override
+    protected void handleSubscribeMessage(Message message){
+        this.vehicles.add(message.getSender());
+        if(!this.parentFollower.getConnectionToLeader().sendMessage(message)){
+            RetryAfter refusal = this.parentNode.getAdmission().refusal("Connection to the leader is backed up");
+            this.sendMessage(message.reply(this.ip, refusal, MessageType.ERROR));
+        }
+    }
+
+    @Override
+    protected void handleStepAckMessage(Message message){
         this.parentFollower.getConnectionToLeader().sendMessage(message);
     }
 
+    /**
+     * the vehicles of navigation requests, see run
+     */
+    private void rememberVehicles(Message message){
+        if(message.getType() == MessageType.NAVIGATION){
+            this.vehicles.add(message.getSender());
+        }
+        else if(message.getPayload() instanceof NavigationBatch){
+            for (String vehicle : ((NavigationBatch) message.getPayload()).getVehicles()) {
+                if(vehicle != null){
+                    this.vehicles.add(vehicle);
+                }
+            }
+        }
+    }
+
+    /**
+     * position and destination of a navigation request, the replica takes over the step of the answer from there
+     */
+    private void rememberRoute(Forwarded request, Message message){
+        Coordinate[] payload = message.getPayload() instanceof Coordinate[] ? (Coordinate[]) message.getPayload() : null;
+        if(payload != null && payload.length == 2 && payload[0] != null && payload[1] != null){
+            request.from = payload[0].getPacked();
+            request.destination = payload[1].getPacked();
+        }
+    }
+
+    /**
+     * Sends an answer of the leader (or a refusal in its place) to this client. For a forwarded request the client gets its own
+     * sequence number back, the time since the request was forwarded is recorded and its admission given back.
+     * A step of the leader is taken over by the replica right away, so the next step of the client can be computed on it
+     * without waiting for the next update of the leader.
+     * Messages that answer no forwarded request (e.g. pushed steps) are only sent.
+     * @param reply the answer, still with the sequence number of the follower
+     */
+    public void replyForwarded(Message reply){
+        Forwarded request = this.forwarded.remove(reply.getSequence());
+        if(request == null){
+            this.sendMessage(reply);
+            return;
+        }
+        reply.setSequence(request.clientSequence);
+        this.sendMessage(reply);
+        if(this.outstanding.getAndUpdate(count -> count > 0 ? count - 1 : 0) > 0){
+            this.releaseAdmission();
+        }
+        Replica replica = this.parentFollower.getConnectionToLeader().getReplica();
+        if(replica != null && request.from != Coordinate.NONE && reply.getType() == MessageType.SUCCESS && reply.getPayload() instanceof Coordinate){
+            replica.moved(reply.getReceiver(), request.from, ((Coordinate) reply.getPayload()).getPacked(), request.destination);
+        }
+        this.forwardLatency.recordSince(request.since);
+    }
+
     /**
      * Handles initialize Message. Waits for init message (first message) and complains if it is not a correct initialize.
      * @return true when successfully initialized, false if not. 
      */
     public Boolean registerConnection(){
         Message message = this.readMessage();
-        System.out.println(this.parentNode.getIp() + " received a "+ message.getType() + " message: " + message.getPayload());
+        Log.message(this.parentNode.getIp(), "received", message);
         if(message.getType() == MessageType.INITIALIZE){
             try {
                 InetSocketAddress clientAddress = (InetSocketAddress) message.getPayload();
                 this.clientIp = clientAddress.getHostName();
                 this.clientPort = clientAddress.getPort();
-                System.out.println(this.ip + ": Leader registered " + this.clientIp);
+                Log.log(LogLevel.INFO, "{}: Follower registered {}", this.ip, this.clientIp);
                 
                 String payload = this.ip + " registered " + this.clientIp + " as Client";
-                Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.SUCCESS); 
+                Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.SUCCESS); 
                 this.sendMessage(answer);
                 
                 return true;
 
             } catch (Exception e) {
-                System.out.println("Init message failed");
+                Log.log(LogLevel.WARN, "{}: Init message failed", this.ip);
                 String payload = "Insert INetSocketAddress of own IP and Port in payload.";
-                Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.ERROR); 
+                Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.ERROR); 
                 this.sendMessage(answer);
                 return false;
             }
         }
         else{
-            Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Please send init Message", MessageType.ERROR);
+            Message answer = message.reply(this.parentNode.getIp(), "Please send init Message", MessageType.ERROR);
             this.sendMessage(answer);
             return false;
         }
@@ -1,22 +1,29 @@
 package project.follower;
-import java.net.Socket;
-import java.time.Instant;
-import java.util.HashMap;
+import java.io.IOException;
 
+import project.Config;
+import project.MembershipUpdate;
 import project.Node;
-import project.NodeSaver;
+import project.PhiAccrualFailureDetector;
 import project.Role;
+import project.helpers.MapUpdate;
 import project.message.Message;
 import project.message.MessageHandler;
 import project.message.MessageType;
+import project.message.RetryAfter;
+import project.log.Log;
+import project.log.LogLevel;
+import project.transport.Connection;
 
 /**
  * Message Handler for Followers to connect with Leader. Only for the follower side.
- * Run method starts the heartbeat checker which checks if leader is no more sending heartbeats and aborts if necessary. 
+ * Run method schedules the heartbeat checker which checks if leader is no more sending messages and aborts if necessary. 
  */
 public class FollowerLeaderMessageHandler extends MessageHandler{
-    private Instant lastHeartbeat;
     private CheckHeartbeat checker;
+    private LoadReporter loadReporter;
+    private AntiEntropy antiEntropy;
+    private Replica replica; //null unless optimistic moves are on
     private Follower parentFollower;
 
     /**
@@ -24,21 +31,43 @@ public class FollowerLeaderMessageHandler extends MessageHandler{
      * @param parentNode
      * @param newConnection
      */
-    public FollowerLeaderMessageHandler(Follower parentFollower, Node parentNode, Socket newConnection){
+    public FollowerLeaderMessageHandler(Follower parentFollower, Node parentNode, Connection newConnection){
         super(parentNode, newConnection);
         this.parentFollower = parentFollower;
+        this.failureDetector = new PhiAccrualFailureDetector();
         this.checker = new CheckHeartbeat(this);
+        this.loadReporter = new LoadReporter(this);
+        this.antiEntropy = new AntiEntropy(this);
+        if(Boolean.parseBoolean(System.getProperty("optimisticMoves", String.valueOf(Config.OPTIMISTIC_MOVES)))){
+            try {
+                this.replica = new Replica(this);
+            } catch (IOException e) {
+                Log.log(LogLevel.WARN, "{}: no replica of the area, forwarding every navigation request: {}", this.ip, e);
+            }
+        }
     }
 
     /**
-     * When connection to leader is lost (socket then gets closed), go back to Unknown and figure out new leader.
+     * When connection to leader is lost (connection then gets closed), go back to Unknown and figure out new leader.
      */
     public void run(){
+        this.startOutboundQueue();
         checker.start();
-        while(!this.socket.isClosed()){
+        this.loadReporter.start();
+        this.antiEntropy.start();
+        if(this.replica != null){
+            this.replica.start();
+        }
+        while(!this.connection.isClosed()){
             this.receiveMessagesRoutine();
         }
-        this.getParentNode().setRole(Role.UNKNOWN); //When leader socket shuts down, init the system again
+        this.checker.stop();
+        this.loadReporter.stop();
+        this.antiEntropy.stop();
+        if(this.replica != null){
+            this.replica.stop();
+        }
+        this.getParentNode().setRole(Role.UNKNOWN); //When leader connection shuts down, init the system again
     }
 
     /**
@@ -51,7 +80,10 @@ public class FollowerLeaderMessageHandler extends MessageHandler{
     protected void receiveMessagesRoutine(){
         try {
             Message message = this.readMessage();
-            System.out.println(this.ip + " received a " + message.getType().toString() + " message: " + message.getPayload());
+            if(message == null){
+                return; //connection was closed by readMessage
+            }
+            Log.message(this.ip, "received", message);
             if(this.parentNode.getIp().equals(message.getReceiver())){
                 switch (message.getType()) {
                     case INITIALIZE:
@@ -63,9 +95,39 @@ public class FollowerLeaderMessageHandler extends MessageHandler{
                     case SYNC_NODE_LIST:
                         this.handleSyncNodeListMessage(message);
                         break;   
+                    case MEMBERSHIP_DIGEST:
+                        this.handleMembershipDigestMessage(message);
+                        break;
                     case NAVIGATION:
                         this.handleNavigationMessage(message);
                         break;
+                    case NAVIGATION_BATCH:
+                        this.handleNavigationBatchMessage(message);
+                        break;
+                    case SUBSCRIBE:
+                        this.handleSubscribeMessage(message);
+                        break;
+                    case STEP:
+                        this.handleStepMessage(message);
+                        break;
+                    case STEP_ACK:
+                        this.handleStepAckMessage(message);
+                        break;
+                    case LOAD_REPORT:
+                        this.handleLoadReportMessage(message);
+                        break;
+                    case NODE_LIST:
+                        this.handleNodeListMessage(message);
+                        break;
+                    case REPLICA_UPDATE:
+                        this.handleReplicaUpdateMessage(message);
+                        break;
+                    case MOVE_COMMIT:
+                        this.handleMoveCommitMessage(message);
+                        break;
+                    case CLIENT_LEFT:
+                        this.handleClientLeftMessage(message);
+                        break;
                     case SUCCESS:
                         this.handleSuccessMessage(message);
                         break;
@@ -75,21 +137,33 @@ public class FollowerLeaderMessageHandler extends MessageHandler{
                     case ACK:
                         this.handleAckMessage(message);
                         break;
+                    case STATS:
+                        this.handleStatsMessage(message);
+                        break;
+                    case RANGE_QUERY:
+                    case NEAREST_QUERY:
+                    case DENSITY_QUERY:
+                        this.handleQueryMessage(message);
+                        break;
                     default:
                         break;
                 }
             }
             else{
                 for (FollowerClientMessageHandler messageHandler : this.parentFollower.getClientConnections()) {
-                    if(messageHandler.getClientIp().equals((message.getReceiver()))){
-                        messageHandler.sendMessage(message);
-                        System.out.println(this.parentNode.getIp() + " forwarded message " + message.getPayload() + " to " + messageHandler.getClientIp());
+                    if(message.getReceiver().equals(messageHandler.getClientIp())){ //client ip is null until the client registered
+                        if(message.getPayload() instanceof RetryAfter){
+                            //the leader is overloaded, shed the load here instead of forwarding it
+                            this.parentNode.getAdmission().backOff(((RetryAfter) message.getPayload()).getMillis());
+                        }
+                        messageHandler.replyForwarded(message);
+                        Log.message(this.parentNode.getIp(), "forwarded", message);
                         break;
                     }
                 }
             }
         } catch (Exception e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
         }
     }
 
@@ -99,47 +173,85 @@ public class FollowerLeaderMessageHandler extends MessageHandler{
      */
     public void leaderTimedOut(){
         try {
-            this.socket.close();
+            this.connection.close();
         } catch (Exception e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
         }
         this.getParentNode().setRole(Role.UNKNOWN);
     }
     
     @Override
     protected void handleInitializeMessage(Message message){
-        System.out.println("Answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
     
     /**
-     * Sets time of last heartbeat received. This time is checked by heartbeat checker.
+     * Arrival of the heartbeat was already recorded by the failure detector (like for every message).
      * Acknowledgement is send to let leader know follower is still alive.
      */
     @Override
     protected void handleHeartbeatMessage(Message message){
-        this.lastHeartbeat = Instant.now(); //not using message.getTime() because time of arrival is key, not time of message creation
         Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Heartbeat received", MessageType.ACK);
         this.sendMessage(answer);
     }
     
     /**
-     * When leader initializes new Follower successfully, this message type is sent by it.
-     * Set own known nodes to the new list.
+     * The leader sends the whole list of all known nodes when the follower registered, then the membership events
+     * (joins, leaves, updates) as they happen. Missing events are asked for with the digest right away.
      */
     @Override
     protected void handleSyncNodeListMessage(Message message){
-        try {
-            HashMap<String, NodeSaver> updatedNodeList = (HashMap<String, NodeSaver>) message.getPayload();
-            if(updatedNodeList.size() >= 2){    //Minimum length of list must be self and leader, without the node cannot exist
-                this.parentNode.setAllKnownNodes(updatedNodeList);
-                System.out.println(this.parentNode.getIp() + " updated list of all nodes");
+        if(!(message.getPayload() instanceof MembershipUpdate)){
+            Log.log(LogLevel.WARN, "{}: Error while setting new node list: {}", this.ip, Log.snapshot(message.getPayload()));
+            return;
+        }
+        MembershipUpdate update = (MembershipUpdate) message.getPayload();
+        if(update.isFull() && update.getEvents().length < 2){    //Minimum length of list must be self and leader, without the node cannot exist
+            Log.log(LogLevel.WARN, "{} is not setting new Node list. Size smaller than 2", this.parentNode.getIp());
+        }
+        else if(this.parentNode.getMembership().apply(update)){
+            if(Log.isEnabled(LogLevel.DEBUG)){
+                Log.log(LogLevel.DEBUG, "{} updated list of all nodes to version {}", this.parentNode.getIp(), update.getVersion());
             }
-            else{
-                System.out.println(this.parentNode.getIp() + " is not setting new Node list. Size smaller than 2");
+        }
+        else{
+            if(Log.isEnabled(LogLevel.DEBUG)){
+                Log.log(LogLevel.DEBUG, "{} missed membership events before version {}", this.parentNode.getIp(), update.getVersion());
             }
-        } catch (Exception e) {
-            System.err.println("Error while setting new node list:");
-            System.err.println(e.toString());
+            this.antiEntropy.sendDigest();
+        }
+    }
+
+    /**
+     * The leader sends the changes of its area in the order they happened (the first one covers the whole area),
+     * they keep the replica the steps of the clients are computed on up to date.
+     */
+    @Override
+    protected void handleReplicaUpdateMessage(Message message){
+        if(this.replica != null && message.getPayload() instanceof MapUpdate){
+            this.replica.apply((MapUpdate) message.getPayload());
+        }
+        else{
+            Log.log(LogLevel.DEBUG, "{}: ignored {}", this.ip, message.getType());
+        }
+    }
+
+    /**
+     * Answers of the leader addressed to the follower itself belong to the navigation batches it sent, see NavigationBatcher.
+     */
+    @Override
+    protected void handleSuccessMessage(Message message){
+        NavigationBatcher batcher = this.parentFollower.getNavigationBatcher();
+        if(batcher == null || !batcher.answered(message)){
+            super.handleSuccessMessage(message);
+        }
+    }
+
+    @Override
+    protected void handleErrorMessage(Message message){
+        NavigationBatcher batcher = this.parentFollower.getNavigationBatcher();
+        if(batcher == null || !batcher.answered(message)){
+            super.handleErrorMessage(message);
         }
     }
 
@@ -148,8 +260,8 @@ public class FollowerLeaderMessageHandler extends MessageHandler{
      */
     @Override
     protected void handleNavigationMessage(Message message){
-        System.out.println("Answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
 
-    public Instant getLastHeartbeat(){return this.lastHeartbeat;}
+    Replica getReplica() {return this.replica;}
 }
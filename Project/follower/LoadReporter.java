@@ -0,0 +1,45 @@
+package project.follower;
+
+import project.Config;
+import project.HashedWheelTimer;
+import project.LoadMonitor;
+import project.NodeLoad;
+import project.message.Message;
+import project.message.MessageType;
+import project.metrics.MetricsRegistry;
+
+/**
+ * Sends the load of the follower to the leader (LOAD_REPORT) every Config.LOAD_REPORT_INTERVAL,
+ * the leader passes it on with the node list. Scheduled on the timer of the parent node, cancelled when the leader connection is lost.
+ */
+public class LoadReporter implements Runnable {
+    private FollowerLeaderMessageHandler parentMessageHandler;
+    private LoadMonitor monitor;
+    private HashedWheelTimer.Timeout timeout;
+
+    public LoadReporter(FollowerLeaderMessageHandler parentMessageHandler){
+        this.parentMessageHandler = parentMessageHandler;
+        this.monitor = new LoadMonitor(parentMessageHandler.getParentNode(), MetricsRegistry.FORWARD_LATENCY);
+    }
+
+    public void start(){
+        HashedWheelTimer timer = this.parentMessageHandler.getParentNode().getTimer();
+        this.timeout = timer.schedule(this, Config.LOAD_REPORT_INTERVAL, Config.LOAD_REPORT_INTERVAL);
+    }
+
+    public void stop(){
+        if(this.timeout != null){
+            this.timeout.cancel();
+        }
+    }
+
+    public void run(){
+        if(this.parentMessageHandler.getConnection().isClosed()){
+            this.stop();
+            return;
+        }
+        NodeLoad load = this.monitor.measure();
+        String ip = this.parentMessageHandler.getParentNode().getIp();
+        this.parentMessageHandler.sendMessage(new Message(ip, this.parentMessageHandler.getParentNode().getLeaderIp(), load, MessageType.LOAD_REPORT));
+    }
+}
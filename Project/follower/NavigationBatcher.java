@@ -0,0 +1,231 @@
+package project.follower;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import project.Clock;
+import project.helpers.Coordinate;
+import project.log.Log;
+import project.log.LogLevel;
+import project.message.Message;
+import project.message.MessageType;
+import project.message.NavigationBatch;
+import project.message.RetryAfter;
+
+/**
+ * Collects the navigation requests of the clients of a follower and sends them to the leader as NAVIGATION_BATCH,
+ * so the leader reads, dispatches and locks its area once per batch instead of once per request.
+ * Nothing waits for a batch to fill: a batch takes every request queued while the last one was sent (at most maxSize),
+ * so under light load a batch has a single request and under heavy load the batches grow with the queue.
+ * Every batch is numbered, the answer of the leader carries the number (see Message.reply) and is matched with it,
+ * so a stray answer of the leader can't hand the steps of one batch to the clients of another.
+ * Batches still unanswered when the connection to the leader is lost are refused back to their clients.
+ */
+class NavigationBatcher extends Thread {
+    private static final long CLOSED_CHECK_INTERVAL = 100; // in milliseconds, how often an idle batcher checks the connection to the leader
+
+    private final Follower parentFollower;
+    private final int maxSize;
+    private final ArrayDeque<Request> requests = new ArrayDeque<Request>(); // guarded by itself, like closed
+    private boolean closed = false; // the connection to the leader is lost, requests are no longer taken
+    private final HashMap<Long, Batch> sent = new HashMap<Long, Batch>(); //batches waiting for their answer, by sequence number
+
+    private static final class Request {
+        final FollowerClientMessageHandler client;
+        final Message message;
+        final int position;
+        final int destination;
+
+        Request(FollowerClientMessageHandler client, Message message, int position, int destination){
+            this.client = client;
+            this.message = message;
+            this.position = position;
+            this.destination = destination;
+        }
+    }
+
+    private static final class Batch {
+        final FollowerClientMessageHandler[] clients;
+        final long[] sequences; // of the requests, copied to the answers like Message.reply does
+        final NavigationBatch payload;
+
+        Batch(FollowerClientMessageHandler[] clients, long[] sequences, NavigationBatch payload){
+            this.clients = clients;
+            this.sequences = sequences;
+            this.payload = payload;
+        }
+    }
+
+    NavigationBatcher(Follower parentFollower, int maxSize){
+        this.parentFollower = parentFollower;
+        this.maxSize = maxSize;
+        this.setName("NavigationBatcher");
+        this.setDaemon(true);
+    }
+
+    /**
+     * Queues a navigation request of a client for the next batch.
+     * @param client handler of the client connection the answer goes to
+     * @param message the NAVIGATION message of the client
+     * @return false when the message is no NAVIGATION with position and destination, it is then forwarded as it is so the leader answers it,
+     * or when the connection to the leader is lost
+     */
+    boolean add(FollowerClientMessageHandler client, Message message){
+        if(message.getType() != MessageType.NAVIGATION || !(message.getPayload() instanceof Coordinate[])){
+            return false;
+        }
+        Coordinate[] payload = (Coordinate[]) message.getPayload();
+        if(payload.length != 2 || payload[0] == null || payload[1] == null){
+            return false;
+        }
+        Request request = new Request(client, message, payload[0].getPacked(), payload[1].getPacked());
+        synchronized(this.requests){
+            if(this.closed){
+                return false;
+            }
+            this.requests.add(request);
+            Clock.get().signal(this.requests);
+        }
+        return true;
+    }
+
+    public void run(){
+        ArrayList<Request> batch = new ArrayList<Request>(this.maxSize);
+        FollowerLeaderMessageHandler leader = this.parentFollower.getConnectionToLeader();
+        while(!leader.getConnection().isClosed()){
+            try {
+                synchronized(this.requests){
+                    if(this.requests.isEmpty()){
+                        Clock.get().await(this.requests, CLOSED_CHECK_INTERVAL);
+                    }
+                    while(!this.requests.isEmpty() && batch.size() < this.maxSize){
+                        batch.add(this.requests.poll());
+                    }
+                }
+                if(batch.isEmpty()){
+                    continue;
+                }
+                this.send(leader, batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        this.failUnanswered();
+    }
+
+    /**
+     * The connection to the leader is closed, requests still queued or sent never get an answer.
+     */
+    private void failUnanswered(){
+        ArrayList<Request> queued;
+        synchronized(this.requests){
+            this.closed = true;
+            queued = new ArrayList<Request>(this.requests);
+            this.requests.clear();
+        }
+        ArrayList<Batch> unanswered;
+        synchronized(this.sent){
+            unanswered = new ArrayList<Batch>(this.sent.values());
+            this.sent.clear();
+        }
+        String ip = this.parentFollower.getParentNode().getIp();
+        String reason = "Connection to the leader is lost";
+        for (Batch batch : unanswered) {
+            String[] vehicles = batch.payload.getVehicles();
+            for (int i = 0; i < batch.clients.length; i++) {
+                Message reply = new Message(ip, vehicles[i], reason, MessageType.ERROR);
+                reply.setSequence(batch.sequences[i]);
+                batch.clients[i].replyForwarded(reply);
+            }
+        }
+        for (Request request : queued) {
+            Message reply = request.message.reply(ip, reason, MessageType.ERROR);
+            request.client.replyForwarded(reply);
+        }
+    }
+
+    private void send(FollowerLeaderMessageHandler leader, ArrayList<Request> batch){
+        int size = batch.size();
+        FollowerClientMessageHandler[] clients = new FollowerClientMessageHandler[size];
+        long[] sequences = new long[size];
+        String[] vehicles = new String[size];
+        int[] positions = new int[size];
+        int[] destinations = new int[size];
+        for (int i = 0; i < size; i++) {
+            Request request = batch.get(i);
+            clients[i] = request.client;
+            sequences[i] = request.message.getSequence();
+            vehicles[i] = request.message.getSender();
+            positions[i] = request.position;
+            destinations[i] = request.destination;
+        }
+        NavigationBatch payload = new NavigationBatch(vehicles, positions, destinations);
+        Batch waiting = new Batch(clients, sequences, payload);
+        String ip = this.parentFollower.getParentNode().getIp();
+        Message message = new Message(ip, this.parentFollower.getParentNode().getLeaderIp(), payload, MessageType.NAVIGATION_BATCH);
+        message.setSequence(this.parentFollower.nextSequence());
+        synchronized(this.sent){
+            this.sent.put(message.getSequence(), waiting);
+        }
+        if(!leader.sendMessage(message)){
+            //the connection to the leader is backed up, the batch never gets an answer
+            synchronized(this.sent){
+                this.sent.remove(message.getSequence());
+            }
+            RetryAfter refusal = this.parentFollower.getParentNode().getAdmission().refusal("Connection to the leader is backed up");
+            for (int i = 0; i < size; i++) {
+                Message reply = batch.get(i).message.reply(ip, refusal, MessageType.ERROR);
+                clients[i].replyForwarded(reply);
+            }
+        }
+    }
+
+    /**
+     * Answers every client of the batch with the sequence number of the answer the way the leader answers single navigation requests,
+     * an ERROR for the whole batch is passed on to all of them. A RetryAfter of the leader also makes the follower back off.
+     * @param answer SUCCESS or ERROR of the leader addressed to the follower
+     * @return false when no batch was waiting for this answer
+     */
+    boolean answered(Message answer){
+        Batch batch;
+        synchronized(this.sent){
+            batch = this.sent.remove(answer.getSequence());
+        }
+        if(batch == null){
+            return false;
+        }
+        int[] nextSteps = answer.getType() == MessageType.SUCCESS && answer.getPayload() instanceof int[] ? (int[]) answer.getPayload() : null;
+        if(nextSteps == null || nextSteps.length != batch.clients.length){
+            if(Log.isEnabled(LogLevel.DEBUG)){
+                Log.log(LogLevel.DEBUG, "{}: batch of {} requests failed: {}", this.parentFollower.getParentNode().getIp(), batch.clients.length, Log.snapshot(answer.getPayload()));
+            }
+            nextSteps = null;
+        }
+        Object refusal = answer.getPayload() instanceof RetryAfter ? answer.getPayload() : "Move is not possible";
+        if(answer.getPayload() instanceof RetryAfter){
+            this.parentFollower.getParentNode().getAdmission().backOff(((RetryAfter) refusal).getMillis());
+        }
+        String[] vehicles = batch.payload.getVehicles();
+        int[] positions = batch.payload.getPositions();
+        for (int i = 0; i < batch.clients.length; i++) {
+            Message reply;
+            if(nextSteps == null){
+                reply = new Message(answer.getSender(), vehicles[i], refusal, MessageType.ERROR);
+            }
+            else if(nextSteps[i] == Coordinate.NONE){
+                reply = new Message(answer.getSender(), vehicles[i], "Move is not possible", MessageType.ERROR);
+            }
+            else if(nextSteps[i] == positions[i]){
+                reply = new Message(answer.getSender(), vehicles[i], "Can't make move to next field", MessageType.ERROR);
+            }
+            else{
+                reply = new Message(answer.getSender(), vehicles[i], Coordinate.fromPacked(nextSteps[i]), MessageType.SUCCESS);
+            }
+            reply.setSequence(batch.sequences[i]);
+            batch.clients[i].replyForwarded(reply);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package project.follower;
+
+import java.io.IOException;
+
+import project.Config;
+import project.HashedWheelTimer;
+import project.helpers.Coordinate;
+import project.helpers.MapUpdate;
+import project.helpers.MovementNotPossible;
+import project.helpers.TrafficArea;
+import project.helpers.TrafficControlLogic;
+import project.message.Message;
+import project.message.MessageType;
+import project.message.MoveCommit;
+
+/**
+ * Optimistic moves: a replica of the area of the leader, kept up to date by its REPLICA_UPDATE messages (see TrafficArea.apply).
+ * The next steps of the clients of this follower are computed here with the routing of the leader (TrafficControlLogic.propose)
+ * and sent to the leader as MOVE_COMMIT, which only checks them against the versions of its tiles (TrafficControlLogic.commit).
+ * So the routing work is spread over the followers while the area of the leader stays the only truth: a step computed on an
+ * outdated replica is rejected and computed by the leader. Lives as long as the connection to the leader, the historical
+ * congestion of the replica is decayed on the timer of the parent node like on the leader.
+ */
+public class Replica implements Runnable {
+    private FollowerLeaderMessageHandler parentMessageHandler;
+    private TrafficArea area;
+    private TrafficControlLogic logic;
+    private volatile boolean initialised = false; //a full update of the leader was applied
+    private HashedWheelTimer.Timeout timeout;
+
+    /**
+     * Creates the replica with the same size, storage, roads and routing settings as the leader (same system properties).
+     * @param parentMessageHandler connection to the leader the updates come from
+     * @throws IOException when the roads can't be read
+     */
+    public Replica(FollowerLeaderMessageHandler parentMessageHandler) throws IOException{
+        this.parentMessageHandler = parentMessageHandler;
+        this.area = TrafficArea.create(System.getProperty("area", Config.AREA_STORAGE), Config.MAX_PER_NODE, Config.SIZE_X, Config.SIZE_Y);
+        String roads = System.getProperty("roads", Config.ROAD_NETWORK);
+        if(!roads.isEmpty()){
+            this.area.loadRoadNetwork(roads);
+        }
+        this.logic = new TrafficControlLogic(this.area);
+        this.logic.setCongestionPenalty(Float.parseFloat(System.getProperty("congestion.penalty", String.valueOf(Config.CONGESTION_PENALTY))));
+    }
+
+    public void start(){
+        HashedWheelTimer timer = this.parentMessageHandler.getParentNode().getTimer();
+        this.timeout = timer.schedule(this, Config.CONGESTION_DECAY_INTERVAL, Config.CONGESTION_DECAY_INTERVAL);
+    }
+
+    public void stop(){
+        if(this.timeout != null){
+            this.timeout.cancel();
+        }
+    }
+
+    public void run(){
+        if(this.parentMessageHandler.getConnection().isClosed()){
+            this.stop();
+            return;
+        }
+        this.area.decayCongestion(Config.CONGESTION_DECAY_KEEP);
+    }
+
+    /**
+     * @param update REPLICA_UPDATE payload of the leader, applied in the order the leader sent them
+     */
+    void apply(MapUpdate update){
+        this.area.apply(update);
+        if(update.isFull()){
+            this.initialised = true;
+        }
+    }
+
+    /**
+     * Takes over a step the leader answered, like the leader did: every place / remove changes the version of its tile
+     * on both sides, so a replica that was up to date for the tiles stays so. Nothing happens when the replica does not
+     * have the vehicle on from, e.g. because an update of the leader already contained the step.
+     * @param id the vehicle
+     * @param from packed position it asked from
+     * @param to packed step the leader answered
+     * @param destination packed destination, the vehicle is taken off when it is reached
+     */
+    void moved(String id, int from, int to, int destination){
+        synchronized(this.area){
+            if(from == to || this.area.getPackedPosition(id) != from){
+                return;
+            }
+            try {
+                this.area.remove(id, from);
+                this.area.place(id, to);
+                if(to == destination){
+                    this.area.remove(id, to);
+                }
+            } catch (MovementNotPossible | ArrayIndexOutOfBoundsException e) {
+                //the replica is out of date, the next update of the leader repairs it
+            }
+        }
+    }
+
+    /**
+     * Computes the next step of a navigation request on this replica.
+     * @param message NAVIGATION of a client with Coordinate array 0: position, 1: destination
+     * @return MOVE_COMMIT of the client for the leader, null when the request has to be forwarded as it is
+     * (replica not initialised yet, client not on the replica at the reported position, no step possible or other message)
+     */
+    Message propose(Message message){
+        if(!this.initialised || message.getType() != MessageType.NAVIGATION || !(message.getPayload() instanceof Coordinate[])){
+            return null;
+        }
+        Coordinate[] payload = (Coordinate[]) message.getPayload();
+        if(payload.length != 2 || payload[0] == null || payload[1] == null){
+            return null;
+        }
+        int position = payload[0].getPacked();
+        int destination = payload[1].getPacked();
+        int step;
+        int version;
+        synchronized(this.area){ //the version has to belong to the state the step was computed on
+            step = this.logic.propose(message.getSender(), position, destination);
+            if(step == Coordinate.NONE){
+                return null;
+            }
+            version = this.area.getVersion(step);
+        }
+        Message commit = new Message(message.getSender(), message.getReceiver(), new MoveCommit(position, step, destination, version), MessageType.MOVE_COMMIT);
+        commit.setSequence(message.getSequence()); //the answer of the leader goes to the client
+        return commit;
+    }
+
+    public boolean isInitialised(){return this.initialised;}
+    public TrafficArea getArea(){return this.area;}
+}
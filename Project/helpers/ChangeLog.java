@@ -0,0 +1,53 @@
+package project.helpers;
+
+import java.util.HashSet;
+
+/**
+ * IDs and congestion tiles of a TrafficArea changed since the last MapUpdate was taken, see TrafficArea.recordChanges
+ * only used while holding the lock of the area
+ * */
+class ChangeLog {
+    private final HashSet<String> ids = new HashSet<String>();
+    // changed tiles in the order of their first change, marked so every tile is listed once
+    private final int[] tiles;
+    private final boolean[] marked;
+    private int tileCount = 0;
+
+    ChangeLog(int tiles) {
+        this.tiles = new int[tiles];
+        this.marked = new boolean[tiles];
+    }
+
+    /**
+     * the ID was placed on or removed from a cell of the tile
+     * */
+    void record(String id, int tile) {
+        ids.add(id);
+        if (!marked[tile]) {
+            marked[tile] = true;
+            tiles[tileCount++] = tile;
+        }
+    }
+
+    /**
+     * @return the changes since the last call with the current positions and versions, null when nothing changed
+     * */
+    MapUpdate take(PositionIndex positionIndex, CongestionMap congestion) {
+        if (ids.isEmpty() && tileCount==0) return null;
+        String[] changedIds = ids.toArray(new String[ids.size()]);
+        int[] positions = new int[changedIds.length];
+        for (int i = 0; i < changedIds.length; i++) {
+            positions[i] = positionIndex.get(changedIds[i]);
+        }
+        int[] changedTiles = new int[tileCount];
+        int[] versions = new int[tileCount];
+        for (int i = 0; i < tileCount; i++) {
+            changedTiles[i] = tiles[i];
+            versions[i] = congestion.getVersion(tiles[i]);
+            marked[tiles[i]] = false;
+        }
+        ids.clear();
+        tileCount = 0;
+        return new MapUpdate(false, changedIds, positions, changedTiles, versions);
+    }
+}
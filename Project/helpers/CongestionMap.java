@@ -0,0 +1,166 @@
+package project.helpers;
+
+import java.util.Arrays;
+
+/**
+ * congestion of the area per square tile of at least MIN_TILE_SIZE cells per side (larger on very large maps, at most MAX_TILES per side)
+ * the number of IDs per tile is kept up to date by TrafficArea on every place / remove,
+ * decay() folds the current density into a historical density that remembers jams after they dissolved
+ * every tile has a version that changes with every place / remove on it, so a step computed on a replica of the area
+ * can be checked against the current area (see TrafficControlLogic.commit)
+ * */
+public class CongestionMap {
+    private static final int MIN_TILE_SIZE = 8;
+    private static final int MAX_TILES = 256;
+
+    private final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+    // slots of a tile, a density of 1 means every slot is taken
+    private final float capacity;
+    private final int[] counts;
+    private final float[] history;
+    // incremented on every add / remove, set by TrafficArea.apply on replicas
+    private final int[] versions;
+
+    CongestionMap(int sizeX, int sizeY, int maxPerNode) {
+        tileSize = Math.max(MIN_TILE_SIZE, (Math.max(sizeX, sizeY) + MAX_TILES - 1) / MAX_TILES);
+        tilesX = (sizeX + tileSize - 1) / tileSize;
+        tilesY = (sizeY + tileSize - 1) / tileSize;
+        capacity = tileSize * tileSize * maxPerNode;
+        counts = new int[tilesX * tilesY];
+        history = new float[tilesX * tilesY];
+        versions = new int[tilesX * tilesY];
+    }
+
+    void add(int x, int y) {
+        int tile = (x / tileSize) * tilesY + y / tileSize;
+        counts[tile]++;
+        versions[tile]++;
+    }
+
+    void remove(int x, int y) {
+        int tile = (x / tileSize) * tilesY + y / tileSize;
+        counts[tile]--;
+        versions[tile]++;
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(history, 0);
+        Arrays.fill(versions, 0);
+    }
+
+    /**
+     * moves the historical density of every tile towards its current density
+     * @param keep share of the old historical density that is kept, between 0 (forget) and 1 (never change)
+     * */
+    void decay(float keep) {
+        for (int i = 0; i < counts.length; i++) {
+            history[i] = history[i] * keep + (1 - keep) * counts[i] / capacity;
+        }
+    }
+
+    /**
+     * @return current share of taken slots of the tile containing the cell
+     * */
+    public float getDensity(int x, int y) {
+        return counts[(x / tileSize) * tilesY + y / tileSize] / capacity;
+    }
+
+    /**
+     * @return decayed density of the tile containing the cell
+     * */
+    public float getHistoricalDensity(int x, int y) {
+        return history[(x / tileSize) * tilesY + y / tileSize];
+    }
+
+    /**
+     * mean of current and historical density, interpolated between the centres of the neighbouring tiles
+     * so it changes smoothly from cell to cell and a jam can also be left inside of a tile
+     * @return congestion of the cell between 0 (empty) and 1 (every slot taken)
+     * */
+    public float getCongestion(int x, int y) {
+        // position in tile units relative to the centres of the tiles
+        float tx = (x + 0.5f) / tileSize - 0.5f;
+        float ty = (y + 0.5f) / tileSize - 0.5f;
+        int x0 = Math.max(0, Math.min(tilesX - 1, (int) Math.floor(tx)));
+        int y0 = Math.max(0, Math.min(tilesY - 1, (int) Math.floor(ty)));
+        int x1 = Math.min(tilesX - 1, x0 + 1);
+        int y1 = Math.min(tilesY - 1, y0 + 1);
+        float fx = Math.max(0, Math.min(1, tx - x0));
+        float fy = Math.max(0, Math.min(1, ty - y0));
+        float top = tile(x0, y0) * (1 - fx) + tile(x1, y0) * fx;
+        float bottom = tile(x0, y1) * (1 - fx) + tile(x1, y1) * fx;
+        return top * (1 - fy) + bottom * fy;
+    }
+
+    /**
+     * mean of current and historical density of one tile, used by FlowField
+     * */
+    float getTileCongestion(int tileX, int tileY) {
+        return tile(tileX, tileY);
+    }
+
+    /**
+     * @param tile index of the tile (tileX * tilesY + tileY)
+     * @return IDs currently placed on the tile
+     * */
+    int getTileCount(int tile) {
+        return counts[tile];
+    }
+
+    /**
+     * @param tile index of the tile (tileX * tilesY + tileY)
+     * @return changes of the tile so far
+     * */
+    int getVersion(int tile) {
+        return versions[tile];
+    }
+
+    void setVersion(int tile, int version) {
+        versions[tile] = version;
+    }
+
+    /**
+     * @return index of the tile containing the cell, the tiles of one column of tiles have consecutive indexes
+     * */
+    int getTile(int x, int y) {
+        return (x / tileSize) * tilesY + y / tileSize;
+    }
+
+    /**
+     * the step of a client that wants to get into a neighbouring tile: the neighbour cell in the direction of that tile
+     * @param tile index of the neighbouring tile
+     * @return packed neighbour cell, inside of the area
+     * */
+    int stepTowards(int x, int y, int tile, int sizeX, int sizeY) {
+        int stepX = tile / tilesY - x / tileSize;
+        int stepY = tile % tilesY - y / tileSize;
+        return Coordinate.pack(Math.min(sizeX - 1, Math.max(0, x + stepX)), Math.min(sizeY - 1, Math.max(0, y + stepY)));
+    }
+
+    /**
+     * @return slots of one tile
+     * */
+    float getCapacity() {
+        return capacity;
+    }
+
+    int getTileSize() {
+        return tileSize;
+    }
+
+    int getTilesX() {
+        return tilesX;
+    }
+
+    int getTilesY() {
+        return tilesY;
+    }
+
+    private float tile(int tileX, int tileY) {
+        int index = tileX * tilesY + tileY;
+        return (counts[index] / capacity + history[index]) / 2;
+    }
+}
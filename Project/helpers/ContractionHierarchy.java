@@ -0,0 +1,446 @@
+package project.helpers;
+
+import java.util.Arrays;
+
+/**
+ * contraction hierarchy over the intersections of a RoadNetwork, answers cheapest way queries in microseconds
+ * preprocessing takes the nodes out of the graph one by one, the node adding the fewest shortcuts first (see getPriority);
+ * a shortcut replaces a way over the removed node when there is no other way (witness) that is at most as expensive
+ * a query only searches upwards (towards later contracted nodes) from the sources and from the targets, both searches meet at the
+ * node contracted last on the cheapest way; a shortcut knows the two arcs it replaces, so the first original arc is found by unpacking
+ * the query works on the ranks of the nodes (their position in the contraction order), so the nodes high in the hierarchy every
+ * query reaches lie next to each other in memory; query state is kept in arrays reused by every query, nothing is allocated
+ * only used while holding the lock of the area
+ * */
+class ContractionHierarchy {
+    static final int NONE = -1;
+    private static final float INFINITY = Float.MAX_VALUE;
+    // settled nodes per witness search, more finds more witnesses (fewer shortcuts) but contracts slower;
+    // the priorities are only estimated, with a smaller search
+    private static final int WITNESS_SETTLE_LIMIT = 100;
+    private static final int ESTIMATE_SETTLE_LIMIT = 20;
+
+    private final int nodes;
+    // arcs between node ids, the original ones first (in the order of the constructor), then the shortcuts
+    private int arcCount = 0;
+    private int[] arcFrom;
+    private int[] arcTo;
+    private float[] arcCost;
+    // the two arcs a shortcut replaces, NONE for original arcs
+    private int[] arcFirst;
+    private int[] arcSecond;
+    private final int originalArcs;
+    // position of a node id in the contraction order and the node id of a rank
+    private final int[] rank;
+    private final int[] nodeOfRank;
+    // arcs upwards by rank, arc i of rank r is one of upStart[r] until upStart[r + 1] - 1, with the rank of its other end,
+    // its cost and its arc index; up: r -> higher rank, down: higher rank -> r (searched from r against the direction)
+    private int[] upStart;
+    private int[] upEnds;
+    private float[] upCosts;
+    private int[] upArcs;
+    private int[] downStart;
+    private int[] downEnds;
+    private float[] downCosts;
+    private int[] downArcs;
+
+    // query by rank, costs and parent arcs are valid for ranks with reached == search
+    private final TileHeap forwardHeap;
+    private final TileHeap backwardHeap;
+    private final float[] forwardCosts;
+    private final float[] backwardCosts;
+    private final int[] forwardParents;
+    private final int[] backwardParents;
+    private final int[] forwardReached;
+    private final int[] backwardReached;
+    private int search = 0;
+    private int meeting = NONE;
+
+    /**
+     * contracts the graph
+     * @param nodes number of nodes
+     * @param from start node of every arc
+     * @param to end node of every arc
+     * @param cost cost of every arc, not negative
+     * */
+    ContractionHierarchy(int nodes, int[] from, int[] to, float[] cost) {
+        this.nodes = nodes;
+        this.originalArcs = from.length;
+        int capacity = Math.max(16, from.length * 2);
+        arcFrom = new int[capacity];
+        arcTo = new int[capacity];
+        arcCost = new float[capacity];
+        arcFirst = new int[capacity];
+        arcSecond = new int[capacity];
+        rank = new int[nodes];
+        nodeOfRank = new int[nodes];
+        forwardHeap = new TileHeap(nodes);
+        backwardHeap = new TileHeap(nodes);
+        forwardCosts = new float[nodes];
+        backwardCosts = new float[nodes];
+        forwardParents = new int[nodes];
+        backwardParents = new int[nodes];
+        forwardReached = new int[nodes];
+        backwardReached = new int[nodes];
+        new Contraction(from, to, cost).run();
+        for (int node = 0; node < nodes; node++) {
+            nodeOfRank[rank[node]] = node;
+        }
+        buildUpwardArcs();
+    }
+
+    /**
+     * starts a new query, add the sources and targets before calling search
+     * */
+    void clear() {
+        search++;
+        meeting = NONE;
+        forwardHeap.clear();
+        backwardHeap.clear();
+    }
+
+    /**
+     * @param node a node the way may start at
+     * @param cost cost to reach the node from the actual start
+     * */
+    void addSource(int node, float cost) {
+        int r = rank[node];
+        if (forwardReached[r]==search && forwardCosts[r]<=cost) return;
+        forwardReached[r] = search;
+        forwardCosts[r] = cost;
+        forwardParents[r] = NONE;
+        forwardHeap.update(r, cost);
+    }
+
+    /**
+     * @param node a node the way may end at
+     * @param cost cost from the node to the actual destination
+     * */
+    void addTarget(int node, float cost) {
+        int r = rank[node];
+        if (backwardReached[r]==search && backwardCosts[r]<=cost) return;
+        backwardReached[r] = search;
+        backwardCosts[r] = cost;
+        backwardParents[r] = NONE;
+        backwardHeap.update(r, cost);
+    }
+
+    /**
+     * searches the cheapest way from one of the sources to one of the targets, alternating between both directions
+     * a direction stops when its cheapest node is not cheaper than the best way found
+     * @return cost of the way including the costs of its source and target, Float.MAX_VALUE if there is none
+     * */
+    float search() {
+        float best = INFINITY;
+        boolean forward = true;
+        while (true) {
+            boolean forwardDone = forwardHeap.isEmpty() || forwardHeap.peekPriority()>=best;
+            boolean backwardDone = backwardHeap.isEmpty() || backwardHeap.peekPriority()>=best;
+            if (forwardDone && backwardDone) break;
+            if (backwardDone || (forward && !forwardDone)) best = settle(forwardHeap, forwardCosts, forwardParents, forwardReached, backwardCosts, backwardReached,
+                upStart, upEnds, upCosts, upArcs, downStart, downEnds, downCosts, best);
+            else best = settle(backwardHeap, backwardCosts, backwardParents, backwardReached, forwardCosts, forwardReached,
+                downStart, downEnds, downCosts, downArcs, upStart, upEnds, upCosts, best);
+            forward = !forward;
+        }
+        return best;
+    }
+
+    /**
+     * settles the cheapest rank of one direction and relaxes its arcs in that direction
+     * stall on demand: a rank reached cheaper over a higher rank (an arc of the other direction) is not on a cheapest way,
+     * its arcs are not relaxed
+     * @return the cost of the best way found so far
+     * */
+    private float settle(TileHeap heap, float[] costs, int[] parents, int[] reached, float[] otherCosts, int[] otherReached,
+                         int[] start, int[] ends, float[] arcCosts, int[] arcs, int[] stallStart, int[] stallEnds, float[] stallCosts, float best) {
+        int r = heap.pop();
+        float cost = costs[r];
+        if (otherReached[r]==search && cost + otherCosts[r]<best)
+        {
+            best = cost + otherCosts[r];
+            meeting = r;
+        }
+        for (int i = stallStart[r]; i < stallStart[r + 1]; i++) {
+            int higher = stallEnds[i];
+            if (reached[higher]==search && costs[higher] + stallCosts[i]<cost) return best;
+        }
+        for (int i = start[r]; i < start[r + 1]; i++) {
+            int next = ends[i];
+            float nextCost = cost + arcCosts[i];
+            if (reached[next]!=search || nextCost<costs[next])
+            {
+                reached[next] = search;
+                costs[next] = nextCost;
+                parents[next] = arcs[i];
+                heap.update(next, nextCost);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the source node the way of the last search starts at, NONE if there is no way
+     * */
+    int getSource() {
+        if (meeting==NONE) return NONE;
+        int r = meeting;
+        while (forwardParents[r]!=NONE) r = rank[arcFrom[forwardParents[r]]];
+        return nodeOfRank[r];
+    }
+
+    /**
+     * @return the target node the way of the last search ends at, NONE if there is no way
+     * */
+    int getTarget() {
+        if (meeting==NONE) return NONE;
+        int r = meeting;
+        while (backwardParents[r]!=NONE) r = rank[arcTo[backwardParents[r]]];
+        return nodeOfRank[r];
+    }
+
+    /**
+     * @return the original arc (index of the constructor) the way of the last search starts with,
+     * NONE if there is no way or source and target are the same node
+     * */
+    int getFirstArc() {
+        if (meeting==NONE) return NONE;
+        int arc = NONE;
+        int r = meeting;
+        while (forwardParents[r]!=NONE) {
+            arc = forwardParents[r];
+            r = rank[arcFrom[arc]];
+        }
+        if (arc==NONE) arc = backwardParents[meeting];
+        if (arc==NONE) return NONE;
+        while (arcFirst[arc]!=NONE) arc = arcFirst[arc];
+        return arc;
+    }
+
+    /**
+     * @return number of shortcuts added by the contraction
+     * */
+    int getShortcuts() {
+        return arcCount - originalArcs;
+    }
+
+    private int addArc(int from, int to, float cost, int first, int second) {
+        if (arcCount==arcFrom.length)
+        {
+            int capacity = arcCount * 2;
+            arcFrom = Arrays.copyOf(arcFrom, capacity);
+            arcTo = Arrays.copyOf(arcTo, capacity);
+            arcCost = Arrays.copyOf(arcCost, capacity);
+            arcFirst = Arrays.copyOf(arcFirst, capacity);
+            arcSecond = Arrays.copyOf(arcSecond, capacity);
+        }
+        arcFrom[arcCount] = from;
+        arcTo[arcCount] = to;
+        arcCost[arcCount] = cost;
+        arcFirst[arcCount] = first;
+        arcSecond[arcCount] = second;
+        return arcCount++;
+    }
+
+    /**
+     * sorts every arc into the upward arcs of its lower ranked end
+     * */
+    private void buildUpwardArcs() {
+        upStart = new int[nodes + 1];
+        downStart = new int[nodes + 1];
+        for (int arc = 0; arc < arcCount; arc++) {
+            int from = rank[arcFrom[arc]];
+            int to = rank[arcTo[arc]];
+            if (to>from) upStart[from + 1]++;
+            else downStart[to + 1]++;
+        }
+        for (int r = 0; r < nodes; r++) {
+            upStart[r + 1] += upStart[r];
+            downStart[r + 1] += downStart[r];
+        }
+        upEnds = new int[upStart[nodes]];
+        upCosts = new float[upStart[nodes]];
+        upArcs = new int[upStart[nodes]];
+        downEnds = new int[downStart[nodes]];
+        downCosts = new float[downStart[nodes]];
+        downArcs = new int[downStart[nodes]];
+        int[] upFill = Arrays.copyOf(upStart, nodes);
+        int[] downFill = Arrays.copyOf(downStart, nodes);
+        for (int arc = 0; arc < arcCount; arc++) {
+            int from = rank[arcFrom[arc]];
+            int to = rank[arcTo[arc]];
+            if (to>from)
+            {
+                int i = upFill[from]++;
+                upEnds[i] = to;
+                upCosts[i] = arcCost[arc];
+                upArcs[i] = arc;
+            }
+            else
+            {
+                int i = downFill[to]++;
+                downEnds[i] = from;
+                downCosts[i] = arcCost[arc];
+                downArcs[i] = arc;
+            }
+        }
+    }
+
+    /**
+     * state of the preprocessing, dropped once the hierarchy is built
+     * */
+    private class Contraction {
+        // arcs between the nodes that are not contracted yet, arcs to a contracted node are removed (see disconnect)
+        private final int[][] in = new int[nodes][];
+        private final int[] inCount = new int[nodes];
+        private final int[][] out = new int[nodes][];
+        private final int[] outCount = new int[nodes];
+        private final boolean[] contracted = new boolean[nodes];
+        private final int[] contractedNeighbours = new int[nodes];
+        // longest chain of contracted nodes below a node, keeps the hierarchy flat
+        private final int[] levels = new int[nodes];
+        // witness search, costs are valid for nodes with witnessReached == witnessSearch
+        private final TileHeap witnessHeap = new TileHeap(nodes);
+        private final float[] witnessCosts = new float[nodes];
+        private final int[] witnessReached = new int[nodes];
+        private int witnessSearch = 0;
+
+        Contraction(int[] from, int[] to, float[] cost) {
+            for (int node = 0; node < nodes; node++) {
+                in[node] = new int[4];
+                out[node] = new int[4];
+            }
+            for (int i = 0; i < from.length; i++) {
+                connect(addArc(from[i], to[i], cost[i], NONE, NONE));
+            }
+        }
+
+        void run() {
+            TileHeap queue = new TileHeap(nodes);
+            for (int node = 0; node < nodes; node++) {
+                queue.update(node, getPriority(node));
+            }
+            int order = 0;
+            while (!queue.isEmpty()) {
+                int node = queue.pop();
+                // lazy update: the priority may have grown since the node was queued, take it only if it still is the smallest
+                float priority = getPriority(node);
+                if (!queue.isEmpty() && priority>queue.peekPriority())
+                {
+                    queue.update(node, priority);
+                    continue;
+                }
+                addShortcuts(node, true);
+                contracted[node] = true;
+                rank[node] = order++;
+                for (int i = 0; i < inCount[node]; i++) {
+                    int neighbour = arcFrom[in[node][i]];
+                    disconnect(neighbour, node);
+                    updateNeighbour(neighbour, node, queue);
+                }
+                for (int i = 0; i < outCount[node]; i++) {
+                    int neighbour = arcTo[out[node][i]];
+                    disconnect(neighbour, node);
+                    updateNeighbour(neighbour, node, queue);
+                }
+            }
+        }
+
+        private void updateNeighbour(int neighbour, int node, TileHeap queue) {
+            if (contracted[neighbour]) return;
+            contractedNeighbours[neighbour]++;
+            levels[neighbour] = Math.max(levels[neighbour], levels[node] + 1);
+            queue.update(neighbour, getPriority(neighbour));
+        }
+
+        /**
+         * removes the arcs between a node and its contracted neighbour from the node, so searches don't read them any more
+         * */
+        private void disconnect(int node, int contractedNeighbour) {
+            for (int i = inCount[node] - 1; i >= 0; i--) {
+                if (arcFrom[in[node][i]]==contractedNeighbour) in[node][i] = in[node][--inCount[node]];
+            }
+            for (int i = outCount[node] - 1; i >= 0; i--) {
+                if (arcTo[out[node][i]]==contractedNeighbour) out[node][i] = out[node][--outCount[node]];
+            }
+        }
+
+        /**
+         * shortcuts the contraction of the node adds minus the arcs it removes, plus its contracted neighbours and its level
+         * so the nodes are spread over the graph and the hierarchy stays flat
+         * */
+        private float getPriority(int node) {
+            return 2 * (addShortcuts(node, false) - inCount[node] - outCount[node]) + contractedNeighbours[node] + levels[node];
+        }
+
+        /**
+         * every way u -> node -> w without a witness needs a shortcut u -> w
+         * @param add true to add the shortcuts, false to only count them
+         * @return number of shortcuts
+         * */
+        private int addShortcuts(int node, boolean add) {
+            int shortcuts = 0;
+            for (int i = 0; i < inCount[node]; i++) {
+                int inArc = in[node][i];
+                int source = arcFrom[inArc];
+                if (contracted[source]) continue;
+                float maxCost = 0;
+                for (int j = 0; j < outCount[node]; j++) {
+                    int target = arcTo[out[node][j]];
+                    if (!contracted[target] && target!=source) maxCost = Math.max(maxCost, arcCost[inArc] + arcCost[out[node][j]]);
+                }
+                if (maxCost==0) continue;
+                searchWitnesses(source, node, maxCost, add ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+                for (int j = 0; j < outCount[node]; j++) {
+                    int outArc = out[node][j];
+                    int target = arcTo[outArc];
+                    if (contracted[target] || target==source) continue;
+                    float viaCost = arcCost[inArc] + arcCost[outArc];
+                    if (witnessReached[target]==witnessSearch && witnessCosts[target]<=viaCost) continue;
+                    shortcuts++;
+                    if (add) connect(addArc(source, target, viaCost, inArc, outArc));
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * limited dijkstra from source that does not pass the node being contracted
+         * */
+        private void searchWitnesses(int source, int skipped, float maxCost, int settleLimit) {
+            witnessSearch++;
+            witnessHeap.clear();
+            witnessReached[source] = witnessSearch;
+            witnessCosts[source] = 0;
+            witnessHeap.update(source, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && settled<settleLimit) {
+                int node = witnessHeap.pop();
+                float nodeCost = witnessCosts[node];
+                if (nodeCost>maxCost) break;
+                settled++;
+                for (int i = 0; i < outCount[node]; i++) {
+                    int arc = out[node][i];
+                    int next = arcTo[arc];
+                    if (next==skipped || contracted[next]) continue;
+                    float nextCost = nodeCost + arcCost[arc];
+                    if (witnessReached[next]!=witnessSearch || nextCost<witnessCosts[next])
+                    {
+                        witnessReached[next] = witnessSearch;
+                        witnessCosts[next] = nextCost;
+                        witnessHeap.update(next, nextCost);
+                    }
+                }
+            }
+        }
+
+        private void connect(int arc) {
+            int from = arcFrom[arc];
+            int to = arcTo[arc];
+            if (outCount[from]==out[from].length) out[from] = Arrays.copyOf(out[from], outCount[from] * 2);
+            out[from][outCount[from]++] = arc;
+            if (inCount[to]==in[to].length) in[to] = Arrays.copyOf(in[to], inCount[to] * 2);
+            in[to][inCount[to]++] = arc;
+        }
+    }
+}
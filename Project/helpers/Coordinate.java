@@ -4,8 +4,12 @@ import java.io.Serializable;
 
 /**
  * simple coordinate class used
+ * On the navigation hot path coordinates are packed into one int instead (x in the upper, y in the lower 16 bits), see pack.
  * */
 public class Coordinate implements Serializable {
+    // packed value for "no position", valid coordinates are never negative
+    public static final int NONE = -1;
+
     short x = -1;
     short y = -1;
 
@@ -14,6 +18,26 @@ public class Coordinate implements Serializable {
         this.y = y;
     }
 
+    public static int pack(int x, int y) {
+        return (x << 16) | (y & 0xFFFF);
+    }
+
+    public static short unpackX(int packed) {
+        return (short) (packed >> 16);
+    }
+
+    public static short unpackY(int packed) {
+        return (short) packed;
+    }
+
+    public static Coordinate fromPacked(int packed) {
+        return new Coordinate(unpackX(packed), unpackY(packed));
+    }
+
+    public int getPacked() {
+        return pack(x, y);
+    }
+
     public short getX() {
         return x;
     }
@@ -30,4 +54,9 @@ public class Coordinate implements Serializable {
             return false;
         }
     }
+
+    @Override
+    public String toString(){
+        return this.x + ":" + this.y;
+    }
 }
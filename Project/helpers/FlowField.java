@@ -0,0 +1,100 @@
+package project.helpers;
+
+import java.util.Arrays;
+
+/**
+ * shortest ways from every tile of the CongestionMap to the tile of a destination, so a client bound there finds its next step with one lookup
+ * computed with Dijkstra over the tiles (8 neighbours), entering a tile costs its length times 1 + penalty * congestion of the tile
+ * all arrays are allocated once and reused when the field is refreshed or reused for another destination
+ * */
+class FlowField {
+    private static final float DIAGONAL = (float) Math.sqrt(2);
+    // no next tile: the destination tile itself or not reachable
+    private static final int NO_TILE = -1;
+
+    private int destinationTile = NO_TILE;
+    private long lastUsed;
+    private long lastComputed;
+    // next tile on the way to the destination per tile
+    private final int[] nextTile;
+    // work arrays of Dijkstra
+    private final float[] distances;
+    private final TileHeap heap;
+
+    FlowField(int tiles) {
+        nextTile = new int[tiles];
+        distances = new float[tiles];
+        heap = new TileHeap(tiles);
+    }
+
+    /**
+     * (re)computes the field for a destination tile with the current congestion
+     * @param destinationTile index of the tile (tileX * tilesY + tileY)
+     * @param congestion congestion of the area, the tiles of the field are its tiles
+     * @param penalty weight of the congestion, 0 for the plain distance
+     * @param now clock of FlowFields
+     * */
+    void compute(int destinationTile, CongestionMap congestion, float penalty, long now) {
+        this.destinationTile = destinationTile;
+        this.lastComputed = now;
+        int tileSize = congestion.getTileSize();
+        int tilesY = congestion.getTilesY();
+        int tilesX = congestion.getTilesX();
+        Arrays.fill(distances, Float.MAX_VALUE);
+        Arrays.fill(nextTile, NO_TILE);
+        heap.clear();
+
+        // searched backwards from the destination, the next tile of a tile is the one it was reached from
+        distances[destinationTile] = 0;
+        heap.update(destinationTile, 0);
+        while (!heap.isEmpty()) {
+            int tile = heap.pop();
+            int tileX = tile / tilesY;
+            int tileY = tile % tilesY;
+            // every neighbour is left towards this tile, entering it costs the same from all of them
+            float enter = tileSize * (1 + penalty * congestion.getTileCongestion(tileX, tileY));
+            for (int xOffset = -1; xOffset <= 1; xOffset++) {
+                for (int yOffset = -1; yOffset <= 1; yOffset++) {
+                    int x = tileX + xOffset;
+                    int y = tileY + yOffset;
+                    if ((xOffset==0 && yOffset==0) || x<0 || y<0 || x>=tilesX || y>=tilesY) continue;
+                    float length = xOffset!=0 && yOffset!=0 ? DIAGONAL : 1;
+                    float cost = distances[tile] + length * enter;
+                    int neighbour = x * tilesY + y;
+                    if (cost < distances[neighbour])
+                    {
+                        distances[neighbour] = cost;
+                        nextTile[neighbour] = tile;
+                        heap.update(neighbour, cost);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * the step of a client on its way to the destination: in the direction of the next tile
+     * @return the packed neighbour cell to step to or Coordinate.NONE when the client is in the destination tile
+     * */
+    int nextStep(int x, int y, CongestionMap congestion, int sizeX, int sizeY) {
+        int next = nextTile[congestion.getTile(x, y)];
+        if (next==NO_TILE) return Coordinate.NONE;
+        return congestion.stepTowards(x, y, next, sizeX, sizeY);
+    }
+
+    int getDestinationTile() {
+        return destinationTile;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    long getLastComputed() {
+        return lastComputed;
+    }
+
+    void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+}
@@ -0,0 +1,169 @@
+package project.helpers;
+
+import java.util.Arrays;
+
+/**
+ * flow fields of the most requested destination tiles (see CongestionMap), shared by every client bound there
+ * destination tiles are counted with the space saving algorithm (a fixed number of counters, the smallest one is taken over by a new
+ * tile), a tile gets a field once its counter minus the count it inherited reaches minRequests; the counters are halved on every refresh, so only tiles many clients
+ * are bound to at the same time get one; the least recently used field makes room
+ * small arrays searched linearly, nothing is allocated once all fields exist
+ * only used while holding the lock of the area
+ * */
+public class FlowFields {
+    // destinations that are counted, a multiple of the fields so popular destinations are not pushed out by single requests
+    private static final int COUNTERS_PER_FIELD = 4;
+    private static final int NOT_COUNTED = -1;
+
+    private final TrafficArea trafficArea;
+    private final FlowField[] fields;
+    private int fieldCount = 0;
+    private final int[] counted;
+    private final int[] counts;
+    private final int[] errors;
+    private final int minRequests;
+    private long clock = 0;
+    private float penalty = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param trafficArea the area the fields are computed for
+     * @param capacity maximum number of fields
+     * @param minRequests requests for a destination until it gets a field
+     * */
+    public FlowFields(TrafficArea trafficArea, int capacity, int minRequests) {
+        this.trafficArea = trafficArea;
+        this.fields = new FlowField[capacity];
+        this.counted = new int[capacity * COUNTERS_PER_FIELD];
+        this.counts = new int[capacity * COUNTERS_PER_FIELD];
+        this.errors = new int[capacity * COUNTERS_PER_FIELD];
+        this.minRequests = minRequests;
+        Arrays.fill(counted, NOT_COUNTED);
+    }
+
+    /**
+     * counts a request for the destination
+     * @param destination packed destination
+     * @return the field of the destination tile or null if it is not (yet) popular enough
+     * */
+    FlowField lookup(int destination) {
+        CongestionMap congestion = trafficArea.getCongestion();
+        int destinationTile = congestion.getTile(Coordinate.unpackX(destination), Coordinate.unpackY(destination));
+        clock++;
+        for (int i = 0; i < fieldCount; i++) {
+            if (fields[i].getDestinationTile()==destinationTile)
+            {
+                fields[i].setLastUsed(clock);
+                hits++;
+                return fields[i];
+            }
+        }
+        misses++;
+        int smallest = 0;
+        for (int i = 0; i < counted.length; i++) {
+            if (counted[i]==destinationTile)
+            {
+                smallest = i;
+                break;
+            }
+            if (counts[i] < counts[smallest]) smallest = i;
+        }
+        if (counted[smallest]!=destinationTile)
+        {
+            // space saving: the new tile inherits the smallest count, so it is never underestimated,
+            // the inherited part is remembered, otherwise many distinct destinations push every counter over minRequests
+            counted[smallest] = destinationTile;
+            errors[smallest] = counts[smallest];
+        }
+        counts[smallest]++;
+        if (counts[smallest] - errors[smallest] < minRequests) return null;
+        counted[smallest] = NOT_COUNTED;
+        counts[smallest] = 0;
+        errors[smallest] = 0;
+        return create(destinationTile, congestion);
+    }
+
+    /**
+     * the field of the destination tile without counting the request or creating a field, e.g. for steps computed ahead
+     * @param destination packed destination
+     * @return the field or null if the destination tile has none
+     * */
+    FlowField peek(int destination) {
+        int destinationTile = trafficArea.getCongestion().getTile(Coordinate.unpackX(destination), Coordinate.unpackY(destination));
+        for (int i = 0; i < fieldCount; i++) {
+            if (fields[i].getDestinationTile()==destinationTile) return fields[i];
+        }
+        return null;
+    }
+
+    /**
+     * recomputes every field with the current congestion and halves the request counters, called periodically (by the leader)
+     * one field at a time under the lock of the area, so navigation waits for one computation at most (about 3 ms on a 1000 x 1000 map),
+     * fields nobody used since they were computed are skipped
+     * */
+    public void refresh() {
+        synchronized (trafficArea)
+        {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] /= 2;
+                errors[i] /= 2;
+            }
+        }
+        for (int i = 0; i < fields.length; i++) {
+            synchronized (trafficArea)
+            {
+                if (i >= fieldCount) return;
+                if (fields[i].getLastUsed() > fields[i].getLastComputed()) fields[i].compute(fields[i].getDestinationTile(), trafficArea.getCongestion(), penalty, clock);
+            }
+        }
+    }
+
+    private FlowField create(int destinationTile, CongestionMap congestion) {
+        FlowField field;
+        if (fieldCount < fields.length)
+        {
+            field = new FlowField(congestion.getTilesX() * congestion.getTilesY());
+            fields[fieldCount++] = field;
+        }
+        else
+        {
+            // reuse the least recently used field
+            field = fields[0];
+            for (int i = 1; i < fieldCount; i++) {
+                if (fields[i].getLastUsed() < field.getLastUsed()) field = fields[i];
+            }
+        }
+        field.compute(destinationTile, congestion, penalty, clock);
+        field.setLastUsed(clock);
+        return field;
+    }
+
+    /**
+     * @return number of destinations that currently have a field
+     * */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return requests answered with a field
+     * */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return requests for destinations without a field
+     * */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @param penalty weight of the congestion when the fields are computed, see TrafficControlLogic.setCongestionPenalty
+     * */
+    void setPenalty(float penalty) {
+        this.penalty = penalty;
+    }
+}
@@ -0,0 +1,58 @@
+package project.helpers;
+
+import java.io.Serializable;
+
+/**
+ * state of a TrafficArea sent to the replicas of it on other nodes (see TrafficArea.apply): the current position of the IDs
+ * that changed (Coordinate.NONE for removed ones) and the current version of the congestion tiles that changed
+ * the values are absolute, so applying an update twice or an update already covered by the replica changes nothing
+ * a full update describes the whole area, the replica drops everything it knew before
+ * never changed after it was created, so one update can be sent to every replica
+ * */
+public class MapUpdate implements Serializable {
+    private final boolean full;
+    private final String[] ids;
+    private final int[] positions;
+    private final int[] tiles;
+    private final int[] versions;
+
+    MapUpdate(boolean full, String[] ids, int[] positions, int[] tiles, int[] versions) {
+        this.full = full;
+        this.ids = ids;
+        this.positions = positions;
+        this.tiles = tiles;
+        this.versions = versions;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * @return number of IDs in this update
+     * */
+    public int getSize() {
+        return ids.length;
+    }
+
+    String[] getIds() {
+        return ids;
+    }
+
+    int[] getPositions() {
+        return positions;
+    }
+
+    int[] getTiles() {
+        return tiles;
+    }
+
+    int[] getVersions() {
+        return versions;
+    }
+
+    @Override
+    public String toString() {
+        return (full ? "full update of " : "update of ") + ids.length + " ids on " + tiles.length + " tiles";
+    }
+}
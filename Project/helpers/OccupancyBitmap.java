@@ -0,0 +1,57 @@
+package project.helpers;
+
+import java.util.Arrays;
+
+/**
+ * one bit per cell of the area, set when the cell has no free slot left
+ * cells are numbered column by column (x * sizeY + y), so a column is one contiguous run of bits
+ * */
+class OccupancyBitmap {
+    private final long[] words;
+    private final int sizeY;
+
+    OccupancyBitmap(int sizeX, int sizeY) {
+        this.sizeY = sizeY;
+        this.words = new long[(int) (((long) sizeX * sizeY + 63) / 64)];
+    }
+
+    boolean isFull(int x, int y) {
+        int cell = x * sizeY + y;
+        return (words[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    void setFull(int x, int y) {
+        int cell = x * sizeY + y;
+        words[cell >>> 6] |= 1L << cell;
+    }
+
+    void setFree(int x, int y) {
+        int cell = x * sizeY + y;
+        words[cell >>> 6] &= ~(1L << cell);
+    }
+
+    void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    /**
+     * finds the cell with the smallest y in column x that has a free slot, checking 64 cells at once
+     * @return y of the free cell or -1 if the column is full
+     * */
+    int firstFreeInColumn(int x) {
+        int from = x * sizeY;
+        int to = from + sizeY;
+        int wordIndex = from >>> 6;
+        // bits below from belong to the previous column, treat them as full
+        long free = ~words[wordIndex] & (-1L << from);
+        while (true) {
+            if (free != 0) {
+                int cell = (wordIndex << 6) + Long.numberOfTrailingZeros(free);
+                return cell < to ? cell - from : -1;
+            }
+            wordIndex++;
+            if (wordIndex << 6 >= to) return -1;
+            free = ~words[wordIndex];
+        }
+    }
+}
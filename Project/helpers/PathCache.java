@@ -0,0 +1,276 @@
+package project.helpers;
+
+import java.util.Arrays;
+
+/**
+ * routes over the tiles of the CongestionMap for clients bound to destinations without a flow field
+ * keyed by (tile of the client, tile of the destination); a missing route is searched with A* and every tile on it gets the rest
+ * of the route as well, so clients following on the same lane find it
+ * set associative: a key can only be stored in the WAYS entries of its set, the set evicts its least recently (LRU)
+ * or least frequently (LFU) used entry; nothing is allocated on a hit
+ * a route is dropped when the number of IDs on one of its tiles changed by more than threshold of the slots of the tile (see checkOccupancy)
+ * only used while holding the lock of the area
+ * */
+public class PathCache {
+    public enum Eviction { LRU, LFU }
+
+    private static final int WAYS = 4;
+    private static final long EMPTY = -1;
+    private static final float DIAGONAL = (float) Math.sqrt(2);
+
+    private final TrafficArea trafficArea;
+    private final Eviction eviction;
+    private final float threshold;
+    private final int setMask;
+    // entries, set s uses the indexes s * WAYS until s * WAYS + WAYS - 1
+    private final long[] keys;
+    private final int[][] routes;
+    private final int[] offsets;
+    private final long[] lastUsed;
+    private final int[] uses;
+    // IDs per tile when the tile was last found changed
+    private final int[] referenceCounts;
+    private final boolean[] changed;
+    // work arrays of A*, costs and previous tiles are valid for tiles with visited == search
+    private final TileHeap heap;
+    private final float[] costs;
+    private final int[] previous;
+    private final int[] visited;
+    private int search = 0;
+    private float penalty = 0;
+    private long clock = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    /**
+     * @param trafficArea the area the routes are searched in
+     * @param capacity maximum number of entries, rounded up to a power of two sets of WAYS entries
+     * @param eviction which entry of a full set makes room
+     * @param threshold share of the slots of a tile the number of its IDs may change until the routes over it are dropped
+     * */
+    public PathCache(TrafficArea trafficArea, int capacity, Eviction eviction, float threshold) {
+        this.trafficArea = trafficArea;
+        this.eviction = eviction;
+        this.threshold = threshold;
+        int sets = 1;
+        while (sets * WAYS < capacity) sets <<= 1;
+        this.setMask = sets - 1;
+        this.keys = new long[sets * WAYS];
+        this.routes = new int[sets * WAYS][];
+        this.offsets = new int[sets * WAYS];
+        this.lastUsed = new long[sets * WAYS];
+        this.uses = new int[sets * WAYS];
+        Arrays.fill(keys, EMPTY);
+        CongestionMap congestion = trafficArea.getCongestion();
+        int tiles = congestion.getTilesX() * congestion.getTilesY();
+        this.referenceCounts = new int[tiles];
+        this.changed = new boolean[tiles];
+        this.heap = new TileHeap(tiles);
+        this.costs = new float[tiles];
+        this.previous = new int[tiles];
+        this.visited = new int[tiles];
+    }
+
+    /**
+     * the step of a client on its cached (or newly searched) route: in the direction of the next tile
+     * @return the packed neighbour cell to step to or Coordinate.NONE when the client is in the destination tile
+     * */
+    int nextStep(int x, int y, int destination, int sizeX, int sizeY) {
+        CongestionMap congestion = trafficArea.getCongestion();
+        int origin = congestion.getTile(x, y);
+        int destinationTile = congestion.getTile(Coordinate.unpackX(destination), Coordinate.unpackY(destination));
+        if (origin==destinationTile) return Coordinate.NONE;
+        clock++;
+        long key = (long) origin << 32 | destinationTile;
+        int set = setOf(key);
+        for (int i = set; i < set + WAYS; i++) {
+            if (keys[i]==key)
+            {
+                hits++;
+                lastUsed[i] = clock;
+                uses[i]++;
+                return congestion.stepTowards(x, y, routes[i][offsets[i] + 1], sizeX, sizeY);
+            }
+        }
+        misses++;
+        int[] route = search(origin, destinationTile, congestion);
+        for (int i = 0; i < route.length - 1; i++) {
+            insert((long) route[i] << 32 | destinationTile, route, i);
+        }
+        return congestion.stepTowards(x, y, route[1], sizeX, sizeY);
+    }
+
+    /**
+     * the step of a client on its cached route without counting it or searching a route, e.g. for steps computed ahead
+     * @return the packed neighbour cell to step to or Coordinate.NONE when the client is in the destination tile or no route is cached
+     * */
+    int peekStep(int x, int y, int destination, int sizeX, int sizeY) {
+        CongestionMap congestion = trafficArea.getCongestion();
+        int origin = congestion.getTile(x, y);
+        int destinationTile = congestion.getTile(Coordinate.unpackX(destination), Coordinate.unpackY(destination));
+        if (origin==destinationTile) return Coordinate.NONE;
+        long key = (long) origin << 32 | destinationTile;
+        int set = setOf(key);
+        for (int i = set; i < set + WAYS; i++) {
+            if (keys[i]==key) return congestion.stepTowards(x, y, routes[i][offsets[i] + 1], sizeX, sizeY);
+        }
+        return Coordinate.NONE;
+    }
+
+    /**
+     * drops the routes over tiles whose number of IDs changed by more than the threshold, called periodically (by the leader)
+     * */
+    public void checkOccupancy() {
+        synchronized (trafficArea)
+        {
+            CongestionMap congestion = trafficArea.getCongestion();
+            float limit = threshold * congestion.getCapacity();
+            boolean anyChanged = false;
+            for (int tile = 0; tile < referenceCounts.length; tile++) {
+                int count = congestion.getTileCount(tile);
+                if (Math.abs(count - referenceCounts[tile]) > limit)
+                {
+                    referenceCounts[tile] = count;
+                    changed[tile] = true;
+                    anyChanged = true;
+                }
+            }
+            if (!anyChanged) return;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i]==EMPTY) continue;
+                int[] route = routes[i];
+                for (int j = offsets[i]; j < route.length; j++) {
+                    if (changed[route[j]])
+                    {
+                        keys[i] = EMPTY;
+                        routes[i] = null;
+                        invalidations++;
+                        break;
+                    }
+                }
+            }
+            Arrays.fill(changed, false);
+        }
+    }
+
+    private void insert(long key, int[] route, int offset) {
+        int set = setOf(key);
+        int victim = set;
+        for (int i = set; i < set + WAYS; i++) {
+            if (keys[i]==key || keys[i]==EMPTY)
+            {
+                victim = i;
+                break;
+            }
+            boolean worse = eviction==Eviction.LRU ? lastUsed[i] < lastUsed[victim] : uses[i] < uses[victim];
+            if (worse) victim = i;
+        }
+        keys[victim] = key;
+        routes[victim] = route;
+        offsets[victim] = offset;
+        lastUsed[victim] = clock;
+        uses[victim] = 0;
+    }
+
+    /**
+     * A* from the origin to the destination tile, entering a tile costs its length times 1 + penalty * congestion of the tile
+     * (like FlowField), the straight distance is the estimate of the rest
+     * @return the tiles of the route, origin first and destination last
+     * */
+    private int[] search(int origin, int destinationTile, CongestionMap congestion) {
+        int tileSize = congestion.getTileSize();
+        int tilesX = congestion.getTilesX();
+        int tilesY = congestion.getTilesY();
+        int destinationX = destinationTile / tilesY;
+        int destinationY = destinationTile % tilesY;
+        search++;
+        heap.clear();
+        visited[origin] = search;
+        costs[origin] = 0;
+        previous[origin] = -1;
+        heap.update(origin, 0);
+        while (!heap.isEmpty()) {
+            int tile = heap.pop();
+            if (tile==destinationTile) break;
+            int tileX = tile / tilesY;
+            int tileY = tile % tilesY;
+            for (int xOffset = -1; xOffset <= 1; xOffset++) {
+                for (int yOffset = -1; yOffset <= 1; yOffset++) {
+                    int x = tileX + xOffset;
+                    int y = tileY + yOffset;
+                    if ((xOffset==0 && yOffset==0) || x<0 || y<0 || x>=tilesX || y>=tilesY) continue;
+                    int neighbour = x * tilesY + y;
+                    float length = xOffset!=0 && yOffset!=0 ? DIAGONAL : 1;
+                    float cost = costs[tile] + length * tileSize * (1 + penalty * congestion.getTileCongestion(x, y));
+                    if (visited[neighbour]!=search || cost < costs[neighbour])
+                    {
+                        visited[neighbour] = search;
+                        costs[neighbour] = cost;
+                        previous[neighbour] = tile;
+                        heap.update(neighbour, cost + tileSize * estimate(x, y, destinationX, destinationY));
+                    }
+                }
+            }
+        }
+        int length = 1;
+        for (int tile = destinationTile; previous[tile]!=-1; tile = previous[tile]) {
+            length++;
+        }
+        int[] route = new int[length];
+        for (int tile = destinationTile, i = length - 1; i >= 0; tile = previous[tile], i--) {
+            route[i] = tile;
+        }
+        return route;
+    }
+
+    /**
+     * @return length of the shortest way between two tiles with straight and diagonal steps, never more than the real cost
+     * */
+    private static float estimate(int x1, int y1, int x2, int y2) {
+        int dx = Math.abs(x1 - x2);
+        int dy = Math.abs(y1 - y2);
+        return Math.max(dx, dy) + (DIAGONAL - 1) * Math.min(dx, dy);
+    }
+
+    private int setOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) ((hash >>> 32) & setMask) * WAYS;
+    }
+
+    /**
+     * @return requests answered from the cache
+     * */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return requests that had to search a route
+     * */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return entries dropped because the occupancy of their tiles changed
+     * */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return share of the requests answered from the cache in percent
+     * */
+    public long getHitRate() {
+        long requests = hits + misses;
+        return requests==0 ? 0 : hits * 100 / requests;
+    }
+
+    /**
+     * @param penalty weight of the congestion when routes are searched, see TrafficControlLogic.setCongestionPenalty
+     * */
+    void setPenalty(float penalty) {
+        this.penalty = penalty;
+    }
+}
@@ -0,0 +1,106 @@
+package project.helpers;
+
+/**
+ * maps client ids to their packed position, so TrafficArea does not have to scan the whole area to find a client
+ * open addressing with linear probing, nothing is allocated after the table has grown to the number of clients
+ * */
+class PositionIndex {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * @param id id of the client
+     * @return the packed position or Coordinate.NONE
+     * */
+    int get(String id) {
+        int mask = keys.length - 1;
+        for (int i = slot(id, mask); keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(id)) return values[i];
+        }
+        return Coordinate.NONE;
+    }
+
+    void put(String id, int position) {
+        int mask = keys.length - 1;
+        int i = slot(id, mask);
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(id)) {
+                values[i] = position;
+                return;
+            }
+        }
+        keys[i] = id;
+        values[i] = position;
+        size++;
+        // keep the load factor below 1/2, probe sequences stay short
+        if (size * 2 > keys.length) grow();
+    }
+
+    void remove(String id) {
+        int mask = keys.length - 1;
+        int i = slot(id, mask);
+        while (keys[i] != null && !keys[i].equals(id)) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == null) return;
+        // shift following entries back instead of leaving a tombstone
+        int free = i;
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - free) & mask)) {
+                keys[free] = keys[j];
+                values[free] = values[j];
+                free = j;
+            }
+        }
+        keys[free] = null;
+        size--;
+    }
+
+    void clear() {
+        keys = new String[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * for iterating over the table: slots are 0 to getSlots() - 1, empty slots have no id
+     * */
+    int getSlots() {
+        return keys.length;
+    }
+
+    /**
+     * @return id of the client in the slot or null
+     * */
+    String getId(int slot) {
+        return keys[slot];
+    }
+
+    int getPosition(int slot) {
+        return values[slot];
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private static int slot(String id, int mask) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
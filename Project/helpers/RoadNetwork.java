@@ -0,0 +1,409 @@
+package project.helpers;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * the roads of an area, read from a file (see read): intersections (nodes) connected by straight roads, both ways or one way,
+ * with a cost (the number of steps by default); blocked cells close every road and node on them
+ * clients only drive on the cells of the open roads, every step goes to the next cell of the cheapest way to the destination (see nextStep);
+ * the ways between the nodes are answered by a ContractionHierarchy built once when the file is read
+ * the occupancy stays in the TrafficArea: a client waits in front of a full cell, it is not routed around it
+ * only used while holding the lock of the area
+ * */
+public class RoadNetwork {
+    private static final int EMPTY = -1;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int[] nodePositions;
+    // every road with its cells from the cell of its start node (index 0) to the cell of its end node
+    private final int[][] roadCells;
+    private final int[] roadFrom;
+    private final int[] roadTo;
+    private final float[] roadStepCosts;
+    private final boolean[] oneWay;
+    private final int closedRoads;
+    // the arc of the hierarchy i is road i / 2, driven backwards if i is odd
+    private final int[] arcRoads;
+    private final ContractionHierarchy hierarchy;
+    // open addressing table of the cells of open roads and nodes: node cells store -(node + 1) in cellRoads,
+    // the other cells their road and their index in the cells of the road
+    private final int[] cellKeys;
+    private final int[] cellRoads;
+    private final int[] cellIndexes;
+    private final int cellShift;
+    private final int[] cells;
+
+    private RoadNetwork(int sizeX, int sizeY, int[] nodePositions, boolean[] closedNodes, ArrayList<int[]> roads, ArrayList<Float> costs,
+                        ArrayList<Boolean> oneWays, int closedRoads, int cellCount) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.nodePositions = nodePositions;
+        this.roadCells = roads.toArray(new int[0][]);
+        this.roadFrom = new int[roadCells.length];
+        this.roadTo = new int[roadCells.length];
+        this.roadStepCosts = new float[roadCells.length];
+        this.oneWay = new boolean[roadCells.length];
+        this.closedRoads = closedRoads;
+
+        int capacity = Integer.highestOneBit(Math.max(16, cellCount * 2 - 1)) << 1;
+        cellShift = 32 - Integer.numberOfTrailingZeros(capacity);
+        cellKeys = new int[capacity];
+        cellRoads = new int[capacity];
+        cellIndexes = new int[capacity];
+        Arrays.fill(cellKeys, EMPTY);
+        cells = new int[cellCount];
+        int cellsAdded = 0;
+        for (int node = 0; node < nodePositions.length; node++) {
+            if (closedNodes[node]) continue;
+            int slot = findSlot(nodePositions[node]);
+            cellKeys[slot] = nodePositions[node];
+            cellRoads[slot] = -(node + 1);
+            cells[cellsAdded++] = nodePositions[node];
+        }
+
+        int arcs = 0;
+        for (int road = 0; road < roadCells.length; road++) {
+            arcs += oneWays.get(road) ? 1 : 2;
+        }
+        int[] arcFrom = new int[arcs];
+        int[] arcTo = new int[arcs];
+        float[] arcCosts = new float[arcs];
+        arcRoads = new int[arcs];
+        int arc = 0;
+        for (int road = 0; road < roadCells.length; road++) {
+            int[] roadCell = roadCells[road];
+            int steps = roadCell.length - 1;
+            roadFrom[road] = -(cellRoads[findSlot(roadCell[0])] + 1);
+            roadTo[road] = -(cellRoads[findSlot(roadCell[steps])] + 1);
+            roadStepCosts[road] = costs.get(road) / steps;
+            oneWay[road] = oneWays.get(road);
+            for (int i = 1; i < steps; i++) {
+                int slot = findSlot(roadCell[i]);
+                cellKeys[slot] = roadCell[i];
+                cellRoads[slot] = road;
+                cellIndexes[slot] = i;
+                cells[cellsAdded++] = roadCell[i];
+            }
+            arcFrom[arc] = roadFrom[road];
+            arcTo[arc] = roadTo[road];
+            arcCosts[arc] = costs.get(road);
+            arcRoads[arc++] = road * 2;
+            if (!oneWay[road])
+            {
+                arcFrom[arc] = roadTo[road];
+                arcTo[arc] = roadFrom[road];
+                arcCosts[arc] = costs.get(road);
+                arcRoads[arc++] = road * 2 + 1;
+            }
+        }
+        hierarchy = new ContractionHierarchy(nodePositions.length, arcFrom, arcTo, arcCosts);
+    }
+
+    /**
+     * reads a road network file, see read(Reader, int, int)
+     * @param file path of the file
+     * */
+    public static RoadNetwork load(String file, int sizeX, int sizeY) throws IOException {
+        try (FileReader reader = new FileReader(file))
+        {
+            return read(reader, sizeX, sizeY);
+        }
+    }
+
+    /**
+     * reads a road network, one entry per line, # starts a comment, coordinates are x:y cells of the area:
+     * node (name) (x:y)                 an intersection
+     * road (name) (name) [cost]         a straight road usable in both directions, cost defaults to its number of steps
+     * oneway (name) (name) [cost]       a straight road only usable from the first to the second node
+     * block (x:y) [(x:y)]               blocked cell or box of cells (corners included), closes the roads and nodes on them
+     * roads may only share cells at their nodes; the cells between two nodes are drawn as a line of neighbouring cells (diagonal steps allowed)
+     * @param sizeX size of the area in x - direction
+     * @param sizeY size of the area in y - direction
+     * @throws IllegalArgumentException for malformed lines, unknown nodes, cells outside of the area and roads crossing without a node
+     * */
+    public static RoadNetwork read(Reader reader, int sizeX, int sizeY) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        HashMap<String, Integer> nodeNames = new HashMap<String, Integer>();
+        ArrayList<Integer> nodes = new ArrayList<Integer>();
+        ArrayList<String[]> roadLines = new ArrayList<String[]>();
+        ArrayList<Integer> roadLineNumbers = new ArrayList<Integer>();
+        ArrayList<int[]> blocks = new ArrayList<int[]>();
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine())!=null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment>=0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] parts = line.split("\\s+");
+            switch (parts[0]) {
+                case "node":
+                    expectParts(parts, 3, 3, lineNumber);
+                    if (nodeNames.containsKey(parts[1])) throw new IllegalArgumentException("line " + lineNumber + ": node " + parts[1] + " exists already");
+                    nodeNames.put(parts[1], nodes.size());
+                    nodes.add(parseCell(parts[2], sizeX, sizeY, lineNumber));
+                    break;
+                case "road":
+                case "oneway":
+                    expectParts(parts, 3, 4, lineNumber);
+                    roadLines.add(parts);
+                    roadLineNumbers.add(lineNumber);
+                    break;
+                case "block":
+                    expectParts(parts, 2, 3, lineNumber);
+                    int corner = parseCell(parts[1], sizeX, sizeY, lineNumber);
+                    int opposite = parts.length==3 ? parseCell(parts[2], sizeX, sizeY, lineNumber) : corner;
+                    blocks.add(new int[] {
+                        Math.min(Coordinate.unpackX(corner), Coordinate.unpackX(opposite)), Math.min(Coordinate.unpackY(corner), Coordinate.unpackY(opposite)),
+                        Math.max(Coordinate.unpackX(corner), Coordinate.unpackX(opposite)), Math.max(Coordinate.unpackY(corner), Coordinate.unpackY(opposite))});
+                    break;
+                default:
+                    throw new IllegalArgumentException("line " + lineNumber + ": unknown entry " + parts[0] + ", use node, road, oneway or block");
+            }
+        }
+
+        int[] nodePositions = new int[nodes.size()];
+        boolean[] closedNodes = new boolean[nodes.size()];
+        // cells taken by nodes and roads, only to find roads crossing without a node
+        HashMap<Integer, Integer> taken = new HashMap<Integer, Integer>();
+        int cellCount = 0;
+        for (int node = 0; node < nodePositions.length; node++) {
+            nodePositions[node] = nodes.get(node);
+            closedNodes[node] = isBlocked(nodePositions[node], blocks);
+            if (taken.put(nodePositions[node], node)!=null) throw new IllegalArgumentException("two nodes at " + Coordinate.fromPacked(nodePositions[node]));
+            if (!closedNodes[node]) cellCount++;
+        }
+        ArrayList<int[]> roads = new ArrayList<int[]>();
+        ArrayList<Float> costs = new ArrayList<Float>();
+        ArrayList<Boolean> oneWays = new ArrayList<Boolean>();
+        int closedRoads = 0;
+        for (int i = 0; i < roadLines.size(); i++) {
+            String[] parts = roadLines.get(i);
+            int number = roadLineNumbers.get(i);
+            Integer from = nodeNames.get(parts[1]);
+            Integer to = nodeNames.get(parts[2]);
+            if (from==null || to==null) throw new IllegalArgumentException("line " + number + ": unknown node " + (from==null ? parts[1] : parts[2]));
+            if (from.equals(to)) throw new IllegalArgumentException("line " + number + ": a road needs two different nodes");
+            int[] roadCell = drawLine(nodePositions[from], nodePositions[to]);
+            for (int j = 1; j < roadCell.length - 1; j++) {
+                if (taken.put(roadCell[j], -1)!=null) throw new IllegalArgumentException("line " + number + ": road crosses another road or node at " + Coordinate.fromPacked(roadCell[j]));
+            }
+            boolean closed = closedNodes[from] || closedNodes[to];
+            for (int j = 0; j < roadCell.length && !closed; j++) {
+                closed = isBlocked(roadCell[j], blocks);
+            }
+            if (closed)
+            {
+                closedRoads++;
+                continue;
+            }
+            float cost = roadCell.length - 1;
+            if (parts.length==4)
+            {
+                try {
+                    cost = Float.parseFloat(parts[3]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("line " + number + ": cost " + parts[3] + " is not a number");
+                }
+                if (!(cost>0)) throw new IllegalArgumentException("line " + number + ": cost must be positive");
+            }
+            roads.add(roadCell);
+            costs.add(cost);
+            oneWays.add(parts[0].equals("oneway"));
+            cellCount += roadCell.length - 2;
+        }
+        return new RoadNetwork(sizeX, sizeY, nodePositions, closedNodes, roads, costs, oneWays, closedRoads, cellCount);
+    }
+
+    /**
+     * the next cell of the cheapest way along the roads, the way starts in both directions of the road of the client (one way roads
+     * only forwards) and ends in both directions on the road of the destination
+     * @param position packed position of the client, on a road
+     * @param destination packed destination, on a road
+     * @return packed neighbour cell to step to, Coordinate.NONE if the client is at the destination, one of both is not on a road
+     * or the destination can't be reached
+     * */
+    public int nextStep(int position, int destination) {
+        if (position==destination) return Coordinate.NONE;
+        int positionSlot = lookup(position);
+        int destinationSlot = lookup(destination);
+        if (positionSlot==EMPTY || destinationSlot==EMPTY) return Coordinate.NONE;
+
+        int road = cellRoads[positionSlot];
+        int index = cellIndexes[positionSlot];
+        // a one way road can only be driven forwards, no search needed
+        if (road>=0 && oneWay[road]) return roadCells[road][index + 1];
+
+        hierarchy.clear();
+        if (road<0) hierarchy.addSource(-road - 1, 0);
+        else
+        {
+            hierarchy.addSource(roadTo[road], (roadCells[road].length - 1 - index) * roadStepCosts[road]);
+            if (!oneWay[road]) hierarchy.addSource(roadFrom[road], index * roadStepCosts[road]);
+        }
+        int destinationRoad = cellRoads[destinationSlot];
+        int destinationIndex = cellIndexes[destinationSlot];
+        if (destinationRoad<0) hierarchy.addTarget(-destinationRoad - 1, 0);
+        else
+        {
+            hierarchy.addTarget(roadFrom[destinationRoad], destinationIndex * roadStepCosts[destinationRoad]);
+            if (!oneWay[destinationRoad]) hierarchy.addTarget(roadTo[destinationRoad], (roadCells[destinationRoad].length - 1 - destinationIndex) * roadStepCosts[destinationRoad]);
+        }
+        float cost = hierarchy.search();
+
+        if (road>=0 && road==destinationRoad)
+        {
+            // both on the same road, driving straight there may be cheaper than over the nodes
+            float direct = Float.MAX_VALUE;
+            if (destinationIndex>index) direct = (destinationIndex - index) * roadStepCosts[road];
+            else if (!oneWay[road]) direct = (index - destinationIndex) * roadStepCosts[road];
+            if (direct<=cost) return roadCells[road][destinationIndex>index ? index + 1 : index - 1];
+        }
+        if (cost==Float.MAX_VALUE) return Coordinate.NONE;
+        if (road>=0)
+        {
+            // on a road: towards the node the way starts at
+            return roadCells[road][hierarchy.getSource()==roadTo[road] ? index + 1 : index - 1];
+        }
+        int arc = hierarchy.getFirstArc();
+        if (arc!=ContractionHierarchy.NONE)
+        {
+            int firstRoad = arcRoads[arc] / 2;
+            boolean backwards = arcRoads[arc] % 2==1;
+            return roadCells[firstRoad][backwards ? roadCells[firstRoad].length - 2 : 1];
+        }
+        // on the node the way ends at: onto the road of the destination
+        int[] destinationCells = roadCells[destinationRoad];
+        return destinationCells[hierarchy.getTarget()==roadFrom[destinationRoad] ? 1 : destinationCells.length - 2];
+    }
+
+    /**
+     * @return true if the cell belongs to an open road or node
+     * */
+    public boolean isRoad(int x, int y) {
+        return lookup(Coordinate.pack(x, y))!=EMPTY;
+    }
+
+    private int lookup(int cell) {
+        int slot = findSlot(cell);
+        return cellKeys[slot]==EMPTY ? EMPTY : slot;
+    }
+
+    private int findSlot(int cell) {
+        int slot = (cell * 0x9E3779B9) >>> cellShift;
+        while (cellKeys[slot]!=EMPTY && cellKeys[slot]!=cell) {
+            slot = (slot + 1) & (cellKeys.length - 1);
+        }
+        return slot;
+    }
+
+    /**
+     * cells of a straight line, every cell is a neighbour (diagonal too) of the previous one
+     * */
+    private static int[] drawLine(int from, int to) {
+        int x0 = Coordinate.unpackX(from);
+        int y0 = Coordinate.unpackY(from);
+        int dx = Coordinate.unpackX(to) - x0;
+        int dy = Coordinate.unpackY(to) - y0;
+        int steps = Math.max(Math.abs(dx), Math.abs(dy));
+        int[] line = new int[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            line[i] = Coordinate.pack(x0 + (int) Math.round((double) dx * i / steps), y0 + (int) Math.round((double) dy * i / steps));
+        }
+        return line;
+    }
+
+    private static boolean isBlocked(int cell, ArrayList<int[]> blocks) {
+        int x = Coordinate.unpackX(cell);
+        int y = Coordinate.unpackY(cell);
+        for (int[] block : blocks) {
+            if (x>=block[0] && y>=block[1] && x<=block[2] && y<=block[3]) return true;
+        }
+        return false;
+    }
+
+    private static int parseCell(String text, int sizeX, int sizeY, int lineNumber) {
+        String[] parts = text.split(":");
+        int x;
+        int y;
+        try {
+            if (parts.length!=2) throw new NumberFormatException();
+            x = Integer.parseInt(parts[0]);
+            y = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("line " + lineNumber + ": " + text + " is not a cell x:y");
+        }
+        if (x<0 || y<0 || x>=sizeX || y>=sizeY) throw new IllegalArgumentException("line " + lineNumber + ": " + text + " is outside of the area");
+        return Coordinate.pack(x, y);
+    }
+
+    private static void expectParts(String[] parts, int min, int max, int lineNumber) {
+        if (parts.length<min || parts.length>max) throw new IllegalArgumentException("line " + lineNumber + ": wrong number of values for " + parts[0]);
+    }
+
+    /**
+     * @return number of nodes, closed ones included
+     * */
+    public int getNodeCount() {
+        return nodePositions.length;
+    }
+
+    /**
+     * @return packed cell of the node
+     * */
+    public int getNodePosition(int node) {
+        return nodePositions[node];
+    }
+
+    /**
+     * @return number of open roads
+     * */
+    public int getRoadCount() {
+        return roadCells.length;
+    }
+
+    /**
+     * @return number of roads closed by blocked cells
+     * */
+    public int getClosedRoads() {
+        return closedRoads;
+    }
+
+    /**
+     * @return number of shortcuts the contraction hierarchy added
+     * */
+    public int getShortcuts() {
+        return hierarchy.getShortcuts();
+    }
+
+    /**
+     * @return number of cells of open roads and nodes
+     * */
+    public int getCellCount() {
+        return cells.length;
+    }
+
+    /**
+     * @param i index from 0 until getCellCount() - 1
+     * @return packed cell of an open road or node
+     * */
+    public int getCell(int i) {
+        return cells[i];
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+}
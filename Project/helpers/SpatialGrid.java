@@ -0,0 +1,205 @@
+package project.helpers;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * spatial index of the placed IDs, the area is split into square buckets of at least MIN_BUCKET_SIZE cells per side,
+ * larger on very large maps so there are never more than MAX_BUCKETS buckets per side
+ * every bucket lists its IDs with their positions, buckets are allocated on first use
+ * kept up to date incrementally by TrafficArea on every place / remove, queries only visit the buckets they overlap
+ * */
+class SpatialGrid {
+    // small buckets keep nearest and remove cheap on crowded maps, the directory of a 1000 x 1000 map still has only 15625 entries
+    private static final int MIN_BUCKET_SIZE = 8;
+    // keeps the directory small for sparse, very large (tiled) maps
+    private static final int MAX_BUCKETS = 256;
+
+    private final int bucketSize;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int bucketsX;
+    private final int bucketsY;
+    private final Bucket[] buckets;
+    private final int initialBucketCapacity;
+    private int occupied = 0; // IDs in all buckets, bounds the result of nearest
+
+    /**
+     * @param maxPerNode maximum IDs per cell
+     * @param growBuckets true to start buckets small and grow them (sparse maps), false to size them for a full bucket on first use,
+     * so moving IDs never allocates
+     * */
+    SpatialGrid(int sizeX, int sizeY, int maxPerNode, boolean growBuckets) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.bucketSize = Math.max(MIN_BUCKET_SIZE, (Math.max(sizeX, sizeY) + MAX_BUCKETS - 1) / MAX_BUCKETS);
+        this.bucketsX = (sizeX + bucketSize - 1) / bucketSize;
+        this.bucketsY = (sizeY + bucketSize - 1) / bucketSize;
+        this.buckets = new Bucket[bucketsX * bucketsY];
+        this.initialBucketCapacity = growBuckets ? 4 : bucketSize * bucketSize * maxPerNode;
+    }
+
+    void add(String id, int position) {
+        int index = bucketIndex(Coordinate.unpackX(position) / bucketSize, Coordinate.unpackY(position) / bucketSize);
+        if (buckets[index]==null) buckets[index] = new Bucket(initialBucketCapacity);
+        buckets[index].add(id, position);
+        occupied++;
+    }
+
+    void remove(String id, int position) {
+        Bucket bucket = buckets[bucketIndex(Coordinate.unpackX(position) / bucketSize, Coordinate.unpackY(position) / bucketSize)];
+        if (bucket!=null && bucket.remove(id)) occupied--;
+    }
+
+    void clear() {
+        Arrays.fill(buckets, null);
+        occupied = 0;
+    }
+
+    /**
+     * @return all IDs with their positions inside the box (corners included)
+     * */
+    LinkedHashMap<String, Coordinate> inRange(int x0, int y0, int x1, int y1) {
+        LinkedHashMap<String, Coordinate> result = new LinkedHashMap<String, Coordinate>();
+        int minX = Math.max(0, Math.min(x0, x1)), maxX = Math.min(sizeX - 1, Math.max(x0, x1));
+        int minY = Math.max(0, Math.min(y0, y1)), maxY = Math.min(sizeY - 1, Math.max(y0, y1));
+        for (int bx = minX / bucketSize; bx <= maxX / bucketSize && minX <= maxX; bx++) {
+            for (int by = minY / bucketSize; by <= maxY / bucketSize && minY <= maxY; by++) {
+                Bucket bucket = buckets[bucketIndex(bx, by)];
+                if (bucket==null) continue;
+                for (int i = 0; i < bucket.count; i++) {
+                    int x = Coordinate.unpackX(bucket.positions[i]);
+                    int y = Coordinate.unpackY(bucket.positions[i]);
+                    if (x>=minX && x<=maxX && y>=minY && y<=maxY) result.put(bucket.ids[i], Coordinate.fromPacked(bucket.positions[i]));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of IDs inside the box (corners included), buckets lying completely inside are only counted
+     * */
+    int count(int x0, int y0, int x1, int y1) {
+        int minX = Math.max(0, Math.min(x0, x1)), maxX = Math.min(sizeX - 1, Math.max(x0, x1));
+        int minY = Math.max(0, Math.min(y0, y1)), maxY = Math.min(sizeY - 1, Math.max(y0, y1));
+        int count = 0;
+        for (int bx = minX / bucketSize; bx <= maxX / bucketSize && minX <= maxX; bx++) {
+            for (int by = minY / bucketSize; by <= maxY / bucketSize && minY <= maxY; by++) {
+                Bucket bucket = buckets[bucketIndex(bx, by)];
+                if (bucket==null) continue;
+                boolean inside = bx * bucketSize >= minX && (bx + 1) * bucketSize - 1 <= maxX
+                        && by * bucketSize >= minY && (by + 1) * bucketSize - 1 <= maxY;
+                if (inside)
+                {
+                    count += bucket.count;
+                    continue;
+                }
+                for (int i = 0; i < bucket.count; i++) {
+                    int x = Coordinate.unpackX(bucket.positions[i]);
+                    int y = Coordinate.unpackY(bucket.positions[i]);
+                    if (x>=minX && x<=maxX && y>=minY && y<=maxY) count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * searches the buckets in rings around the point until no unvisited bucket can contain a nearer ID
+     * @param k positive, never more than the placed IDs are searched, whatever a request asks for
+     * @return up to k IDs with their positions, nearest first
+     * */
+    LinkedHashMap<String, Coordinate> nearest(int x, int y, int k) {
+        if (k<=0) throw new IllegalArgumentException("k must be positive");
+        k = Math.min(k, occupied);
+        String[] ids = new String[k];
+        int[] positions = new int[k];
+        long[] distances = new long[k];
+        int found = 0;
+        int centerX = Math.max(0, Math.min(bucketsX - 1, x / bucketSize));
+        int centerY = Math.max(0, Math.min(bucketsY - 1, y / bucketSize));
+        int maxRing = Math.max(Math.max(centerX, bucketsX - 1 - centerX), Math.max(centerY, bucketsY - 1 - centerY));
+        for (int ring = 0; ring <= maxRing && k > 0; ring++) {
+            for (int bx = centerX - ring; bx <= centerX + ring; bx++) {
+                for (int by = centerY - ring; by <= centerY + ring; by++) {
+                    // only the border of the ring, the inside was visited before
+                    if (bx!=centerX - ring && bx!=centerX + ring && by!=centerY - ring && by!=centerY + ring) continue;
+                    if (bx<0 || by<0 || bx>=bucketsX || by>=bucketsY) continue;
+                    Bucket bucket = buckets[bucketIndex(bx, by)];
+                    if (bucket==null) continue;
+                    for (int i = 0; i < bucket.count; i++) {
+                        long dx = Coordinate.unpackX(bucket.positions[i]) - x;
+                        long dy = Coordinate.unpackY(bucket.positions[i]) - y;
+                        long distance = dx * dx + dy * dy;
+                        if (found==k && distance>=distances[k - 1]) continue;
+                        // insertion into the sorted candidates
+                        int j = found<k ? found++ : k - 1;
+                        while (j > 0 && distances[j - 1] > distance) {
+                            ids[j] = ids[j - 1];
+                            positions[j] = positions[j - 1];
+                            distances[j] = distances[j - 1];
+                            j--;
+                        }
+                        ids[j] = bucket.ids[i];
+                        positions[j] = bucket.positions[i];
+                        distances[j] = distance;
+                    }
+                }
+            }
+            // every cell outside of the visited rings is at least ring * bucketSize + 1 away
+            long reach = (long) ring * bucketSize + 1;
+            if (found==k && distances[k - 1] < reach * reach) break;
+        }
+        LinkedHashMap<String, Coordinate> result = new LinkedHashMap<String, Coordinate>();
+        for (int i = 0; i < found; i++) {
+            result.put(ids[i], Coordinate.fromPacked(positions[i]));
+        }
+        return result;
+    }
+
+    private int bucketIndex(int bx, int by) {
+        return bx * bucketsY + by;
+    }
+
+    private static class Bucket {
+        String[] ids;
+        int[] positions;
+        int count = 0;
+
+        Bucket(int capacity) {
+            ids = new String[capacity];
+            positions = new int[capacity];
+        }
+
+        void add(String id, int position) {
+            if (count==ids.length)
+            {
+                ids = Arrays.copyOf(ids, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            ids[count] = id;
+            positions[count] = position;
+            count++;
+        }
+
+        /**
+         * @return false when the ID was not in this bucket
+         * */
+        boolean remove(String id) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i].equals(id))
+                {
+                    // the last entry takes the free place
+                    count--;
+                    ids[i] = ids[count];
+                    positions[i] = positions[count];
+                    ids[count] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package project.helpers;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import project.Clock;
+
+/**
+ * next steps computed ahead: after a client got its step, the step after it is computed in the background
+ * (TrafficControlLogic.speculate) while the client drives; when the client asks for it from the expected cell and that cell
+ * is still free, the answer is taken from here instead of searching the neighbours again (a hit), otherwise move computes it (a conflict)
+ * the speculated cell is not reserved: blocking it for other clients for a whole request cycle costs more than the rare conflicts
+ * entries are only used while holding the lock of the area, the queue of clients waiting for their speculation is thread safe,
+ * the counters are read by the metrics without it
+ * */
+public class Speculation {
+    static final class Entry {
+        final String id;
+        // the client is expected to ask from position for destination
+        int position;
+        int destination;
+        // the precomputed step, Coordinate.NONE while it is not computed yet
+        int step = Coordinate.NONE;
+        boolean queued = false;
+
+        Entry(String id) {
+            this.id = id;
+        }
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    private final ArrayDeque<Entry> pending = new ArrayDeque<Entry>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    /**
+     * the client got a step to position, its next step is computed ahead
+     * */
+    void request(String id, int position, int destination) {
+        Entry entry = entries.get(id);
+        if (entry==null) {
+            entry = new Entry(id);
+            entries.put(id, entry);
+        }
+        entry.position = position;
+        entry.destination = destination;
+        entry.step = Coordinate.NONE;
+        if (!entry.queued) {
+            entry.queued = true;
+            synchronized (pending) {
+                pending.add(entry);
+                Clock.get().signal(pending);
+            }
+        }
+    }
+
+    /**
+     * @return the precomputed step of the client when it asks from the expected position for the expected destination,
+     * Coordinate.NONE when there is none (counted as miss)
+     * */
+    int take(String id, int position, int destination) {
+        Entry entry = entries.get(id);
+        if (entry==null || entry.step==Coordinate.NONE || entry.position!=position || entry.destination!=destination) {
+            misses.increment();
+            return Coordinate.NONE;
+        }
+        int step = entry.step;
+        entry.step = Coordinate.NONE;
+        return step;
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void conflict() {
+        conflicts.increment();
+    }
+
+    /**
+     * the client left the area or disconnected, nothing to compute for it any more
+     * */
+    void remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry!=null) entry.step = Coordinate.NONE;
+    }
+
+    /**
+     * waits for the first client waiting for its speculation, can be called without the lock of the area
+     * */
+    Entry awaitPending() throws InterruptedException {
+        synchronized (pending) {
+            while (pending.isEmpty()) Clock.get().await(pending, 0);
+            return pending.poll();
+        }
+    }
+
+    /**
+     * @return the next client waiting for its speculation or null
+     * */
+    Entry pollPending() {
+        synchronized (pending) {
+            return pending.poll();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    /**
+     * @return share of the requests answered with the precomputed step in percent
+     * */
+    public long getHitRate() {
+        long hits = this.hits.sum();
+        long requests = hits + misses.sum() + conflicts.sum();
+        return requests==0 ? 0 : hits * 100 / requests;
+    }
+}
@@ -0,0 +1,107 @@
+package project.helpers;
+
+import java.util.Arrays;
+
+/**
+ * binary min heap of tile indexes with their priority, for the searches over the tiles (FlowField, PathCache)
+ * and over the intersections of a road network (ContractionHierarchy)
+ * knows the position of every tile so its priority can be changed in place; allocated once per search structure
+ * */
+class TileHeap {
+    private final int[] heap;
+    private final int[] position;
+    private final float[] priority;
+    private int size = 0;
+
+    TileHeap(int tiles) {
+        heap = new int[tiles];
+        position = new int[tiles];
+        priority = new float[tiles];
+        Arrays.fill(position, -1);
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size==0;
+    }
+
+    /**
+     * inserts the tile or changes its priority if it is already in the heap
+     * */
+    void update(int tile, float newPriority) {
+        if (position[tile] < 0)
+        {
+            priority[tile] = newPriority;
+            heap[size] = tile;
+            position[tile] = size;
+            siftUp(size++);
+        }
+        else if (newPriority < priority[tile])
+        {
+            priority[tile] = newPriority;
+            siftUp(position[tile]);
+        }
+        else
+        {
+            priority[tile] = newPriority;
+            siftDown(position[tile]);
+        }
+    }
+
+    /**
+     * @return the lowest priority, only valid if the heap is not empty
+     * */
+    float peekPriority() {
+        return priority[heap[0]];
+    }
+
+    /**
+     * @return the tile with the lowest priority, removed from the heap
+     * */
+    int pop() {
+        int top = heap[0];
+        size--;
+        if (size > 0)
+        {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        position[top] = -1;
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int tile = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (priority[heap[parent]] <= priority[tile]) break;
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = tile;
+        position[tile] = i;
+    }
+
+    private void siftDown(int i) {
+        int tile = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && priority[heap[child + 1]] < priority[heap[child]]) child++;
+            if (priority[heap[child]] >= priority[tile]) break;
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = tile;
+        position[tile] = i;
+    }
+}
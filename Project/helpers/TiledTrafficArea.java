@@ -0,0 +1,235 @@
+package project.helpers;
+
+import java.util.Arrays;
+
+/**
+ * TrafficArea for very large maps, the area is split into square tiles of 16 x 16 cells
+ * a tile is only allocated when the first client is placed on it and released again when its last client leaves,
+ * so memory grows with the number of clients and not with the size of the map
+ * */
+public class TiledTrafficArea extends TrafficArea {
+    // small tiles keep the memory of scattered clients low, larger ones the directory of tiles; 16 bits of a column fit into one long
+    private static final int TILE_SIZE = 16;
+    private static final long COLUMN_MASK = (1L << TILE_SIZE) - 1;
+
+    private final short maxPerNode;
+    private final int sizeX;
+    private final int sizeY;
+    private final int tilesY;
+    // tiles column by column, null while a tile is empty
+    private Tile[] tiles;
+    private int occupancy = 0;
+    private int allocatedTiles = 0;
+
+    /**
+     * @param maxPerNode maximum IDs per node
+     * @param maxSizeX size in x - direction
+     * @param maxSizeY size in y - direction
+     * */
+    public TiledTrafficArea(short maxPerNode, short maxSizeX, short maxSizeY)
+    {
+        this.maxPerNode = maxPerNode;
+        this.sizeX = maxSizeX;
+        this.sizeY = maxSizeY;
+        this.tilesY = (maxSizeY + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesX = (maxSizeX + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new Tile[tilesX * tilesY];
+        this.grid = new SpatialGrid(maxSizeX, maxSizeY, maxPerNode, true);
+        this.congestion = new CongestionMap(maxSizeX, maxSizeY, maxPerNode);
+    }
+
+    @Override
+    public synchronized void remove(String id, int from) throws MovementNotPossible, ArrayIndexOutOfBoundsException
+    {
+        int x = Coordinate.unpackX(from);
+        int y = Coordinate.unpackY(from);
+        checkBounds(x, y);
+        int tileIndex = tileIndex(x, y);
+        Tile tile = tiles[tileIndex];
+        if (tile==null || !tile.remove(id, x % TILE_SIZE, y % TILE_SIZE)) throw new MovementNotPossible("id not found at start");
+        if (tile.occupancy==0)
+        {
+            // release empty tiles
+            tiles[tileIndex] = null;
+            allocatedTiles--;
+        }
+        positions.remove(id);
+        grid.remove(id, from);
+        congestion.remove(x, y);
+        if (changes!=null) changes.record(id, congestion.getTile(x, y));
+        occupancy--;
+    }
+
+    @Override
+    public synchronized void place(String id, int to) throws MovementNotPossible, ArrayIndexOutOfBoundsException
+    {
+        int x = Coordinate.unpackX(to);
+        int y = Coordinate.unpackY(to);
+        checkBounds(x, y);
+        int placedAt = positions.get(id);
+        if (placedAt==to) throw new MovementNotPossible("id already placed at target position");
+        int tileIndex = tileIndex(x, y);
+        Tile tile = tiles[tileIndex];
+        if (tile!=null && tile.isFull(x % TILE_SIZE, y % TILE_SIZE)) throw new MovementNotPossible("no empty space left");
+        if (roads!=null && !roads.isRoad(x, y)) throw new MovementNotPossible("no road at target position");
+        if (placedAt!=Coordinate.NONE) throw new MovementNotPossible("id already placed at another position");
+        if (tile==null)
+        {
+            tile = new Tile(maxPerNode);
+            tiles[tileIndex] = tile;
+            allocatedTiles++;
+        }
+        tile.place(id, x % TILE_SIZE, y % TILE_SIZE);
+        positions.put(id, to);
+        grid.add(id, to);
+        congestion.add(x, y);
+        if (changes!=null) changes.record(id, congestion.getTile(x, y));
+        occupancy++;
+    }
+
+    @Override
+    public synchronized int getPackedPosition(String id) {
+        return positions.get(id);
+    }
+
+    @Override
+    public boolean isFree(int x, int y) {
+        checkBounds(x, y);
+        Tile tile = tiles[tileIndex(x, y)];
+        return (tile==null || !tile.isFull(x % TILE_SIZE, y % TILE_SIZE)) && (roads==null || roads.isRoad(x, y));
+    }
+
+    @Override
+    public synchronized int findFreeInColumn(int x) {
+        if (x<0 || x>=sizeX) throw new ArrayIndexOutOfBoundsException(x + " is outside of the area");
+        int column = (x / TILE_SIZE) * tilesY;
+        for (int tileY = 0; tileY < tilesY; tileY++) {
+            Tile tile = tiles[column + tileY];
+            int y = tileY * TILE_SIZE + (tile==null ? 0 : tile.firstFreeInColumn(x % TILE_SIZE));
+            // a column of a tile is full when firstFreeInColumn returns TILE_SIZE, cells beyond sizeY don't count
+            if (y < Math.min(sizeY, (tileY + 1) * TILE_SIZE)) return y;
+        }
+        return -1;
+    }
+
+    @Override
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    @Override
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    @Override
+    public int getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * @return number of tiles currently holding at least one client
+     * */
+    public int getAllocatedTiles() {
+        return allocatedTiles;
+    }
+
+    @Override
+    public synchronized void clear() {
+        Arrays.fill(tiles, null);
+        positions.clear();
+        grid.clear();
+        congestion.clear();
+        occupancy = 0;
+        allocatedTiles = 0;
+    }
+
+    /**
+     * prints the allocated tiles and their clients for debug reason, the whole map would be too large
+     * */
+    @Override
+    public synchronized void print()
+    {
+        System.out.println("############## AREA     ###############");
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i]==null) continue;
+            int originX = (i / tilesY) * TILE_SIZE;
+            int originY = (i % tilesY) * TILE_SIZE;
+            StringBuilder toPrint = new StringBuilder("tile " + originX + ":" + originY + " |");
+            for (int cell = 0; cell < TILE_SIZE * TILE_SIZE; cell++) {
+                for (int slot = 0; slot < maxPerNode; slot++) {
+                    String id = tiles[i].slots[cell * maxPerNode + slot];
+                    if (id!=null) toPrint.append(" ").append(originX + cell / TILE_SIZE).append(":").append(originY + cell % TILE_SIZE).append("=").append(id);
+                }
+            }
+            System.out.println(toPrint);
+        }
+        System.out.println("############## AREA END ###############");
+    }
+
+    private int tileIndex(int x, int y) {
+        return (x / TILE_SIZE) * tilesY + y / TILE_SIZE;
+    }
+
+    private void checkBounds(int x, int y) {
+        if (x<0 || y<0 || x>=sizeX || y>=sizeY) throw new ArrayIndexOutOfBoundsException(x + ":" + y + " is outside of the area");
+    }
+
+    /**
+     * TILE_SIZE x TILE_SIZE cells with their slots (null is a free slot) and one bit per full cell
+     * */
+    private static class Tile {
+        final String[] slots;
+        final long[] fullCells = new long[TILE_SIZE * TILE_SIZE / 64]; // bit x * TILE_SIZE + y is set when cell x:y is full
+        final int maxPerNode;
+        int occupancy = 0;
+
+        Tile(int maxPerNode) {
+            this.maxPerNode = maxPerNode;
+            this.slots = new String[TILE_SIZE * TILE_SIZE * maxPerNode];
+        }
+
+        boolean isFull(int x, int y) {
+            int cell = x * TILE_SIZE + y;
+            return (fullCells[cell >>> 6] & (1L << cell)) != 0;
+        }
+
+        int firstFreeInColumn(int x) {
+            int first = x * TILE_SIZE;
+            long free = (~fullCells[first >>> 6] >>> (first & 63)) & COLUMN_MASK;
+            return free==0 ? TILE_SIZE : Long.numberOfTrailingZeros(free);
+        }
+
+        void place(String id, int x, int y) {
+            int first = (x * TILE_SIZE + y) * maxPerNode;
+            int freeSlots = 0;
+            int freePos = -1;
+            for (int i = first; i < first + maxPerNode; i++) {
+                if (slots[i]==null)
+                {
+                    freeSlots++;
+                    freePos = i;
+                }
+            }
+            slots[freePos] = id;
+            int cell = x * TILE_SIZE + y;
+            if (freeSlots==1) fullCells[cell >>> 6] |= 1L << cell;
+            occupancy++;
+        }
+
+        boolean remove(String id, int x, int y) {
+            int first = (x * TILE_SIZE + y) * maxPerNode;
+            for (int i = first; i < first + maxPerNode; i++) {
+                if (slots[i]!=null && slots[i].equals(id))
+                {
+                    slots[i] = null;
+                    int cell = x * TILE_SIZE + y;
+                    fullCells[cell >>> 6] &= ~(1L << cell);
+                    occupancy--;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
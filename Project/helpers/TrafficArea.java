@@ -1,11 +1,29 @@
 package project.helpers;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
 /**
  * represents the area to be controlled by the traffic control system
  * */
 public class TrafficArea {
-    private static final String NO_ID = "-1";
+    private static final String NO_ID = "-1"; //only ever compared by identity, ids of clients are compared with equals
     // current Area
     private String[][][] area;
+    // number of placed IDs, kept up to date by place / remove
+    private int occupancy = 0;
+    // position of every placed ID, kept up to date by place / remove (also used by TiledTrafficArea)
+    final PositionIndex positions = new PositionIndex();
+    // cells without a free slot, kept up to date by place / remove, makes isFree a single bit test
+    private OccupancyBitmap fullCells;
+    // buckets of placed IDs for range, nearest and density queries, kept up to date by place / remove (also used by TiledTrafficArea)
+    SpatialGrid grid;
+    // IDs per tile and their decayed density for congestion aware routing, kept up to date by place / remove (also used by TiledTrafficArea)
+    CongestionMap congestion;
+    // roads the IDs may be placed on, null for an open grid (also used by TiledTrafficArea)
+    RoadNetwork roads;
+    // changes for the replicas of this area, null unless recordChanges was called (also used by TiledTrafficArea)
+    ChangeLog changes;
 
     /**
      * initialises this area with sizes
@@ -17,10 +35,37 @@ public class TrafficArea {
     {
         // max definitions
         area = new String[maxSizeX][maxSizeY][maxPerNode];
+        fullCells = new OccupancyBitmap(maxSizeX, maxSizeY);
+        grid = new SpatialGrid(maxSizeX, maxSizeY, maxPerNode, false);
+        congestion = new CongestionMap(maxSizeX, maxSizeY, maxPerNode);
         // init the area
         clear();
     }
 
+    /**
+     * for subclasses with their own storage, nothing is allocated
+     * */
+    TrafficArea()
+    {
+    }
+
+    /**
+     * creates the area with the given storage
+     * @param storage dense (one array for the whole map) or tiled (TiledTrafficArea, memory grows with the clients)
+     * @param maxPerNode maximum IDs per node
+     * @param maxSizeX size in x - direction
+     * @param maxSizeY size in y - direction
+     * @throws IllegalArgumentException for unknown storage names
+     * */
+    public static TrafficArea create(String storage, short maxPerNode, short maxSizeX, short maxSizeY)
+    {
+        switch (storage.toLowerCase()) {
+            case "dense": return new TrafficArea(maxPerNode, maxSizeX, maxSizeY);
+            case "tiled": return new TiledTrafficArea(maxPerNode, maxSizeX, maxSizeY);
+            default: throw new IllegalArgumentException("Unknown area storage " + storage + ", use dense or tiled");
+        }
+    }
+
     /**
      * removes an ID from a position, throws an exception if not possible
      * @param id id of the client
@@ -30,21 +75,35 @@ public class TrafficArea {
      * */
     public void remove(String id, Coordinate from) throws MovementNotPossible, ArrayIndexOutOfBoundsException
     {
-        boolean idFoundAndRemoved = false;
-        for (int i = 0; i < area[from.getX()][from.getY()].length; i++) {
-            if (area[from.getX()][from.getY()][i]==id)
+        remove(id, from.getPacked());
+    }
+
+    /**
+     * same as remove(String, Coordinate) with a packed coordinate, see Coordinate.pack
+     * */
+    public synchronized void remove(String id, int from) throws MovementNotPossible, ArrayIndexOutOfBoundsException
+    {
+        String[] slots = area[Coordinate.unpackX(from)][Coordinate.unpackY(from)];
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i].equals(id))
             {
                 // id found start start
-                area[from.getX()][from.getY()][i]=NO_ID;
-                idFoundAndRemoved=true;
-                break;
+                slots[i]=NO_ID;
+                fullCells.setFree(Coordinate.unpackX(from), Coordinate.unpackY(from));
+                positions.remove(id);
+                grid.remove(id, from);
+                congestion.remove(Coordinate.unpackX(from), Coordinate.unpackY(from));
+                if (changes!=null) changes.record(id, congestion.getTile(Coordinate.unpackX(from), Coordinate.unpackY(from)));
+                occupancy--;
+                return;
             }
         }
-        if (!idFoundAndRemoved) throw new MovementNotPossible("id not found at start");
+        throw new MovementNotPossible("id not found at start");
     }
 
     /**
      * places an ID to a position, throws an exception if not possible
+     * an ID can only be placed at one position at a time
      * @param id id of the client
      * @param to coordinate the client currently is allocated to
      * @throws MovementNotPossible
@@ -52,20 +111,39 @@ public class TrafficArea {
      * */
     public void place(String id, Coordinate to) throws MovementNotPossible, ArrayIndexOutOfBoundsException
     {
+        place(id, to.getPacked());
+    }
+
+    /**
+     * same as place(String, Coordinate) with a packed coordinate, see Coordinate.pack
+     * */
+    public synchronized void place(String id, int to) throws MovementNotPossible, ArrayIndexOutOfBoundsException
+    {
+        short x = Coordinate.unpackX(to);
+        short y = Coordinate.unpackY(to);
+        String[] slots = area[x][y];
+        // the index knows whether the id is placed anywhere, the slots don't have to be searched for it
+        int placedAt = positions.get(id);
+        if (placedAt==to) throw new MovementNotPossible("id already placed at target position");
+        if (fullCells.isFull(x, y)) throw new MovementNotPossible("no empty space left");
+        if (roads!=null && !roads.isRoad(x, y)) throw new MovementNotPossible("no road at target position");
+        if (placedAt!=Coordinate.NONE) throw new MovementNotPossible("id already placed at another position");
+        int freeSlots = 0;
         int freePos = -1;
-        for (int i = 0; i < area[to.getX()][to.getY()].length; i++) {
-            if (area[to.getX()][to.getY()][i]=="-1")
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i]==NO_ID)
             {
+                freeSlots++;
                 freePos = i;
-                // id may be placed, if not yet set there
-            }
-            else if (area[to.getX()][to.getY()][i]==id)
-            {
-                throw new MovementNotPossible("id already placed at target position");
             }
         }
-        if (freePos==-1) throw new MovementNotPossible("no empty space left");
-        area[to.getX()][to.getY()][freePos]=id;
+        slots[freePos]=id;
+        if (freeSlots==1) fullCells.setFull(x, y);
+        positions.put(id, to);
+        grid.add(id, to);
+        congestion.add(x, y);
+        if (changes!=null) changes.record(id, congestion.getTile(x, y));
+        occupancy++;
     }
 
     /**
@@ -74,15 +152,18 @@ public class TrafficArea {
      * @return the coordinate or null if id not found
      * */
     public Coordinate getPosition(String id) {
-        for (short x = 0; x < area.length; x++) {
-            for (short y = 0; y < area[x].length; y++) {
-                for (short clientIDPos = 0; clientIDPos < area[x][y].length; clientIDPos++) {
-                    if (area[x][y][clientIDPos]==id) return new Coordinate(x,y);
-                }
-            }
-        }
-        // not found
-        return null;
+        int position = getPackedPosition(id);
+        if (position==Coordinate.NONE) return null;
+        return Coordinate.fromPacked(position);
+    }
+
+    /**
+     * returns the current position of the client without allocating
+     * @param id the client id to search for
+     * @return the packed coordinate or Coordinate.NONE if id not found
+     * */
+    public synchronized int getPackedPosition(String id) {
+        return positions.get(id);
     }
 
     /**
@@ -91,31 +172,185 @@ public class TrafficArea {
      * @return true, if this position is fine
      * */
     public boolean isFree(Coordinate position) {
-        short x = position.getX();
-        short y = position.getY();
-        for (short clientIDPos = 0; clientIDPos < area[x][y].length; clientIDPos++) {
-            if (area[x][y][clientIDPos]==NO_ID) return true;
-        }
-        // no space left
-        return false;
+        return isFree(position.getX(), position.getY());
+    }
+
+    /**
+     * same as isFree(Coordinate) without a coordinate object
+     * */
+    public boolean isFree(int x, int y) {
+        if (x<0 || y<0 || x>=area.length || y>=area[0].length) throw new ArrayIndexOutOfBoundsException(x + ":" + y + " is outside of the area");
+        return !fullCells.isFull(x, y) && (roads==null || roads.isRoad(x, y));
+    }
+
+    /**
+     * finds the free cell with the smallest y in a column, used for spawning clients
+     * @param x the column
+     * @return y of the free cell or -1 if the column is full
+     * */
+    public synchronized int findFreeInColumn(int x) {
+        if (x<0 || x>=area.length) throw new ArrayIndexOutOfBoundsException(x + " is outside of the area");
+        return fullCells.firstFreeInColumn(x);
+    }
+
+    /**
+     * all IDs inside a box, only the buckets of the spatial index overlapping the box are visited
+     * @param x0 x of one corner
+     * @param y0 y of one corner
+     * @param x1 x of the opposite corner
+     * @param y1 y of the opposite corner
+     * @return IDs with their positions, corners are included, parts outside of the area are ignored
+     * */
+    public synchronized LinkedHashMap<String, Coordinate> getInRange(int x0, int y0, int x1, int y1) {
+        return grid.inRange(x0, y0, x1, y1);
+    }
+
+    /**
+     * the k IDs nearest to a point (euclidean distance), searched ring by ring in the spatial index
+     * @param x x of the point
+     * @param y y of the point
+     * @param k maximum number of IDs, positive
+     * @return IDs with their positions, nearest first
+     * */
+    public synchronized LinkedHashMap<String, Coordinate> getNearest(int x, int y, int k) {
+        if (k<=0) throw new IllegalArgumentException("k must be positive");
+        return grid.nearest(x, y, k);
     }
 
-    /*
-    * GETTER AND SETTER to update the area directly
-    * */
-    public String[][][] getArea() {
-        synchronized (this) {
-            return area;
+    /**
+     * number of IDs inside a box, buckets of the spatial index lying completely inside are counted without visiting their IDs
+     * @return number of IDs, corners are included
+     * */
+    public synchronized int countInRange(int x0, int y0, int x1, int y1) {
+        return grid.count(x0, y0, x1, y1);
+    }
+
+    /**
+     * congestion per tile, read by TrafficControlLogic while holding the lock of this area
+     * */
+    public CongestionMap getCongestion() {
+        return congestion;
+    }
+
+    /**
+     * folds the current density of every tile into its historical density, called periodically (by the leader)
+     * @param keep share of the old historical density that is kept, between 0 and 1
+     * */
+    public synchronized void decayCongestion(float keep) {
+        congestion.decay(keep);
+    }
+
+    /**
+     * @param position packed cell
+     * @return version of the congestion tile containing the cell, it changes with every place / remove on the tile
+     * */
+    public synchronized int getVersion(int position) {
+        return congestion.getVersion(congestion.getTile(Coordinate.unpackX(position), Coordinate.unpackY(position)));
+    }
+
+    /**
+     * starts recording the changes of this area for its replicas, see takeChanges
+     * */
+    public synchronized void recordChanges() {
+        if (changes==null) changes = new ChangeLog(congestion.getTilesX() * congestion.getTilesY());
+    }
+
+    /**
+     * @return the changes since the last call (or since recordChanges), null when nothing changed
+     * */
+    public synchronized MapUpdate takeChanges() {
+        return changes==null ? null : changes.take(positions, congestion);
+    }
+
+    /**
+     * @return full update with every placed ID and the version of every tile, to initialise a replica
+     * */
+    public synchronized MapUpdate snapshot() {
+        String[] ids = new String[positions.size()];
+        int[] placedAt = new int[ids.length];
+        int count = 0;
+        for (int slot = 0; slot < positions.getSlots(); slot++) {
+            if (positions.getId(slot)!=null) {
+                ids[count] = positions.getId(slot);
+                placedAt[count++] = positions.getPosition(slot);
+            }
+        }
+        int[] tiles = new int[congestion.getTilesX() * congestion.getTilesY()];
+        int[] versions = new int[tiles.length];
+        for (int tile = 0; tile < tiles.length; tile++) {
+            tiles[tile] = tile;
+            versions[tile] = congestion.getVersion(tile);
         }
+        return new MapUpdate(true, ids, placedAt, tiles, versions);
     }
 
-    public void setArea(String[][][] area) {
-        synchronized (this)
-        {
-            this.area = area;
+    /**
+     * makes this replica equal to the area the update was taken from (see takeChanges and snapshot), as far as the update covers it
+     * IDs that moved are taken off first, so a cell left by one ID and entered by another one within the update has room
+     * */
+    public synchronized void apply(MapUpdate update) {
+        if (update.isFull()) clear();
+        String[] ids = update.getIds();
+        int[] updated = update.getPositions();
+        for (int i = 0; i < ids.length; i++) {
+            int known = positions.get(ids[i]);
+            if (known!=Coordinate.NONE && known!=updated[i]) {
+                try {
+                    remove(ids[i], known);
+                } catch (MovementNotPossible e) {
+                    // not possible for a known position
+                }
+            }
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (updated[i]!=Coordinate.NONE && positions.get(ids[i])!=updated[i]) {
+                try {
+                    place(ids[i], updated[i]);
+                } catch (MovementNotPossible | ArrayIndexOutOfBoundsException e) {
+                    // a replica of another size or other roads stays incomplete, the steps proposed on it are checked anyway
+                }
+            }
+        }
+        int[] tiles = update.getTiles();
+        int[] versions = update.getVersions();
+        int tileCount = congestion.getTilesX() * congestion.getTilesY();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] < tileCount) congestion.setVersion(tiles[i], versions[i]);
         }
     }
 
+    /**
+     * reads the roads of this area, from then on IDs can only be placed on the cells of its open roads
+     * @param file road network file, see RoadNetwork.read
+     * */
+    public void loadRoadNetwork(String file) throws IOException {
+        setRoadNetwork(RoadNetwork.load(file, getSizeX(), getSizeY()));
+    }
+
+    /**
+     * @param roads roads of this area, null for an open grid; IDs already placed off the roads stay where they are
+     * */
+    public synchronized void setRoadNetwork(RoadNetwork roads) {
+        if (roads!=null && (roads.getSizeX()!=getSizeX() || roads.getSizeY()!=getSizeY())) throw new IllegalArgumentException("road network is made for another size of the area");
+        this.roads = roads;
+    }
+
+    /**
+     * roads of this area, read by TrafficControlLogic while holding the lock of this area
+     * @return the road network or null for an open grid
+     * */
+    public RoadNetwork getRoadNetwork() {
+        return roads;
+    }
+
+    public int getSizeX() {
+        return area.length;
+    }
+
+    public int getSizeY() {
+        return area[0].length;
+    }
+
     // DEBUG
     /**
      * prints the current area for debug reason
@@ -137,7 +372,19 @@ public class TrafficArea {
         System.out.println("############## AREA END ###############");
     }
 
-    public void clear() {
+    /**
+     * @return number of IDs currently placed in the area
+     */
+    public int getOccupancy() {
+        return occupancy;
+    }
+
+    public synchronized void clear() {
+        occupancy = 0;
+        positions.clear();
+        grid.clear();
+        congestion.clear();
+        fullCells.clear();
         for (short x = 0; x < area.length; x++) {
             for (short y = 0; y < area[x].length; y++) {
                 for (short clientIDPos = 0; clientIDPos < area[x][y].length; clientIDPos++) {
@@ -1,10 +1,23 @@
 package project.helpers;
+
+import java.util.Arrays;
+
 /**
  * the logic that can control the traffic in the area
  * */
 public class TrafficControlLogic {
     // the area to be controlled
     private TrafficArea trafficArea;
+    // detour in cells a completely congested tile is worth, 0 drives greedily towards the target
+    private float congestionPenalty = 0;
+    // shared ways to popular destinations, null to always search the neighbours
+    private FlowFields flowFields;
+    // routes to the other destinations, null to always search the neighbours
+    private PathCache pathCache;
+    // next steps computed ahead while the clients drive, null to compute every step on request
+    private Speculation speculation;
+    // in denser traffic the neighbours are searched even with a flow field or route, so clients can leave jams sideways (see move)
+    private static final float ROUTE_MAX_CONGESTION = 0.1f;
 
     /**
      * the contructor
@@ -15,33 +28,51 @@ public class TrafficControlLogic {
     }
 
     /**
-     * sets the start of an ID at 0/y where y is the next free slot
+     * sets the start of an ID at 0/y where y is the next free slot, on a road network at the first node with a free slot
      * @param id id of the client
      * @return the starting position
      * @throws MovementNotPossible
      * */
     public Coordinate start(String id) throws MovementNotPossible
     {
-        Coordinate currentPosition = trafficArea.getPosition(id);
-        if (currentPosition==null)
+        synchronized (trafficArea)
         {
-            // client not found, this is fine
-            for (short y = 0; y < trafficArea.getArea()[0].length; y++) {
-                Coordinate pos = new Coordinate((short) 0,y);
-                if (trafficArea.isFree(pos))
+            if (trafficArea.getPackedPosition(id)==Coordinate.NONE)
+            {
+                // client not found, this is fine
+                RoadNetwork roads = trafficArea.getRoadNetwork();
+                if (roads!=null)
+                {
+                    for (int node = 0; node < roads.getNodeCount(); node++) {
+                        int position = roads.getNodePosition(node);
+                        if (trafficArea.isFree(Coordinate.unpackX(position), Coordinate.unpackY(position)))
+                        {
+                            trafficArea.place(id, position);
+                            return Coordinate.fromPacked(position);
+                        }
+                    }
+                    throw new MovementNotPossible("no free position found");
+                }
+                int y = trafficArea.findFreeInColumn(0);
+                if (y>=0)
                 {
+                    Coordinate pos = new Coordinate((short) 0,(short) y);
                     trafficArea.place(id, pos);
                     return pos;
                 }
-            }
 
-            throw new MovementNotPossible("no free position found");
+                throw new MovementNotPossible("no free position found");
+            }
+            else throw new MovementNotPossible("client already available");
         }
-        else throw new MovementNotPossible("client already available");
     }
 
     /**
      * moves the client id one step towards the target position; client may also stop
+     * with a congestion penalty, the step towards the target with the lowest distance plus penalized congestion is taken
+     * (see CongestionMap.getCongestion), so clients drive around jams; when no step towards the target is free,
+     * clients leave the jam sideways to a less congested cell instead of waiting in front of a full cell
+     * on a road network (see TrafficArea.setRoadNetwork) clients follow the cheapest way along the roads instead
      * @param id id of the client
      * @param targetToReach target to reach
      * @return the new position
@@ -50,62 +81,383 @@ public class TrafficControlLogic {
      * */
     public Coordinate move(String id, Coordinate targetToReach) throws MovementNotPossible, ArrayIndexOutOfBoundsException
     {
-        // get the current position of the client
-        Coordinate currentPosition = trafficArea.getPosition(id);
+        return Coordinate.fromPacked(move(id, targetToReach.getPacked()));
+    }
+
+    /**
+     * same as move(String, Coordinate) on packed coordinates (see Coordinate.pack), allocates nothing
+     * @param id id of the client
+     * @param targetToReach packed target to reach
+     * @return the new packed position
+     * @throws MovementNotPossible
+     * @throws ArrayIndexOutOfBoundsException
+     * */
+    public int move(String id, int targetToReach) throws MovementNotPossible, ArrayIndexOutOfBoundsException
+    {
+        synchronized (trafficArea)
+        {
+            // get the current position of the client
+            int currentPosition = trafficArea.getPackedPosition(id);
+            if (currentPosition==Coordinate.NONE) throw new MovementNotPossible("id not found");
+            int step = nextStep(currentPosition, targetToReach, true);
+            // update the area
+            if (step!=currentPosition)
+            {
+                trafficArea.remove(id, currentPosition);
+                trafficArea.place(id, step);
+            }
+            return step;
+        }
+    }
+
+    /**
+     * the step move takes from a position, without changing the area (the client is expected to stand on its position)
+     * only used while holding the lock of the area
+     * @param record false to only read the flow fields and the path cache (see speculate): no counting, no new fields or routes
+     * @return the packed cell to step to, currentPosition when the client has to wait
+     * */
+    private int nextStep(int currentPosition, int targetToReach, boolean record) throws MovementNotPossible
+    {
+        int currentX = Coordinate.unpackX(currentPosition);
+        int currentY = Coordinate.unpackY(currentPosition);
+        int targetX = Coordinate.unpackX(targetToReach);
+        int targetY = Coordinate.unpackY(targetToReach);
+        int maxX = trafficArea.getSizeX()-1;
+        int maxY = trafficArea.getSizeY()-1;
+
+        RoadNetwork roads = trafficArea.getRoadNetwork();
+        if (roads!=null)
+        {
+            // only along the roads: the next cell of the cheapest way, the client waits when that cell is full
+            if (!roads.isRoad(targetX, targetY)) throw new MovementNotPossible("target is not on a road");
+            int step = roads.nextStep(currentPosition, targetToReach);
+            if (step==Coordinate.NONE || !trafficArea.isFree(Coordinate.unpackX(step), Coordinate.unpackY(step))) return currentPosition;
+            return step;
+        }
+
+        CongestionMap congestion = trafficArea.getCongestion();
+
+        if ((flowFields!=null || pathCache!=null) && congestion.getCongestion(currentX, currentY)<ROUTE_MAX_CONGESTION)
+        {
+            // popular destination: one lookup in its flow field, other destinations: the cached route of the tile
+            // the neighbours are only searched when that step is taken
+            FlowField field = flowFields==null ? null : record ? flowFields.lookup(targetToReach) : flowFields.peek(targetToReach);
+            int step = Coordinate.NONE;
+            if (field!=null) step = field.nextStep(currentX, currentY, congestion, maxX + 1, maxY + 1);
+            else if (pathCache!=null) step = record ? pathCache.nextStep(currentX, currentY, targetToReach, maxX + 1, maxY + 1) : pathCache.peekStep(currentX, currentY, targetToReach, maxX + 1, maxY + 1);
+            if (step!=Coordinate.NONE && trafficArea.isFree(Coordinate.unpackX(step), Coordinate.unpackY(step))) return step;
+        }
+
         // calculate the next step around the current position
-        Coordinate bestCoordinate = currentPosition;
-        double distance = getDistance(bestCoordinate,targetToReach);
+        int bestX = currentX;
+        int bestY = currentY;
+        int distance = getSquaredDistance(currentX, currentY, targetX, targetY);
+        float currentCongestion = congestionPenalty==0 ? 0 : congestion.getCongestion(currentX, currentY);
+        double bestCost = Double.MAX_VALUE;
+        boolean closer = false;
 
         for (int xOffset = -1; xOffset <= 1; xOffset++) {
             for (int yOffset = -1; yOffset <= 1; yOffset++) {
-                short x = (short) (currentPosition.getX() + xOffset);
-                short y = (short) (currentPosition.getY() + yOffset);
-
-                if (x<0) x = 0;
-                if (y<0) y = 0;
-                if (x>trafficArea.getArea().length-1) x = (short) (trafficArea.getArea().length-1);
-                if (y>trafficArea.getArea()[0].length-1) y = (short) (trafficArea.getArea()[0].length-1);
+                int x = Math.min(Math.max(currentX + xOffset, 0), maxX);
+                int y = Math.min(Math.max(currentY + yOffset, 0), maxY);
 
-                Coordinate coordinateToCheck = new Coordinate(x,y);
-                if (trafficArea.isFree(coordinateToCheck))
+                if (trafficArea.isFree(x, y))
                 {
-                    double newDdistance = getDistance(coordinateToCheck,targetToReach);
-                    if (newDdistance<distance)
+                    int newDistance = getSquaredDistance(x, y, targetX, targetY);
+                    if (newDistance<distance)
+                    {
+                        // every step towards the target beats a side step, so there is always progress when possible
+                        double newCost = getCost(x, y, targetX, targetY, congestion);
+                        if (!closer || newCost<bestCost)
+                        {
+                            closer = true;
+                            bestCost = newCost;
+                            bestX = x;
+                            bestY = y;
+                        }
+                    }
+                    else if (!closer && congestionPenalty>0 && Math.sqrt(newDistance)<Math.sqrt(distance)+0.5 && congestion.getCongestion(x, y)<currentCongestion)
                     {
-                        distance = newDdistance;
-                        bestCoordinate = coordinateToCheck;
+                        // blocked: side step (not back) to a less congested cell instead of waiting in the jam
+                        double newCost = getCost(x, y, targetX, targetY, congestion);
+                        if (newCost<bestCost)
+                        {
+                            bestCost = newCost;
+                            bestX = x;
+                            bestY = y;
+                        }
                     }
                 }
             }
         }
         // new / old coordinate determined
-        // update the area
-        trafficArea.remove(id, currentPosition);
-        trafficArea.place(id, bestCoordinate);
-        return bestCoordinate;
+        return Coordinate.pack(bestX, bestY);
     }
 
     /**
-     * calculates the distance between 2 points
-     * @param firstCoordinate
-     * @param secondCoordinate
-     * @return the distance
+     * one navigation request of a client: puts the client to the position it reports (places it on its first request),
+     * moves it one step towards its destination and takes it off the area when the destination is reached
+     * @param id id of the client
+     * @param position packed position the client reports
+     * @param destination packed destination of the client
+     * @return the new packed position, equal to position when no step was possible
+     * @throws MovementNotPossible
+     * @throws ArrayIndexOutOfBoundsException
+     * */
+    public int navigate(String id, int position, int destination) throws MovementNotPossible, ArrayIndexOutOfBoundsException
+    {
+        synchronized (trafficArea)
+        {
+            int knownPosition = trafficArea.getPackedPosition(id);
+            if (knownPosition==Coordinate.NONE)
+            {
+                trafficArea.place(id, position);
+            }
+            else if (knownPosition!=position)
+            {
+                trafficArea.remove(id, knownPosition);
+                trafficArea.place(id, position);
+            }
+            int nextStep = speculation==null ? Coordinate.NONE : takeSpeculation(id, position, destination);
+            if (nextStep==Coordinate.NONE) nextStep = move(id, destination);
+            if (nextStep!=position && nextStep==destination)
+            {
+                trafficArea.remove(id, nextStep);
+                if (speculation!=null) speculation.remove(id);
+            }
+            else if (nextStep!=position && speculation!=null)
+            {
+                speculation.request(id, nextStep, destination);
+            }
+            return nextStep;
+        }
+    }
+
+    /**
+     * moves the client to its precomputed step (see Speculation) when that cell is still free
+     * only used while holding the lock of the area, the client stands on position
+     * @return the step, Coordinate.NONE when there was none or it is no longer possible
+     * */
+    private int takeSpeculation(String id, int position, int destination) throws MovementNotPossible
+    {
+        int step = speculation.take(id, position, destination);
+        if (step==Coordinate.NONE) return Coordinate.NONE;
+        if (step==position || !trafficArea.isFree(Coordinate.unpackX(step), Coordinate.unpackY(step)))
+        {
+            speculation.conflict();
+            return Coordinate.NONE;
+        }
+        speculation.hit();
+        trafficArea.remove(id, position);
+        trafficArea.place(id, step);
+        return step;
+    }
+
+    /**
+     * the next step of a client computed on a replica of the area (see TrafficArea.apply) without changing it,
+     * the node owning the area decides about it with commit
+     * @param id id of the client
+     * @param position packed position the client reports
+     * @param destination packed destination of the client
+     * @return the packed step, Coordinate.NONE when the replica does not have the client on position or it has to wait
      * */
-    private double getDistance(Coordinate firstCoordinate, Coordinate secondCoordinate)
+    public int propose(String id, int position, int destination)
     {
-        double x1 = firstCoordinate.getX();
-        double x2 = secondCoordinate.getX();
-        double y1 = firstCoordinate.getY();
-        double y2 = secondCoordinate.getY();
-
-        if (x1==x2 && y1==y2)
-            return 0.0;
-        else
+        synchronized (trafficArea)
         {
-            // calculate the distance
-            return Math.sqrt(
-                    Math.pow(x1-x2,2)+Math.pow(y1-y2,2)
-            );
+            if (position==destination || trafficArea.getPackedPosition(id)!=position) return Coordinate.NONE;
+            try
+            {
+                int step = nextStep(position, destination, true);
+                return step==position ? Coordinate.NONE : step;
+            }
+            catch (MovementNotPossible e)
+            {
+                return Coordinate.NONE;
+            }
         }
     }
+
+    /**
+     * takes a step computed on a replica (see propose) when the area still is as the replica saw it:
+     * the client stands on from, the tile of to has the version the replica read and to is a free neighbour of from (on a road when there are roads)
+     * takes the client off the area when to is its destination, like navigate
+     * @param version version of the tile of to on the replica (see TrafficArea.getVersion)
+     * @return to when the step was taken, Coordinate.NONE when it was rejected and has to be computed here (see navigate)
+     * @throws MovementNotPossible
+     * */
+    public int commit(String id, int from, int to, int destination, int version) throws MovementNotPossible
+    {
+        synchronized (trafficArea)
+        {
+            int toX = Coordinate.unpackX(to);
+            int toY = Coordinate.unpackY(to);
+            if (from==to || trafficArea.getPackedPosition(id)!=from) return Coordinate.NONE;
+            if (toX<0 || toY<0 || toX>=trafficArea.getSizeX() || toY>=trafficArea.getSizeY()) return Coordinate.NONE;
+            if (Math.abs(toX - Coordinate.unpackX(from))>1 || Math.abs(toY - Coordinate.unpackY(from))>1) return Coordinate.NONE;
+            if (trafficArea.getVersion(to)!=version || !trafficArea.isFree(toX, toY)) return Coordinate.NONE;
+            trafficArea.remove(id, from);
+            trafficArea.place(id, to);
+            if (to==destination) trafficArea.remove(id, to);
+            // the next step is proposed by the replica again, computing it ahead here would be wasted
+            if (speculation!=null) speculation.remove(id);
+            return to;
+        }
+    }
+
+    /**
+     * the client disconnected: drops what is computed ahead for it (see Speculation), the client may never ask for it
+     * @param id id of the client
+     * */
+    public void forget(String id)
+    {
+        if (speculation==null) return;
+        synchronized (trafficArea)
+        {
+            speculation.remove(id);
+        }
+    }
+
+    /**
+     * computes the next steps of the clients waiting for their speculation (see Speculation) in the background,
+     * waits for the first one without holding the lock of the area, then takes the lock for at most maxClients of them
+     * @param maxClients clients computed per lock of the area, so navigation requests don't wait long behind speculation
+     * @throws InterruptedException
+     * */
+    public void speculate(int maxClients) throws InterruptedException
+    {
+        Speculation.Entry entry = speculation.awaitPending();
+        synchronized (trafficArea)
+        {
+            for (int i = 0; i < maxClients && entry!=null; i++)
+            {
+                entry.queued = false;
+                // the client may have left or asked again in the meantime
+                if (entry.step==Coordinate.NONE && trafficArea.getPackedPosition(entry.id)==entry.position)
+                {
+                    try
+                    {
+                        // the request of the client counts when it comes, computing ahead must not count it twice
+                        entry.step = nextStep(entry.position, entry.destination, false);
+                    }
+                    catch (MovementNotPossible e)
+                    {
+                        entry.step = Coordinate.NONE;
+                    }
+                }
+                if (i + 1 < maxClients) entry = speculation.pollPending();
+            }
+        }
+    }
+
+    /**
+     * navigation requests of many clients (see navigate) in one pass while holding the lock of the area once,
+     * handled sorted by the congestion tile of their position so neighbouring requests find the cells and routes of each other still cached
+     * @param ids id of every client
+     * @param positions packed position every client reports
+     * @param destinations packed destination of every client
+     * @return packed next step of every client in the order of the ids, its position when no step was possible,
+     * Coordinate.NONE when the request was not possible
+     * */
+    public int[] navigateBatch(String[] ids, int[] positions, int[] destinations)
+    {
+        int[] nextSteps = new int[ids.length];
+        long[] order = new long[ids.length];
+        synchronized (trafficArea)
+        {
+            CongestionMap congestion = trafficArea.getCongestion();
+            for (int i = 0; i < ids.length; i++)
+            {
+                int x = Coordinate.unpackX(positions[i]);
+                int y = Coordinate.unpackY(positions[i]);
+                long tile = x>=0 && y>=0 && x<trafficArea.getSizeX() && y<trafficArea.getSizeY() ? congestion.getTile(x, y) : 0;
+                order[i] = tile << 32 | i;
+            }
+            Arrays.sort(order);
+            for (long key : order)
+            {
+                int i = (int) key;
+                try
+                {
+                    nextSteps[i] = ids[i]==null ? Coordinate.NONE : navigate(ids[i], positions[i], destinations[i]);
+                }
+                // one broken request must not fail the others
+                catch (MovementNotPossible | RuntimeException e)
+                {
+                    nextSteps[i] = Coordinate.NONE;
+                }
+            }
+        }
+        return nextSteps;
+    }
+
+    /**
+     * cost of standing on a cell, without congestion penalty the squared distance (same order as the distance)
+     * @return the cost, lower is better
+     * */
+    private double getCost(int x, int y, int targetX, int targetY, CongestionMap congestion)
+    {
+        int squaredDistance = getSquaredDistance(x, y, targetX, targetY);
+        if (congestionPenalty==0) return squaredDistance;
+        return Math.sqrt(squaredDistance) + congestionPenalty * congestion.getCongestion(x, y);
+    }
+
+    /**
+     * calculates the squared distance between 2 points, enough for comparing distances
+     * @return the squared distance
+     * */
+    private static int getSquaredDistance(int x1, int y1, int x2, int y2)
+    {
+        int dx = x1-x2;
+        int dy = y1-y2;
+        return dx*dx+dy*dy;
+    }
+
+    public float getCongestionPenalty() {
+        return congestionPenalty;
+    }
+
+    /**
+     * @param congestionPenalty detour in cells a completely congested tile is worth, 0 to drive greedily
+     * */
+    public void setCongestionPenalty(float congestionPenalty) {
+        this.congestionPenalty = congestionPenalty;
+        if (flowFields!=null) flowFields.setPenalty(congestionPenalty);
+        if (pathCache!=null) pathCache.setPenalty(congestionPenalty);
+    }
+
+    public FlowFields getFlowFields() {
+        return flowFields;
+    }
+
+    /**
+     * @param flowFields flow fields of the area of this logic, computed with the congestion penalty of this logic; null to disable them
+     * */
+    public void setFlowFields(FlowFields flowFields) {
+        this.flowFields = flowFields;
+        if (flowFields!=null) flowFields.setPenalty(congestionPenalty);
+    }
+
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    /**
+     * @param pathCache route cache of the area of this logic, routes are searched with the congestion penalty of this logic; null to disable it
+     * */
+    public void setPathCache(PathCache pathCache) {
+        this.pathCache = pathCache;
+        if (pathCache!=null) pathCache.setPenalty(congestionPenalty);
+    }
+
+    public Speculation getSpeculation() {
+        return speculation;
+    }
+
+    /**
+     * @param speculation next steps computed ahead (see speculate), null to compute every step on request
+     * */
+    public void setSpeculation(Speculation speculation) {
+        this.speculation = speculation;
+    }
 }
@@ -1,13 +1,18 @@
 package project.leader;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+
+import project.Clock;
+import project.Config;
+import project.message.RetryAfter;
+import project.metrics.MetricsRegistry;
+import project.transport.Connection;
+import project.transport.Listener;
 
 /**
  * Runs the Leader routine of accepting clients.
- * Therefore opens server socket and starts for every connection a LeaderClientMessageHandler.* 
+ * Therefore opens a listener and starts for every connection a LeaderClientMessageHandler.
+ * Beyond Config.MAX_CLIENT_CONNECTIONS clients are refused with a RetryAfter instead of getting a thread.
  */
 public class ClientRoutine extends Thread {
     private Leader parentLeader;
@@ -18,20 +23,22 @@ public class ClientRoutine extends Thread {
 
     public void run(){
         try{
-            ServerSocket serverSocket = new ServerSocket();
-            InetSocketAddress address = new InetSocketAddress(this.parentLeader.getAddressForClients(), this.parentLeader.getPortForClients());
-            serverSocket.bind(address);
+            Listener listener = this.parentLeader.getParentNode().getTransport().listen(this.parentLeader.getAddressForClients(), this.parentLeader.getPortForClients());
             System.out.println("Leader accepting Clients now");
-            while(!serverSocket.isClosed()){
-                Socket newConnection = serverSocket.accept();
+            while(!listener.isClosed()){
+                Connection newConnection = listener.accept();
                 LeaderClientMessageHandler messageHandler = new LeaderClientMessageHandler(this.parentLeader.getParentNode(), newConnection, this.parentLeader);
+                if(this.parentLeader.getParentNode().getMetrics().counter(MetricsRegistry.CONNECTIONS_CLIENTS).get() >= Config.MAX_CLIENT_CONNECTIONS){
+                    messageHandler.refuseConnection(new RetryAfter(Config.RETRY_AFTER, "Too many clients"));
+                    continue;
+                }
 
                 Boolean isRegistered = messageHandler.registerConnection(); //wait for init from new client
                 if(isRegistered){
-                    messageHandler.start();
+                    Clock.get().start(messageHandler);
                 }
             }
-            serverSocket.close();
+            listener.close();
         }
         catch (IOException e){
             System.out.println("Opening as a leader failed");
@@ -1,9 +1,10 @@
 package project.leader;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+
+import project.Clock;
+import project.transport.Connection;
+import project.transport.Listener;
 
 /**
  * Like the ClientRoutine, the FollowerRoutine runs the Leader functionality of accepting and handling the connections to Followers.
@@ -18,20 +19,18 @@ public class FollowerRoutine extends Thread {
 
     public void run(){
         try{
-            ServerSocket serverSocket = new ServerSocket();
-            InetSocketAddress address = new InetSocketAddress(this.parentLeader.getParentNode().getIp(), this.parentLeader.getParentNode().getPort());
-            serverSocket.bind(address);
+            Listener listener = this.parentLeader.getParentNode().getTransport().listen(this.parentLeader.getParentNode().getIp(), this.parentLeader.getParentNode().getPort());
             System.out.println("Leader accepting followers now");
-            while(!serverSocket.isClosed()){
-                Socket newConnection = serverSocket.accept();
+            while(!listener.isClosed()){
+                Connection newConnection = listener.accept();
                 LeaderFollowerMessageHandler messageHandler = new LeaderFollowerMessageHandler(this.parentLeader.getParentNode(), newConnection, this.parentLeader);
 
                 Boolean isRegistered = messageHandler.registerConnection(); //wait for init from new Node or follower
                 if(isRegistered){
-                    messageHandler.start();
+                    Clock.get().start(messageHandler);
                 }
             }
-            serverSocket.close();
+            listener.close();
         }
         catch (IOException e){
             System.out.println("Opening as a leader failed");
@@ -1,19 +1,29 @@
 package project.leader;
 
 import project.Config;
+import project.HashedWheelTimer;
 import project.Util;
 import project.message.Message;
 import project.message.MessageType;
+import project.message.OutboundQueue;
+import project.metrics.LatencyHistogram;
+import project.metrics.MetricsRegistry;
+import project.log.Log;
+import project.log.LogLevel;
 
 /**
  * Heartbeat handles the sending heartbeat functionality and therefore is only used by the leader.
  * It is based on the already existing connection from the LeaderFollowerMessageHandler.
- * For every Leader-Follower connection, one Heartbeat object is created and run.
- * When only one Message is not answered with an acknowledge, the connection is interrupted and the follower is forgotten.
+ * For every Leader-Follower connection, one Heartbeat task is scheduled on the timer of the parent node.
+ * Every message of the follower counts as sign of life, so heartbeats are only sent when the connection is idle.
+ * The follower is forgotten when the phi accrual failure detector of the connection suspects it.
  */
-public class Heartbeat extends Thread {
+public class Heartbeat implements Runnable {
     private LeaderFollowerMessageHandler parentMessageHandler;
-    private Boolean gotAnswer;
+    private HashedWheelTimer.Timeout timeout;
+    private long lastHeartbeatSent = 0;
+    private volatile long pendingSince = -1; //Util.monotonicNanos() of the unanswered heartbeat, -1 if none
+    private LatencyHistogram roundTripTimes = new LatencyHistogram(); // in microseconds
 
     /**
      * Heartbeat sender is always coupled to a LeaderFollowerMessageHandler. 
@@ -22,25 +32,61 @@ public class Heartbeat extends Thread {
      */
     public Heartbeat(LeaderFollowerMessageHandler parentMessageHandler){
         this.parentMessageHandler = parentMessageHandler;
-        this.gotAnswer = true; //so Heartbeat is sent initially (Object only created when init is completed)
     }
 
+    /**
+     * Schedules the check every Config.HEARTBEAT_CHECK_INTERVAL on the timer of the parent node, first one is run immediately.
+     */
+    public void start(){
+        HashedWheelTimer timer = this.parentMessageHandler.getParentNode().getTimer();
+        this.timeout = timer.schedule(this, 0, Config.HEARTBEAT_CHECK_INTERVAL);
+    }
+
+    public void stop(){
+        if(this.timeout != null){
+            this.timeout.cancel();
+        }
+    }
+
+    /**
+     * Executed by the timer. Kills the connection when the follower is suspected,
+     * sends a heartbeat when the connection was idle for Config.HEARTBEAT_INTERVAL.
+     */
     public void run(){
-        while(!this.parentMessageHandler.getSocket().isClosed()){
-            String sender = this.parentMessageHandler.getParentLeader().getParentNode().getIp();
-            String receiver = this.parentMessageHandler.getFollowerIp();
-            if(gotAnswer){
-                Message heartbeat = new Message(sender, receiver, "heartbeat", MessageType.HEARTBEAT);
-                this.parentMessageHandler.sendMessage(heartbeat);
-                this.gotAnswer = false;
-                Util.sleep(Config.HEARTBEAT_INTERVAL);
-            }
-            else{
-                System.out.println(sender + ": " + receiver + " did not ack last heartbeat. Quitting connection");
-                this.parentMessageHandler.followerTimedOut(); //closes socket, so while loop is exited
-            }
+        if(this.parentMessageHandler.getConnection().isClosed()){
+            this.stop();
+            return;
+        }
+        String sender = this.parentMessageHandler.getParentLeader().getParentNode().getIp();
+        String receiver = this.parentMessageHandler.getFollowerIp();
+        if(!this.parentMessageHandler.getFailureDetector().isAvailable()){
+            Log.log(LogLevel.WARN, "{}: {} is suspected by failure detector (phi {}). Quitting connection", sender, receiver, this.parentMessageHandler.getFailureDetector().phi());
+            this.stop();
+            this.parentMessageHandler.followerTimedOut(); //closes connection
+            return;
+        }
+        long now = Util.monotonicMillis();
+        OutboundQueue queue = this.parentMessageHandler.getOutboundQueue();
+        //only queued, the writer thread of the connection writes it, so a slow follower never holds up the timer thread
+        if(queue != null && this.parentMessageHandler.isIdle(Config.HEARTBEAT_INTERVAL) && now - this.lastHeartbeatSent >= Config.HEARTBEAT_INTERVAL){
+            Message heartbeat = new Message(sender, receiver, "heartbeat", MessageType.HEARTBEAT);
+            this.pendingSince = Util.monotonicNanos();
+            queue.add(heartbeat);
+            this.lastHeartbeatSent = now;
+        }
+    }
+
+    /**
+     * Called when the follower acknowledged the last heartbeat. Records the round trip time including the time spent in both queues.
+     */
+    public void ackReceived(){
+        long sentAt = this.pendingSince;
+        if(sentAt >= 0){
+            this.roundTripTimes.recordSince(sentAt);
+            this.parentMessageHandler.getParentNode().getMetrics().histogram(MetricsRegistry.HEARTBEAT_RTT).recordSince(sentAt);
+            this.pendingSince = -1;
         }
     }
-    public Boolean getGotAnswer() {return this.gotAnswer;}
-    public void setGotAnswer(Boolean gotAnswer) {this.gotAnswer = gotAnswer;}
+
+    public LatencyHistogram getRoundTripTimes() {return this.roundTripTimes;}
 }
@@ -1,14 +1,28 @@
 package project.leader;
 
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import project.AdmissionControl;
+import project.Clock;
 import project.Config;
+import project.LoadMonitor;
+import project.MembershipUpdate;
 import project.Node;
+import project.NodeSaver;
+import project.Role;
 import project.Util;
+import project.helpers.FlowFields;
+import project.helpers.MapUpdate;
+import project.helpers.PathCache;
+import project.helpers.RoadNetwork;
+import project.helpers.Speculation;
 import project.helpers.TrafficArea;
 import project.helpers.TrafficControlLogic;
 import project.message.Message;
 import project.message.MessageType;
+import project.log.Log;
+import project.log.LogLevel;
+import project.metrics.MetricsRegistry;
 
 
 public class Leader extends Thread{
@@ -16,7 +30,10 @@ public class Leader extends Thread{
     private int portForClients;
       
     private Node parentNode;
-    private LinkedList<LeaderFollowerMessageHandler> nodeConnections = new LinkedList<LeaderFollowerMessageHandler>(); //all accepted connections are added here
+    private Subscriptions subscriptions;
+    private LoadMonitor loadMonitor;
+    private long loadsPublishedAt = 0; //Util.monotonicMillis() when membership events were last sent with the loads
+    private ConcurrentLinkedQueue<LeaderFollowerMessageHandler> nodeConnections = new ConcurrentLinkedQueue<LeaderFollowerMessageHandler>(); //all accepted connections are added here, iterated by the timer while followers come and go
 
     /**
      * Starts node, initializes the area and logic of parent Node.
@@ -29,41 +46,196 @@ public class Leader extends Thread{
         this.addressForClients = addressForClients;
         this.portForClients = portForClients;
         try {
-            TrafficArea area = new TrafficArea(Config.MAX_PER_NODE, Config.SIZE_X, Config.SIZE_Y);
+            TrafficArea area = TrafficArea.create(System.getProperty("area", Config.AREA_STORAGE), Config.MAX_PER_NODE, Config.SIZE_X, Config.SIZE_Y);
+            String roads = System.getProperty("roads", Config.ROAD_NETWORK);
+            if(!roads.isEmpty()){
+                long start = System.nanoTime();
+                area.loadRoadNetwork(roads);
+                RoadNetwork network = area.getRoadNetwork();
+                Log.log(LogLevel.INFO, "{}: loaded {} in {} ms", this.parentNode.getIp(), roads, (System.nanoTime() - start) / 1000000);
+                Log.log(LogLevel.INFO, "{} nodes, {} roads ({} closed)", network.getNodeCount(), network.getRoadCount(), network.getClosedRoads());
+            }
             this.parentNode.setArea(area);
-            this.parentNode.setLogic(new TrafficControlLogic(area));
+            TrafficControlLogic logic = new TrafficControlLogic(area);
+            logic.setCongestionPenalty(Float.parseFloat(System.getProperty("congestion.penalty", String.valueOf(Config.CONGESTION_PENALTY))));
+            if(Boolean.parseBoolean(System.getProperty("flowFields", String.valueOf(Config.FLOW_FIELDS)))){
+                logic.setFlowFields(new FlowFields(area, Config.FLOW_FIELD_CAPACITY, Config.FLOW_FIELD_MIN_REQUESTS));
+            }
+            if(Boolean.parseBoolean(System.getProperty("pathCache", String.valueOf(Config.PATH_CACHE)))){
+                PathCache.Eviction eviction = PathCache.Eviction.valueOf(System.getProperty("pathCache.eviction", Config.PATH_CACHE_EVICTION).toUpperCase());
+                logic.setPathCache(new PathCache(area, Config.PATH_CACHE_CAPACITY, eviction, Config.PATH_CACHE_THRESHOLD));
+            }
+            if(Boolean.parseBoolean(System.getProperty("speculation", String.valueOf(Config.SPECULATION)))){
+                logic.setSpeculation(new Speculation());
+            }
+            this.parentNode.setLogic(logic);
+            this.parentNode.setAdmission(new AdmissionControl(Integer.parseInt(System.getProperty("maxNavigations", String.valueOf(Config.MAX_CONCURRENT_NAVIGATIONS))), Config.RETRY_AFTER));
         } catch (Exception e) {
             System.err.println(e.toString());
         }
     }
 
     /**
-     * Starts FollowerRoutine first to be able to let followers connect as fast as possible after starting.
+     * Starts the subscriptions and FollowerRoutine first to be able to let followers connect as fast as possible after starting.
      * Then accepts clients and handles them.
      */
     public void run(){
+        this.subscriptions = new Subscriptions(this.parentNode, Config.SUBSCRIPTION_RETRY_INTERVAL);
+        Clock.get().start(this.subscriptions);
         FollowerRoutine followerRoutine = new FollowerRoutine(this);
         ClientRoutine clientRoutine = new ClientRoutine(this);
-        followerRoutine.start();
-        clientRoutine.start();
+        Clock.get().start(followerRoutine);
+        Clock.get().start(clientRoutine);
+        this.registerGauges();
+        this.parentNode.getTimer().schedule(this::reportHeartbeatLatencies, Config.LATENCY_REPORT_INTERVAL, Config.LATENCY_REPORT_INTERVAL);
+        this.loadMonitor = new LoadMonitor(this.parentNode, MetricsRegistry.NAVIGATION_SERVICE_TIME);
+        this.parentNode.getTimer().schedule(this::advertiseLoad, Config.LOAD_REPORT_INTERVAL, Config.LOAD_REPORT_INTERVAL);
+        this.parentNode.getMembership().join(new NodeSaver(Role.LEADER, this.parentNode.getIp(), this.parentNode.getPort()));
+        this.parentNode.getTimer().schedule(this::publishMembership, Config.MEMBERSHIP_SYNC_INTERVAL, Config.MEMBERSHIP_SYNC_INTERVAL);
+        this.parentNode.getTimer().schedule(() -> this.parentNode.getArea().decayCongestion(Config.CONGESTION_DECAY_KEEP), Config.CONGESTION_DECAY_INTERVAL, Config.CONGESTION_DECAY_INTERVAL);
+        FlowFields flowFields = this.parentNode.getLogic().getFlowFields();
+        if(flowFields != null){
+            this.parentNode.getTimer().schedule(flowFields::refresh, Config.FLOW_FIELD_REFRESH_INTERVAL, Config.FLOW_FIELD_REFRESH_INTERVAL);
+        }
+        if(this.parentNode.getLogic().getSpeculation() != null){
+            this.startSpeculation();
+        }
+        if(this.isReplicating()){
+            this.parentNode.getArea().recordChanges();
+            this.parentNode.getTimer().schedule(this::publishChanges, Config.REPLICA_SYNC_INTERVAL, Config.REPLICA_SYNC_INTERVAL);
+        }
+        PathCache pathCache = this.parentNode.getLogic().getPathCache();
+        if(pathCache != null){
+            this.parentNode.getTimer().schedule(pathCache::checkOccupancy, Config.PATH_CACHE_CHECK_INTERVAL, Config.PATH_CACHE_CHECK_INTERVAL);
+        }
     }
 
     /**
-     * Sends message to all followers with the list of all nodes in the network. 
-     * Triggered when follower connects to leader or disconnects.
+     * @return true when the followers keep a replica of the area and compute the steps of their clients on it (optimistic moves)
      */
-    public void updateNodeList(){
-        Message message = new Message(this.parentNode.getIp(), "", this.parentNode.getAllKnownNodes().clone(), MessageType.SYNC_NODE_LIST);
-        Util.sleep(10);  //so sending message does not happen in exact same time as first heartbeat (triggered by messageHandler.start)
-        for (LeaderFollowerMessageHandler connection : nodeConnections) {
-            message.setReceiver(connection.getFollowerIp());
-            connection.sendMessage(message);
+    public boolean isReplicating(){
+        return Boolean.parseBoolean(System.getProperty("optimisticMoves", String.valueOf(Config.OPTIMISTIC_MOVES)));
+    }
+
+    /**
+     * Sends the changes of the area since the last call to the replicas of all followers (see project.follower.Replica).
+     * Run periodically by the timer of the parent node.
+     */
+    private void publishChanges(){
+        TrafficArea area = this.parentNode.getArea();
+        synchronized(area){ //queued while holding the lock, so the replicas get the updates in the order they were taken
+            MapUpdate update = area.takeChanges();
+            if(update == null){
+                return;
+            }
+            for (LeaderFollowerMessageHandler connection : this.nodeConnections) {
+                connection.sendReplicaUpdate(update);
+            }
+        }
+    }
+
+    /**
+     * Computes the next steps of the vehicles ahead (see TrafficControlLogic.speculate) in its own thread as long as the node lives.
+     */
+    private void startSpeculation(){
+        TrafficControlLogic logic = this.parentNode.getLogic();
+        Thread speculation = new Thread(() -> {
+            try {
+                while(true){
+                    logic.speculate(Config.SPECULATION_BATCH);
+                }
+            } catch (InterruptedException e) {
+                Log.log(LogLevel.INFO, "{}: speculation stopped", this.parentNode.getIp());
+            }
+        }, "Speculation");
+        speculation.setDaemon(true);
+        Clock.get().start(speculation);
+    }
+
+    private void registerGauges(){
+        MetricsRegistry metrics = this.parentNode.getMetrics();
+        metrics.gauge(MetricsRegistry.AREA_OCCUPANCY, () -> this.parentNode.getArea().getOccupancy());
+        metrics.gauge(MetricsRegistry.SUBSCRIPTIONS, () -> this.subscriptions.getCount());
+        metrics.gauge(MetricsRegistry.MEMBERSHIP_VERSION, () -> this.parentNode.getMembership().getVersion());
+        AdmissionControl admission = this.parentNode.getAdmission();
+        metrics.gauge(MetricsRegistry.ADMISSION_IN_FLIGHT, () -> admission.getInFlight());
+        metrics.gauge(MetricsRegistry.ADMISSION_REJECTED, () -> admission.getRejected());
+        FlowFields flowFields = this.parentNode.getLogic().getFlowFields();
+        if(flowFields != null){
+            metrics.gauge(MetricsRegistry.FLOW_FIELDS, () -> flowFields.getFieldCount());
+            metrics.gauge(MetricsRegistry.FLOW_FIELD_HITS, () -> flowFields.getHits());
+            metrics.gauge(MetricsRegistry.FLOW_FIELD_MISSES, () -> flowFields.getMisses());
+        }
+        PathCache pathCache = this.parentNode.getLogic().getPathCache();
+        if(pathCache != null){
+            metrics.gauge(MetricsRegistry.PATH_CACHE_HITS, () -> pathCache.getHits());
+            metrics.gauge(MetricsRegistry.PATH_CACHE_MISSES, () -> pathCache.getMisses());
+            metrics.gauge(MetricsRegistry.PATH_CACHE_INVALIDATIONS, () -> pathCache.getInvalidations());
+            metrics.gauge(MetricsRegistry.PATH_CACHE_HIT_RATE, () -> pathCache.getHitRate());
+        }
+        Speculation speculation = this.parentNode.getLogic().getSpeculation();
+        if(speculation != null){
+            metrics.gauge(MetricsRegistry.SPECULATION_HITS, () -> speculation.getHits());
+            metrics.gauge(MetricsRegistry.SPECULATION_MISSES, () -> speculation.getMisses());
+            metrics.gauge(MetricsRegistry.SPECULATION_CONFLICTS, () -> speculation.getConflicts());
+            metrics.gauge(MetricsRegistry.SPECULATION_HIT_RATE, () -> speculation.getHitRate());
+        }
+        metrics.gauge(MetricsRegistry.QUEUE_OUTBOUND, () -> {
+            long size = 0;
+            for (LeaderFollowerMessageHandler connection : this.nodeConnections) {
+                if(connection.getOutboundQueue() != null){
+                    size += connection.getOutboundQueue().size();
+                }
+            }
+            return size;
+        });
+    }
+
+    /**
+     * Prints heartbeat round trip times and control lane queueing delays (both in microseconds) of every follower connection.
+     * Run periodically by the timer of the parent node.
+     */
+    private void reportHeartbeatLatencies(){
+        for (LeaderFollowerMessageHandler connection : this.nodeConnections) {
+            Log.log(LogLevel.INFO, "{}: heartbeat rtt to {} [us] {}", this.parentNode.getIp(), connection.getFollowerIp(), connection.getHeartbeat().getRoundTripTimes().summary());
+            if(connection.getOutboundQueue() != null){
+                Log.log(LogLevel.INFO, "{}: control lane delay to {} [us] {}", this.parentNode.getIp(), connection.getFollowerIp(), connection.getOutboundQueue().getControlQueueDelay().summary());
+            }
+        }
+    }
+
+    /**
+     * Measures the own load and records it in the list of all known nodes, it is sent to the followers with the
+     * next membership events, so every node can tell clients where to connect (see NODE_LIST). Run periodically by the timer of the parent node.
+     */
+    private void advertiseLoad(){
+        this.parentNode.getMembership().setLoad(this.parentNode.getIp(), this.loadMonitor.measure());
+    }
+
+    /**
+     * Sends the membership events since the last call (joins, leaves, updates) to all followers, one message per follower
+     * however many nodes joined or left in the meantime. Changed loads alone only go out every Config.LOAD_REPORT_INTERVAL.
+     * Run periodically by the timer of the parent node.
+     */
+    private void publishMembership(){
+        long now = Util.monotonicMillis();
+        boolean loadsDue = now - this.loadsPublishedAt >= Config.LOAD_REPORT_INTERVAL;
+        MembershipUpdate update = this.parentNode.getMembership().takeUnpublished(loadsDue);
+        if(update == null){
+            return;
+        }
+        if(loadsDue){
+            this.loadsPublishedAt = now;
+        }
+        for (LeaderFollowerMessageHandler connection : this.nodeConnections) {
+            connection.sendMessage(new Message(this.parentNode.getIp(), connection.getFollowerIp(), update, MessageType.SYNC_NODE_LIST));
         }
     }
 
-    public LinkedList<LeaderFollowerMessageHandler> getNodeConnections(){return this.nodeConnections;}
-    public void setNodeConnections(LinkedList<LeaderFollowerMessageHandler> connections){this.nodeConnections = connections;}
+    public ConcurrentLinkedQueue<LeaderFollowerMessageHandler> getNodeConnections(){return this.nodeConnections;}
+    public void setNodeConnections(ConcurrentLinkedQueue<LeaderFollowerMessageHandler> connections){this.nodeConnections = connections;}
     public Node getParentNode(){return this.parentNode;}
+    public Subscriptions getSubscriptions(){return this.subscriptions;}
     public String getAddressForClients() {return this.addressForClients;}
     public int getPortForClients() {return this.portForClients;}
 }
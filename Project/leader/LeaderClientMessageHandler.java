@@ -1,13 +1,18 @@
 package project.leader;
 
 import java.net.InetSocketAddress;
-import java.net.Socket;
 
 import project.Node;
+import project.Util;
 import project.helpers.Coordinate;
 import project.message.Message;
 import project.message.MessageHandler;
 import project.message.MessageType;
+import project.log.Log;
+import project.log.LogLevel;
+import project.metrics.LatencyHistogram;
+import project.metrics.MetricsRegistry;
+import project.transport.Connection;
 
 /**
  * For every leader-client connection, a leader has a LeaderClientMessageHandler.
@@ -17,16 +22,21 @@ public class LeaderClientMessageHandler extends MessageHandler {
     private Leader parentLeader;
     private String clientIp;
     private int clientPort;
+    private LatencyHistogram serviceTime;
 
-    public LeaderClientMessageHandler(Node parentNode, Socket newConnection, Leader parentLeader){
+    public LeaderClientMessageHandler(Node parentNode, Connection newConnection, Leader parentLeader){
         super(parentNode, newConnection);
         this.parentLeader = parentLeader;
+        this.serviceTime = this.metrics.histogram(MetricsRegistry.NAVIGATION_SERVICE_TIME);
     }
 
     public void run(){
-        while(!this.socket.isClosed()){
+        this.metrics.counter(MetricsRegistry.CONNECTIONS_CLIENTS).incrementAndGet();
+        while(!this.connection.isClosed()){
             this.receiveMessagesRoutine();
         }
+        this.metrics.counter(MetricsRegistry.CONNECTIONS_CLIENTS).decrementAndGet();
+        this.forgetVehicles();
     }
 
     /**
@@ -35,7 +45,7 @@ public class LeaderClientMessageHandler extends MessageHandler {
      */
     @Override
     protected void handleInitializeMessage(Message message) {
-        System.out.println("answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
 
     /**
@@ -44,7 +54,7 @@ public class LeaderClientMessageHandler extends MessageHandler {
      */
     @Override
     protected void handleHeartbeatMessage(Message message) {
-        System.out.println("answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
 
     /**
@@ -53,7 +63,7 @@ public class LeaderClientMessageHandler extends MessageHandler {
      */
     @Override
     protected void handleSyncNodeListMessage(Message message) {
-        System.out.println("answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
 
     /**
@@ -63,48 +73,62 @@ public class LeaderClientMessageHandler extends MessageHandler {
      * 1: destination
      * When client reached its goal, the client is deleted from map.
      * --> client is no more on street, parking somewhere.
+     * Refused with a RetryAfter while Config.MAX_CONCURRENT_NAVIGATIONS requests are processed.
      * This is the same function as in LeaderFollowerMessageHandler.
      */
     @Override
     protected void handleNavigationMessage(Message message){
+        if(!this.admit(message)){
+            return;
+        }
+        long start = Util.monotonicNanos();
         try {
             Coordinate[] payload = (Coordinate[]) message.getPayload();
             try {
                 if(payload.length == 2){
-                    if(this.parentNode.getArea().getPosition(message.getSender()) == null){
-                        this.parentNode.getArea().place(message.getSender(), payload[0]);
-                    }
-                    if(!this.parentNode.getArea().getPosition(message.getSender()).compare(payload[0])){
-                        this.parentNode.getArea().remove(message.getSender(), this.parentNode.getArea().getPosition(message.getSender()));
-                        this.parentNode.getArea().place(message.getSender(), payload[0]);
-                    }
-                    
-                    Coordinate nextStep = this.parentNode.getLogic().move(message.getSender(), payload[1]);
-                    if(!nextStep.compare(payload[0])){
-                        Message answer = new Message(this.parentNode.getIp(), message.getSender(), nextStep, MessageType.SUCCESS); 
+                    int position = payload[0].getPacked();
+                    this.vehicles.add(message.getSender());
+                    int nextStep = this.parentNode.getLogic().navigate(message.getSender(), position, payload[1].getPacked());
+                    if(nextStep != position){
+                        Message answer = message.reply(this.parentNode.getIp(), Coordinate.fromPacked(nextStep), MessageType.SUCCESS); 
                         this.sendMessage(answer);
-                        if(nextStep.compare(payload[1])){
-                            this.parentNode.getArea().remove(message.getSender(), nextStep);
-                        }
                     }
                     else{
-                        Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Can't make move to next field", MessageType.ERROR); 
+                        Message answer = message.reply(this.parentNode.getIp(), "Can't make move to next field", MessageType.ERROR); 
                         this.sendMessage(answer);
                     }
                 }
                 else{
-                    System.out.println("Payload not containing all information");
-                    Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Please send navigation message with Array of 0: your position and 1: your destination", MessageType.ERROR); 
+                    Log.log(LogLevel.WARN, "{}: Payload not containing all information", this.ip);
+                    Message answer = message.reply(this.parentNode.getIp(), "Please send navigation message with Array of 0: your position and 1: your destination", MessageType.ERROR); 
                     this.sendMessage(answer);
                 }
             } catch (Exception e) {
-                System.err.println("Move not possible: " + e.toString());
-                Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Move is not possible", MessageType.ERROR); 
+                Log.log(LogLevel.DEBUG, "{}: Move not possible: {}", this.ip, e);
+                Message answer = message.reply(this.parentNode.getIp(), "Move is not possible", MessageType.ERROR); 
                 this.sendMessage(answer);
             }
         } catch (Exception e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
+        } finally {
+            this.releaseAdmission();
         }
+        this.serviceTime.recordSince(start);
+    }
+
+    /**
+     * Client subscribes for pushed steps, see Subscriptions. The steps go back through this connection.
+     * This is the same function as in LeaderFollowerMessageHandler.
+     */
+    @Override
+    protected void handleSubscribeMessage(Message message){
+        this.vehicles.add(message.getSender());
+        this.parentLeader.getSubscriptions().subscribe(message, this);
+    }
+
+    @Override
+    protected void handleStepAckMessage(Message message){
+        this.parentLeader.getSubscriptions().stepAcknowledged(message);
     }
 
     /**
@@ -113,7 +137,7 @@ public class LeaderClientMessageHandler extends MessageHandler {
      */
     public Boolean registerConnection(){
         Message message = this.readMessage();
-        System.out.println(this.parentNode.getIp() + " received a "+ message.getType() + " message: " + message.getPayload());
+        Log.message(this.parentNode.getIp(), "received", message);
         if(message.getType() == MessageType.INITIALIZE){
             try {
                 InetSocketAddress clientAddress = (InetSocketAddress) message.getPayload();
@@ -121,32 +145,32 @@ public class LeaderClientMessageHandler extends MessageHandler {
                 this.clientPort = clientAddress.getPort();
 
                 if(this.clientIp.contains("127.0.1.")){
-                    System.out.println(this.parentLeader.getParentNode().getIp() + ": Leader registered " + this.clientIp);
+                    Log.log(LogLevel.INFO, "{}: Leader registered {}", this.parentLeader.getParentNode().getIp(), this.clientIp);
 
                     String payload = "Registered " + this.clientIp + " as Client";
-                    Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.SUCCESS); 
+                    Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.SUCCESS); 
                     this.sendMessage(answer);
                     return true;
                 }
                 else {
-                    System.out.println(this.parentLeader.getParentNode().getIp() + ": Leader rejected " + this.clientIp);
+                    Log.log(LogLevel.INFO, "{}: Leader rejected {}", this.parentLeader.getParentNode().getIp(), this.clientIp);
                     String payload = "Please connect to " + this.parentLeader.getParentNode().getIp() + ":";
                     payload += this.parentLeader.getParentNode().getPort() + " for network functionality";
-                    Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.ERROR); 
+                    Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.ERROR); 
                     this.sendMessage(answer);
                     return false;
                 }
 
             } catch (Exception e) {
-                System.out.println("Init message failed");
+                Log.log(LogLevel.WARN, "{}: Init message failed", this.ip);
                 String payload = "Insert INetSocketAddress of own IP and Port in payload.";
-                Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.ERROR); 
+                Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.ERROR); 
                 this.sendMessage(answer);
                 return false;
             }
         }
         else{
-            Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Please send init Message", MessageType.ERROR);
+            Message answer = message.reply(this.parentNode.getIp(), "Please send init Message", MessageType.ERROR);
             this.sendMessage(answer);
             return false;
         }
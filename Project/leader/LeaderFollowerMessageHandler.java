@@ -2,19 +2,33 @@ package project.leader;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 
+import project.MembershipDigest;
+import project.MembershipUpdate;
 import project.Role;
+import project.Util;
 import project.helpers.Coordinate;
+import project.helpers.MapUpdate;
+import project.helpers.TrafficArea;
 import project.Node;
+import project.NodeLoad;
 import project.NodeSaver;
+import project.PhiAccrualFailureDetector;
 import project.message.*;
+import project.log.Log;
+import project.log.LogLevel;
+import project.metrics.LatencyHistogram;
+import project.metrics.MetricsRegistry;
+import project.transport.Connection;
 
 public class LeaderFollowerMessageHandler extends MessageHandler {
     private Heartbeat heartbeat;
     private Leader parentLeader;
     private String followerIp;
     private int followerPort;
+    private LatencyHistogram serviceTime;
+    private volatile boolean replicaInitialised = false; //the follower got the whole area, changes can follow
+    private boolean replicaStale = false; //an update was dropped by the full outbound queue, the next one is the whole area again, only used while holding the lock of the area
 
     /**
      * Initializes input and output streams on creation, since every Message handler is 
@@ -23,17 +37,29 @@ public class LeaderFollowerMessageHandler extends MessageHandler {
      * @param parentNode node which is parent of this process, necessary for handling messages
      * @param newConnection the new connection that has been accepted and has to be initialized
      */
-    public LeaderFollowerMessageHandler(Node parentNode, Socket newConnection, Leader parentLeader){
+    public LeaderFollowerMessageHandler(Node parentNode, Connection newConnection, Leader parentLeader){
         super(parentNode, newConnection);
         this.parentLeader = parentLeader;
+        this.failureDetector = new PhiAccrualFailureDetector();
         this.heartbeat = new Heartbeat(this);
+        this.serviceTime = this.metrics.histogram(MetricsRegistry.NAVIGATION_SERVICE_TIME);
     }
 
     public void run(){
+        this.startOutboundQueue();
         this.heartbeat.start();
-        while(!this.socket.isClosed()){
+        //the new follower gets the whole list once, the events after it follow with the others
+        this.sendMessage(new Message(this.parentNode.getIp(), this.followerIp, this.parentNode.getMembership().snapshot(), MessageType.SYNC_NODE_LIST));
+        if(this.parentLeader.isReplicating()){
+            this.initialiseReplica();
+        }
+        this.metrics.counter(MetricsRegistry.CONNECTIONS_NODES).incrementAndGet();
+        while(!this.connection.isClosed()){
             this.receiveMessagesRoutine();
         }
+        this.metrics.counter(MetricsRegistry.CONNECTIONS_NODES).decrementAndGet();
+        this.heartbeat.stop();
+        this.forgetVehicles();
         this.removeLostFollower();
     }
 
@@ -43,7 +69,7 @@ public class LeaderFollowerMessageHandler extends MessageHandler {
      */
     @Override
     protected void handleInitializeMessage(Message message){
-       System.out.println("answer not implemented");
+       Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
     
     /**
@@ -53,17 +79,44 @@ public class LeaderFollowerMessageHandler extends MessageHandler {
     @Override
     protected void handleHeartbeatMessage(Message message){
         String payload = "Don't send heartbeats to the leader. If responding to one, use ACK.";
-        Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.ERROR);
+        Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.ERROR);
         this.sendMessage(answer);
     }
 
+    /**
+     * Saves the load the follower reported with its entry in the node list, it is sent to everybody with the next membership events.
+     */
+    @Override
+    protected void handleLoadReportMessage(Message message){
+        if(message.getPayload() instanceof NodeLoad){
+            this.parentNode.getMembership().setLoad(this.followerIp, (NodeLoad) message.getPayload());
+        }
+    }
+
+    /**
+     * Anti-entropy: the follower sent what it knows of the list of all known nodes, it gets what it is missing
+     * (the events since its version or the whole list), nothing when it is up to date.
+     */
+    @Override
+    protected void handleMembershipDigestMessage(Message message){
+        if(!(message.getPayload() instanceof MembershipDigest)){
+            Log.log(LogLevel.WARN, "{}: {} without digest", this.ip, message.getType());
+            return;
+        }
+        MembershipUpdate update = this.parentNode.getMembership().since((MembershipDigest) message.getPayload());
+        if(update != null){
+            this.metrics.counter(update.isFull() ? MetricsRegistry.MEMBERSHIP_SNAPSHOTS : MetricsRegistry.MEMBERSHIP_REPAIRS).incrementAndGet();
+            this.sendMessage(message.reply(this.parentNode.getIp(), update, MessageType.SYNC_NODE_LIST));
+        }
+    }
+
     /**
      * Leader should never receive SYNC_NODE_LIST from follower.
      * This is an error case.
      */
     @Override
     protected void handleSyncNodeListMessage(Message message){
-        System.out.println("Answer not implemented");
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
     }
 
     /**
@@ -73,57 +126,147 @@ public class LeaderFollowerMessageHandler extends MessageHandler {
      * 1: destination
      * When client reached its goal, the client is deleted from map.
      * --> client is no more on street, parking somewhere.
+     * Refused with a RetryAfter while Config.MAX_CONCURRENT_NAVIGATIONS requests are processed.
      * This is the same function as in LeaderClientMessageHandler.
      */
     @Override
     protected void handleNavigationMessage(Message message){
+        if(!this.admit(message)){
+            return;
+        }
+        long start = Util.monotonicNanos();
         try {
             Coordinate[] payload = (Coordinate[]) message.getPayload();
             try {
                 if(payload.length == 2){
-                    if(this.parentNode.getArea().getPosition(message.getSender()) == null){
-                        this.parentNode.getArea().place(message.getSender(), payload[0]);
-                    }
-                    if(!this.parentNode.getArea().getPosition(message.getSender()).compare(payload[0])){
-                        this.parentNode.getArea().remove(message.getSender(), this.parentNode.getArea().getPosition(message.getSender()));
-                        this.parentNode.getArea().place(message.getSender(), payload[0]);
-                    }
-                    
-                    Coordinate nextStep = this.parentNode.getLogic().move(message.getSender(), payload[1]);
-                    if(!nextStep.compare(payload[0])){
-                        Message answer = new Message(this.parentNode.getIp(), message.getSender(), nextStep, MessageType.SUCCESS); 
+                    int position = payload[0].getPacked();
+                    this.vehicles.add(message.getSender());
+                    int nextStep = this.parentNode.getLogic().navigate(message.getSender(), position, payload[1].getPacked());
+                    if(nextStep != position){
+                        Message answer = message.reply(this.parentNode.getIp(), Coordinate.fromPacked(nextStep), MessageType.SUCCESS); 
                         this.sendMessage(answer);
-                        if(nextStep.compare(payload[1])){
-                            this.parentNode.getArea().remove(message.getSender(), nextStep);
-                        }
                     }
                     else{
-                        Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Can't make move to next field", MessageType.ERROR); 
+                        Message answer = message.reply(this.parentNode.getIp(), "Can't make move to next field", MessageType.ERROR); 
                         this.sendMessage(answer);
                     }
                 }
                 else{
-                    System.out.println("Payload not containing all information");
-                    Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Please send navigation message with Array of 0: your position and 1: your destination", MessageType.ERROR); 
+                    Log.log(LogLevel.WARN, "{}: Payload not containing all information", this.ip);
+                    Message answer = message.reply(this.parentNode.getIp(), "Please send navigation message with Array of 0: your position and 1: your destination", MessageType.ERROR); 
                     this.sendMessage(answer);
                 }
             } catch (Exception e) {
-                System.err.println("Move not possible: " + e.toString());
-                Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Move is not possible", MessageType.ERROR); 
+                Log.log(LogLevel.DEBUG, "{}: Move not possible: {}", this.ip, e);
+                Message answer = message.reply(this.parentNode.getIp(), "Move is not possible", MessageType.ERROR); 
                 this.sendMessage(answer);
             }
         } catch (Exception e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
+        } finally {
+            this.releaseAdmission();
         }
+        this.serviceTime.recordSince(start);
     }
 
     /**
-     * Leader is waiting for the ack messages of the clients.
-     * gotAnswer is used by Heartbeat class.
+     * A follower computed the step of its client on its replica of the area (see project.follower.Replica).
+     * The step is taken when the area still is as the replica saw it, otherwise it is computed here as for NAVIGATION.
+     * Either way the client gets the answer of a navigation request.
+     */
+    @Override
+    protected void handleMoveCommitMessage(Message message){
+        if(!this.admit(message)){
+            return;
+        }
+        long start = Util.monotonicNanos();
+        try {
+            MoveCommit commit = (MoveCommit) message.getPayload();
+            this.vehicles.add(message.getSender());
+            int nextStep = this.parentNode.getLogic().commit(message.getSender(), commit.getFrom(), commit.getTo(), commit.getDestination(), commit.getVersion());
+            if(nextStep != Coordinate.NONE){
+                this.metrics.counter(MetricsRegistry.REPLICA_ACCEPTED).incrementAndGet();
+            }
+            else{
+                this.metrics.counter(MetricsRegistry.REPLICA_REJECTED).incrementAndGet();
+                nextStep = this.parentNode.getLogic().navigate(message.getSender(), commit.getFrom(), commit.getDestination());
+            }
+            if(nextStep != commit.getFrom()){
+                this.sendMessage(message.reply(this.parentNode.getIp(), Coordinate.fromPacked(nextStep), MessageType.SUCCESS));
+            }
+            else{
+                this.sendMessage(message.reply(this.parentNode.getIp(), "Can't make move to next field", MessageType.ERROR));
+            }
+        } catch (Exception e) {
+            Log.log(LogLevel.DEBUG, "{}: Move not possible: {}", this.ip, e);
+            this.sendMessage(message.reply(this.parentNode.getIp(), "Move is not possible", MessageType.ERROR));
+        } finally {
+            this.releaseAdmission();
+        }
+        this.serviceTime.recordSince(start);
+    }
+
+    /**
+     * A client of the follower disconnected, what was computed ahead for its vehicles is dropped.
+     */
+    @Override
+    protected void handleClientLeftMessage(Message message){
+        try {
+            for (String vehicle : (String[]) message.getPayload()) {
+                this.parentNode.getLogic().forget(vehicle);
+                this.vehicles.remove(vehicle);
+            }
+        } catch (Exception e) {
+            Log.log(LogLevel.DEBUG, "{}: {}", this.ip, e);
+        }
+    }
+
+    /**
+     * Sends the whole area to the replica of the follower, the changes taken after it follow with sendReplicaUpdate.
+     */
+    private void initialiseReplica(){
+        TrafficArea area = this.parentNode.getArea();
+        synchronized(area){ //no change can be taken between the snapshot and enabling the updates
+            this.replicaStale = !this.sendMessage(new Message(this.parentNode.getIp(), this.followerIp, area.snapshot(), MessageType.REPLICA_UPDATE));
+            this.replicaInitialised = true;
+        }
+    }
+
+    /**
+     * Queues changes of the area for the replica of the follower once it got the whole area.
+     * Only called while holding the lock of the area, so the updates are queued in the order they were taken.
+     * After an update was dropped (the connection is backed up, see OutboundQueue) the whole area is sent again instead,
+     * it contains the changes of the update as well.
+     */
+    void sendReplicaUpdate(MapUpdate update){
+        if(this.replicaInitialised && !this.connection.isClosed()){
+            MapUpdate next = this.replicaStale ? this.parentNode.getArea().snapshot() : update;
+            this.replicaStale = !this.sendMessage(new Message(this.parentNode.getIp(), this.followerIp, next, MessageType.REPLICA_UPDATE));
+        }
+    }
+
+    /**
+     * Arrival of acks was already recorded by the failure detector (like for every message).
+     * Only used for measuring the heartbeat round trip time.
      */
     @Override
     protected void handleAckMessage(Message message){
-        this.heartbeat.setGotAnswer(true);
+        this.heartbeat.ackReceived();
+    }
+
+    /**
+     * Client subscribes for pushed steps, see Subscriptions. The steps go back through this connection.
+     * This is the same function as in LeaderClientMessageHandler.
+     */
+    @Override
+    protected void handleSubscribeMessage(Message message){
+        this.vehicles.add(message.getSender());
+        this.parentLeader.getSubscriptions().subscribe(message, this);
+    }
+
+    @Override
+    protected void handleStepAckMessage(Message message){
+        this.parentLeader.getSubscriptions().stepAcknowledged(message);
     }
 
     /**
@@ -132,7 +275,7 @@ public class LeaderFollowerMessageHandler extends MessageHandler {
      */
     public Boolean registerConnection(){
         Message message = this.readMessage();
-        System.out.println(this.parentNode.getIp() + " received a "+ message.getType() + " message: " + message.getPayload());
+        Log.message(this.parentNode.getIp(), "received", message);
         if(message.getType() == MessageType.INITIALIZE){
             try {
                 InetSocketAddress clientAddress = (InetSocketAddress) message.getPayload();
@@ -140,35 +283,34 @@ public class LeaderFollowerMessageHandler extends MessageHandler {
                 this.followerPort = clientAddress.getPort();
 
                 if(this.followerIp.contains("127.0.0.")){
-                    System.out.println(this.parentLeader.getParentNode().getIp() + ": Leader registered " + this.followerIp);                
+                    Log.log(LogLevel.INFO, "{}: Leader registered {}", this.parentLeader.getParentNode().getIp(), this.followerIp);
                     String payload = "Registered " + this.followerIp + " as Follower";
-                    Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.SUCCESS); 
+                    Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.SUCCESS); 
                     this.sendMessage(answer);
                     
                     NodeSaver newFollower = new NodeSaver(Role.FOLLOWER, this.followerIp, this.followerPort);
-                    this.parentLeader.getParentNode().addToAllKnownNodes(this.getFollowerIp(), newFollower);
+                    this.parentLeader.getParentNode().getMembership().join(newFollower); //the others learn about it with the next membership events
                     this.parentLeader.getNodeConnections().add(this);
-                    this.parentLeader.updateNodeList();
                     return true;
                 }
                 else {
-                    System.out.println(this.parentLeader.getParentNode().getIp() + ": Leader rejected " + this.followerIp);
+                    Log.log(LogLevel.INFO, "{}: Leader rejected {}", this.parentLeader.getParentNode().getIp(), this.followerIp);
                     String payload = "Please connect to " + this.parentLeader.getAddressForClients() + ":";
                     payload += this.parentLeader.getPortForClients() + " for client functionality";
-                    Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.ERROR); 
+                    Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.ERROR); 
                     this.sendMessage(answer);
                     return false;
                 }
             } catch (Exception e) {
-                System.out.println("Init message failed");
+                Log.log(LogLevel.WARN, "{}: Init message failed", this.ip);
                 String payload = "Insert INetSocketAddress of own IP and Port in payload.";
-                Message answer = new Message(this.parentNode.getIp(), message.getSender(), payload, MessageType.ERROR); 
+                Message answer = message.reply(this.parentNode.getIp(), payload, MessageType.ERROR); 
                 this.sendMessage(answer);
                 return false;
             }
         }
         else{
-            Message answer = new Message(this.parentNode.getIp(), message.getSender(), "Please send init Message", MessageType.ERROR);
+            Message answer = message.reply(this.parentNode.getIp(), "Please send init Message", MessageType.ERROR);
             this.sendMessage(answer);
             return false;
         }
@@ -179,7 +321,7 @@ public class LeaderFollowerMessageHandler extends MessageHandler {
      */
     public void followerTimedOut(){
         try {
-            this.socket.close();
+            this.connection.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -187,15 +329,15 @@ public class LeaderFollowerMessageHandler extends MessageHandler {
     }
 
     /**
-     * Removing follower from lists, updating other nodes in case of lost follower.
+     * Removing follower from lists, the other nodes learn about it with the next membership events.
      */
     private void removeLostFollower(){
         this.parentLeader.getNodeConnections().remove(this);
-        this.parentLeader.getParentNode().getAllKnownNodes().remove(this.followerIp);
-        this.parentLeader.updateNodeList();
+        this.parentLeader.getParentNode().getMembership().leave(this.followerIp);
     }
 
     public Leader getParentLeader() {return this.parentLeader;}
+    public Heartbeat getHeartbeat() {return this.heartbeat;}
     public String getFollowerIp() {return this.followerIp;}
     public void setFollowerIp(String followerIp) {this.followerIp = followerIp;}
     public int getFollowerPort() {return this.followerPort;}
@@ -0,0 +1,227 @@
+package project.leader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import project.Clock;
+import project.Node;
+import project.Util;
+import project.helpers.Coordinate;
+import project.log.Log;
+import project.log.LogLevel;
+import project.message.Message;
+import project.message.MessageHandler;
+import project.message.MessageType;
+import project.metrics.LatencyHistogram;
+import project.metrics.MetricsRegistry;
+
+/**
+ * Server push navigation: a client subscribes once with its position and destination (SUBSCRIBE) and the leader pushes every
+ * next step to it (STEP) as soon as it is computed. The client acknowledges its arrival at every cell (STEP_ACK), which makes it
+ * ready for the next step, so no request has to travel to the leader before a step is computed.
+ * The leader schedules the vehicles on its own cadence: a round navigates every vehicle that became ready during the last round
+ * in one pass over the area (TrafficControlLogic.navigateBatch), vehicles that could not move are tried again after retryInterval.
+ * Subscriptions end with the acknowledged arrival at the destination, an impossible move or the loss of the connection.
+ */
+public class Subscriptions extends Thread {
+    private static final long IDLE_WAIT = 100; // in milliseconds, longest wait for ready vehicles, also how often lost connections are looked for
+
+    private final Node parentNode;
+    private final long retryInterval; // in nanoseconds
+    private final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+    private final ArrayDeque<Subscription> ready = new ArrayDeque<Subscription>(); // vehicles waiting for the next round, guarded by itself
+    private final ArrayDeque<Subscription> blocked = new ArrayDeque<Subscription>(); // vehicles waiting for a retry, oldest first, only used by this thread
+    private final LatencyHistogram stepDelay;
+
+    private static final class Subscription {
+        final String id;
+        final int destination;
+        final MessageHandler connection; // the answers go back the way the subscription came in
+        volatile int position;
+        volatile boolean awaitingAck = false; // a step was pushed and its arrival not yet acknowledged
+        volatile boolean cancelled = false;
+        long readySince; // Util.monotonicNanos() when the vehicle became ready, for the step delay
+        long retryAt;
+
+        Subscription(String id, int position, int destination, MessageHandler connection){
+            this.id = id;
+            this.position = position;
+            this.destination = destination;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * @param parentNode the leader node, its logic computes the steps
+     * @param retryInterval in milliseconds, how long a vehicle that could not move waits for its next try
+     */
+    public Subscriptions(Node parentNode, long retryInterval){
+        this.parentNode = parentNode;
+        this.retryInterval = TimeUnit.MILLISECONDS.toNanos(retryInterval);
+        this.stepDelay = parentNode.getMetrics().histogram(MetricsRegistry.SUBSCRIPTION_STEP_DELAY);
+        this.setName("Subscriptions");
+        this.setDaemon(true);
+    }
+
+    /**
+     * Registers (or replaces) the subscription of the sender of a SUBSCRIBE message, its first step is pushed with the next round.
+     * @param message SUBSCRIBE with Coordinate array of 0: position and 1: destination
+     * @param connection the connection the message came in, the steps are pushed through it
+     */
+    void subscribe(Message message, MessageHandler connection){
+        Coordinate[] payload;
+        try {
+            payload = (Coordinate[]) message.getPayload();
+        } catch (ClassCastException e) {
+            payload = null;
+        }
+        if(payload == null || payload.length != 2 || payload[0] == null || payload[1] == null){
+            String answer = "Please send subscription with Array of 0: your position and 1: your destination";
+            connection.sendMessage(message.reply(this.parentNode.getIp(), answer, MessageType.ERROR));
+            return;
+        }
+        Subscription subscription = new Subscription(message.getSender(), payload[0].getPacked(), payload[1].getPacked(), connection);
+        Subscription replaced = this.subscriptions.put(subscription.id, subscription);
+        if(replaced != null){
+            replaced.cancelled = true;
+        }
+        subscription.readySince = Util.monotonicNanos();
+        this.addReady(subscription);
+    }
+
+    /**
+     * The vehicle arrived at the cell of its last step (or reports where it actually is), so it is ready for the next one.
+     * Arrival at the destination ends the subscription. Acknowledgements without a pushed step are ignored.
+     * @param message STEP_ACK with the Coordinate the vehicle reached
+     */
+    void stepAcknowledged(Message message){
+        Subscription subscription = this.subscriptions.get(message.getSender());
+        if(subscription == null || !subscription.awaitingAck || !(message.getPayload() instanceof Coordinate)){
+            Log.log(LogLevel.DEBUG, "{}: ignored {} of {}", this.parentNode.getIp(), message.getType(), message.getSender());
+            return;
+        }
+        subscription.awaitingAck = false;
+        subscription.position = ((Coordinate) message.getPayload()).getPacked();
+        if(subscription.position == subscription.destination){
+            this.subscriptions.remove(subscription.id, subscription);
+            return;
+        }
+        subscription.readySince = Util.monotonicNanos();
+        this.addReady(subscription);
+    }
+
+    public void run(){
+        ArrayList<Subscription> round = new ArrayList<Subscription>();
+        long lastSweep = Util.monotonicNanos();
+        while(true){
+            try {
+                long now = Util.monotonicNanos();
+                if(now - lastSweep > TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT)){
+                    // vehicles waiting for the acknowledgement of a step are in no round, their lost connections are only found here
+                    this.subscriptions.values().removeIf(subscription -> subscription.connection.getConnection().isClosed());
+                    lastSweep = now;
+                }
+                while(!this.blocked.isEmpty() && this.blocked.peek().retryAt <= now){
+                    round.add(this.blocked.poll());
+                }
+                if(round.isEmpty()){
+                    long wait = this.blocked.isEmpty() ? TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT) : this.blocked.peek().retryAt - now;
+                    if(!this.awaitReady(wait)){
+                        continue;
+                    }
+                }
+                this.drainReady(round);
+                this.navigate(round);
+                round.clear();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                Log.log(LogLevel.WARN, "{}: subscription round failed: {}", this.parentNode.getIp(), e);
+                round.clear();
+            }
+        }
+    }
+
+    private void addReady(Subscription subscription){
+        synchronized(this.ready){
+            this.ready.add(subscription);
+            Clock.get().signal(this.ready);
+        }
+    }
+
+    /**
+     * @param wait in nanoseconds
+     * @return true when a vehicle is ready
+     */
+    private boolean awaitReady(long wait) throws InterruptedException {
+        synchronized(this.ready){
+            if(this.ready.isEmpty()){
+                Clock.get().await(this.ready, Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            }
+            return !this.ready.isEmpty();
+        }
+    }
+
+    private void drainReady(ArrayList<Subscription> round){
+        synchronized(this.ready){
+            round.addAll(this.ready);
+            this.ready.clear();
+        }
+    }
+
+    /**
+     * One round: computes the next step of every vehicle of the round together and pushes them.
+     * A vehicle subscribing at its destination gets the destination as its only step, without being placed on the area or waiting for an acknowledgement.
+     */
+    private void navigate(ArrayList<Subscription> round){
+        int size = 0;
+        for (int i = 0; i < round.size(); i++) {
+            Subscription subscription = round.get(i);
+            if(subscription.cancelled || subscription.connection.getConnection().isClosed()){
+                this.subscriptions.remove(subscription.id, subscription);
+            }
+            else if(subscription.position == subscription.destination){
+                this.subscriptions.remove(subscription.id, subscription);
+                this.push(subscription, subscription.destination);
+            }
+            else{
+                round.set(size++, subscription);
+            }
+        }
+        String[] ids = new String[size];
+        int[] positions = new int[size];
+        int[] destinations = new int[size];
+        for (int i = 0; i < size; i++) {
+            Subscription subscription = round.get(i);
+            ids[i] = subscription.id;
+            positions[i] = subscription.position;
+            destinations[i] = subscription.destination;
+        }
+        int[] nextSteps = this.parentNode.getLogic().navigateBatch(ids, positions, destinations);
+        long retryAt = Util.monotonicNanos() + this.retryInterval;
+        for (int i = 0; i < size; i++) {
+            Subscription subscription = round.get(i);
+            if(nextSteps[i] == Coordinate.NONE){
+                this.subscriptions.remove(subscription.id, subscription);
+                subscription.connection.sendMessage(new Message(this.parentNode.getIp(), subscription.id, "Move is not possible", MessageType.ERROR));
+            }
+            else if(nextSteps[i] == positions[i]){
+                subscription.retryAt = retryAt;
+                this.blocked.add(subscription);
+            }
+            else{
+                this.push(subscription, nextSteps[i]);
+            }
+        }
+    }
+
+    private void push(Subscription subscription, int step){
+        subscription.awaitingAck = true;
+        subscription.connection.sendMessage(new Message(this.parentNode.getIp(), subscription.id, Coordinate.fromPacked(step), MessageType.STEP));
+        this.stepDelay.recordSince(subscription.readySince);
+    }
+
+    public int getCount(){return this.subscriptions.size();}
+}
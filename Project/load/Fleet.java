@@ -0,0 +1,167 @@
+package project.load;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project.Backoff;
+import project.helpers.Coordinate;
+import project.message.Message;
+import project.message.MessageType;
+import project.message.NavigationBatch;
+import project.transport.Connection;
+
+/**
+ * Closed loop vehicles sharing one connection (batch=N), like a dispatcher speaking for many vehicles: the fleet drives up to N trips
+ * at once and asks for the next step of all of them with one NAVIGATION_BATCH per round. A finished trip is replaced by the next planned one.
+ * The latency of a round is measured from its intended send time (see Trip) and recorded once for every vehicle in it,
+ * so it compares with the step latencies of single vehicles.
+ */
+class Fleet implements Runnable {
+    private final String fleetId;
+    private final String entryPoint;
+    private final ArrayList<Trip> trips;
+    private final AtomicInteger next; // next planned trip, shared by all fleets
+    private final LoadOptions options;
+    private final LoadReport report;
+    private final Trip[] driving; // trip of every slot, null when the slot is empty
+    private final int[] positions; // packed position of the trip of every slot
+
+    Fleet(String fleetId, String entryPoint, ArrayList<Trip> trips, AtomicInteger next, LoadOptions options, LoadReport report){
+        this.fleetId = fleetId;
+        this.entryPoint = entryPoint;
+        this.trips = trips;
+        this.next = next;
+        this.options = options;
+        this.report = report;
+        this.driving = new Trip[options.batch];
+        this.positions = new int[options.batch];
+    }
+
+    public void run(){
+        String[] address = this.entryPoint.split(":");
+        try {
+            Connection connection = this.options.transport.connect(address[0], Integer.parseInt(address[1]));
+            TripConnection fleetConnection = new TripConnection(connection, this.fleetId, this.options.clientPort, address[0]);
+            if(fleetConnection.initialize()){
+                this.drive(fleetConnection);
+            }
+            connection.close();
+        } catch (IOException e) {
+            // trips still driving failed
+        }
+        for (Trip trip : this.driving) {
+            if(trip != null){
+                finish(trip, Trip.FAILED);
+            }
+        }
+    }
+
+    private void drive(TripConnection connection){
+        long timeout = TimeUnit.MILLISECONDS.toNanos(this.options.tripTimeout);
+        long interval = TimeUnit.MILLISECONDS.toNanos(this.options.stepInterval);
+        long intendedSend = System.nanoTime();
+        int[] slots = new int[this.driving.length];
+        Backoff backoff = null; // of the batch, the errors of single vehicles are answered in the batch
+        while(true){
+            int count = 0;
+            for (int slot = 0; slot < this.driving.length; slot++) {
+                if(this.driving[slot] == null){
+                    this.takeTrip(slot);
+                }
+                Trip trip = this.driving[slot];
+                if(trip != null && System.nanoTime() > trip.intendedStart + timeout){
+                    finish(trip, Trip.ABANDONED);
+                    this.driving[slot] = null;
+                }
+                else if(trip != null){
+                    slots[count++] = slot;
+                }
+            }
+            if(count == 0){
+                return;
+            }
+            String[] vehicles = new String[count];
+            int[] positions = new int[count];
+            int[] destinations = new int[count];
+            for (int i = 0; i < count; i++) {
+                Trip trip = this.driving[slots[i]];
+                vehicles[i] = trip.vehicleId;
+                positions[i] = this.positions[slots[i]];
+                destinations[i] = trip.destination.getPacked();
+            }
+            Trip.sleepUntil(intendedSend);
+            if(interval == 0){
+                intendedSend = System.nanoTime(); // unpaced, no intended schedule to compare with
+            }
+            NavigationBatch payload = new NavigationBatch(vehicles, positions, destinations);
+            Message response = connection.sendMessageGetResponse(new Message(this.fleetId, connection.getEntryPointIp(), payload, MessageType.NAVIGATION_BATCH));
+            long latency = System.nanoTime() - intendedSend;
+            for (int i = 0; i < count; i++) {
+                this.report.stepAnswered(latency);
+            }
+            if(response == null){
+                return;
+            }
+            if(response.getType() == MessageType.SUCCESS && response.getPayload() instanceof int[]){
+                int[] nextSteps = (int[]) response.getPayload();
+                for (int i = 0; i < count; i++) {
+                    this.stepAnswered(slots[i], nextSteps[i]);
+                }
+                if(backoff != null){
+                    backoff.reset();
+                }
+            }
+            else{
+                for (int i = 0; i < count; i++) {
+                    this.driving[slots[i]].errors++;
+                }
+                if(backoff == null){
+                    backoff = this.driving[slots[0]].backoff();
+                }
+                Trip.sleepUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff.next(response.getPayload())));
+            }
+            intendedSend += interval;
+        }
+    }
+
+    /**
+     * Puts the next planned trip into the slot, trips starting at their destination are finished at once.
+     */
+    private void takeTrip(int slot){
+        int index;
+        while((index = this.next.getAndIncrement()) < this.trips.size()){
+            Trip trip = this.trips.get(index);
+            trip.intendedStart = System.nanoTime();
+            trip.actualStart = trip.intendedStart;
+            if(trip.start.compare(trip.destination)){
+                finish(trip, Trip.ARRIVED);
+                continue;
+            }
+            this.driving[slot] = trip;
+            this.positions[slot] = trip.start.getPacked();
+            return;
+        }
+    }
+
+    private void stepAnswered(int slot, int nextStep){
+        Trip trip = this.driving[slot];
+        if(nextStep == Coordinate.NONE || nextStep == this.positions[slot]){
+            trip.errors++;
+            return;
+        }
+        this.positions[slot] = nextStep;
+        trip.steps++;
+        if(nextStep == trip.destination.getPacked()){
+            finish(trip, Trip.ARRIVED);
+            this.driving[slot] = null;
+        }
+    }
+
+    private void finish(Trip trip, String status){
+        trip.status = status;
+        trip.end = System.nanoTime();
+        this.report.tripFinished(trip);
+    }
+}
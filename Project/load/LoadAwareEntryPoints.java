@@ -0,0 +1,75 @@
+package project.load;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+
+import project.Config;
+import project.NodeLoad;
+import project.NodeSaver;
+import project.client.EntryPointSelector;
+import project.message.Message;
+import project.message.MessageType;
+import project.transport.Connection;
+
+/**
+ * spread=loadAware: the entry point of every trip is chosen when the trip starts, from the node list with the loads the nodes
+ * advertise (see EntryPointSelector). The list is asked from the first entry point every Config.REBALANCE_INTERVAL by a daemon thread,
+ * trips start on the configured entry points (round robin) until the first list arrived.
+ * Trips sent to a node count as its clients until the next list arrives, otherwise all trips starting in between would go to the same node.
+ */
+class LoadAwareEntryPoints extends Thread {
+    private final LoadOptions options;
+    private final EntryPointSelector selector;
+    private final String port; // all nodes accept clients on the port of the first entry point
+    private HashMap<String, NodeSaver> nodes; // last node list, the loads are counted up by choose
+    private int next = 0;
+
+    LoadAwareEntryPoints(LoadOptions options){
+        this.options = options;
+        this.selector = new EntryPointSelector(new Random(options.seed));
+        this.port = options.entryPoints.get(0).split(":")[1];
+        this.setName("LoadAwareEntryPoints");
+        this.setDaemon(true);
+    }
+
+    /**
+     * @return ip:port of the entry point for the next trip
+     */
+    synchronized String choose(){
+        NodeSaver node = this.nodes == null ? null : this.selector.choose(this.nodes.values());
+        if(node == null){
+            this.next = (this.next + 1) % this.options.entryPoints.size();
+            return this.options.entryPoints.get(this.next);
+        }
+        NodeLoad load = node.getLoad();
+        if(load != null){
+            node.setLoad(new NodeLoad(load.getClients() + 1, load.getInFlight(), load.getCapacity(), load.getLatency()));
+        }
+        return node.getIp() + ":" + this.port;
+    }
+
+    public void run(){
+        String[] address = this.options.entryPoints.get(0).split(":");
+        try {
+            Connection connection = this.options.transport.connect(address[0], Integer.parseInt(address[1]));
+            TripConnection directory = new TripConnection(connection, this.options.clientPrefix + "directory", this.options.clientPort, address[0]);
+            if(!directory.initialize()){
+                System.err.println("Node list not available, " + address[0] + " refused the connection");
+                return;
+            }
+            while(!connection.isClosed()){
+                Message response = directory.sendMessageGetResponse(new Message(this.options.clientPrefix + "directory", address[0], "node list", MessageType.NODE_LIST));
+                HashMap<String, NodeSaver> nodes = response != null && response.getType() == MessageType.SUCCESS ? NodeSaver.fromNodeList(response.getPayload()) : null;
+                if(nodes != null){
+                    synchronized(this){
+                        this.nodes = nodes;
+                    }
+                }
+                Trip.sleepUntil(System.nanoTime() + Config.REBALANCE_INTERVAL * 1000000);
+            }
+        } catch (IOException e) {
+            System.err.println("Node list not available: " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package project.load;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import project.Config;
+import project.helpers.Coordinate;
+
+/**
+ * Load generator for a running cluster, replaces TestManyClients.
+ * Closed loop: a fixed number of vehicles drive their trips back to back.
+ * Open loop: trips arrive as poisson process with a fixed rate, independent of how fast the cluster answers.
+ * Start and destination distributions, entry point spread, step pacing etc. are set with key=value arguments, see LoadOptions.
+ * Results (latency percentiles, trip durations, arrivals per second) are printed and written as CSV and JSON.
+ */
+public class LoadGenerator {
+    private final LoadOptions options;
+    private final LoadReport report;
+    private final Random random;
+    private LoadAwareEntryPoints loadAwareEntryPoints; // null unless spread=loadAware
+
+    public LoadGenerator(LoadOptions options){
+        this.options = options;
+        this.report = new LoadReport(options);
+        this.random = new Random(options.seed);
+    }
+
+    public static void main(String[] args) {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            LoadOptions.printUsage();
+            return;
+        }
+        new LoadGenerator(options).run();
+    }
+
+    public void run(){
+        if(this.options.spread.equals("loadAware")){
+            this.loadAwareEntryPoints = new LoadAwareEntryPoints(this.options);
+            this.loadAwareEntryPoints.start();
+        }
+        ArrayList<Trip> trips = this.planTrips();
+        System.out.println("Starting " + this.options.mode + " loop load test: " + trips.size() + " trips, " + this.options.vehicles + " vehicles");
+        this.report.started();
+        if(this.options.isOpenLoop()){
+            this.runOpenLoop(trips);
+        }
+        else{
+            this.runClosedLoop(trips);
+        }
+        this.report.finished();
+
+        System.out.print(this.report.summaryJson());
+        try {
+            this.report.writeCsv(this.options.output + "-trips.csv");
+            this.report.writeJson(this.options.output + "-summary.json");
+            System.out.println("Results written to " + this.options.output + "-trips.csv and " + this.options.output + "-summary.json");
+        } catch (IOException e) {
+            System.err.println("Writing results failed: " + e.toString());
+        }
+    }
+
+    /**
+     * Every vehicle thread takes the next trip as soon as its last one is finished.
+     */
+    private void runClosedLoop(ArrayList<Trip> trips){
+        if(this.options.batch > 0){
+            this.runFleets(trips);
+            return;
+        }
+        ExecutorService vehicles = Executors.newFixedThreadPool(this.options.vehicles);
+        AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < this.options.vehicles; i++) {
+            vehicles.execute(() -> {
+                int index;
+                while((index = next.getAndIncrement()) < trips.size()){
+                    Trip trip = trips.get(index);
+                    trip.intendedStart = System.nanoTime();
+                    trip.run();
+                }
+            });
+        }
+        awaitAll(vehicles);
+    }
+
+    /**
+     * Closed loop with the vehicles grouped into fleets of options.batch vehicles, every fleet shares one connection (see Fleet).
+     */
+    private void runFleets(ArrayList<Trip> trips){
+        int count = (this.options.vehicles + this.options.batch - 1) / this.options.batch;
+        ExecutorService fleets = Executors.newFixedThreadPool(count);
+        AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            fleets.execute(new Fleet(this.options.clientPrefix + "fleet" + (i + 1), this.chooseEntryPoint(i), trips, next, this.options, this.report));
+        }
+        awaitAll(fleets);
+    }
+
+    /**
+     * Trips are handed to the vehicle threads at their (poisson distributed) intended start time.
+     * When all vehicle threads are busy, trips wait in the queue and the waiting time counts into their duration.
+     */
+    private void runOpenLoop(ArrayList<Trip> trips){
+        ExecutorService vehicles = Executors.newFixedThreadPool(this.options.vehicles);
+        long intendedStart = System.nanoTime();
+        for (Trip trip : trips) {
+            intendedStart += (long) (-Math.log(1.0 - this.random.nextDouble()) / this.options.rate * 1e9);
+            trip.intendedStart = intendedStart;
+            Trip.sleepUntil(intendedStart);
+            vehicles.execute(trip);
+        }
+        awaitAll(vehicles);
+    }
+
+    private static void awaitAll(ExecutorService vehicles){
+        vehicles.shutdown();
+        try {
+            vehicles.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            System.err.println(e.toString());
+        }
+    }
+
+    private ArrayList<Trip> planTrips(){
+        ArrayList<Trip> trips = new ArrayList<Trip>(this.options.trips);
+        for (int i = 0; i < this.options.trips; i++) {
+            String vehicleId = this.options.clientPrefix + (i + 1);
+            Trip trip = new Trip(i, vehicleId, this.chooseEntryPoint(i), this.chooseStart(), this.chooseDestination(), this.options, this.report);
+            trip.entryPoints = this.loadAwareEntryPoints;
+            trips.add(trip);
+        }
+        return trips;
+    }
+
+    private String chooseEntryPoint(int tripNumber){
+        int count = this.options.entryPoints.size();
+        int index = this.options.spread.equals("random") ? this.random.nextInt(count) : tripNumber % count;
+        return this.options.entryPoints.get(index);
+    }
+
+    private Coordinate chooseStart(){
+        if(this.options.roads != null){
+            return this.chooseRoadCell();
+        }
+        short y = (short) this.random.nextInt(Math.min(this.options.range, Config.SIZE_Y));
+        if(this.options.start.equals("column")){
+            return new Coordinate((short) 0, y);
+        }
+        return new Coordinate((short) this.random.nextInt(Math.min(this.options.range, Config.SIZE_X)), y);
+    }
+
+    private Coordinate chooseDestination(){
+        if(this.options.roads != null){
+            return this.chooseRoadCell();
+        }
+        if(this.options.destination.equals("hotspots")){
+            Coordinate hotspot = this.options.hotspots.get(this.random.nextInt(this.options.hotspots.size()));
+            int radius = this.options.hotspotRadius;
+            int x = hotspot.getX() + this.random.nextInt(2 * radius + 1) - radius;
+            int y = hotspot.getY() + this.random.nextInt(2 * radius + 1) - radius;
+            return new Coordinate((short) clamp(x, Config.SIZE_X), (short) clamp(y, Config.SIZE_Y));
+        }
+        return new Coordinate((short) this.random.nextInt(Math.min(this.options.range, Config.SIZE_X)),
+            (short) this.random.nextInt(Math.min(this.options.range, Config.SIZE_Y)));
+    }
+
+    private Coordinate chooseRoadCell(){
+        return Coordinate.fromPacked(this.options.roads.getCell(this.random.nextInt(this.options.roads.getCellCount())));
+    }
+
+    private static int clamp(int value, int size){
+        return Math.max(0, Math.min(size - 1, value));
+    }
+}
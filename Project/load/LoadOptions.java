@@ -0,0 +1,149 @@
+package project.load;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import project.Config;
+import project.helpers.Coordinate;
+import project.helpers.RoadNetwork;
+import project.transport.Transport;
+
+/**
+ * Options of the LoadGenerator, given as key=value arguments. See printUsage() for all keys and their defaults.
+ */
+class LoadOptions {
+    String mode = "closed";                 // closed: fixed number of vehicles driving back to back, open: trips arrive with a fixed rate
+    int vehicles = 100;                     // closed: concurrently driving vehicles, open: maximum concurrently driving vehicles
+    int trips = -1;                         // total trips, default is one trip per vehicle
+    double rate = 50;                       // open: arriving trips per second (poisson process)
+    long stepInterval = 10;                 // in milliseconds, a vehicle intends to request a step this often, 0 for as fast as possible
+    long tripTimeout = 60000;               // in milliseconds, trips taking longer are abandoned
+    long retryDelay = 50;                   // in milliseconds, wait after an ERROR answer before asking again, doubled (with jitter) for every further ERROR in a row
+    long maxRetryDelay = 1000;              // in milliseconds, longest wait between two requests of a vehicle refused again and again
+    List<String> entryPoints = new ArrayList<String>(List.of("127.0.0.1:201", "127.0.0.2:201", "127.0.0.3:201"));
+    String spread = "roundrobin";           // roundrobin or random choice of the entry point per trip, loadAware: chosen at the start of the trip from the advertised loads
+    String start = "column";                // column: x = 0 and random y (like TrafficControlLogic.start), uniform: random cell
+    String destination = "uniform";         // uniform: random cell, hotspots: random cell around one of the hotspots
+    List<Coordinate> hotspots = new ArrayList<Coordinate>(List.of(new Coordinate((short) 50, (short) 50)));
+    int hotspotRadius = 5;
+    int range = 100;                        // start and destination coordinates are drawn from [0, range)
+    RoadNetwork roads = null;               // roads=(file): start and destination are random cells of its roads (same file as -Droads of the leader)
+    int batch = 0;                          // closed: vehicles per fleet, a fleet shares one connection and asks for all its steps in one NAVIGATION_BATCH
+    boolean subscribe = false;              // vehicles subscribe once and get their steps pushed by the leader instead of asking for every step
+    long seed = 1;
+    String clientPrefix = "127.0.1.";       // vehicle ids are clientPrefix + number, the leader only accepts clients with this prefix
+    int clientPort = 200;
+    String output = "loadtest";             // results are written to (output)-trips.csv and (output)-summary.json
+    Transport transport = Transport.fromConfig(); // shared by all vehicles, with nio one selector thread serves all connections
+
+    /**
+     * @param args key=value pairs
+     * @throws IllegalArgumentException for unknown keys or invalid values
+     */
+    static LoadOptions parse(String[] args){
+        HashMap<String, String> values = new HashMap<String, String>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if(separator <= 0){
+                throw new IllegalArgumentException("Arguments must be key=value, got " + arg);
+            }
+            values.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        LoadOptions options = new LoadOptions();
+        for (HashMap.Entry<String, String> entry : values.entrySet()) {
+            String value = entry.getValue();
+            switch (entry.getKey()) {
+                case "mode": options.mode = oneOf(value, "closed", "open"); break;
+                case "vehicles": options.vehicles = Integer.parseInt(value); break;
+                case "trips": options.trips = Integer.parseInt(value); break;
+                case "rate": options.rate = Double.parseDouble(value); break;
+                case "stepInterval": options.stepInterval = Long.parseLong(value); break;
+                case "tripTimeout": options.tripTimeout = Long.parseLong(value); break;
+                case "retryDelay": options.retryDelay = Long.parseLong(value); break;
+                case "maxRetryDelay": options.maxRetryDelay = Long.parseLong(value); break;
+                case "entryPoints": options.entryPoints = List.of(value.split(",")); break;
+                case "spread": options.spread = oneOf(value, "roundrobin", "random", "loadAware"); break;
+                case "start": options.start = oneOf(value, "column", "uniform"); break;
+                case "destination": options.destination = oneOf(value, "uniform", "hotspots"); break;
+                case "hotspots": options.hotspots = parseCoordinates(value); break;
+                case "hotspotRadius": options.hotspotRadius = Integer.parseInt(value); break;
+                case "range": options.range = Integer.parseInt(value); break;
+                case "roads": options.roads = readRoads(value); break;
+                case "batch": options.batch = Integer.parseInt(value); break;
+                case "subscribe": options.subscribe = Boolean.parseBoolean(value); break;
+                case "seed": options.seed = Long.parseLong(value); break;
+                case "clientPrefix": options.clientPrefix = value; break;
+                case "clientPort": options.clientPort = Integer.parseInt(value); break;
+                case "output": options.output = value; break;
+                case "transport": options.transport = Transport.create(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + entry.getKey());
+            }
+        }
+        if(options.trips < 0){
+            options.trips = options.vehicles;
+        }
+        if(options.vehicles <= 0 || options.range <= 0 || options.rate <= 0 || options.entryPoints.isEmpty()){
+            throw new IllegalArgumentException("vehicles, range, rate and entryPoints must be positive / not empty");
+        }
+        if(options.batch < 0 || (options.batch > 0 && options.isOpenLoop())){
+            throw new IllegalArgumentException("batch must not be negative and is only possible in the closed loop");
+        }
+        if(options.batch > 0 && options.subscribe){
+            throw new IllegalArgumentException("fleets (batch) ask for their steps, they can't subscribe");
+        }
+        return options;
+    }
+
+    boolean isOpenLoop(){return this.mode.equals("open");}
+
+    private static String oneOf(String value, String... allowed){
+        for (String candidate : allowed) {
+            if(candidate.equalsIgnoreCase(value)){
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException(value + " is not one of " + String.join(", ", allowed));
+    }
+
+    private static RoadNetwork readRoads(String file){
+        try {
+            return RoadNetwork.load(file, Config.SIZE_X, Config.SIZE_Y);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Reading roads from " + file + " failed: " + e.toString());
+        }
+    }
+
+    private static List<Coordinate> parseCoordinates(String value){
+        ArrayList<Coordinate> coordinates = new ArrayList<Coordinate>();
+        for (String pair : value.split(",")) {
+            String[] parts = pair.split(":");
+            coordinates.add(new Coordinate(Short.parseShort(parts[0]), Short.parseShort(parts[1])));
+        }
+        return coordinates;
+    }
+
+    static void printUsage(){
+        System.out.println("Usage: project.load.LoadGenerator (key=value)*");
+        System.out.println("  mode=closed|open        closed: vehicles drive back to back, open: trips arrive with rate (default closed)");
+        System.out.println("  vehicles=100            concurrently driving vehicles (open: maximum)");
+        System.out.println("  trips=(vehicles)        total number of trips");
+        System.out.println("  rate=50                 open loop arrivals per second");
+        System.out.println("  stepInterval=10         ms between intended step requests of a vehicle, 0 = as fast as possible");
+        System.out.println("  tripTimeout=60000       ms until a trip is abandoned");
+        System.out.println("  retryDelay=50           ms to wait after an ERROR answer, doubled with jitter for every further ERROR in a row");
+        System.out.println("  maxRetryDelay=1000      ms, longest wait after an ERROR answer");
+        System.out.println("  entryPoints=127.0.0.1:201,127.0.0.2:201,127.0.0.3:201");
+        System.out.println("  spread=roundrobin|random|loadAware  loadAware: entry point chosen from the loads the nodes advertise");
+        System.out.println("  start=column|uniform");
+        System.out.println("  destination=uniform|hotspots, hotspots=50:50,..., hotspotRadius=5");
+        System.out.println("  range=100               coordinates are drawn from [0, range)");
+        System.out.println("  roads=(file)            start and destination are random road cells, overrides start and destination");
+        System.out.println("  batch=0                 closed loop fleets of this many vehicles sharing one connection and one NAVIGATION_BATCH per step");
+        System.out.println("  subscribe=false         subscribe once and get the steps pushed by the leader (acknowledging every cell)");
+        System.out.println("  seed=1, clientPrefix=127.0.1., clientPort=200");
+        System.out.println("  output=loadtest         writes loadtest-trips.csv and loadtest-summary.json");
+        System.out.println("  transport=tcp|nio       transport of the vehicles (default tcp, see Config.TRANSPORT)");
+    }
+}
@@ -0,0 +1,111 @@
+package project.load;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import project.metrics.LatencyHistogram;
+
+/**
+ * Collects the results of all trips and writes them as CSV (one line per trip) and JSON (summary).
+ */
+class LoadReport {
+    private final LoadOptions options;
+    private final LatencyHistogram stepLatency = new LatencyHistogram(); // in microseconds
+    private final LatencyHistogram tripDuration = new LatencyHistogram(); // in milliseconds
+    private final ConcurrentLinkedQueue<Trip> trips = new ConcurrentLinkedQueue<Trip>();
+    private long runStart;
+    private long runEnd;
+
+    LoadReport(LoadOptions options){
+        this.options = options;
+    }
+
+    void stepAnswered(long latencyNanos){
+        this.stepLatency.record(latencyNanos / 1000);
+    }
+
+    /**
+     * Trip duration is measured from the intended start, so in open loop mode waiting for a free vehicle thread counts as well.
+     */
+    void tripFinished(Trip trip){
+        if(trip.status.equals(Trip.ARRIVED)){
+            this.tripDuration.record((trip.end - trip.intendedStart) / 1_000_000);
+        }
+        this.trips.add(trip);
+    }
+
+    void started(){this.runStart = System.nanoTime();}
+    void finished(){this.runEnd = System.nanoTime();}
+
+    private long millisSinceStart(long nanoTime){
+        return (nanoTime - this.runStart) / 1_000_000;
+    }
+
+    private long count(String status){
+        return this.trips.stream().filter(trip -> trip.status.equals(status)).count();
+    }
+
+    /**
+     * @return completed trips per second of the run, index is the second in which the trips arrived
+     */
+    private long[] arrivalsPerSecond(){
+        long[] series = new long[(int) (this.millisSinceStart(this.runEnd) / 1000) + 1];
+        for (Trip trip : this.trips) {
+            if(trip.status.equals(Trip.ARRIVED)){
+                series[(int) Math.min(series.length - 1, this.millisSinceStart(trip.end) / 1000)]++;
+            }
+        }
+        return series;
+    }
+
+    void writeCsv(String path) throws IOException {
+        ArrayList<Trip> sorted = new ArrayList<Trip>(this.trips);
+        sorted.sort((first, second) -> Integer.compare(first.number, second.number));
+        try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+            out.println("trip,vehicle,entryPoint,startX,startY,destinationX,destinationY,intendedStartMs,actualStartMs,endMs,durationMs,steps,errors,status");
+            for (Trip trip : sorted) {
+                out.println(trip.number + "," + trip.vehicleId + "," + trip.entryPoint + ","
+                    + trip.start.getX() + "," + trip.start.getY() + "," + trip.destination.getX() + "," + trip.destination.getY() + ","
+                    + this.millisSinceStart(trip.intendedStart) + "," + this.millisSinceStart(trip.actualStart) + "," + this.millisSinceStart(trip.end) + ","
+                    + (trip.end - trip.intendedStart) / 1_000_000 + "," + trip.steps + "," + trip.errors + "," + trip.status);
+            }
+        }
+    }
+
+    String summaryJson(){
+        double seconds = (this.runEnd - this.runStart) / 1e9;
+        long arrived = this.count(Trip.ARRIVED);
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"mode\": \"").append(this.options.mode).append("\",\n");
+        json.append("  \"vehicles\": ").append(this.options.vehicles).append(",\n");
+        json.append("  \"trips\": ").append(this.trips.size()).append(",\n");
+        json.append("  \"arrived\": ").append(arrived).append(",\n");
+        json.append("  \"abandoned\": ").append(this.count(Trip.ABANDONED)).append(",\n");
+        json.append("  \"failed\": ").append(this.count(Trip.FAILED)).append(",\n");
+        json.append("  \"durationSeconds\": ").append(String.format(Locale.ROOT, "%.3f", seconds)).append(",\n");
+        json.append("  \"arrivalsPerSecond\": ").append(String.format(Locale.ROOT, "%.3f", arrived / seconds)).append(",\n");
+        json.append("  \"arrivalsPerSecondSeries\": ").append(Arrays.toString(this.arrivalsPerSecond())).append(",\n");
+        json.append("  \"coordinatedOmissionCorrected\": ").append(this.options.stepInterval > 0 || this.options.isOpenLoop()).append(",\n");
+        json.append("  \"stepLatencyMicros\": ").append(histogramJson(this.stepLatency)).append(",\n");
+        json.append("  \"tripDurationMillis\": ").append(histogramJson(this.tripDuration)).append("\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String histogramJson(LatencyHistogram histogram){
+        return "{\"count\": " + histogram.getCount() + ", \"mean\": " + histogram.getMean() + ", \"p50\": " + histogram.getPercentile(50)
+            + ", \"p90\": " + histogram.getPercentile(90) + ", \"p99\": " + histogram.getPercentile(99) + ", \"p999\": " + histogram.getPercentile(99.9)
+            + ", \"max\": " + histogram.getMax() + "}";
+    }
+
+    void writeJson(String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+            out.print(this.summaryJson());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package project.load;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import project.Backoff;
+import project.helpers.Coordinate;
+import project.message.Message;
+import project.message.MessageType;
+import project.message.RetryAfter;
+import project.transport.Connection;
+
+/**
+ * One trip of one simulated vehicle: connect to the entry point, request steps until the destination is reached, disconnect.
+ * All latencies are measured from the time a request was intended to be sent, not from when it was actually sent,
+ * so stalls of the system under test are not hidden by the vehicle waiting for them (coordinated omission).
+ */
+class Trip implements Runnable {
+    static final String ARRIVED = "arrived";
+    static final String ABANDONED = "abandoned";
+    static final String FAILED = "failed";
+
+    final int number;
+    final String vehicleId;
+    String entryPoint; // chosen when the trip starts with spread=loadAware
+    final Coordinate start;
+    final Coordinate destination;
+    private final LoadOptions options;
+    private final LoadReport report;
+    LoadAwareEntryPoints entryPoints; // null unless spread=loadAware
+
+    long intendedStart; // System.nanoTime(), when the trip should have begun
+    long actualStart;
+    long end;
+    int steps = 0;
+    int errors = 0;
+    String status = FAILED;
+
+    Trip(int number, String vehicleId, String entryPoint, Coordinate start, Coordinate destination, LoadOptions options, LoadReport report){
+        this.number = number;
+        this.vehicleId = vehicleId;
+        this.entryPoint = entryPoint;
+        this.start = start;
+        this.destination = destination;
+        this.options = options;
+        this.report = report;
+    }
+
+    public void run(){
+        this.actualStart = System.nanoTime();
+        if(this.entryPoints != null){
+            this.entryPoint = this.entryPoints.choose();
+        }
+        String[] address = this.entryPoint.split(":");
+        try {
+            Connection connection = this.options.transport.connect(address[0], Integer.parseInt(address[1]));
+            TripConnection tripConnection = new TripConnection(connection, this.vehicleId, this.options.clientPort, address[0]);
+            if(tripConnection.initialize()){
+                if(this.options.subscribe){
+                    this.driveSubscribed(tripConnection);
+                }
+                else{
+                    this.drive(tripConnection);
+                }
+            }
+            connection.close();
+        } catch (IOException e) {
+            this.status = FAILED;
+        }
+        this.end = System.nanoTime();
+        this.report.tripFinished(this);
+    }
+
+    private void drive(TripConnection connection){
+        long deadline = this.intendedStart + TimeUnit.MILLISECONDS.toNanos(this.options.tripTimeout);
+        long interval = TimeUnit.MILLISECONDS.toNanos(this.options.stepInterval);
+        long intendedSend = System.nanoTime();
+        Backoff backoff = this.backoff();
+        Coordinate position = this.start;
+        while(!position.compare(this.destination)){
+            if(System.nanoTime() > deadline){
+                this.status = ABANDONED;
+                return;
+            }
+            sleepUntil(intendedSend);
+            if(interval == 0){
+                intendedSend = System.nanoTime(); // unpaced, no intended schedule to compare with
+            }
+            Coordinate[] payload = {position, this.destination};
+            Message response = connection.sendMessageGetResponse(new Message(this.vehicleId, connection.getEntryPointIp(), payload, MessageType.NAVIGATION));
+            this.report.stepAnswered(System.nanoTime() - intendedSend);
+            if(response == null){
+                this.status = FAILED;
+                return;
+            }
+            if(response.getType() == MessageType.SUCCESS){
+                position = (Coordinate) response.getPayload();
+                this.steps++;
+                backoff.reset();
+            }
+            else{
+                this.errors++;
+                sleepUntil(Math.min(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff.next(response.getPayload()))));
+            }
+            intendedSend += interval;
+        }
+        this.status = ARRIVED;
+    }
+
+    /**
+     * subscribe=true: the destination is sent once (SUBSCRIBE), the leader pushes the steps and every reached cell is acknowledged.
+     * The step latency is measured from the intended acknowledgement of a cell (or the subscription) until the next step arrived,
+     * vehicles that can't move are retried by the leader, so their waiting shows up as latency instead of errors.
+     * A subscription refused with a RetryAfter (overload) is sent again after the back off.
+     */
+    private void driveSubscribed(TripConnection connection){
+        long deadline = this.intendedStart + TimeUnit.MILLISECONDS.toNanos(this.options.tripTimeout);
+        long interval = TimeUnit.MILLISECONDS.toNanos(this.options.stepInterval);
+        long intendedSend = System.nanoTime();
+        Coordinate position = this.start;
+        if(position.compare(this.destination)){
+            this.status = ARRIVED;
+            return;
+        }
+        Backoff backoff = this.backoff();
+        Coordinate[] payload = {position, this.destination};
+        connection.sendMessage(new Message(this.vehicleId, connection.getEntryPointIp(), payload, MessageType.SUBSCRIBE));
+        while(true){
+            Message pushed = connection.receive();
+            this.report.stepAnswered(System.nanoTime() - intendedSend);
+            if(pushed != null && pushed.getType() == MessageType.ERROR && pushed.getPayload() instanceof RetryAfter && System.nanoTime() < deadline){
+                this.errors++;
+                sleepUntil(Math.min(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff.next(pushed.getPayload()))));
+                intendedSend = System.nanoTime();
+                Coordinate[] again = {position, this.destination};
+                connection.sendMessage(new Message(this.vehicleId, connection.getEntryPointIp(), again, MessageType.SUBSCRIBE));
+                continue;
+            }
+            if(pushed == null || pushed.getType() != MessageType.STEP){
+                this.status = FAILED;
+                return;
+            }
+            position = (Coordinate) pushed.getPayload();
+            this.steps++;
+            if(!position.compare(this.destination) && System.nanoTime() > deadline){
+                this.status = ABANDONED;
+                return;
+            }
+            intendedSend += interval;
+            sleepUntil(intendedSend);
+            if(interval == 0){
+                intendedSend = System.nanoTime(); // unpaced, no intended schedule to compare with
+            }
+            connection.sendMessage(new Message(this.vehicleId, connection.getEntryPointIp(), position, MessageType.STEP_ACK));
+            if(position.compare(this.destination)){
+                this.status = ARRIVED;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits after ERROR answers grow from retryDelay to maxRetryDelay, the jitter is derived from the seed and the trip number.
+     */
+    Backoff backoff(){
+        return new Backoff(this.options.retryDelay, this.options.maxRetryDelay, new Random(this.options.seed * 31 + this.number));
+    }
+
+    static void sleepUntil(long nanoTime){
+        long remaining;
+        while((remaining = nanoTime - System.nanoTime()) > 0){
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
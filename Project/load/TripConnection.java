@@ -0,0 +1,51 @@
+package project.load;
+
+import java.net.InetSocketAddress;
+
+import project.message.Message;
+import project.message.MessageHandler;
+import project.message.MessageType;
+import project.transport.Connection;
+
+/**
+ * Connection of one simulated vehicle to its entry point. Unlike the ClientNodeMessageHandler it has no receiving thread,
+ * every request is sent with sendMessageGetResponse (or its pushed answers are read with receive), so a vehicle only costs the thread running its trip.
+ */
+class TripConnection extends MessageHandler {
+    private String entryPointIp;
+
+    TripConnection(Connection connection, String vehicleIp, int vehiclePort, String entryPointIp){
+        super(connection, vehicleIp, vehiclePort);
+        this.entryPointIp = entryPointIp;
+    }
+
+    /**
+     * Sends the init message. Vehicle ids do not have to be real addresses, so the address is not resolved.
+     * @return true when the entry point answered with SUCCESS
+     */
+    boolean initialize(){
+        InetSocketAddress payload = InetSocketAddress.createUnresolved(this.ip, this.port);
+        Message response = this.sendMessageGetResponse(new Message(this.ip, this.entryPointIp, payload, MessageType.INITIALIZE));
+        return response != null && response.getType() == MessageType.SUCCESS;
+    }
+
+    /**
+     * Waits for the next message pushed by the entry point (steps of a subscription).
+     * @return the message, null when the connection was lost
+     */
+    Message receive(){
+        return this.readMessage();
+    }
+
+    String getEntryPointIp() {return this.entryPointIp;}
+
+    // the connection only sends requests and reads their answers, nothing is received proactively
+    @Override
+    protected void handleInitializeMessage(Message message) {}
+    @Override
+    protected void handleHeartbeatMessage(Message message) {}
+    @Override
+    protected void handleSyncNodeListMessage(Message message) {}
+    @Override
+    protected void handleNavigationMessage(Message message) {}
+}
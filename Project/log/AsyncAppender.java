@@ -0,0 +1,152 @@
+package project.log;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous appender behind Log. Log calls only claim a preallocated slot of a bounded multi producer ring buffer
+ * and store the format string and its (up to four) arguments there. Formatting (toString of the arguments) and console output
+ * happen on the single appender thread, only arguments passed through Log.snapshot were already formatted by the logging thread.
+ * When the ring is full the entry is dropped and counted, so a logging call never blocks.
+ */
+public class AsyncAppender extends Thread {
+    private static final long IDLE_PARK_NANOS = 5_000_000;
+
+    private final Entry[] ring;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long head = 0;
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * @param capacity size of the ring, rounded up to a power of two
+     */
+    public AsyncAppender(int capacity){
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.ring[i] = new Entry();
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.setName("AsyncAppender");
+        this.setDaemon(true);
+    }
+
+    /**
+     * Claims a slot and fills it. Never blocks.
+     * @return false when the ring was full and the entry was dropped
+     */
+    public boolean append(LogLevel level, String format, Object arg0, Object arg1, Object arg2, Object arg3){
+        long position = this.tail.get();
+        while(true){
+            int index = (int) (position & this.mask);
+            long difference = this.sequences.get(index) - position;
+            if(difference == 0){
+                if(this.tail.compareAndSet(position, position + 1)){
+                    Entry entry = this.ring[index];
+                    entry.level = level;
+                    entry.threadName = Thread.currentThread().getName();
+                    entry.format = format;
+                    entry.arg0 = arg0;
+                    entry.arg1 = arg1;
+                    entry.arg2 = arg2;
+                    entry.arg3 = arg3;
+                    this.sequences.set(index, position + 1); //publish
+                    return true;
+                }
+            }
+            else if(difference < 0){
+                this.dropped.incrementAndGet();
+                return false;
+            }
+            position = this.tail.get();
+        }
+    }
+
+    /**
+     * Waits (at most timeout milliseconds) until everything appended so far is written. Used on shutdown.
+     * @param timeout in milliseconds
+     */
+    public void awaitDrained(long timeout){
+        long end = System.nanoTime() + timeout * 1_000_000;
+        while(this.head < this.tail.get() && System.nanoTime() < end){
+            LockSupport.parkNanos(IDLE_PARK_NANOS / 5);
+        }
+    }
+
+    public void run(){
+        while(true){
+            if(!this.drain()){
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Writes all published entries.
+     * @return false when there was nothing to write
+     */
+    private boolean drain(){
+        boolean wroteSomething = false;
+        while(true){
+            int index = (int) (this.head & this.mask);
+            if(this.sequences.get(index) != this.head + 1){
+                break;
+            }
+            Entry entry = this.ring[index];
+            this.write(entry);
+            entry.clear();
+            this.sequences.set(index, this.head + this.ring.length); //free slot for the next round
+            this.head++;
+            wroteSomething = true;
+        }
+        if(wroteSomething){
+            System.out.flush();
+        }
+        return wroteSomething;
+    }
+
+    private void write(Entry entry){
+        StringBuilder line = this.line;
+        line.setLength(0);
+        line.append('[').append(entry.level).append("] [").append(entry.threadName).append("] ");
+        Object[] args = {entry.arg0, entry.arg1, entry.arg2, entry.arg3};
+        int argIndex = 0;
+        String format = entry.format;
+        int start = 0;
+        int placeholder;
+        while((placeholder = format.indexOf("{}", start)) >= 0 && argIndex < args.length){
+            line.append(format, start, placeholder).append(String.valueOf(args[argIndex++]));
+            start = placeholder + 2;
+        }
+        line.append(format, start, format.length());
+        PrintStream out = entry.level.compareTo(LogLevel.WARN) >= 0 ? System.err : System.out;
+        out.println(line);
+    }
+
+    public long getDropped() {return this.dropped.get();}
+
+    private static class Entry {
+        LogLevel level;
+        String threadName;
+        String format;
+        Object arg0;
+        Object arg1;
+        Object arg2;
+        Object arg3;
+
+        void clear(){
+            this.format = null;
+            this.arg0 = null;
+            this.arg1 = null;
+            this.arg2 = null;
+            this.arg3 = null;
+        }
+    }
+}
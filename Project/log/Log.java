@@ -0,0 +1,103 @@
+package project.log;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import project.Config;
+import project.message.Message;
+import project.message.MessageType;
+
+/**
+ * Leveled logging for the hot paths of nodes and clients. Formatting is lazy ("{}" placeholders, up to three arguments,
+ * message() uses four) and done by the AsyncAppender thread, so a handler thread never waits for the console.
+ * Arguments are only turned into text when the appender gets to them: pass mutable objects (payloads, arrays, node lists)
+ * through snapshot(), which formats them on the calling thread, otherwise a change after the call ends up in the logged line.
+ * Calls below the current level return after a single comparison, but their arguments are built by the caller before that:
+ * primitives are boxed and snapshots formatted. On hot paths such calls are guarded with isEnabled.
+ * The level can be set with the system property "log.level" (DEBUG, INFO, WARN, ERROR, OFF), default is Config.LOG_LEVEL.
+ */
+public abstract class Log {
+    private static volatile LogLevel level = LogLevel.valueOf(System.getProperty("log.level", Config.LOG_LEVEL).toUpperCase());
+    private static final AsyncAppender appender = new AsyncAppender(Config.LOG_BUFFER_SIZE);
+
+    // every n-th message of a type is logged by message(), 0 disables the type
+    private static final int[] sampleRates = new int[MessageType.values().length];
+    private static final AtomicLongArray sampleCounters = new AtomicLongArray(MessageType.values().length);
+
+    static {
+        for (MessageType type : MessageType.values()) {
+            sampleRates[type.ordinal()] = type.isControl() ? Config.LOG_CONTROL_SAMPLE_RATE : 1;
+        }
+        appender.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> appender.awaitDrained(Config.LOG_SHUTDOWN_TIMEOUT)));
+    }
+
+    public static boolean isEnabled(LogLevel messageLevel){
+        return messageLevel.compareTo(level) >= 0 && messageLevel != LogLevel.OFF;
+    }
+
+    public static void log(LogLevel messageLevel, String format){
+        if(isEnabled(messageLevel)){
+            appender.append(messageLevel, format, null, null, null, null);
+        }
+    }
+
+    public static void log(LogLevel messageLevel, String format, Object arg0){
+        if(isEnabled(messageLevel)){
+            appender.append(messageLevel, format, arg0, null, null, null);
+        }
+    }
+
+    public static void log(LogLevel messageLevel, String format, Object arg0, Object arg1){
+        if(isEnabled(messageLevel)){
+            appender.append(messageLevel, format, arg0, arg1, null, null);
+        }
+    }
+
+    public static void log(LogLevel messageLevel, String format, Object arg0, Object arg1, Object arg2){
+        if(isEnabled(messageLevel)){
+            appender.append(messageLevel, format, arg0, arg1, arg2, null);
+        }
+    }
+
+    /**
+     * Logs a received (or forwarded) message on DEBUG level, sampled per message type.
+     * @param ownIp ip of the logging node or client
+     * @param action e.g. "received" or "forwarded"
+     * @param message
+     */
+    public static void message(String ownIp, String action, Message message){
+        if(!isEnabled(LogLevel.DEBUG)){
+            return;
+        }
+        int type = message.getType().ordinal();
+        int rate = sampleRates[type];
+        if(rate <= 0 || sampleCounters.getAndIncrement(type) % rate != 0){
+            return;
+        }
+        appender.append(LogLevel.DEBUG, "{} {} a {} message: {}", ownIp, action, message.getType(), snapshot(message.getPayload()));
+    }
+
+    /**
+     * @param arg a mutable argument, e.g. a payload
+     * @return its text at the time of the call (arrays with their elements), for the appender to format later
+     */
+    public static String snapshot(Object arg){
+        if(arg instanceof Object[]){
+            return Arrays.deepToString((Object[]) arg);
+        }
+        if(arg instanceof int[]){
+            return Arrays.toString((int[]) arg);
+        }
+        return String.valueOf(arg);
+    }
+
+    public static LogLevel getLevel() {return level;}
+    public static void setLevel(LogLevel newLevel) {level = newLevel;}
+    /**
+     * @param type
+     * @param rate log every n-th message of this type, 1 for all, 0 for none
+     */
+    public static void setSampleRate(MessageType type, int rate) {sampleRates[type.ordinal()] = rate;}
+    public static long getDropped() {return appender.getDropped();}
+}
@@ -0,0 +1,5 @@
+package project.log;
+
+public enum LogLevel {
+    DEBUG, INFO, WARN, ERROR, OFF
+}
@@ -9,8 +9,9 @@ public class Message implements Serializable {
     private String sender;
     private String receiver;
     private Object payload;
-    private Instant time = Instant.now();
+    private long time = System.currentTimeMillis(); //epoch milliseconds, a primitive so creating messages stays cheap
     private MessageType type;
+    private long sequence = 0; //number a client gave its request, copied to the answer (see reply), 0 when not numbered
     
     /**
      * Checks message creation for null values.
@@ -34,14 +35,29 @@ public class Message implements Serializable {
         
     }
 
+    /**
+     * Answer to this message: addressed to its sender and carrying its sequence number,
+     * so a client can tell the answer to its current request from a late one to an earlier request.
+     * @param sender own ip address
+     * @param payload content of the answer
+     * @param type type of the answer, e.g. SUCCESS or ERROR
+     */
+    public Message reply(String sender, Object payload, MessageType type){
+        Message answer = new Message(sender, this.sender, payload, type);
+        answer.sequence = this.sequence;
+        return answer;
+    }
+
     public Object getPayload (){return this.payload;}
     public void setPayload (Object payload){this.payload = payload;}
-    public Instant getTime (){return this.time;}
-    public void setTime (Instant time){this.time = time;}
+    public Instant getTime (){return Instant.ofEpochMilli(this.time);}
+    public void setTime (Instant time){this.time = time.toEpochMilli();}
     public MessageType getType (){return this.type;}
     public void setType (MessageType type){this.type = type;}
     public String getSender(){return sender;}
     public void setSender(String sender){this.sender = sender;}
     public String getReceiver (){return this.receiver;}
     public void setReceiver(String receiver){this.receiver = receiver;}
+    public long getSequence(){return this.sequence;}
+    public void setSequence(long sequence){this.sequence = sequence;}
 }
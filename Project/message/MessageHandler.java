@@ -1,28 +1,44 @@
 package project.message;
 
 import java.io.*;
-import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import project.AdmissionControl;
+import project.Clock;
 import project.Node;
+import project.PhiAccrualFailureDetector;
+import project.Role;
+import project.Util;
+import project.helpers.TrafficArea;
+import project.log.Log;
+import project.log.LogLevel;
+import project.metrics.MetricsRegistry;
+import project.transport.Connection;
 
 public abstract class MessageHandler extends Thread{
-    protected ObjectInputStream inputStream;
-    protected ObjectOutputStream outputStream;
-    protected Socket socket;
+    protected Connection connection;
     protected Node parentNode;
     protected String ip;
     protected int port;
+    protected PhiAccrualFailureDetector failureDetector; //only set for node to node connections, fed by every received message
+    private volatile long lastMessageReceived = Util.monotonicMillis();
+    private volatile long lastMessageSent = Util.monotonicMillis();
+    protected volatile OutboundQueue outboundQueue; //only set for node to node connections, see startOutboundQueue()
+    protected MetricsRegistry metrics; //metrics of the parent node, null for clients
+    protected final Set<String> vehicles = ConcurrentHashMap.newKeySet(); //ids navigated through this connection, see forgetVehicles()
 
     /**
      * For every node based device this is the constructor that shall be used.
      * @param parentNode
      * @param newConnection
      */
-    public MessageHandler(Node parentNode, Socket newConnection){
+    public MessageHandler(Node parentNode, Connection newConnection){
         this.parentNode = parentNode;
-        this.socket = newConnection;
+        this.connection = newConnection;
         this.ip = parentNode.getIp();
         this.port = parentNode.getPort();
-        this.initializeStreams(newConnection);
+        this.metrics = parentNode.getMetrics();
     }
 
     /**
@@ -31,12 +47,11 @@ public abstract class MessageHandler extends Thread{
      * @param ipAddress
      * @param port
      */
-    public MessageHandler(Socket newConnection, String ipAddress, int port){
+    public MessageHandler(Connection newConnection, String ipAddress, int port){
         this.parentNode = null;
-        this.socket = newConnection;
+        this.connection = newConnection;
         this.ip = ipAddress;
         this.port = port;
-        this.initializeStreams(newConnection);
     }
 
     /**
@@ -46,14 +61,15 @@ public abstract class MessageHandler extends Thread{
      */
     protected Message readMessage() {
         try {
-            Message received = (Message) this.inputStream.readObject();
+            Message received = this.connection.receive();
+            this.messageReceived(received);
             return received;
         } catch (EOFException e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.INFO, "{}: {}", this.ip, e);
             this.closeSocket();
             return null;
         } catch (Exception e){
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
             this.closeSocket();
             return null;
         }
@@ -67,29 +83,47 @@ public abstract class MessageHandler extends Thread{
      */
     public Message sendMessageGetResponse(Message message){
         try {
-            this.outputStream.writeObject(message);
-            Message received = (Message) this.inputStream.readObject();
+            this.connection.send(message);
+            this.messageSent(message);
+            Message received = this.connection.receive();
+            this.messageReceived(received);
             return received;
         } catch (EOFException e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.INFO, "{}: {}", this.ip, e);
             this.closeSocket();
             return null;
         } catch (Exception e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
             return null;
         }
     }
 
+    /**
+     * Sends message. When the connection has an outbound queue, the message is only queued on its lane and written by the queue thread.
+     * Queued messages must not be modified afterwards.
+     * @param message
+     * @return false when the message was dropped because the data lane of the outbound queue is full,
+     * requests should then be refused with a RetryAfter
+     */
+    public boolean sendMessage(Message message){
+        if(this.outboundQueue != null){
+            return this.outboundQueue.add(message);
+        }
+        this.writeMessage(message);
+        return true;
+    }
+
     /*
-     * Sends message. Kills socket in EOFException case (connection is stopped in this case)
+     * Writes message to the connection. Kills connection in EOFException case (connection is stopped in this case)
      */
-    public void sendMessage(Message message){
+    protected void writeMessage(Message message){
         try {
-            this.outputStream.writeObject(message);
+            this.connection.send(message);
+            this.messageSent(message);
         } catch (EOFException e) {
             this.closeSocket();
         } catch (IOException e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
         }
     }
 
@@ -100,7 +134,10 @@ public abstract class MessageHandler extends Thread{
     protected void receiveMessagesRoutine(){
         try {
             Message message = this.readMessage();
-            System.out.println(this.ip + " received a " + message.getType().toString() + " message: " + message.getPayload());
+            if(message == null){
+                return; //connection was closed by readMessage
+            }
+            Log.message(this.ip, "received", message);
             switch (message.getType()) {
                 case INITIALIZE:
                     this.handleInitializeMessage(message);
@@ -111,9 +148,39 @@ public abstract class MessageHandler extends Thread{
                 case SYNC_NODE_LIST:
                     this.handleSyncNodeListMessage(message);
                     break;   
+                case MEMBERSHIP_DIGEST:
+                    this.handleMembershipDigestMessage(message);
+                    break;
                 case NAVIGATION:
                     this.handleNavigationMessage(message);
                     break;
+                case NAVIGATION_BATCH:
+                    this.handleNavigationBatchMessage(message);
+                    break;
+                case SUBSCRIBE:
+                    this.handleSubscribeMessage(message);
+                    break;
+                case STEP:
+                    this.handleStepMessage(message);
+                    break;
+                case STEP_ACK:
+                    this.handleStepAckMessage(message);
+                    break;
+                case LOAD_REPORT:
+                    this.handleLoadReportMessage(message);
+                    break;
+                case NODE_LIST:
+                    this.handleNodeListMessage(message);
+                    break;
+                case REPLICA_UPDATE:
+                    this.handleReplicaUpdateMessage(message);
+                    break;
+                case MOVE_COMMIT:
+                    this.handleMoveCommitMessage(message);
+                    break;
+                case CLIENT_LEFT:
+                    this.handleClientLeftMessage(message);
+                    break;
                 case SUCCESS:
                     this.handleSuccessMessage(message);
                     break;
@@ -123,11 +190,19 @@ public abstract class MessageHandler extends Thread{
                 case ACK:
                     this.handleAckMessage(message);
                     break;
+                case STATS:
+                    this.handleStatsMessage(message);
+                    break;
+                case RANGE_QUERY:
+                case NEAREST_QUERY:
+                case DENSITY_QUERY:
+                    this.handleQueryMessage(message);
+                    break;
                 default:
                     break;
             }
         } catch (Exception e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
         }
     }
 
@@ -143,47 +218,272 @@ public abstract class MessageHandler extends Thread{
     //They might be overrode if functionality is wanted.
 
     protected void handleSuccessMessage(Message message){
-        System.out.println("Please do not send answer codes as request.");
+        Log.log(LogLevel.WARN, "{}: Please do not send answer codes as request. Got {}", this.ip, message.getType());
     }
 
     protected void handleErrorMessage(Message message){
-        System.out.println("Please do not send answer codes as request.");
+        Log.log(LogLevel.WARN, "{}: Please do not send answer codes as request. Got {}", this.ip, message.getType());
     }
 
     protected void handleAckMessage(Message message){
-        System.out.println("Please do not send answer codes as request.");
+        Log.log(LogLevel.WARN, "{}: Please do not send answer codes as request. Got {}", this.ip, message.getType());
     }
 
     /**
-     * Initialize the output and input streams.
-     * Both are object streams because every sent package must be a message.
-     * Called for every message handler that is created (super constructor calls this)
-     * @param newConnection new socket which shall have streams initialized.
+     * Every node answers STATS requests with a snapshot of its metrics (sorted map of metric name to value).
      */
-    protected void initializeStreams(Socket newConnection){
-        try{
-            OutputStream outputStream = newConnection.getOutputStream();
-            DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
-            this.outputStream = new ObjectOutputStream(dataOutputStream);
+    protected void handleStatsMessage(Message message){
+        if(this.metrics != null){
+            this.sendMessage(message.reply(this.ip, this.metrics.snapshot(), MessageType.SUCCESS));
+        }
+        else{
+            this.sendMessage(message.reply(this.ip, "Only nodes can answer STATS requests", MessageType.ERROR));
+        }
+    }
 
-            InputStream inputStream = newConnection.getInputStream();
-            DataInputStream dataInputStream = new DataInputStream(inputStream);
-            this.inputStream = new ObjectInputStream(dataInputStream);
+    /**
+     * Spatial queries for dashboards and dispatch, answered from the area of the leader. Payload is an int array:
+     * RANGE_QUERY and DENSITY_QUERY: x0, y0, x1, y1 (corners of the box), NEAREST_QUERY: x, y, k.
+     * Answer is SUCCESS with a LinkedHashMap of id to Coordinate (nearest first for NEAREST_QUERY) or an Integer for DENSITY_QUERY.
+     * Followers forward the queries to the leader like navigation messages.
+     */
+    protected void handleQueryMessage(Message message){
+        if(this.parentNode == null || this.parentNode.getRole() != Role.LEADER){
+            this.sendMessage(message.reply(this.ip, "Only the leader can answer " + message.getType() + " requests", MessageType.ERROR));
+            return;
         }
-        catch(IOException e) {
-            System.out.println("Node read initialize failed");
-        }        
+        try {
+            int[] payload = (int[]) message.getPayload();
+            TrafficArea area = this.parentNode.getArea();
+            Object result;
+            switch (message.getType()) {
+                case RANGE_QUERY:
+                    result = area.getInRange(payload[0], payload[1], payload[2], payload[3]);
+                    break;
+                case NEAREST_QUERY:
+                    result = area.getNearest(payload[0], payload[1], payload[2]);
+                    break;
+                default:
+                    result = area.countInRange(payload[0], payload[1], payload[2], payload[3]);
+                    break;
+            }
+            this.sendMessage(message.reply(this.ip, result, MessageType.SUCCESS));
+        } catch (Exception e) {
+            Log.log(LogLevel.DEBUG, "{}: Query not possible: {}", this.ip, e);
+            String payload = "Please send " + message.getType() + " with int array of " + (message.getType() == MessageType.NEAREST_QUERY ? "x, y, k" : "x0, y0, x1, y1");
+            this.sendMessage(message.reply(this.ip, payload, MessageType.ERROR));
+        }
+    }
+
+    /**
+     * Navigation requests of many vehicles in one message, see NavigationBatch. Answered by the leader in one pass over its area
+     * with SUCCESS and an int array of the packed next steps. Followers send their forwarded navigation requests this way.
+     */
+    protected void handleNavigationBatchMessage(Message message){
+        if(this.parentNode == null || this.parentNode.getLogic() == null){
+            this.sendMessage(message.reply(this.ip, "Only the leader can answer " + message.getType() + " requests", MessageType.ERROR));
+            return;
+        }
+        NavigationBatch batch = message.getPayload() instanceof NavigationBatch ? (NavigationBatch) message.getPayload() : null;
+        //deserialized batches never ran the checks of the constructor
+        if(batch == null || batch.getVehicles() == null || batch.getPositions() == null || batch.getDestinations() == null
+                || batch.getPositions().length != batch.size() || batch.getDestinations().length != batch.size()){
+            this.sendMessage(message.reply(this.ip, "Please send " + message.getType() + " with a NavigationBatch of arrays of the same length", MessageType.ERROR));
+            return;
+        }
+        if(!this.admit(message)){
+            return;
+        }
+        long start = Util.monotonicNanos();
+        try {
+            int[] nextSteps = this.parentNode.getLogic().navigateBatch(batch.getVehicles(), batch.getPositions(), batch.getDestinations());
+            for (String vehicle : batch.getVehicles()) {
+                if(vehicle != null){
+                    this.vehicles.add(vehicle);
+                }
+            }
+            this.sendMessage(message.reply(this.ip, nextSteps, MessageType.SUCCESS));
+            this.metrics.histogram(MetricsRegistry.NAVIGATION_BATCH_SIZE).record(batch.size());
+        } catch (Exception e) {
+            Log.log(LogLevel.DEBUG, "{}: Batch not possible: {}", this.ip, e);
+            this.sendMessage(message.reply(this.ip, "Please send " + message.getType() + " with a NavigationBatch", MessageType.ERROR));
+        } finally {
+            this.releaseAdmission();
+        }
+        this.metrics.histogram(MetricsRegistry.NAVIGATION_BATCH_SERVICE_TIME).recordSince(start);
     }
-    
+
+    /**
+     * Asks the admission control of the parent node (see AdmissionControl) whether the request may be processed,
+     * a refused request is answered with ERROR and a RetryAfter. Admitted requests must call releaseAdmission() when done.
+     * @param message the request
+     * @return true when admitted (always without admission control)
+     */
+    protected boolean admit(Message message){
+        AdmissionControl admission = this.parentNode == null ? null : this.parentNode.getAdmission();
+        if(admission == null || admission.tryAcquire()){
+            return true;
+        }
+        RetryAfter refusal = admission.refusal(this.ip + " is overloaded");
+        this.sendMessage(message.reply(this.ip, refusal, MessageType.ERROR));
+        return false;
+    }
+
+    protected void releaseAdmission(){
+        AdmissionControl admission = this.parentNode == null ? null : this.parentNode.getAdmission();
+        if(admission != null){
+            admission.release();
+        }
+    }
+
+    /**
+     * Reads the init message of a device that can't be served and answers it with ERROR, then closes the connection.
+     * Used instead of registering when a node already serves too many clients.
+     * @param reason payload of the ERROR, e.g. a RetryAfter
+     */
+    public void refuseConnection(Object reason){
+        Message message = this.readMessage();
+        if(message != null){
+            this.writeMessage(message.reply(this.ip, reason, MessageType.ERROR));
+        }
+        try {
+            this.connection.close();
+        } catch (IOException e) {
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
+        }
+    }
+
+    /**
+     * Followers send the digest of their list of all known nodes (MembershipDigest) to the leader, which answers with
+     * what is missing as SYNC_NODE_LIST (see project.Membership). Only the leader takes digests.
+     */
+    protected void handleMembershipDigestMessage(Message message){
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
+    }
+
+    /**
+     * Followers report their load (NodeLoad) to the leader, which passes it on as membership event.
+     * Only the leader takes load reports.
+     */
+    protected void handleLoadReportMessage(Message message){
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
+    }
+
+    /**
+     * Every node answers NODE_LIST requests with its list of all known nodes (HashMap of ip to NodeSaver, including their load),
+     * so clients can choose their entry point.
+     */
+    protected void handleNodeListMessage(Message message){
+        if(this.parentNode != null){
+            this.sendMessage(message.reply(this.ip, this.parentNode.copyOfAllKnownNodes(), MessageType.SUCCESS));
+        }
+        else{
+            this.sendMessage(message.reply(this.ip, "Only nodes can answer NODE_LIST requests", MessageType.ERROR));
+        }
+    }
+
+    /**
+     * Server push navigation (see project.leader.Subscriptions): a client subscribes once with the array 0: position, 1: destination,
+     * the leader pushes every next step as STEP and the client answers the arrival at each cell with STEP_ACK.
+     * Only the leader keeps subscriptions, followers forward them.
+     */
+    protected void handleSubscribeMessage(Message message){
+        this.sendMessage(message.reply(this.ip, "Only the leader can answer " + message.getType() + " requests", MessageType.ERROR));
+    }
+
+    protected void handleStepMessage(Message message){
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
+    }
+
+    protected void handleStepAckMessage(Message message){
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
+    }
+
+    /**
+     * Optimistic moves (see project.follower.Replica): the leader keeps a replica of the area on every follower up to date
+     * with REPLICA_UPDATE (MapUpdate), followers compute the next steps of their clients on it and send them as MOVE_COMMIT (MoveCommit).
+     * The leader takes the step or computes it itself and answers the client like a navigation request.
+     */
+    protected void handleReplicaUpdateMessage(Message message){
+        Log.log(LogLevel.WARN, "{}: answer not implemented for {}", this.ip, message.getType());
+    }
+
+    protected void handleMoveCommitMessage(Message message){
+        this.sendMessage(message.reply(this.ip, "Only the leader takes " + message.getType() + " requests of its followers", MessageType.ERROR));
+    }
+
+    /**
+     * A follower tells the leader which vehicles of a disconnected client it navigated (String array of ids),
+     * so the leader can drop what it keeps for them. Only the leader takes them.
+     */
+    protected void handleClientLeftMessage(Message message){
+        this.sendMessage(message.reply(this.ip, "Only the leader takes " + message.getType() + " requests of its followers", MessageType.ERROR));
+    }
+
+    /**
+     * Called by the leader when the connection ended: nobody asks for the next steps of the vehicles navigated through it anymore,
+     * so what was computed ahead for them is dropped (see TrafficControlLogic.forget).
+     */
+    protected void forgetVehicles(){
+        if(this.parentNode != null && this.parentNode.getLogic() != null){
+            for (String vehicle : this.vehicles) {
+                this.parentNode.getLogic().forget(vehicle);
+            }
+        }
+        this.vehicles.clear();
+    }
+
+    /**
+     * Switches the connection to a prioritized outbound queue with its own writer thread.
+     * Used for node to node connections, where control messages must not wait behind navigation traffic.
+     */
+    protected void startOutboundQueue(){
+        this.outboundQueue = new OutboundQueue(this);
+        Clock.get().start(this.outboundQueue);
+    }
+
+    private void messageSent(Message message){
+        this.lastMessageSent = Util.monotonicMillis();
+        if(this.metrics != null){
+            this.metrics.messageOut(message.getType());
+        }
+    }
+
+    /**
+     * Every received message is a sign of life of the opponent, not only heartbeats.
+     */
+    private void messageReceived(Message message){
+        this.lastMessageReceived = Util.monotonicMillis();
+        if(this.metrics != null){
+            this.metrics.messageIn(message.getType());
+        }
+        if(this.failureDetector != null){
+            this.failureDetector.heartbeat();
+        }
+    }
+
+    /**
+     * Connection counts as idle when nothing was sent or nothing was received for the given time.
+     * Only idle connections need explicit heartbeats.
+     * @param milliseconds
+     * @return true when idle
+     */
+    public boolean isIdle(long milliseconds){
+        long now = Util.monotonicMillis();
+        return now - this.lastMessageSent >= milliseconds || now - this.lastMessageReceived >= milliseconds;
+    }
+
     protected void closeSocket(){
         try {
-            System.out.println(this.ip + " lost connection to opponent, closing own socket");
-            this.socket.close();
+            Log.log(LogLevel.INFO, "{} lost connection to opponent, closing own socket", this.ip);
+            this.connection.close();
         } catch (IOException e) {
-            System.err.println(e.toString());
+            Log.log(LogLevel.WARN, "{}: {}", this.ip, e);
         }
     }
 
-    public Socket getSocket(){return this.socket;}
+    public Connection getConnection(){return this.connection;}
     public Node getParentNode(){return this.parentNode;}
+    public PhiAccrualFailureDetector getFailureDetector(){return this.failureDetector;}
+    public OutboundQueue getOutboundQueue(){return this.outboundQueue;}
 }
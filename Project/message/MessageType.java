@@ -1,5 +1,19 @@
 package project.message;
 
 public enum MessageType {
-    INITIALIZE, HEARTBEAT, SYNC_NODE_LIST, NAVIGATION, SUCCESS, ERROR, ACK
+    INITIALIZE(true), HEARTBEAT(true), SYNC_NODE_LIST(true), NAVIGATION(false), SUCCESS(false), ERROR(false), ACK(true), STATS(false),
+    RANGE_QUERY(false), NEAREST_QUERY(false), DENSITY_QUERY(false), NAVIGATION_BATCH(false), SUBSCRIBE(false), STEP(false), STEP_ACK(false),
+    LOAD_REPORT(true), NODE_LIST(false), REPLICA_UPDATE(false), MOVE_COMMIT(false), MEMBERSHIP_DIGEST(true), CLIENT_LEFT(false);
+
+    private final boolean control;
+
+    /**
+     * @param control true for messages that keep the cluster alive (membership, liveness).
+     * They are sent on the priority lane of an OutboundQueue and never wait behind navigation traffic.
+     */
+    MessageType(boolean control){
+        this.control = control;
+    }
+
+    public boolean isControl(){return this.control;}
 }
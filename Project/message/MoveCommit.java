@@ -0,0 +1,38 @@
+package project.message;
+
+import java.io.Serializable;
+
+/**
+ * Payload of MOVE_COMMIT messages: a follower computed on its replica of the area that the vehicle (sender of the message)
+ * moves from one cell to a neighbouring one, and read the version of the tile of that cell. Coordinates are packed (see Coordinate.pack).
+ * The leader takes the step when its area still has the version, otherwise it computes the step as for NAVIGATION.
+ */
+public class MoveCommit implements Serializable {
+    private final int from;
+    private final int to;
+    private final int destination;
+    private final int version;
+
+    /**
+     * @param from position the vehicle reported
+     * @param to next step computed by the follower
+     * @param destination destination of the vehicle, for the step the leader computes when it rejects this one
+     * @param version version of the tile of to on the replica
+     */
+    public MoveCommit(int from, int to, int destination, int version){
+        this.from = from;
+        this.to = to;
+        this.destination = destination;
+        this.version = version;
+    }
+
+    public int getFrom(){return this.from;}
+    public int getTo(){return this.to;}
+    public int getDestination(){return this.destination;}
+    public int getVersion(){return this.version;}
+
+    @Override
+    public String toString(){
+        return this.from + " -> " + this.to + " at version " + this.version;
+    }
+}
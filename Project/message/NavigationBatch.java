@@ -0,0 +1,36 @@
+package project.message;
+
+import java.io.Serializable;
+
+/**
+ * Payload of NAVIGATION_BATCH: one navigation request (like NAVIGATION) for each of many vehicles, sent by devices speaking for
+ * many vehicles over one connection (followers collecting the requests of their clients, fleets of the load generator).
+ * Coordinates are packed (see Coordinate.pack), the arrays are parallel.
+ * The answer is SUCCESS with an int array of the packed next step of every vehicle in the same order:
+ * the position itself when the vehicle can't move, Coordinate.NONE when its request was not possible (see TrafficControlLogic.navigateBatch).
+ */
+public class NavigationBatch implements Serializable {
+    private final String[] vehicles;
+    private final int[] positions;
+    private final int[] destinations;
+
+    /**
+     * @param vehicles id of every vehicle, like the sender of a NAVIGATION message
+     * @param positions packed position of every vehicle
+     * @param destinations packed destination of every vehicle
+     * @throws IllegalArgumentException when the arrays differ in length
+     */
+    public NavigationBatch(String[] vehicles, int[] positions, int[] destinations){
+        if(vehicles.length != positions.length || vehicles.length != destinations.length){
+            throw new IllegalArgumentException("vehicles, positions and destinations must have the same length");
+        }
+        this.vehicles = vehicles;
+        this.positions = positions;
+        this.destinations = destinations;
+    }
+
+    public int size(){return this.vehicles.length;}
+    public String[] getVehicles(){return this.vehicles;}
+    public int[] getPositions(){return this.positions;}
+    public int[] getDestinations(){return this.destinations;}
+}
@@ -0,0 +1,114 @@
+package project.message;
+
+import java.util.ArrayDeque;
+
+import project.Clock;
+import project.Config;
+import project.Util;
+import project.metrics.LatencyHistogram;
+import project.metrics.MetricsRegistry;
+
+/**
+ * Outbound queue with two lanes, used for node to node connections.
+ * Control messages (see MessageType.isControl()) are always written before any queued data message,
+ * so heartbeats, acks and node lists never wait behind a burst of forwarded navigation traffic.
+ * One writer thread per connection drains the queue into the output stream of its MessageHandler,
+ * sending therefore never blocks the calling thread.
+ * The data lane is bounded (Config.OUTBOUND_DATA_CAPACITY), so a slow peer can't grow it without limit: further requests and replica updates
+ * are dropped and counted (queue.outbound.dropped), senders of requests refuse them with a RetryAfter (see MessageHandler.sendMessage).
+ * Replies (see isReply) are always queued: there is at most one per request the peer has in flight, which its admission control bounds,
+ * and a dropped reply would leave a request unanswered for good. The control lane only carries a few small messages per heartbeat interval.
+ */
+public class OutboundQueue extends Thread {
+    private static final long CLOSED_CHECK_INTERVAL = 100; // in milliseconds
+
+    private final MessageHandler parentMessageHandler;
+    private final ArrayDeque<Message> controlLane = new ArrayDeque<Message>();
+    private final ArrayDeque<Long> controlEnqueueTimes = new ArrayDeque<Long>();
+    private final ArrayDeque<Message> dataLane = new ArrayDeque<Message>();
+    private final int dataCapacity;
+    private final LatencyHistogram controlQueueDelay = new LatencyHistogram(); // in microseconds
+    private long dropped = 0;
+
+    public OutboundQueue(MessageHandler parentMessageHandler){
+        this(parentMessageHandler, Config.OUTBOUND_DATA_CAPACITY);
+    }
+
+    /**
+     * @param dataCapacity data messages waiting at most, control messages are not limited
+     */
+    public OutboundQueue(MessageHandler parentMessageHandler, int dataCapacity){
+        this.parentMessageHandler = parentMessageHandler;
+        this.dataCapacity = dataCapacity;
+        this.setName("OutboundQueue-" + parentMessageHandler.getName());
+        this.setDaemon(true);
+    }
+
+    /**
+     * @return false when the message was dropped because the data lane is full
+     */
+    public synchronized boolean add(Message message){
+        if(message.getType().isControl()){
+            this.controlLane.add(message);
+            this.controlEnqueueTimes.add(Util.monotonicNanos());
+        }
+        else if(this.dataLane.size() >= this.dataCapacity && !isReply(message.getType())){
+            this.dropped++;
+            if(this.parentMessageHandler.metrics != null){
+                this.parentMessageHandler.metrics.counter(MetricsRegistry.QUEUE_OUTBOUND_DROPPED).incrementAndGet();
+            }
+            return false;
+        }
+        else{
+            this.dataLane.add(message);
+        }
+        Clock.get().signal(this);
+        return true;
+    }
+
+    /**
+     * @return true for answers to requests of the peer and for pushed steps and their acknowledgements (one per subscribed vehicle at a time)
+     */
+    private static boolean isReply(MessageType type){
+        switch (type) {
+            case SUCCESS:
+            case ERROR:
+            case STEP:
+            case STEP_ACK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes queued messages until the connection of the parent handler is closed, control lane first.
+     */
+    public void run(){
+        while(!this.parentMessageHandler.getConnection().isClosed()){
+            Message next = this.take();
+            if(next != null){
+                this.parentMessageHandler.writeMessage(next);
+            }
+        }
+    }
+
+    private synchronized Message take(){
+        if(this.controlLane.isEmpty() && this.dataLane.isEmpty()){
+            try {
+                Clock.get().await(this, CLOSED_CHECK_INTERVAL);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        if(!this.controlLane.isEmpty()){
+            this.controlQueueDelay.recordSince(this.controlEnqueueTimes.poll());
+            return this.controlLane.poll();
+        }
+        return this.dataLane.poll();
+    }
+
+    public synchronized int size(){return this.controlLane.size() + this.dataLane.size();}
+    public synchronized long getDropped(){return this.dropped;}
+    public LatencyHistogram getControlQueueDelay(){return this.controlQueueDelay;}
+}
@@ -0,0 +1,29 @@
+package project.message;
+
+import java.io.Serializable;
+
+/**
+ * Payload of ERROR answers of an overloaded node (see project.AdmissionControl): the request was not processed and should be
+ * sent again after the given time at the earliest. Devices not knowing it can treat it like any other error, toString explains it.
+ */
+public class RetryAfter implements Serializable {
+    private final long millis;
+    private final String reason;
+
+    /**
+     * @param millis time in milliseconds the sender should wait before sending the request again
+     * @param reason why the request was refused
+     */
+    public RetryAfter(long millis, String reason){
+        this.millis = millis;
+        this.reason = reason;
+    }
+
+    public long getMillis(){return this.millis;}
+    public String getReason(){return this.reason;}
+
+    @Override
+    public String toString(){
+        return this.reason + ", retry after " + this.millis + " ms";
+    }
+}
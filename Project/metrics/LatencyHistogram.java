@@ -0,0 +1,108 @@
+package project.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import project.Util;
+
+/**
+ * Lock free log-linear histogram for latencies (or any other non negative long values).
+ * Values below 32 are counted exactly, above that every power of two is split into 16 buckets,
+ * so percentiles have a relative error of at most 1/16 while recording is a single atomic increment.
+ * The unit of the values is up to the caller, usually microseconds.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 16;
+    private static final int BUCKET_COUNT = SUB_BUCKETS * 60 + 2 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value){
+        if(value < 0){
+            value = 0;
+        }
+        this.buckets.incrementAndGet(indexOf(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long currentMax;
+        while(value > (currentMax = this.max.get())){
+            if(this.max.compareAndSet(currentMax, value)){
+                break;
+            }
+        }
+    }
+
+    /**
+     * Records the time passed since startNanos (taken from Util.monotonicNanos()) in microseconds.
+     * @param startNanos
+     */
+    public void recordSince(long startNanos){
+        this.record((Util.monotonicNanos() - startNanos) / 1000);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket the percentile falls into, 0 when nothing was recorded
+     */
+    public long getPercentile(double percentile){
+        long total = this.count.get();
+        if(total == 0){
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.buckets.get(i);
+            if(seen >= target){
+                return Math.min(upperBoundOf(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    public void reset(){
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * @return short one line summary, e.g. for logging
+     */
+    public String summary(){
+        return "count=" + this.getCount() + " mean=" + this.getMean() + " p50=" + this.getPercentile(50) + " p99=" + this.getPercentile(99)
+            + " p99.9=" + this.getPercentile(99.9) + " max=" + this.getMax();
+    }
+
+    private static int indexOf(long value){
+        if(value < 2 * SUB_BUCKETS){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - 4;
+        return SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    private static long upperBoundOf(int index){
+        if(index < 2 * SUB_BUCKETS){
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long getCount() {return this.count.get();}
+    public long getMax() {return this.max.get();}
+    public long getSum() {return this.sum.get();}
+    public long getMean() {
+        long total = this.count.get();
+        return total == 0 ? 0 : this.sum.get() / total;
+    }
+}
@@ -0,0 +1,205 @@
+package project.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import project.log.Log;
+import project.log.LogLevel;
+import project.message.MessageType;
+
+/**
+ * Metrics of one node: messages in and out per MessageType, named counters, gauges and latency histograms.
+ * Every Node owns one registry. It is exposed as a JMX MBean (project:type=Node,ip=...) and sent as answer to STATS messages,
+ * both use the flat name to value map of snapshot().
+ * Recording is lock free, so it can be done on every message.
+ */
+public class MetricsRegistry implements DynamicMBean {
+    // names of the metrics recorded by nodes
+    public static final String NAVIGATION_SERVICE_TIME = "navigation.serviceTime"; // in microseconds, leader
+    public static final String NAVIGATION_BATCH_SERVICE_TIME = "navigation.batchServiceTime"; // in microseconds, leader, one NAVIGATION_BATCH
+    public static final String NAVIGATION_BATCH_SIZE = "navigation.batchSize"; // requests per NAVIGATION_BATCH, leader
+    public static final String SPECULATION_HITS = "speculation.hits"; // leader, steps answered with the step computed ahead
+    public static final String SPECULATION_MISSES = "speculation.misses"; // nothing computed ahead for the position and destination asked for
+    public static final String SPECULATION_CONFLICTS = "speculation.conflicts"; // the cell computed ahead was taken in the meantime
+    public static final String SPECULATION_HIT_RATE = "speculation.hitRate"; // in percent
+    public static final String SUBSCRIPTIONS = "subscriptions.count"; // leader, vehicles getting their steps pushed
+    public static final String SUBSCRIPTION_STEP_DELAY = "subscriptions.stepDelay"; // in microseconds, leader, from subscribing or acknowledging a cell until the next step is pushed
+    public static final String REPLICA_PROPOSED = "replica.proposed"; // follower, steps computed on the replica and sent as MOVE_COMMIT
+    public static final String REPLICA_FALLBACKS = "replica.fallbacks"; // follower, navigation requests forwarded because the replica had no step
+    public static final String REPLICA_ACCEPTED = "replica.accepted"; // leader, MOVE_COMMIT steps taken
+    public static final String REPLICA_REJECTED = "replica.rejected"; // leader, MOVE_COMMIT steps computed again because the replica was outdated
+    public static final String FORWARD_LATENCY = "navigation.forwardLatency"; // in microseconds, follower, forward to leader until reply forwarded to client
+    public static final String HEARTBEAT_RTT = "heartbeat.rtt"; // in microseconds, leader
+    public static final String ADMISSION_IN_FLIGHT = "admission.inFlight"; // leader: navigation messages processed, follower: requests forwarded and not answered
+    public static final String ADMISSION_REJECTED = "admission.rejected"; // requests refused with a RetryAfter
+    public static final String MEMBERSHIP_VERSION = "membership.version"; // version of the list of all known nodes, equal on all nodes once it converged
+    public static final String MEMBERSHIP_REPAIRS = "membership.repairs"; // leader, digests answered with missing events, membership.snapshots with the whole list
+    public static final String MEMBERSHIP_SNAPSHOTS = "membership.snapshots";
+    public static final String CONNECTIONS_CLIENTS = "connections.clients";
+    public static final String CONNECTIONS_NODES = "connections.nodes";
+    public static final String QUEUE_OUTBOUND = "queue.outbound";
+    public static final String QUEUE_OUTBOUND_DROPPED = "queue.outbound.dropped"; // data messages dropped because the data lane of a connection was full
+    public static final String AREA_OCCUPANCY = "area.occupancy";
+    public static final String FLOW_FIELDS = "flowFields.count"; // leader, destination tiles with a flow field
+    public static final String FLOW_FIELD_HITS = "flowFields.hits"; // leader, steps of clients bound to a destination with a flow field
+    public static final String FLOW_FIELD_MISSES = "flowFields.misses";
+    public static final String PATH_CACHE_HITS = "pathCache.hits"; // leader
+    public static final String PATH_CACHE_MISSES = "pathCache.misses";
+    public static final String PATH_CACHE_INVALIDATIONS = "pathCache.invalidations"; // entries dropped because the occupancy of their tiles changed
+    public static final String PATH_CACHE_HIT_RATE = "pathCache.hitRate"; // in percent
+
+    private final AtomicLongArray messagesIn = new AtomicLongArray(MessageType.values().length);
+    private final AtomicLongArray messagesOut = new AtomicLongArray(MessageType.values().length);
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<String, LongSupplier>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public void messageIn(MessageType type){
+        this.messagesIn.incrementAndGet(type.ordinal());
+    }
+
+    public void messageOut(MessageType type){
+        this.messagesOut.incrementAndGet(type.ordinal());
+    }
+
+    /**
+     * @param name
+     * @return counter with the given name, created on first use. Callers on hot paths should keep the reference.
+     */
+    public AtomicLong counter(String name){
+        return this.counters.computeIfAbsent(name, key -> new AtomicLong());
+    }
+
+    /**
+     * @param name
+     * @return histogram with the given name, created on first use. Callers on hot paths should keep the reference.
+     */
+    public LatencyHistogram histogram(String name){
+        return this.histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers (or replaces) a value that is only read when a snapshot is taken, e.g. queue sizes.
+     * @param name
+     * @param gauge
+     */
+    public void gauge(String name, LongSupplier gauge){
+        this.gauges.put(name, gauge);
+    }
+
+    /**
+     * @return all metrics as sorted flat map. Histograms are split into count, mean, p50, p99, p999 and max.
+     */
+    public TreeMap<String, Long> snapshot(){
+        TreeMap<String, Long> snapshot = new TreeMap<String, Long>();
+        for (MessageType type : MessageType.values()) {
+            snapshot.put("messages.in." + type, this.messagesIn.get(type.ordinal()));
+            snapshot.put("messages.out." + type, this.messagesOut.get(type.ordinal()));
+        }
+        for (Map.Entry<String, AtomicLong> entry : this.counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, LongSupplier> entry : this.gauges.entrySet()) {
+            try {
+                snapshot.put(entry.getKey(), entry.getValue().getAsLong());
+            } catch (Exception e) {
+                Log.log(LogLevel.DEBUG, "gauge {} failed: {}", entry.getKey(), e);
+            }
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : this.histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            snapshot.put(entry.getKey() + ".count", histogram.getCount());
+            snapshot.put(entry.getKey() + ".mean", histogram.getMean());
+            snapshot.put(entry.getKey() + ".p50", histogram.getPercentile(50));
+            snapshot.put(entry.getKey() + ".p99", histogram.getPercentile(99));
+            snapshot.put(entry.getKey() + ".p999", histogram.getPercentile(99.9));
+            snapshot.put(entry.getKey() + ".max", histogram.getMax());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Registers this registry at the platform MBean server, so it can be watched with jconsole / VisualVM.
+     * @param ip ip of the node, part of the object name
+     */
+    public void registerMBean(String ip){
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("project:type=Node,ip=" + ObjectName.quote(ip));
+            if(server.isRegistered(name)){
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            Log.log(LogLevel.WARN, "{}: registering metrics MBean failed: {}", ip, e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = this.snapshot().get(attribute);
+        if(value == null){
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        TreeMap<String, Long> snapshot = this.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if(snapshot.containsKey(attribute)){
+                list.add(new Attribute(attribute, snapshot.get(attribute)));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Metrics are read only.
+     */
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    /**
+     * Attributes are built from the current snapshot, so metrics created later also show up.
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        TreeMap<String, Long> snapshot = this.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (String name : snapshot.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false);
+        }
+        return new MBeanInfo(this.getClass().getName(), "Metrics of a traffic control node", attributes, null, null, null);
+    }
+}
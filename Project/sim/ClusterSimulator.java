@@ -0,0 +1,225 @@
+package project.sim;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Random;
+
+import project.Clock;
+import project.Node;
+import project.Role;
+import project.client.Client;
+import project.helpers.Coordinate;
+import project.transport.InMemoryNetwork;
+import project.transport.InMemoryTransport;
+
+/**
+ * Runs a whole cluster (leader, followers and clients) inside one process on an InMemoryNetwork and a VirtualClock.
+ * Latency, message loss and crashes are injected by the network, time only passes when the simulator advances it.
+ * The production handlers run unchanged, only their transport and clock are replaced.
+ *
+ * The threads of the devices are real threads, but the VirtualClock runs them one at a time and time only passes when all
+ * of them wait, so a run is fixed by its seed (latencies, losses, trips) and does not depend on the speed of the machine:
+ * equal seeds give equal reports, see DeterminismCheck.
+ */
+public class ClusterSimulator {
+    public static final int NODE_PORT = 200;
+    public static final int CLIENT_PORT = 201; //fixed client port of leader and followers, see Node and Follower
+    private static final long STARTUP_TIMEOUT = 5000; // virtual milliseconds
+
+    private final VirtualClock clock = new VirtualClock();
+    private final InMemoryNetwork network;
+    private final LinkedList<Node> nodes = new LinkedList<Node>();
+    private final LinkedList<Client> clients = new LinkedList<Client>();
+
+    /**
+     * Replaces the global Clock, so only one simulator can run per process and it has to be created before any device.
+     * @param seed seed of the network
+     */
+    public ClusterSimulator(long seed){
+        Clock.set(this.clock);
+        this.network = new InMemoryNetwork(seed);
+    }
+
+    /**
+     * Starts the leader and waits until it accepts followers and clients.
+     */
+    public Node startLeader(String ip){
+        Node node = new Node(Role.LEADER, ip, NODE_PORT);
+        this.startNode(node);
+        this.awaitListening(ip, NODE_PORT);
+        this.awaitListening(ip, CLIENT_PORT);
+        return node;
+    }
+
+    /**
+     * Starts a follower and waits until it accepts clients, which it only does after registering at the leader.
+     */
+    public Node startFollower(String ip, String leaderIp){
+        Node node = new Node(Role.FOLLOWER, ip, NODE_PORT);
+        node.setLeader(leaderIp, NODE_PORT);
+        this.startNode(node);
+        this.awaitListening(ip, CLIENT_PORT);
+        return node;
+    }
+
+    /**
+     * Registering at the leader takes a few round trips of virtual time.
+     * Gives up after STARTUP_TIMEOUT virtual milliseconds (e.g. when the leader is not reachable).
+     */
+    private void awaitListening(String ip, int port){
+        long deadline = this.clock.millis() + STARTUP_TIMEOUT;
+        while(!this.network.isListening(ip, port) && this.clock.millis() < deadline){
+            this.advance(1);
+        }
+    }
+
+    private Node startNode(Node node){
+        node.setTransport(new InMemoryTransport(this.network, node.getIp()));
+        node.setDaemon(true);
+        this.nodes.add(node);
+        this.clock.start(node);
+        this.clock.settle();
+        return node;
+    }
+
+    public Client startClient(String ip, String entryPointIp, Coordinate start, Coordinate destination){
+        Client client = new Client(ip, CLIENT_PORT, start, destination);
+        client.setEntryPointIp(entryPointIp);
+        client.setEntryPointPort(CLIENT_PORT);
+        client.setTransport(new InMemoryTransport(this.network, ip));
+        client.setDaemon(true);
+        this.clients.add(client);
+        this.clock.start(client);
+        this.clock.settle();
+        return client;
+    }
+
+    /**
+     * Advances the virtual time millisecond by millisecond. After each step the threads that are due run until all of them wait again.
+     */
+    public void advance(long milliseconds){
+        for (long i = 0; i < milliseconds; i++) {
+            this.clock.advance(1);
+            this.clock.settle();
+        }
+    }
+
+    public void crash(String ip){
+        System.out.println(this.clock.millis() + " ms: crashing " + ip);
+        this.network.crash(ip);
+    }
+
+    public boolean allClientsFinished(){
+        for (Client client : this.clients) {
+            if(client.isAlive()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String report(){
+        StringBuilder report = new StringBuilder();
+        report.append("virtual time: ").append(this.clock.millis()).append(" ms\n");
+        report.append("messages delivered: ").append(this.network.getDelivered()).append(", dropped: ").append(this.network.getDropped()).append('\n');
+        for (Node node : this.nodes) {
+            report.append(node.getIp()).append(' ').append(node.getRole()).append('\n');
+        }
+        int arrived = 0;
+        for (Client client : this.clients) {
+            boolean hasArrived = client.getPosition().compare(client.getDestination());
+            if(hasArrived){
+                arrived++;
+            }
+            report.append(client.getIp()).append(' ').append(hasArrived ? "arrived" : (client.isAbandoned() ? "abandoned at " : "stuck at ") + client.getPosition());
+            report.append(" (destination ").append(client.getDestination()).append(")\n");
+        }
+        report.append(arrived).append(" of ").append(this.clients.size()).append(" clients arrived\n");
+        return report.toString();
+    }
+
+    public InMemoryNetwork getNetwork() {return this.network;}
+    public VirtualClock getClock() {return this.clock;}
+    public LinkedList<Node> getNodes() {return this.nodes;}
+    public LinkedList<Client> getClients() {return this.clients;}
+
+    /**
+     * Arguments are key=value pairs, see printUsage().
+     */
+    public static void main(String[] args) {
+        HashMap<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if(separator <= 0){
+                printUsage();
+                return;
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        try {
+            int followers = Integer.parseInt(options.getOrDefault("followers", "2"));
+            int clients = Integer.parseInt(options.getOrDefault("clients", "5"));
+            long latency = Long.parseLong(options.getOrDefault("latency", "1"));
+            long jitter = Long.parseLong(options.getOrDefault("jitter", "0"));
+            double loss = Double.parseDouble(options.getOrDefault("loss", "0"));
+            long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+            long duration = Long.parseLong(options.getOrDefault("duration", "60000"));
+            int range = Integer.parseInt(options.getOrDefault("range", "20"));
+            String crash = options.get("crash");
+
+            ClusterSimulator simulator = new ClusterSimulator(seed);
+            simulator.getNetwork().setLatency(latency, jitter);
+            simulator.getNetwork().setLossRate(loss);
+
+            simulator.startLeader("127.0.0.1");
+            simulator.advance(100);
+            for (int i = 0; i < followers; i++) {
+                simulator.startFollower("127.0.0." + (i + 2), "127.0.0.1");
+            }
+            simulator.advance(500);
+
+            Random random = new Random(seed);
+            for (int i = 0; i < clients; i++) {
+                String entryPoint = "127.0.0." + (followers == 0 ? 1 : 2 + i % followers);
+                Coordinate start = new Coordinate((short) 0, (short) random.nextInt(range));
+                Coordinate destination = new Coordinate((short) (1 + random.nextInt(range - 1)), (short) random.nextInt(range));
+                simulator.startClient("127.0.1." + (i + 1), entryPoint, start, destination);
+            }
+
+            String crashIp = null;
+            long crashAt = -1;
+            if(crash != null){
+                String[] crashOption = crash.split("@");
+                crashIp = crashOption[0];
+                crashAt = Long.parseLong(crashOption[1]);
+            }
+            long startTime = simulator.getClock().millis();
+            while(simulator.getClock().millis() - startTime < duration && !simulator.allClientsFinished()){
+                if(crashIp != null && simulator.getClock().millis() - startTime >= crashAt){
+                    simulator.crash(crashIp);
+                    crashIp = null;
+                }
+                simulator.advance(1);
+            }
+            System.out.print(simulator.report());
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.toString());
+            printUsage();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void printUsage(){
+        System.out.println("Usage: project.sim.ClusterSimulator (key=value)*");
+        System.out.println("followers=2   number of followers, clients are spread over them (over the leader when 0)");
+        System.out.println("clients=5     number of clients, each driving one trip");
+        System.out.println("latency=1     one way latency in virtual milliseconds");
+        System.out.println("jitter=0      random additional latency in virtual milliseconds");
+        System.out.println("loss=0        probability of a message being dropped");
+        System.out.println("seed=1        seed of latencies, losses and trips");
+        System.out.println("duration=60000  virtual milliseconds after which the simulation stops");
+        System.out.println("range=20      start and destination coordinates are drawn from [0, range)");
+        System.out.println("crash=ip@ms   crashes the device with ip ms virtual milliseconds after the clients started");
+    }
+}
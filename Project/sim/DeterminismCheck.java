@@ -0,0 +1,51 @@
+package project.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Runs the same seeded scenario of the ClusterSimulator twice and fails when the two outputs differ.
+ * Every run gets its own JVM, the simulator replaces the global Clock. Logging is off, the log appender is the only thread
+ * of the process the VirtualClock does not schedule.
+ * Run by the build in the test phase, or "java -cp Project/target/traffic-control.jar project.sim.DeterminismCheck [key=value ...]"
+ * with the options of ClusterSimulator instead of the default scenario.
+ */
+public class DeterminismCheck {
+    private static final String[] SCENARIO = {"clients=20", "jitter=2", "loss=0.01", "crash=127.0.0.2@550", "seed=1", "duration=10000"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String[] scenario = args.length > 0 ? args : SCENARIO;
+        String first = run(scenario);
+        String second = run(scenario);
+        System.out.print(first);
+        if(!first.equals(second)){
+            System.out.println("second run of " + Arrays.toString(scenario) + " differs:");
+            System.out.print(second);
+            System.exit(1);
+        }
+        System.out.println("second run of " + Arrays.toString(scenario) + " is identical");
+        System.exit(0);
+    }
+
+    private static String run(String[] scenario) throws IOException, InterruptedException {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Dlog.level=OFF");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ClusterSimulator.class.getName());
+        command.addAll(Arrays.asList(scenario));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int exitCode = process.waitFor();
+        if(exitCode != 0){
+            System.out.print(output);
+            System.out.println("simulator exited with " + exitCode);
+            System.exit(1);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,202 @@
+package project.sim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import project.Clock;
+
+/**
+ * Clock that only moves when advance is called, and scheduler of the threads of the simulated devices.
+ * Threads started through the clock run one at a time: the running thread keeps going until it waits on the clock
+ * (sleep, await) or ends, then settle hands over to the next thread that may continue. Signalled threads continue in the
+ * order they were signalled, threads whose wait timed out in the order of their deadlines. So one run only depends on
+ * what the threads do, not on the operating system, and equal seeds give equal runs.
+ * Device threads must not wait in any other way (Object.wait, blocking queues, sleeps in real time), and must not hold
+ * a lock while waiting on the clock that another device thread needs; settle fails when the running thread is stuck like that.
+ */
+public class VirtualClock extends Clock {
+    private static final long NEVER = Long.MAX_VALUE;
+    private static final long STUCK_CHECKS = 10_000; // checks of the running thread (1 ms real time each) before it counts as stuck
+
+    private long now = 0;
+    private final ArrayList<Waiter> waiting = new ArrayList<Waiter>(); // in the order they started to wait
+    private final ArrayDeque<Waiter> runnable = new ArrayDeque<Waiter>(); // in the order they may continue
+    private Thread running = null; // the only device thread that may run, null while settle chooses the next one
+
+    private static final class Waiter {
+        final Thread thread;
+        final Object monitor; // null for a thread that is not started yet
+        final long deadline;
+        boolean isRunnable = false;
+        volatile boolean granted = false;
+
+        Waiter(Thread thread, Object monitor, long deadline){
+            this.thread = thread;
+            this.monitor = monitor;
+            this.deadline = deadline;
+        }
+    }
+
+    @Override
+    public synchronized long millis(){
+        return this.now;
+    }
+
+    @Override
+    public synchronized long nanos(){
+        return this.now * 1_000_000;
+    }
+
+    @Override
+    public void sleep(long milliseconds) throws InterruptedException {
+        if(milliseconds <= 0){
+            return;
+        }
+        Object monitor = new Object();
+        synchronized(monitor){
+            this.await(monitor, milliseconds);
+        }
+    }
+
+    /**
+     * Hands over to the next thread and waits until signal, interrupt or advance made this one runnable and settle chose it.
+     */
+    @Override
+    public void await(Object monitor, long milliseconds) throws InterruptedException {
+        Waiter waiter;
+        synchronized(this){
+            if(Thread.currentThread() != this.running){
+                throw new IllegalStateException(Thread.currentThread().getName() + " was not started through the clock");
+            }
+            if(Thread.interrupted()){
+                throw new InterruptedException();
+            }
+            waiter = new Waiter(Thread.currentThread(), monitor, milliseconds > 0 ? this.now + milliseconds : NEVER);
+            this.waiting.add(waiter);
+            this.running = null;
+            this.notifyAll();
+        }
+        boolean interrupted = false;
+        while(!waiter.granted){
+            try {
+                monitor.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                synchronized(this){
+                    this.makeRunnable(waiter);
+                }
+            }
+        }
+        if(interrupted || Thread.interrupted()){ // the interrupt may also have come as a notify
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public synchronized void signal(Object monitor){
+        for (Waiter waiter : this.waiting) {
+            if(waiter.monitor == monitor){
+                this.makeRunnable(waiter);
+            }
+        }
+    }
+
+    /**
+     * The thread is started when settle gets to it, after the threads that are already runnable.
+     */
+    @Override
+    public synchronized void start(Thread thread){
+        Waiter waiter = new Waiter(thread, null, NEVER);
+        this.waiting.add(waiter);
+        this.makeRunnable(waiter);
+    }
+
+    /**
+     * The thread continues after the threads that are already runnable, like a signalled one.
+     */
+    @Override
+    public synchronized void interrupt(Thread thread){
+        for (Waiter waiter : this.waiting) {
+            if(waiter.thread == thread && waiter.monitor != null){
+                this.makeRunnable(waiter);
+            }
+        }
+        thread.interrupt();
+    }
+
+    private void makeRunnable(Waiter waiter){
+        if(!waiter.isRunnable){
+            waiter.isRunnable = true;
+            this.runnable.add(waiter);
+        }
+    }
+
+    /**
+     * Moves the time, threads whose wait times out become runnable in the order of their deadlines.
+     * The simulator calls settle afterwards.
+     */
+    public synchronized void advance(long milliseconds){
+        this.now += milliseconds;
+        ArrayList<Waiter> due = new ArrayList<Waiter>();
+        for (Waiter waiter : this.waiting) {
+            if(!waiter.isRunnable && waiter.deadline <= this.now){
+                due.add(waiter);
+            }
+        }
+        due.sort((a, b) -> Long.compare(a.deadline, b.deadline)); // stable, equal deadlines keep the order of waiting
+        for (Waiter waiter : due) {
+            this.makeRunnable(waiter);
+        }
+    }
+
+    /**
+     * Runs the runnable threads one after the other, including the ones they make runnable, until all threads wait.
+     * Called by the simulator, never by a device thread.
+     */
+    public void settle(){
+        while(true){
+            Waiter next;
+            synchronized(this){
+                next = this.runnable.poll();
+                if(next == null){
+                    return;
+                }
+                this.waiting.remove(next);
+                this.running = next.thread;
+            }
+            if(next.monitor == null){
+                next.thread.start();
+            }
+            else{
+                next.granted = true;
+                synchronized(next.monitor){
+                    next.monitor.notifyAll();
+                }
+            }
+            this.awaitHandOver(next.thread);
+        }
+    }
+
+    /**
+     * Waits until the running thread waits on the clock again or ends. Ending is not signalled, so it is checked every millisecond.
+     */
+    private synchronized void awaitHandOver(Thread thread){
+        long stuck = 0;
+        while(this.running == thread && thread.isAlive()){
+            Thread.State state = thread.getState();
+            stuck = state == Thread.State.BLOCKED || state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING ? stuck + 1 : 0;
+            if(stuck > STUCK_CHECKS){
+                IllegalStateException e = new IllegalStateException(thread.getName() + " waits outside the clock (" + state + ")");
+                e.setStackTrace(thread.getStackTrace());
+                throw e;
+            }
+            try {
+                this.wait(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        this.running = null;
+    }
+}
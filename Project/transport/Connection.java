@@ -0,0 +1,27 @@
+package project.transport;
+
+import java.io.IOException;
+
+import project.message.Message;
+
+/**
+ * One bidirectional, ordered message connection between two devices. MessageHandler is written against this interface,
+ * how messages are transported (TCP with object streams, in memory, ...) is up to the Transport that created it.
+ */
+public interface Connection {
+    /**
+     * Sends message, may be called from several threads.
+     * @throws java.io.EOFException when the connection was closed by the opponent
+     */
+    void send(Message message) throws IOException;
+
+    /**
+     * Blocks until the next message arrives.
+     * @throws java.io.EOFException when the connection was closed by the opponent
+     */
+    Message receive() throws IOException, ClassNotFoundException;
+
+    void close() throws IOException;
+
+    boolean isClosed();
+}
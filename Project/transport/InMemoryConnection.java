@@ -0,0 +1,112 @@
+package project.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import project.Clock;
+import project.Util;
+import project.message.Message;
+
+/**
+ * One end of an in memory connection. Sent messages are put into the inbox of the opponent together with their delivery time.
+ */
+public class InMemoryConnection implements Connection {
+    private final InMemoryNetwork network;
+    private final String localIp;
+    private InMemoryConnection opponent;
+    private final ArrayDeque<Delivery> inbox = new ArrayDeque<Delivery>();
+    private long lastDeliverAt = 0; //keeps the order of messages when the latency varies
+    private volatile boolean closed = false;
+
+    InMemoryConnection(InMemoryNetwork network, String localIp){
+        this.network = network;
+        this.localIp = localIp;
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        if(this.closed){
+            throw new EOFException("Connection closed");
+        }
+        long deliverAt = this.network.schedule(message);
+        if(deliverAt >= 0){
+            this.opponent.deliver(message, deliverAt);
+        }
+    }
+
+    private void deliver(Message message, long deliverAt){
+        synchronized(this.inbox){
+            this.lastDeliverAt = Math.max(this.lastDeliverAt, deliverAt);
+            this.inbox.add(new Delivery(message, this.lastDeliverAt));
+            Clock.get().signal(this.inbox);
+        }
+    }
+
+    /**
+     * Waits on the inbox until a message arrives and is due, both through the Clock.
+     * After close, already delivered messages are still received, then end of stream is signalled.
+     */
+    @Override
+    public Message receive() throws IOException {
+        synchronized(this.inbox){
+            while(true){
+                long wait = 0;
+                if(this.inbox.isEmpty()){
+                    if(this.closed || this.opponent.closed){
+                        throw new EOFException("Connection closed");
+                    }
+                }
+                else{
+                    wait = this.inbox.peek().deliverAt - Util.monotonicMillis();
+                    if(wait <= 0){
+                        return this.inbox.poll().message;
+                    }
+                }
+                try {
+                    Clock.get().await(this.inbox, wait);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if(this.closed){
+            return;
+        }
+        this.closed = true;
+        this.network.closed(this);
+        synchronized(this.inbox){
+            this.inbox.clear();
+            Clock.get().signal(this.inbox);
+        }
+        this.opponent.opponentClosed();
+    }
+
+    private void opponentClosed(){
+        synchronized(this.inbox){
+            Clock.get().signal(this.inbox);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    void setOpponent(InMemoryConnection opponent) {this.opponent = opponent;}
+    String getLocalIp() {return this.localIp;}
+
+    private static class Delivery {
+        final Message message;
+        final long deliverAt;
+
+        Delivery(Message message, long deliverAt){
+            this.message = message;
+            this.deliverAt = deliverAt;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package project.transport;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+
+import project.Clock;
+
+/**
+ * Listener in an InMemoryNetwork, connecting devices are queued until they are accepted.
+ */
+public class InMemoryListener implements Listener {
+    private final String address;
+    private final ArrayDeque<InMemoryConnection> pending = new ArrayDeque<InMemoryConnection>();
+    private volatile boolean closed = false;
+
+    InMemoryListener(String address){
+        this.address = address;
+    }
+
+    synchronized void offer(InMemoryConnection connection){
+        this.pending.add(connection);
+        Clock.get().signal(this);
+    }
+
+    @Override
+    public synchronized Connection accept() throws IOException {
+        while(this.pending.isEmpty()){
+            if(this.closed){
+                throw new SocketException("Listener " + this.address + " closed");
+            }
+            try {
+                Clock.get().await(this, 0);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        return this.pending.poll();
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        Clock.get().signal(this);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+}
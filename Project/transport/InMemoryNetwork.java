@@ -0,0 +1,120 @@
+package project.transport;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import project.Util;
+import project.message.Message;
+
+/**
+ * Network inside one process, shared by the InMemoryTransports of all simulated devices.
+ * Messages are handed over by reference (no serialization) and delivered in order per direction after a latency
+ * of latency + random(0..jitter) milliseconds of the current Clock. With probability lossRate a message is dropped.
+ * Crashed addresses lose all their connections and can neither connect nor be connected to.
+ * Random decisions come from one seeded generator, so equal seeds give equal latencies and losses.
+ */
+public class InMemoryNetwork {
+    private final HashMap<String, InMemoryListener> listeners = new HashMap<String, InMemoryListener>();
+    private final LinkedList<InMemoryConnection> connections = new LinkedList<InMemoryConnection>();
+    private final HashSet<String> crashed = new HashSet<String>();
+    private final Random random;
+    private long latency = 0;
+    private long jitter = 0;
+    private double lossRate = 0;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public InMemoryNetwork(long seed){
+        this.random = new Random(seed);
+    }
+
+    synchronized InMemoryListener listen(String ip, int port) throws IOException {
+        String address = ip + ":" + port;
+        if(this.crashed.contains(ip)){
+            throw new IOException(ip + " is crashed");
+        }
+        if(this.listeners.containsKey(address) && !this.listeners.get(address).isClosed()){
+            throw new IOException("Address already in use: " + address);
+        }
+        InMemoryListener listener = new InMemoryListener(address);
+        this.listeners.put(address, listener);
+        return listener;
+    }
+
+    synchronized InMemoryConnection connect(String localIp, String ip, int port) throws IOException {
+        InMemoryListener listener = this.listeners.get(ip + ":" + port);
+        if(listener == null || listener.isClosed() || this.crashed.contains(ip) || this.crashed.contains(localIp)){
+            throw new ConnectException("Connection refused: " + ip + ":" + port);
+        }
+        InMemoryConnection local = new InMemoryConnection(this, localIp);
+        InMemoryConnection remote = new InMemoryConnection(this, ip);
+        local.setOpponent(remote);
+        remote.setOpponent(local);
+        this.connections.add(local);
+        this.connections.add(remote);
+        listener.offer(remote);
+        return local;
+    }
+
+    /**
+     * Decides about loss and delivery time of one message.
+     * @return the Clock time at which the message may be received, -1 if it is dropped
+     */
+    synchronized long schedule(Message message){
+        if(this.lossRate > 0 && this.random.nextDouble() < this.lossRate){
+            this.dropped.incrementAndGet();
+            return -1;
+        }
+        this.delivered.incrementAndGet();
+        long delay = this.latency + (this.jitter > 0 ? (long) (this.random.nextDouble() * (this.jitter + 1)) : 0);
+        return Util.monotonicMillis() + delay;
+    }
+
+    synchronized void closed(InMemoryConnection connection){
+        this.connections.remove(connection);
+    }
+
+    /**
+     * Crashes the device with the given ip: all its connections and listeners are closed, the opponents see end of stream.
+     * Its threads keep running but cannot reach anybody anymore.
+     */
+    public void crash(String ip){
+        LinkedList<InMemoryConnection> affected = new LinkedList<InMemoryConnection>();
+        LinkedList<InMemoryListener> affectedListeners = new LinkedList<InMemoryListener>();
+        synchronized(this){
+            this.crashed.add(ip);
+            for (InMemoryConnection connection : this.connections) {
+                if(connection.getLocalIp().equals(ip)){
+                    affected.add(connection);
+                }
+            }
+            for (HashMap.Entry<String, InMemoryListener> entry : this.listeners.entrySet()) {
+                if(entry.getKey().startsWith(ip + ":")){
+                    affectedListeners.add(entry.getValue());
+                }
+            }
+        }
+        for (InMemoryConnection connection : affected) {
+            connection.close();
+        }
+        for (InMemoryListener listener : affectedListeners) {
+            listener.close();
+        }
+    }
+
+    public synchronized boolean isListening(String ip, int port){
+        InMemoryListener listener = this.listeners.get(ip + ":" + port);
+        return listener != null && !listener.isClosed();
+    }
+
+    public synchronized void setLatency(long latency, long jitter) {this.latency = latency; this.jitter = jitter;}
+    public synchronized void setLossRate(double lossRate) {this.lossRate = lossRate;}
+    public long getDelivered() {return this.delivered.get();}
+    public long getDropped() {return this.dropped.get();}
+}
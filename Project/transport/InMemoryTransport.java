@@ -0,0 +1,30 @@
+package project.transport;
+
+import java.io.IOException;
+
+/**
+ * Transport of one device in an InMemoryNetwork. Used by the cluster simulator, see project.sim.
+ */
+public class InMemoryTransport implements Transport {
+    private final InMemoryNetwork network;
+    private final String localIp;
+
+    /**
+     * @param network network shared by all simulated devices
+     * @param localIp address of the device using this transport, needed for crashing it
+     */
+    public InMemoryTransport(InMemoryNetwork network, String localIp){
+        this.network = network;
+        this.localIp = localIp;
+    }
+
+    @Override
+    public Connection connect(String ip, int port) throws IOException {
+        return this.network.connect(this.localIp, ip, port);
+    }
+
+    @Override
+    public Listener listen(String ip, int port) throws IOException {
+        return this.network.listen(ip, port);
+    }
+}
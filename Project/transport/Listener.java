@@ -0,0 +1,17 @@
+package project.transport;
+
+import java.io.IOException;
+
+/**
+ * Accepts incoming connections on one address, counterpart of a server socket.
+ */
+public interface Listener {
+    /**
+     * Blocks until the next connection is established.
+     */
+    Connection accept() throws IOException;
+
+    void close() throws IOException;
+
+    boolean isClosed();
+}
@@ -0,0 +1,150 @@
+package project.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import project.message.Message;
+
+/**
+ * Connection over a non blocking socket channel. Frames are an int length followed by one serialized message.
+ * The selector thread cuts received bytes into frames, the receiving thread deserializes them.
+ * Sending writes directly into the socket, only the rest that did not fit is left to the selector thread.
+ */
+public class NioConnection implements Connection {
+    private static final byte[] END_OF_STREAM = new byte[0];
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final SocketChannel channel;
+    private final NioSelectorLoop loop;
+    private volatile SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); //only used by the selector thread
+    private final LinkedBlockingQueue<byte[]> inbox = new LinkedBlockingQueue<byte[]>();
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<ByteBuffer>();
+    private volatile boolean closed = false;
+
+    NioConnection(SocketChannel channel, NioSelectorLoop loop){
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[4]); //space for the length
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(bytes)) {
+            objectStream.writeObject(message);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.remaining() - 4);
+        synchronized(this.pendingWrites){
+            if(this.closed){
+                throw new EOFException("Connection closed");
+            }
+            if(this.pendingWrites.isEmpty()){
+                this.channel.write(frame);
+                if(!frame.hasRemaining()){
+                    return;
+                }
+            }
+            this.pendingWrites.add(frame);
+        }
+        this.loop.writeInterest(this);
+    }
+
+    @Override
+    public Message receive() throws IOException, ClassNotFoundException {
+        byte[] frame;
+        try {
+            frame = this.inbox.take();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        if(frame == END_OF_STREAM){
+            this.inbox.add(END_OF_STREAM); //every further receive ends the same way
+            throw new EOFException("Connection closed");
+        }
+        try (ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+            return (Message) objectStream.readObject();
+        }
+    }
+
+    /**
+     * Called by the selector thread when bytes arrived. Complete frames are moved to the inbox.
+     */
+    void readable() throws IOException {
+        if(this.channel.read(this.readBuffer) < 0){
+            this.close();
+            return;
+        }
+        this.readBuffer.flip();
+        while(this.readBuffer.remaining() >= 4){
+            int length = this.readBuffer.getInt(this.readBuffer.position());
+            if(this.readBuffer.remaining() < 4 + length){
+                if(4 + length > this.readBuffer.capacity()){
+                    ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                    larger.put(this.readBuffer);
+                    this.readBuffer = larger;
+                    return;
+                }
+                break;
+            }
+            byte[] frame = new byte[length];
+            this.readBuffer.getInt();
+            this.readBuffer.get(frame);
+            this.inbox.add(frame);
+        }
+        this.readBuffer.compact();
+    }
+
+    /**
+     * Called by the selector thread when the socket accepts bytes again.
+     */
+    void writable() throws IOException {
+        synchronized(this.pendingWrites){
+            while(!this.pendingWrites.isEmpty()){
+                ByteBuffer frame = this.pendingWrites.peek();
+                this.channel.write(frame);
+                if(frame.hasRemaining()){
+                    return;
+                }
+                this.pendingWrites.poll();
+            }
+            this.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized(this.pendingWrites){
+            if(this.closed){
+                return;
+            }
+            this.closed = true;
+            this.pendingWrites.clear();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            //closing anyway
+        }
+        this.inbox.add(END_OF_STREAM);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    SocketChannel getChannel() {return this.channel;}
+    SelectionKey getKey() {return this.key;}
+    void setKey(SelectionKey key) {this.key = key;}
+}
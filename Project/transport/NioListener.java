@@ -0,0 +1,32 @@
+package project.transport;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Accepts in blocking mode, accepted channels are switched to non blocking and handed to the selector thread of the transport.
+ */
+public class NioListener implements Listener {
+    private final ServerSocketChannel serverChannel;
+    private final NioTransport transport;
+
+    NioListener(ServerSocketChannel serverChannel, NioTransport transport){
+        this.serverChannel = serverChannel;
+        this.transport = transport;
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        return this.transport.register(this.serverChannel.accept());
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverChannel.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !this.serverChannel.isOpen();
+    }
+}
@@ -0,0 +1,80 @@
+package project.transport;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import project.log.Log;
+import project.log.LogLevel;
+
+/**
+ * Selector thread of a NioTransport. Reads incoming frames of all connections and flushes writes that did not fit into the socket buffer.
+ * Registrations and interest changes of other threads are queued and executed by this thread.
+ */
+class NioSelectorLoop extends Thread {
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    NioSelectorLoop() throws IOException {
+        super("NioSelectorLoop");
+        this.setDaemon(true);
+        this.selector = Selector.open();
+    }
+
+    void register(NioConnection connection){
+        this.execute(() -> {
+            try {
+                connection.setKey(connection.getChannel().register(this.selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                connection.close();
+            }
+        });
+    }
+
+    void writeInterest(NioConnection connection){
+        this.execute(() -> {
+            SelectionKey key = connection.getKey();
+            if(key != null && key.isValid()){
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    private void execute(Runnable task){
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    public void run(){
+        while(this.selector.isOpen()){
+            try {
+                this.selector.select();
+                Runnable task;
+                while((task = this.tasks.poll()) != null){
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if(key.isReadable()){
+                            connection.readable();
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            connection.writable();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                Log.log(LogLevel.ERROR, "Selector loop failed: {}", e);
+            }
+        }
+    }
+}
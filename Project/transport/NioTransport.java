@@ -0,0 +1,46 @@
+package project.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import project.Config;
+
+/**
+ * TCP with non blocking channels. All connections of one transport (one device) are read and flushed by a single selector thread,
+ * handler threads only serialize, queue and deserialize. Messages are sent as length prefixed frames, every message with its own object stream.
+ */
+public class NioTransport implements Transport {
+    private NioSelectorLoop loop; //started with the first connection
+
+    @Override
+    public Connection connect(String ip, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(ip, port));
+        return this.register(channel);
+    }
+
+    @Override
+    public Listener listen(String ip, int port) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(ip, port));
+        return new NioListener(serverChannel, this);
+    }
+
+    NioConnection register(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, Config.TCP_NO_DELAY);
+        channel.configureBlocking(false);
+        NioConnection connection = new NioConnection(channel, this.getLoop());
+        this.getLoop().register(connection);
+        return connection;
+    }
+
+    private synchronized NioSelectorLoop getLoop() throws IOException {
+        if(this.loop == null){
+            this.loop = new NioSelectorLoop();
+            this.loop.start();
+        }
+        return this.loop;
+    }
+}
@@ -0,0 +1,64 @@
+package project.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+
+import project.Config;
+import project.message.Message;
+
+/**
+ * Connection over a TCP socket. Both streams are object streams because every sent package must be a message.
+ * Every message is written into a buffer and flushed at once, so it leaves in as few packets as possible.
+ */
+public class TcpConnection implements Connection {
+    private final Socket socket;
+    private final ObjectOutputStream outputStream;
+    private final ObjectInputStream inputStream;
+    private int sentSinceReset = 0;
+
+    /**
+     * Initializes the streams. Blocks until the stream header of the opponent has arrived.
+     * @param socket connected socket
+     * @throws IOException when the streams cannot be initialized
+     */
+    public TcpConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.socket.setTcpNoDelay(Config.TCP_NO_DELAY);
+        this.outputStream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.outputStream.flush(); //stream header, the opponent's input stream waits for it
+        this.inputStream = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        synchronized(this.outputStream){
+            this.outputStream.writeObject(message);
+            if(++this.sentSinceReset >= Config.TCP_STREAM_RESET_INTERVAL){
+                this.outputStream.reset(); //the stream keeps every written object for back references until reset
+                this.sentSinceReset = 0;
+            }
+            this.outputStream.flush();
+        }
+    }
+
+    @Override
+    public Message receive() throws IOException, ClassNotFoundException {
+        return (Message) this.inputStream.readObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.socket.isClosed();
+    }
+
+    public Socket getSocket() {return this.socket;}
+}
@@ -0,0 +1,42 @@
+package project.transport;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import project.log.Log;
+import project.log.LogLevel;
+
+public class TcpListener implements Listener {
+    private final ServerSocket serverSocket;
+
+    public TcpListener(ServerSocket serverSocket){
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * Accepts the next socket and initializes its streams. Sockets whose streams cannot be initialized are dropped.
+     */
+    @Override
+    public Connection accept() throws IOException {
+        while(true){
+            Socket socket = this.serverSocket.accept();
+            try {
+                return new TcpConnection(socket);
+            } catch (IOException e) {
+                Log.log(LogLevel.WARN, "Initializing streams of accepted connection failed: {}", e);
+                socket.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.serverSocket.isClosed();
+    }
+}
@@ -0,0 +1,29 @@
+package project.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Blocking TCP, one socket per connection, messages are written with Java object streams.
+ */
+public class TcpTransport implements Transport {
+    @Override
+    public Connection connect(String ip, int port) throws IOException {
+        Socket socket = new Socket(ip, port);
+        try {
+            return new TcpConnection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Listener listen(String ip, int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(ip, port));
+        return new TcpListener(serverSocket);
+    }
+}
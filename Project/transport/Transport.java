@@ -0,0 +1,34 @@
+package project.transport;
+
+import java.io.IOException;
+
+import project.Config;
+
+/**
+ * Creates connections and listeners. Nodes and clients never open sockets themselves but ask their transport,
+ * so the way of communication can be exchanged (e.g. in memory for the cluster simulator).
+ */
+public interface Transport {
+    Connection connect(String ip, int port) throws IOException;
+
+    Listener listen(String ip, int port) throws IOException;
+
+    /**
+     * @param name tcp (blocking sockets) or nio (one selector thread per device)
+     * @throws IllegalArgumentException for unknown names, the in memory transport needs a network and is created by the simulator
+     */
+    static Transport create(String name){
+        switch (name.toLowerCase()) {
+            case "tcp": return new TcpTransport();
+            case "nio": return new NioTransport();
+            default: throw new IllegalArgumentException("Unknown transport " + name + ", use tcp or nio");
+        }
+    }
+
+    /**
+     * @return the transport of this deployment, chosen with -Dtransport=(tcp|nio), default is Config.TRANSPORT
+     */
+    static Transport fromConfig(){
+        return create(System.getProperty("transport", Config.TRANSPORT));
+    }
+}
@@ -0,0 +1,42 @@
+package project.bench;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the allocation free navigation benchmarks with the GC profiler and fails when one of them allocates in steady state.
+ * „java -cp benchmarks/target/benchmarks.jar project.bench.AllocationCheck“
+ */
+public class AllocationCheck {
+    private static final double MAX_BYTES_PER_OPERATION = 1.0; // rounding noise of the profiler
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TrafficControlLogicBenchmark.class.getSimpleName() + ".(movePacked|navigate)")
+                .param("size", "1000")
+                .param("storage", "dense") // the tiled area allocates a tile whenever a vehicle enters an empty one
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(3)
+                .measurementIterations(3)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        boolean failed = false;
+        for (RunResult result : results) {
+            Result<?> allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            String name = result.getParams().getBenchmark() + " " + result.getParams().getParam("density");
+            System.out.println(name + ": " + allocation.getScore() + " bytes/op");
+            if(allocation.getScore() > MAX_BYTES_PER_OPERATION){
+                System.out.println(name + " allocates");
+                failed = true;
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
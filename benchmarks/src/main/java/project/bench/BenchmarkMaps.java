@@ -0,0 +1,62 @@
+package project.bench;
+
+import java.util.Random;
+
+import project.Config;
+import project.helpers.Coordinate;
+import project.helpers.MovementNotPossible;
+import project.helpers.TrafficArea;
+
+/**
+ * Builds reproducible, pre-filled maps for the benchmarks.
+ * Vehicle IDs are kept so the benchmarks can address the placed vehicles.
+ */
+class BenchmarkMaps {
+    final TrafficArea area;
+    final String[] ids;
+    final Coordinate[] targets;
+
+    private BenchmarkMaps(TrafficArea area, String[] ids, Coordinate[] targets){
+        this.area = area;
+        this.ids = ids;
+        this.targets = targets;
+    }
+
+    /**
+     * @param storage dense or tiled, see TrafficArea.create
+     * @param size width and height of the map
+     * @param density share of the slots (size * size * Config.MAX_PER_NODE) that are occupied
+     * @param seed seed for the random positions
+     */
+    static BenchmarkMaps fill(String storage, short size, double density, long seed) throws MovementNotPossible {
+        TrafficArea area = TrafficArea.create(storage, Config.MAX_PER_NODE, size, size);
+        Random random = new Random(seed);
+        int vehicles = Math.max(1, (int) (density * size * size * Config.MAX_PER_NODE));
+        String[] ids = new String[vehicles];
+        Coordinate[] targets = new Coordinate[vehicles];
+        int placed = 0;
+        while(placed < vehicles){
+            Coordinate position = new Coordinate((short) random.nextInt(size), (short) random.nextInt(size));
+            if(area.isFree(position)){
+                ids[placed] = "v" + placed;
+                area.place(ids[placed], position);
+                targets[placed] = new Coordinate((short) random.nextInt(size), (short) random.nextInt(size));
+                placed++;
+            }
+        }
+        return new BenchmarkMaps(area, ids, targets);
+    }
+
+    Coordinate findFreeCell(){
+        short size = (short) this.area.getSizeX();
+        for (short x = (short) (size - 1); x >= 0; x--) {
+            for (short y = (short) (size - 1); y >= 0; y--) {
+                Coordinate cell = new Coordinate(x, y);
+                if(this.area.isFree(cell)){
+                    return cell;
+                }
+            }
+        }
+        throw new IllegalStateException("map is full");
+    }
+}
@@ -0,0 +1,126 @@
+package project.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import project.Config;
+import project.helpers.Coordinate;
+import project.helpers.MovementNotPossible;
+import project.helpers.TrafficArea;
+import project.helpers.TrafficControlLogic;
+
+/**
+ * Four dense flows of vehicles cross in the middle of a 100 x 100 map: west to east, east to west, north to south and south to north,
+ * each in a band of 10 cells. Every operation is one round in which every vehicle asks for one step (like TrafficControlLogic.navigate
+ * on the leader), arrived vehicles start a new trip at their edge in the next round.
+ * Reports rounds and arrivals per second; greedy routing (penalty=0) gridlocks in the crossing within the warmup and arrives nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GridlockBenchmark {
+    private static final short SIZE = 100;
+    private static final int BAND = 10;
+
+    @Param({"0", "2"})
+    public float penalty;
+
+    @Param({"1000", "2000"})
+    public int vehicles;
+
+    private TrafficArea area;
+    private TrafficControlLogic logic;
+    private String[] ids;
+    private int[] positions;
+    private int[] destinations;
+    private boolean[] driving;
+    private Random random;
+
+    /**
+     * Arrivals of the measured rounds, reported by JMH per second like the operations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Arrivals {
+        public long arrivals;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            this.arrivals = 0;
+        }
+    }
+
+    @Setup
+    public void setup(){
+        this.area = TrafficArea.create("dense", Config.MAX_PER_NODE, SIZE, SIZE);
+        this.logic = new TrafficControlLogic(this.area);
+        this.logic.setCongestionPenalty(this.penalty);
+        this.ids = new String[this.vehicles];
+        this.positions = new int[this.vehicles];
+        this.destinations = new int[this.vehicles];
+        this.driving = new boolean[this.vehicles];
+        for (int i = 0; i < this.vehicles; i++) {
+            this.ids[i] = "v" + i;
+        }
+        this.random = new Random(1);
+    }
+
+    @Benchmark
+    public void round(Arrivals counter) throws MovementNotPossible {
+        for (int i = 0; i < this.vehicles; i++) {
+            if(!this.driving[i]){
+                this.startTrip(i);
+            }
+            else{
+                int nextStep = this.logic.navigate(this.ids[i], this.positions[i], this.destinations[i]);
+                if(nextStep == this.destinations[i]){
+                    this.driving[i] = false;
+                    counter.arrivals++;
+                }
+                this.positions[i] = nextStep;
+            }
+        }
+        this.area.decayCongestion(Config.CONGESTION_DECAY_KEEP);
+    }
+
+    /**
+     * Places the vehicle at a random cell of the edge of its flow (i % 4) and picks a random destination in the band at the opposite edge.
+     * The vehicle waits for the next round when the cell is taken.
+     */
+    private void startTrip(int i) throws MovementNotPossible {
+        int low = (SIZE - BAND) / 2;
+        int edge = this.random.nextInt(3);
+        int lane = low + this.random.nextInt(BAND);
+        int targetLane = low + this.random.nextInt(BAND);
+        int x, y, targetX, targetY;
+        switch (i % 4) {
+            case 0: x = edge; y = lane; targetX = SIZE - 1; targetY = targetLane; break;
+            case 1: x = SIZE - 1 - edge; y = lane; targetX = 0; targetY = targetLane; break;
+            case 2: x = lane; y = edge; targetX = targetLane; targetY = SIZE - 1; break;
+            default: x = lane; y = SIZE - 1 - edge; targetX = targetLane; targetY = 0; break;
+        }
+        if(this.area.isFree(x, y)){
+            this.positions[i] = Coordinate.pack(x, y);
+            this.destinations[i] = Coordinate.pack(targetX, targetY);
+            this.area.place(this.ids[i], this.positions[i]);
+            this.driving[i] = true;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package project.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import project.helpers.Coordinate;
+import project.message.Message;
+import project.message.MessageType;
+
+/**
+ * Benchmarks encoding and decoding of a NAVIGATION message with Java serialization, as done by MessageHandler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        Coordinate[] payload = {new Coordinate((short) 1, (short) 1), new Coordinate((short) 50, (short) 10)};
+        this.message = new Message("127.0.1.1", "127.0.0.1", payload, MessageType.NAVIGATION);
+        this.encoded = this.encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(this.message);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object decode() throws IOException, ClassNotFoundException {
+        ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(this.encoded));
+        return input.readObject();
+    }
+}
@@ -0,0 +1,123 @@
+package project.bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import project.helpers.Coordinate;
+import project.message.Message;
+import project.message.MessageHandler;
+import project.message.MessageType;
+import project.transport.Connection;
+import project.transport.InMemoryNetwork;
+import project.transport.InMemoryTransport;
+import project.transport.Listener;
+import project.transport.Transport;
+
+/**
+ * Round trip of a NAVIGATION request and its SUCCESS answer between two MessageHandlers, once per transport.
+ * Measures the wire path (serialization, transport, handler dispatch) without any navigation logic.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageHandlerRoundTripBenchmark {
+    @Param({"tcp", "nio", "memory"})
+    public String transport;
+
+    private Listener listener;
+    private EchoHandler server;
+    private EchoHandler client;
+    private Coordinate[] payload = {new Coordinate((short) 1, (short) 1), new Coordinate((short) 50, (short) 10)};
+
+    @Setup
+    public void setup() throws Exception {
+        Transport serverTransport;
+        Transport clientTransport;
+        if(this.transport.equals("memory")){
+            InMemoryNetwork network = new InMemoryNetwork(1);
+            serverTransport = new InMemoryTransport(network, "127.0.0.1");
+            clientTransport = new InMemoryTransport(network, "127.0.1.1");
+        }
+        else{
+            serverTransport = Transport.create(this.transport);
+            clientTransport = Transport.create(this.transport);
+        }
+        int port = freePort();
+        this.listener = serverTransport.listen("127.0.0.1", port);
+        Thread acceptor = new Thread(() -> {
+            try {
+                this.server = new EchoHandler(this.listener.accept());
+                this.server.start();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        acceptor.start();
+        // tcp streams need the header of the other side, so both sides are built in parallel
+        this.client = new EchoHandler(clientTransport.connect("127.0.0.1", port));
+        acceptor.join();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.client.getConnection().close();
+        this.server.getConnection().close();
+        this.listener.close();
+    }
+
+    @Benchmark
+    public Message roundTrip(){
+        return this.client.sendMessageGetResponse(new Message("127.0.1.1", "127.0.0.1", this.payload, MessageType.NAVIGATION));
+    }
+
+    /**
+     * Answers every navigation request with its destination.
+     */
+    static class EchoHandler extends MessageHandler {
+        EchoHandler(Connection connection){
+            super(connection, "127.0.0.1", 0);
+        }
+
+        public void run(){
+            while(!this.connection.isClosed()){
+                this.receiveMessagesRoutine();
+            }
+        }
+
+        @Override
+        protected void handleNavigationMessage(Message message){
+            Coordinate[] request = (Coordinate[]) message.getPayload();
+            this.sendMessage(new Message(this.ip, message.getSender(), request[1], MessageType.SUCCESS));
+        }
+
+        @Override
+        protected void handleInitializeMessage(Message message){}
+        @Override
+        protected void handleHeartbeatMessage(Message message){}
+        @Override
+        protected void handleSyncNodeListMessage(Message message){}
+    }
+}
@@ -0,0 +1,110 @@
+package project.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import project.helpers.RoadNetwork;
+
+/**
+ * Benchmarks the next step along a generated city: a grid of (blocks x blocks) intersections 5 cells apart, every 8th street is a
+ * fast arterial road (cost 0.3 per cell), the other streets cost 1 to 3 per cell and every 5th of them is one way.
+ * nextStep is asked for random road cells and destinations, nodeQuery only from intersections (one full contraction hierarchy query
+ * each, a client on a one way road needs none).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoadNetworkBenchmark {
+    private static final int SPACING = 5;
+
+    @Param({"50", "150"})
+    public int blocks;
+
+    private RoadNetwork roads;
+    private int[] positions;
+    private int[] destinations;
+    private int[] nodes;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        int size = (this.blocks - 1) * SPACING + 1;
+        this.roads = RoadNetwork.read(new StringReader(city(this.blocks, new Random(42))), size, size);
+        Random random = new Random(7);
+        this.positions = new int[1024];
+        this.destinations = new int[1024];
+        this.nodes = new int[1024];
+        for (int i = 0; i < this.positions.length; i++) {
+            this.positions[i] = this.roads.getCell(random.nextInt(this.roads.getCellCount()));
+            this.destinations[i] = this.roads.getCell(random.nextInt(this.roads.getCellCount()));
+            this.nodes[i] = this.roads.getNodePosition(random.nextInt(this.roads.getNodeCount()));
+        }
+    }
+
+    static String city(int blocks, Random random){
+        StringBuilder city = new StringBuilder();
+        for (int x = 0; x < blocks; x++) {
+            for (int y = 0; y < blocks; y++) {
+                city.append("node n").append(x).append('_').append(y).append(' ').append(x * SPACING).append(':').append(y * SPACING).append('\n');
+            }
+        }
+        for (int x = 0; x < blocks; x++) {
+            for (int y = 0; y < blocks; y++) {
+                if(x + 1 < blocks){
+                    street(city, "n" + x + "_" + y, "n" + (x + 1) + "_" + y, y % 8 == 0, random);
+                }
+                if(y + 1 < blocks){
+                    street(city, "n" + x + "_" + y, "n" + x + "_" + (y + 1), x % 8 == 0, random);
+                }
+            }
+        }
+        return city.toString();
+    }
+
+    private static void street(StringBuilder city, String from, String to, boolean arterial, Random random){
+        if(arterial){
+            city.append("road ").append(from).append(' ').append(to).append(' ').append(SPACING * 0.3f).append('\n');
+        }
+        else if(random.nextInt(5) == 0){
+            boolean reverse = random.nextBoolean();
+            city.append("oneway ").append(reverse ? to : from).append(' ').append(reverse ? from : to).append(' ').append(SPACING * (1 + random.nextInt(3))).append('\n');
+        }
+        else{
+            city.append("road ").append(from).append(' ').append(to).append(' ').append(SPACING * (1 + random.nextInt(3))).append('\n');
+        }
+    }
+
+    private int nextIndex(){
+        this.next = (this.next + 1) % this.positions.length;
+        return this.next;
+    }
+
+    @Benchmark
+    public int nextStep(){
+        int i = this.nextIndex();
+        return this.roads.nextStep(this.positions[i], this.destinations[i]);
+    }
+
+    @Benchmark
+    public int nodeQuery(){
+        int i = this.nextIndex();
+        return this.roads.nextStep(this.nodes[i], this.destinations[i]);
+    }
+}
@@ -0,0 +1,101 @@
+package project.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import project.helpers.Coordinate;
+import project.helpers.MovementNotPossible;
+import project.helpers.TrafficArea;
+
+/**
+ * Benchmarks the primitive operations of TrafficArea on square maps of different sizes, vehicle densities and storages.
+ * The queries use a 20 x 20 box and the 5 nearest vehicles around the probes, their cost should follow the result and not the map size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrafficAreaBenchmark {
+    @Param({"100", "1000"})
+    public short size;
+
+    @Param({"0.01", "0.1", "0.5"})
+    public double density;
+
+    @Param({"dense", "tiled"})
+    public String storage;
+
+    private TrafficArea area;
+    private String[] ids;
+    private Coordinate[] probes;
+    private Coordinate freeCell;
+    private final String probeId = "probe";
+    private int next = 0;
+
+    @Setup
+    public void setup() throws MovementNotPossible {
+        BenchmarkMaps map = BenchmarkMaps.fill(this.storage, this.size, this.density, 42);
+        this.area = map.area;
+        this.ids = map.ids;
+        Random random = new Random(7);
+        this.probes = new Coordinate[1024];
+        for (int i = 0; i < this.probes.length; i++) {
+            this.probes[i] = new Coordinate((short) random.nextInt(this.size), (short) random.nextInt(this.size));
+        }
+        this.freeCell = map.findFreeCell();
+    }
+
+    private int nextIndex(int bound){
+        this.next = (this.next + 1) % bound;
+        return this.next;
+    }
+
+    @Benchmark
+    public Coordinate getPosition(){
+        return this.area.getPosition(this.ids[this.nextIndex(this.ids.length)]);
+    }
+
+    @Benchmark
+    public boolean isFree(){
+        return this.area.isFree(this.probes[this.nextIndex(this.probes.length)]);
+    }
+
+    @Benchmark
+    public void placeRemove() throws MovementNotPossible {
+        this.area.place(this.probeId, this.freeCell);
+        this.area.remove(this.probeId, this.freeCell);
+    }
+
+    @Benchmark
+    public LinkedHashMap<String, Coordinate> rangeQuery(){
+        Coordinate probe = this.probes[this.nextIndex(this.probes.length)];
+        return this.area.getInRange(probe.getX(), probe.getY(), probe.getX() + 19, probe.getY() + 19);
+    }
+
+    @Benchmark
+    public int countInRange(){
+        Coordinate probe = this.probes[this.nextIndex(this.probes.length)];
+        return this.area.countInRange(probe.getX(), probe.getY(), probe.getX() + 19, probe.getY() + 19);
+    }
+
+    @Benchmark
+    public LinkedHashMap<String, Coordinate> nearest(){
+        Coordinate probe = this.probes[this.nextIndex(this.probes.length)];
+        return this.area.getNearest(probe.getX(), probe.getY(), 5);
+    }
+}
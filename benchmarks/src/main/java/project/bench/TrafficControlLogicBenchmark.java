@@ -0,0 +1,98 @@
+package project.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import project.helpers.Coordinate;
+import project.helpers.MovementNotPossible;
+import project.helpers.TrafficArea;
+import project.helpers.TrafficControlLogic;
+
+/**
+ * Benchmarks TrafficControlLogic.move and start on square maps of different sizes and vehicle densities.
+ * move steps the vehicles round robin towards random targets, start spawns a vehicle in column 0 and removes it again.
+ * movePacked and navigate are the allocation free variants used by the leader, run with „-prof gc“ to see bytes per operation
+ * (AllocationCheck does this and fails when they allocate).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrafficControlLogicBenchmark {
+    @Param({"100", "1000"})
+    public short size;
+
+    @Param({"0.01", "0.1", "0.5"})
+    public double density;
+
+    @Param({"dense", "tiled"})
+    public String storage;
+
+    private TrafficArea area;
+    private TrafficControlLogic logic;
+    private String[] ids;
+    private Coordinate[] targets;
+    private int[] packedTargets;
+    private final String spawnId = "spawn";
+    private int next = 0;
+
+    @Setup
+    public void setup() throws MovementNotPossible {
+        BenchmarkMaps map = BenchmarkMaps.fill(this.storage, this.size, this.density, 42);
+        this.area = map.area;
+        this.ids = map.ids;
+        this.targets = map.targets;
+        this.packedTargets = new int[this.targets.length];
+        for (int i = 0; i < this.targets.length; i++) {
+            this.packedTargets[i] = this.targets[i].getPacked();
+        }
+        this.logic = new TrafficControlLogic(this.area);
+    }
+
+    @Benchmark
+    public Coordinate move() throws MovementNotPossible {
+        this.next = (this.next + 1) % this.ids.length;
+        return this.logic.move(this.ids[this.next], this.targets[this.next]);
+    }
+
+    @Benchmark
+    public int movePacked() throws MovementNotPossible {
+        this.next = (this.next + 1) % this.ids.length;
+        return this.logic.move(this.ids[this.next], this.packedTargets[this.next]);
+    }
+
+    /**
+     * Like a navigation request of a vehicle that is already on the map. Vehicles reaching their target are put back to where they were.
+     */
+    @Benchmark
+    public int navigate() throws MovementNotPossible {
+        this.next = (this.next + 1) % this.ids.length;
+        String id = this.ids[this.next];
+        int position = this.area.getPackedPosition(id);
+        int nextStep = this.logic.navigate(id, position, this.packedTargets[this.next]);
+        if(this.area.getPackedPosition(id) == Coordinate.NONE){
+            this.area.place(id, position);
+        }
+        return nextStep;
+    }
+
+    @Benchmark
+    public Coordinate start() throws MovementNotPossible {
+        Coordinate position = this.logic.start(this.spawnId);
+        this.area.remove(this.spawnId, position);
+        return position;
+    }
+}